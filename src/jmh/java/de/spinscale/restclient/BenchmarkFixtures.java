@@ -0,0 +1,168 @@
+package de.spinscale.restclient;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.json.jackson.JacksonJsonpMapper;
+import co.elastic.clients.transport.rest_client.RestClientTransport;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.PropertyNamingStrategies;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.http.HttpHost;
+import org.elasticsearch.client.RestClient;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+
+/**
+ * Canned data shared by the benchmarks, nothing in here needs a running cluster
+ */
+final class BenchmarkFixtures {
+
+    private BenchmarkFixtures() {
+    }
+
+    /**
+     * Configured like the mapper of the client used in the tests
+     */
+    static ObjectMapper objectMapper() {
+        final ObjectMapper mapper = new ObjectMapper();
+        mapper.setPropertyNamingStrategy(PropertyNamingStrategies.SNAKE_CASE);
+        mapper.setSerializationInclusion(JsonInclude.Include.NON_NULL);
+        return mapper;
+    }
+
+    static List<Product> products(int count) {
+        final List<Product> products = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final Product product = new Product();
+            product.setId(String.valueOf(i));
+            product.setName("Name of " + i + " product");
+            product.setDescription(("Description of " + i + " product. ").repeat(10));
+            product.setPrice(i * 1.2);
+            product.setStockAvailable(i * 10);
+            products.add(product);
+        }
+        return products;
+    }
+
+    /**
+     * Search response as elasticsearch returns it, with one hit per product
+     *
+     * @param includes source fields returned, all if empty
+     */
+    static byte[] searchResponse(ObjectMapper mapper, List<Product> products, String... includes) throws IOException {
+        final ObjectNode response = mapper.createObjectNode();
+        response.put("took", 1);
+        response.put("timed_out", false);
+        response.putObject("_shards").put("total", 1).put("successful", 1).put("skipped", 0).put("failed", 0);
+        final ObjectNode hits = response.putObject("hits");
+        hits.putObject("total").put("value", products.size()).put("relation", "eq");
+        hits.put("max_score", 1.0);
+        final ArrayNode hitArray = hits.putArray("hits");
+        for (Product product : products) {
+            final ObjectNode source = mapper.valueToTree(product);
+            if (includes.length > 0) {
+                source.retain(includes);
+            }
+            hitArray.addObject()
+                    .put("_index", "products")
+                    .put("_id", product.getId())
+                    .put("_score", 1.0)
+                    .set("_source", source);
+        }
+        return mapper.writeValueAsBytes(response);
+    }
+
+    /**
+     * Bulk response with a successful item for every action in the request body
+     */
+    static byte[] bulkResponse(ObjectMapper mapper, byte[] requestBody) throws IOException {
+        int lines = 0;
+        for (byte b : requestBody) {
+            if (b == '\n') {
+                lines++;
+            }
+        }
+        final ObjectNode response = mapper.createObjectNode();
+        response.put("took", 1);
+        response.put("errors", false);
+        final ArrayNode items = response.putArray("items");
+        for (int i = 0; i < lines / 2; i++) {
+            items.addObject().putObject("index")
+                    .put("_index", "products")
+                    .put("_id", String.valueOf(i))
+                    .put("_version", 1)
+                    .put("result", "created")
+                    .put("status", 201);
+        }
+        return mapper.writeValueAsBytes(response);
+    }
+
+    /**
+     * HTTP server on localhost answering searches and bulk requests with canned responses,
+     * so the whole client stack is exercised without a cluster
+     */
+    static final class StubElasticsearch implements Closeable {
+
+        private final HttpServer server;
+        private final RestClient restClient;
+        private final ElasticsearchClient client;
+
+        StubElasticsearch(byte[] searchResponse) throws IOException {
+            final ObjectMapper mapper = objectMapper();
+            // otherwise small responses wait for delayed acks, adding 40ms to every request
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+            server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+            server.setExecutor(Executors.newFixedThreadPool(4));
+            server.createContext("/", exchange -> {
+                final byte[] requestBody;
+                try (InputStream in = exchange.getRequestBody()) {
+                    requestBody = in.readAllBytes();
+                }
+                final String path = exchange.getRequestURI().getPath();
+                if (path.endsWith("/_bulk")) {
+                    respond(exchange, bulkResponse(mapper, requestBody));
+                } else if (path.endsWith("/_search")) {
+                    respond(exchange, searchResponse);
+                } else {
+                    exchange.sendResponseHeaders(404, -1);
+                    exchange.close();
+                }
+            });
+            server.start();
+
+            restClient = RestClient.builder(new HttpHost("localhost", server.getAddress().getPort(), "http")).build();
+            client = new ElasticsearchClient(new RestClientTransport(restClient, new JacksonJsonpMapper(mapper)));
+        }
+
+        private static void respond(HttpExchange exchange, byte[] body) throws IOException {
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            // checked by the client, it refuses to talk to anything else
+            exchange.getResponseHeaders().add("X-Elastic-Product", "Elasticsearch");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+
+        ElasticsearchClient client() {
+            return client;
+        }
+
+        @Override
+        public void close() throws IOException {
+            restClient.close();
+            server.stop(0);
+        }
+    }
+}
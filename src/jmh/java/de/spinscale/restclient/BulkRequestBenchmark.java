@@ -0,0 +1,151 @@
+package de.spinscale.restclient;
+
+import co.elastic.clients.elasticsearch.core.BulkRequest;
+import co.elastic.clients.json.JsonpMapper;
+import co.elastic.clients.json.NdJsonpSerializable;
+import co.elastic.clients.json.jackson.JacksonJsonpMapper;
+import jakarta.json.stream.JsonGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Building and serializing the bulk request bodies of {@link ProductService#save(List)}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+// curl style tracing of every request would dominate the measurement
+@Fork(value = 1, jvmArgsAppend = {"-Dorg.slf4j.simpleLogger.logFile=System.err", "-Dorg.slf4j.simpleLogger.log.tracer=warn"})
+public class BulkRequestBenchmark {
+
+    @Param({"1", "100", "10000"})
+    public int products;
+
+    private List<Product> batch;
+    private JsonpMapper mapper;
+    private NdjsonBulkBody.Pool pool;
+    private HttpCompression compression;
+    private BenchmarkFixtures.StubElasticsearch stub;
+    private ProductService productService;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        batch = BenchmarkFixtures.products(products);
+        mapper = new JacksonJsonpMapper(BenchmarkFixtures.objectMapper());
+        pool = new NdjsonBulkBody.Pool(mapper);
+        compression = HttpCompression.builder().threshold(0).build();
+        stub = new BenchmarkFixtures.StubElasticsearch(new byte[0]);
+        productService = new ProductServiceImpl("products", stub.client());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        stub.close();
+    }
+
+    /**
+     * Client side bulk request, serialized line by line the way the transport does it
+     */
+    @Benchmark
+    public byte[] bulkRequest() {
+        final BulkRequest request = ProductServiceImpl.createBulkRequest("products", batch);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeLines(request, out);
+        return out.toByteArray();
+    }
+
+    private void writeLines(NdJsonpSerializable container, ByteArrayOutputStream out) {
+        final Iterator<?> values = container._serializables();
+        while (values.hasNext()) {
+            final Object value = values.next();
+            if (value instanceof NdJsonpSerializable nested && value != container) {
+                writeLines(nested, out);
+            } else {
+                try (JsonGenerator generator = mapper.jsonProvider().createGenerator(out)) {
+                    mapper.serialize(value, generator);
+                }
+                out.write('\n');
+            }
+        }
+    }
+
+    /**
+     * Streaming NDJSON into a pooled buffer, what the bulk ingester sends
+     */
+    @Benchmark
+    public long ndjsonBody() throws IOException {
+        final NdjsonBulkBody body = pool.acquire();
+        try {
+            for (Product product : batch) {
+                body.index(product);
+            }
+            return body.toEntity().getContentLength();
+        } finally {
+            body.release();
+        }
+    }
+
+    /**
+     * Gzipped with a pooled deflater into a pooled buffer
+     */
+    @Benchmark
+    public long gzippedNdjsonBody() throws IOException {
+        final NdjsonBulkBody body = pool.acquire();
+        try {
+            for (Product product : batch) {
+                body.index(product);
+            }
+            return body.toEntity(compression).getContentLength();
+        } finally {
+            body.release();
+        }
+    }
+
+    /**
+     * Gzipped with a new stream per request, like the compression of the rest client
+     */
+    @Benchmark
+    public long gzipOutputStream() throws IOException {
+        final NdjsonBulkBody body = pool.acquire();
+        try {
+            for (Product product : batch) {
+                body.index(product);
+            }
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+                body.toEntity().writeTo(gzip);
+            }
+            return out.size();
+        } finally {
+            body.release();
+        }
+    }
+
+    /**
+     * The whole save, against an in-process HTTP stub acknowledging every product
+     */
+    @Benchmark
+    public void saveOverHttp() throws IOException {
+        productService.save(batch);
+    }
+}
@@ -0,0 +1,82 @@
+package de.spinscale.restclient;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single product through the snake_case object mapper, and through the hand written {@link ProductJson}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProductJsonBenchmark {
+
+    private Product product;
+    private byte[] json;
+    private ObjectWriter writer;
+    private ObjectReader reader;
+    private JsonFactory factory;
+
+    @Setup
+    public void setup() throws IOException {
+        final ObjectMapper mapper = BenchmarkFixtures.objectMapper();
+        writer = mapper.writerFor(Product.class);
+        reader = mapper.readerFor(Product.class);
+        product = BenchmarkFixtures.products(2).get(1);
+        json = writer.writeValueAsBytes(product);
+        factory = mapper.getFactory();
+    }
+
+    @Benchmark
+    public byte[] serialize() throws IOException {
+        return writer.writeValueAsBytes(product);
+    }
+
+    @Benchmark
+    public Product deserialize() throws IOException {
+        return reader.readValue(json);
+    }
+
+    @Benchmark
+    public Product roundTrip() throws IOException {
+        return reader.readValue(writer.writeValueAsBytes(product));
+    }
+
+    @Benchmark
+    public byte[] serializeHandWritten() throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+        try (JsonGenerator generator = factory.createGenerator(out)) {
+            ProductJson.write(product, generator);
+        }
+        return out.toByteArray();
+    }
+
+    @Benchmark
+    public Product deserializeHandWritten() throws IOException {
+        try (JsonParser parser = factory.createParser(json)) {
+            parser.nextToken();
+            return ProductJson.read(parser);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package de.spinscale.restclient;
+
+import co.elastic.clients.elasticsearch.core.SearchResponse;
+import co.elastic.clients.json.JsonpDeserializer;
+import co.elastic.clients.json.JsonpMapper;
+import co.elastic.clients.json.jackson.JacksonJsonpMapper;
+import co.elastic.clients.json.jackson.JacksonJsonpParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.json.stream.JsonParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.EnumSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Turning a search response into a {@link Page}, once from canned bytes and once through
+ * the whole client stack against an in-process HTTP stub
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+// curl style tracing of every request would dominate the measurement
+@Fork(value = 1, jvmArgsAppend = {"-Dorg.slf4j.simpleLogger.logFile=System.err", "-Dorg.slf4j.simpleLogger.log.tracer=warn"})
+public class SearchResponseBenchmark {
+
+    @Param({"10", "100"})
+    public int hits;
+
+    private byte[] response;
+    private byte[] summaryResponse;
+    private JsonpMapper mapper;
+    private JsonpDeserializer<SearchResponse<Product>> fullDeserializer;
+    private JsonpDeserializer<SearchResponse<Product>> directDeserializer;
+    private JsonpDeserializer<SearchResponse<Product>> dataBindingDeserializer;
+    private JsonpDeserializer<SearchResponse<ProductSummary>> summaryDeserializer;
+    private BenchmarkFixtures.StubElasticsearch stub;
+    private ProductService productService;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        final ObjectMapper objectMapper = BenchmarkFixtures.objectMapper();
+        response = BenchmarkFixtures.searchResponse(objectMapper, BenchmarkFixtures.products(hits));
+        summaryResponse = BenchmarkFixtures.searchResponse(objectMapper, BenchmarkFixtures.products(hits), "id", "name", "price");
+        mapper = new JacksonJsonpMapper(objectMapper);
+        fullDeserializer = SearchResponse.createSearchResponseDeserializer(JsonpDeserializer.of(Product.class));
+        directDeserializer = SearchResponse.createSearchResponseDeserializer(Product._DESERIALIZER);
+        // reflection based binding, as used before products had their own deserializer
+        dataBindingDeserializer = SearchResponse.createSearchResponseDeserializer(JsonpDeserializer.of(EnumSet.of(JsonParser.Event.START_OBJECT),
+                (parser, jsonpMapper, event) -> {
+                    try {
+                        return objectMapper.readValue(((JacksonJsonpParser) parser).jacksonParser(), Product.class);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }));
+        summaryDeserializer = SearchResponse.createSearchResponseDeserializer(JsonpDeserializer.of(ProductSummary.class));
+        stub = new BenchmarkFixtures.StubElasticsearch(response);
+        productService = new ProductServiceImpl("products", stub.client());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        stub.close();
+    }
+
+    /**
+     * Through the mapper, the way the client does it when given {@code Product.class}
+     */
+    @Benchmark
+    public Page<Product> deserialize() {
+        return deserialize(fullDeserializer);
+    }
+
+    @Benchmark
+    public Page<Product> deserializeDirect() {
+        return deserialize(directDeserializer);
+    }
+
+    @Benchmark
+    public Page<Product> deserializeDataBinding() {
+        return deserialize(dataBindingDeserializer);
+    }
+
+    private Page<Product> deserialize(JsonpDeserializer<SearchResponse<Product>> deserializer) {
+        try (JsonParser parser = mapper.jsonProvider().createParser(new ByteArrayInputStream(response))) {
+            return ProductServiceImpl.toPage(deserializer.deserialize(parser, mapper), "name", 0, hits);
+        }
+    }
+
+    /**
+     * Hits read into the columns of a {@link ColumnarPage}, the way {@link ProductService#searchColumnar} does
+     */
+    @Benchmark
+    public ColumnarPage deserializeColumnar() {
+        final ColumnarPage.Columns columns = new ColumnarPage.Columns(hits);
+        try (JsonParser parser = mapper.jsonProvider().createParser(new ByteArrayInputStream(response))) {
+            final SearchResponse<Integer> searchResponse = SearchResponse.createSearchResponseDeserializer(columns).deserialize(parser, mapper);
+            return ProductServiceImpl.toColumnarPage(searchResponse, columns, "name", 0, hits);
+        }
+    }
+
+    /**
+     * Response to a search with {@link Projection#SUMMARY}
+     */
+    @Benchmark
+    public Page<ProductSummary> deserializeSummary() {
+        try (JsonParser parser = mapper.jsonProvider().createParser(new ByteArrayInputStream(summaryResponse))) {
+            return ProductServiceImpl.toPage(summaryDeserializer.deserialize(parser, mapper), "name", 0, hits, Projection.SUMMARY);
+        }
+    }
+
+    @Benchmark
+    public Page<Product> searchOverHttp() throws IOException {
+        return productService.search("name");
+    }
+}
@@ -0,0 +1,295 @@
+package de.spinscale.restclient;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Sends a {@link Workload} to any {@link ProductService} at a fixed rate, an open loop like the users of a shop:
+ * the next operation is due at its time, no matter if the previous ones have been answered.
+ *
+ * A closed loop, sending the next call once the previous one returned, sends less while the service is slow, and
+ * the calls that would have waited are never measured (coordinated omission). Here every operation has a due time,
+ * waits for a free worker when all {@code maxConcurrency} are busy, and its latency is measured from its due time.
+ * A stall of a second shows up in the latency of every operation due during that second, not just in a single one.
+ *
+ * <pre>{@code
+ * SyntheticCatalog catalog = new SyntheticCatalog(10_000, 42);
+ * productService.save(catalog.products());
+ * LoadReport report = LoadGenerator.builder(productService, catalog, workload).build().run();
+ * report.print(System.out);
+ * }</pre>
+ */
+public final class LoadGenerator {
+
+    // pages kept to continue with next, older ones are closed so points in time do not pile up
+    private static final int MAX_OPEN_PAGES = 256;
+
+    private final ProductService service;
+    private final SyntheticCatalog catalog;
+    private final Workload workload;
+    private final Duration reportInterval;
+    private final Duration drainTimeout;
+    private final Random random;
+
+    private final Map<Workload.Operation, OperationRecorder> recorders = new EnumMap<>(Workload.Operation.class);
+    private final Recorder intervalLatency = new Recorder(3);
+    private final LongAdder intervalCalls = new LongAdder();
+    private final LongAdder intervalFailures = new LongAdder();
+    private final AtomicLong finished = new AtomicLong();
+    private final ConcurrentLinkedDeque<Page<Product>> openPages = new ConcurrentLinkedDeque<>();
+
+    // only touched while collecting, under the lock of this generator
+    private final Map<Workload.Operation, Histogram[]> totals = new EnumMap<>(Workload.Operation.class);
+    private final List<LoadReport.Interval> intervals = new ArrayList<>();
+    private long measureStart;
+    private long lastCollect;
+
+    private LoadGenerator(Builder builder) {
+        this.service = builder.service;
+        this.catalog = builder.catalog;
+        this.workload = builder.workload;
+        this.reportInterval = builder.reportInterval;
+        this.drainTimeout = builder.drainTimeout;
+        this.random = builder.seed == null ? new Random() : new Random(builder.seed);
+        for (Workload.Operation operation : Workload.Operation.values()) {
+            recorders.put(operation, new OperationRecorder());
+        }
+    }
+
+    public static Builder builder(ProductService service, SyntheticCatalog catalog, Workload workload) {
+        return new Builder(service, catalog, workload);
+    }
+
+    /**
+     * Sends the workload, blocks until it is done and all operations still running have been answered
+     */
+    public LoadReport run() throws InterruptedException {
+        final ExecutorService workers = Executors.newFixedThreadPool(workload.maxConcurrency(), r -> {
+            Thread thread = new Thread(r, "load-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        final ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "load-reporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        final long start = System.nanoTime();
+        measureStart = start + workload.warmup().toNanos();
+        lastCollect = measureStart;
+        final long end = measureStart + workload.duration().toNanos();
+        final long intervalNanos = reportInterval.toNanos();
+        reporter.scheduleAtFixedRate(this::collect, measureStart - start + intervalNanos, intervalNanos, TimeUnit.NANOSECONDS);
+
+        long submitted = 0;
+        try {
+            while (true) {
+                // computed from the start instead of added up, so rounding does not drift the rate
+                final long due = start + (long) (submitted * 1e9 / workload.rate());
+                if (due >= end) {
+                    break;
+                }
+                long wait;
+                while ((wait = due - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                // if the workers are behind, operations are queued at their due time, the wait counts as latency
+                final Workload.Operation operation = workload.next(random);
+                workers.execute(() -> execute(operation, due));
+                submitted++;
+            }
+            workers.shutdown();
+            workers.awaitTermination(drainTimeout.toNanos(), TimeUnit.NANOSECONDS);
+        } finally {
+            workers.shutdownNow();
+            reporter.shutdownNow();
+        }
+        reporter.awaitTermination(drainTimeout.toNanos(), TimeUnit.NANOSECONDS);
+        collect();
+        closeOpenPages();
+        return report(submitted - finished.get());
+    }
+
+    private void execute(Workload.Operation operation, long due) {
+        final long serviceStart = System.nanoTime();
+        Workload.Operation executed = operation;
+        boolean failed = false;
+        try {
+            executed = perform(operation, ThreadLocalRandom.current());
+        } catch (IOException | RuntimeException e) {
+            failed = true;
+        }
+        final long now = System.nanoTime();
+        finished.incrementAndGet();
+        if (due < measureStart) {
+            return;
+        }
+        final long latencyMicros = TimeUnit.NANOSECONDS.toMicros(now - due);
+        recorders.get(executed).record(latencyMicros, TimeUnit.NANOSECONDS.toMicros(now - serviceStart), failed);
+        intervalLatency.recordValue(latencyMicros);
+        intervalCalls.increment();
+        if (failed) {
+            intervalFailures.increment();
+        }
+    }
+
+    /**
+     * @return the operation executed, a search instead of next if there is no page to continue
+     */
+    private Workload.Operation perform(Workload.Operation operation, Random random) throws IOException {
+        switch (operation) {
+            case FIND_BY_ID -> service.findById(String.valueOf(catalog.productId(random)));
+            case SAVE -> service.save(catalog.changedProduct(random));
+            case NEXT -> {
+                final Page<Product> page = openPages.pollFirst();
+                if (page == null) {
+                    return perform(Workload.Operation.SEARCH, random);
+                }
+                keepIfFull(service.next(page));
+            }
+            case SEARCH -> keepIfFull(service.search(catalog.query(random)));
+        }
+        return operation;
+    }
+
+    private void keepIfFull(Page<Product> page) throws IOException {
+        if (page.get().size() < page.getSize() || page.get().isEmpty()) {
+            // no next page, the point in time is not needed anymore
+            service.close(page);
+            return;
+        }
+        openPages.addLast(page);
+        while (openPages.size() > MAX_OPEN_PAGES) {
+            final Page<Product> oldest = openPages.pollFirst();
+            if (oldest != null) {
+                service.close(oldest);
+            }
+        }
+    }
+
+    private void closeOpenPages() {
+        Page<Product> page;
+        while ((page = openPages.pollFirst()) != null) {
+            try {
+                service.close(page);
+            } catch (IOException | RuntimeException e) {
+                // expires on its own
+            }
+        }
+    }
+
+    private synchronized void collect() {
+        final long now = System.nanoTime();
+        if (now <= lastCollect) {
+            return;
+        }
+        final long calls = intervalCalls.sumThenReset();
+        final long failures = intervalFailures.sumThenReset();
+        final Histogram latency = intervalLatency.getIntervalHistogram();
+        intervals.add(new LoadReport.Interval(Duration.ofNanos(now - measureStart), Duration.ofNanos(now - lastCollect),
+                calls, failures, latency));
+        lastCollect = now;
+
+        for (Map.Entry<Workload.Operation, OperationRecorder> entry : recorders.entrySet()) {
+            final Histogram[] total = totals.computeIfAbsent(entry.getKey(), k -> new Histogram[] { new Histogram(3), new Histogram(3) });
+            total[0].add(entry.getValue().latencyMicros.getIntervalHistogram());
+            total[1].add(entry.getValue().serviceTimeMicros.getIntervalHistogram());
+        }
+    }
+
+    private synchronized LoadReport report(long unfinished) {
+        final Map<Workload.Operation, LoadReport.OperationResult> operations = new EnumMap<>(Workload.Operation.class);
+        for (Map.Entry<Workload.Operation, OperationRecorder> entry : recorders.entrySet()) {
+            final OperationRecorder recorder = entry.getValue();
+            final long calls = recorder.calls.sum();
+            if (calls > 0) {
+                final Histogram[] total = totals.get(entry.getKey());
+                operations.put(entry.getKey(), new LoadReport.OperationResult(calls, recorder.failures.sum(), total[0], total[1]));
+            }
+        }
+        return new LoadReport(workload, Duration.ofNanos(lastCollect - measureStart), operations, List.copyOf(intervals), unfinished);
+    }
+
+    private static final class OperationRecorder {
+        private final Recorder latencyMicros = new Recorder(3);
+        private final Recorder serviceTimeMicros = new Recorder(3);
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+
+        private void record(long latencyMicros, long serviceTimeMicros, boolean failed) {
+            this.latencyMicros.recordValue(latencyMicros);
+            this.serviceTimeMicros.recordValue(serviceTimeMicros);
+            calls.increment();
+            if (failed) {
+                failures.increment();
+            }
+        }
+    }
+
+    public static class Builder {
+        private final ProductService service;
+        private final SyntheticCatalog catalog;
+        private final Workload workload;
+        private Duration reportInterval = Duration.ofSeconds(1);
+        private Duration drainTimeout = Duration.ofSeconds(30);
+        private Long seed;
+
+        private Builder(ProductService service, SyntheticCatalog catalog, Workload workload) {
+            this.service = service;
+            this.catalog = catalog;
+            this.workload = workload;
+        }
+
+        /**
+         * Length of the intervals throughput and latency are reported for over time, defaults to 1s
+         */
+        public Builder reportInterval(Duration reportInterval) {
+            this.reportInterval = reportInterval;
+            return this;
+        }
+
+        /**
+         * How long operations still running at the end of the run are waited for, defaults to 30s
+         */
+        public Builder drainTimeout(Duration drainTimeout) {
+            this.drainTimeout = drainTimeout;
+            return this;
+        }
+
+        /**
+         * Makes the sequence of operations repeatable, their arguments are random nonetheless
+         */
+        public Builder seed(long seed) {
+            this.seed = seed;
+            return this;
+        }
+
+        public LoadGenerator build() {
+            if (reportInterval.toMillis() < 1 || drainTimeout.isNegative()) {
+                throw new IllegalArgumentException("reportInterval must be positive");
+            }
+            return new LoadGenerator(this);
+        }
+    }
+}
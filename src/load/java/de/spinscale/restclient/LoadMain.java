@@ -0,0 +1,100 @@
+package de.spinscale.restclient;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.json.jackson.JacksonJsonpMapper;
+import co.elastic.clients.transport.rest_client.RestClientTransport;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.PropertyNamingStrategies;
+import org.apache.http.HttpHost;
+import org.elasticsearch.client.RestClient;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Loads a synthetic catalog and sends a workload to it, against {@link LocalElasticsearch} by default or against
+ * a cluster with {@code --host}. Run it via {@code ./gradlew load -PloadArgs="--rate 500 --duration 120"}, options:
+ *
+ * <ul>
+ *     <li>{@code --rate} operations per second, defaults to 200</li>
+ *     <li>{@code --duration} and {@code --warmup} in seconds, default to 60 and 10</li>
+ *     <li>{@code --concurrency} calls running at the same time at most, defaults to 64</li>
+ *     <li>{@code --mix} weights of the operations, defaults to {@code findById:60,search:25,next:10,save:5}</li>
+ *     <li>{@code --products} size of the catalog, defaults to 10000</li>
+ *     <li>{@code --host} e.g. {@code http://localhost:9200}, a cluster without security, the catalog is saved to
+ *     {@code --index}, defaults to {@code load-products}</li>
+ *     <li>{@code --latency} and {@code --jitter} in milliseconds, added to every response of the local stand-in</li>
+ * </ul>
+ */
+public final class LoadMain {
+
+    private LoadMain() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        final Map<String, String> options = parse(args);
+        final Workload.Builder workload = Workload.builder()
+                .rate(Double.parseDouble(options.getOrDefault("rate", "200")))
+                .duration(Duration.ofSeconds(Long.parseLong(options.getOrDefault("duration", "60"))))
+                .warmup(Duration.ofSeconds(Long.parseLong(options.getOrDefault("warmup", "10"))))
+                .maxConcurrency(Integer.parseInt(options.getOrDefault("concurrency", "64")));
+        if (options.containsKey("mix")) {
+            for (String weight : options.get("mix").split(",")) {
+                final String[] parts = weight.split(":");
+                workload.mix(operation(parts[0]), Integer.parseInt(parts[1]));
+            }
+        }
+        final SyntheticCatalog catalog = new SyntheticCatalog(Integer.parseInt(options.getOrDefault("products", "10000")), 42);
+        final String index = options.getOrDefault("index", "load-products");
+
+        if (options.containsKey("host")) {
+            final ObjectMapper mapper = new ObjectMapper();
+            mapper.setPropertyNamingStrategy(PropertyNamingStrategies.SNAKE_CASE);
+            mapper.setSerializationInclusion(JsonInclude.Include.NON_NULL);
+            try (RestClient restClient = RestClient.builder(HttpHost.create(options.get("host"))).build()) {
+                run(new ElasticsearchClient(new RestClientTransport(restClient, new JacksonJsonpMapper(mapper))), index, catalog, workload.build());
+            }
+        } else {
+            final Duration latency = Duration.ofMillis(Long.parseLong(options.getOrDefault("latency", "0")));
+            final Duration jitter = Duration.ofMillis(Long.parseLong(options.getOrDefault("jitter", "0")));
+            try (LocalElasticsearch elasticsearch = LocalElasticsearch.builder().latency(latency, jitter).start()) {
+                run(elasticsearch.client(), index, catalog, workload.build());
+            }
+        }
+    }
+
+    private static void run(ElasticsearchClient client, String index, SyntheticCatalog catalog, Workload workload) throws Exception {
+        final ProductService service = new ProductServiceImpl(index, client);
+        System.out.printf("saving %d products to %s%n", catalog.size(), index);
+        for (int from = 0; from < catalog.size(); from += 1000) {
+            service.save(catalog.products(from, Math.min(from + 1000, catalog.size())));
+        }
+        client.indices().refresh(b -> b.index(index));
+
+        final LoadReport report = LoadGenerator.builder(service, catalog, workload).build().run();
+        report.print(System.out);
+    }
+
+    private static Workload.Operation operation(String label) {
+        for (Workload.Operation operation : Workload.Operation.values()) {
+            if (operation.label().equalsIgnoreCase(label)) {
+                return operation;
+            }
+        }
+        throw new IllegalArgumentException("unknown operation [" + label + "], expected findById, search, next or save");
+    }
+
+    private static Map<String, String> parse(String[] args) {
+        final Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i += 2) {
+            if (!args[i].startsWith("--") || i + 1 >= args.length) {
+                throw new IllegalArgumentException("expected --option value pairs, got [" + args[i] + "]");
+            }
+            options.put(args[i].substring(2).toLowerCase(Locale.ROOT), args[i + 1]);
+        }
+        return options;
+    }
+}
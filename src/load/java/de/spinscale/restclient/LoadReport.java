@@ -0,0 +1,80 @@
+package de.spinscale.restclient;
+
+import org.HdrHistogram.Histogram;
+
+import java.io.PrintStream;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Result of a {@link LoadGenerator} run. Latencies are measured from when an operation was due, not from when it
+ * was sent, so time spent waiting behind slow calls is part of them. The service time, from sending to the answer,
+ * is what a closed loop benchmark would report instead, the difference between both is queueing.
+ *
+ * @param operations per operation actually executed, a {@code next} without a page to continue is a search
+ * @param intervals throughput and latency of all operations over time, one entry per report interval
+ * @param unfinished operations still running when the run was stopped, or never started as the pool was shut down
+ */
+public record LoadReport(Workload workload, Duration elapsed, Map<Workload.Operation, OperationResult> operations,
+                         List<Interval> intervals, long unfinished) {
+
+    /**
+     * @param latencyMicros from when the operation was due to its answer, corrected for coordinated omission
+     * @param serviceTimeMicros from sending the operation to its answer
+     */
+    public record OperationResult(long calls, long failures, Histogram latencyMicros, Histogram serviceTimeMicros) {
+    }
+
+    /**
+     * @param end time since measuring started, at the end of the interval
+     */
+    public record Interval(Duration end, Duration length, long calls, long failures, Histogram latencyMicros) {
+
+        public double throughput() {
+            return calls / (length.toNanos() / 1e9);
+        }
+    }
+
+    public long calls() {
+        return operations.values().stream().mapToLong(OperationResult::calls).sum();
+    }
+
+    public long failures() {
+        return operations.values().stream().mapToLong(OperationResult::failures).sum();
+    }
+
+    /**
+     * @return operations finished per second, fewer than the rate of the workload if the service could not keep up
+     */
+    public double throughput() {
+        return calls() / (elapsed.toNanos() / 1e9);
+    }
+
+    public void print(PrintStream out) {
+        out.printf("workload: %s%n", workload);
+        out.printf("finished %d calls in %.1fs, %.1f ops/s, %d failures, %d unfinished%n",
+                calls(), elapsed.toNanos() / 1e9, throughput(), failures(), unfinished);
+        out.printf("%-10s %9s %9s %9s %9s %9s %9s %9s %14s%n",
+                "operation", "calls", "failures", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms", "service p99 ms");
+        for (Map.Entry<Workload.Operation, OperationResult> entry : operations.entrySet()) {
+            final OperationResult result = entry.getValue();
+            final Histogram latency = result.latencyMicros();
+            out.printf("%-10s %9d %9d %9.2f %9.2f %9.2f %9.2f %9.2f %14.2f%n",
+                    entry.getKey().label(), result.calls(), result.failures(),
+                    millis(latency, 50), millis(latency, 90), millis(latency, 99), millis(latency, 99.9),
+                    latency.getMaxValue() / 1000.0, millis(result.serviceTimeMicros(), 99));
+        }
+        out.printf("%n%8s %9s %9s %9s %9s %9s%n", "time", "ops/s", "failures", "p50 ms", "p99 ms", "max ms");
+        for (Interval interval : intervals) {
+            final Histogram latency = interval.latencyMicros();
+            out.printf("%7.1fs %9.1f %9d %9.2f %9.2f %9.2f%n",
+                    interval.end().toMillis() / 1000.0, interval.throughput(), interval.failures(),
+                    millis(latency, 50), millis(latency, 99), latency.getMaxValue() / 1000.0);
+        }
+    }
+
+    private static double millis(Histogram histogram, double percentile) {
+        return histogram.getTotalCount() == 0 ? 0 : histogram.getValueAtPercentile(percentile) / 1000.0;
+    }
+}
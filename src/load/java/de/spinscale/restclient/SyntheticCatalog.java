@@ -0,0 +1,194 @@
+package de.spinscale.restclient;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Products like the ones of {@code createProducts(int)} in the tests, with ids {@code 0} to {@code count - 1},
+ * but with text and prices closer to a real catalog:
+ *
+ * <ul>
+ *     <li>names combine a brand, an adjective, a material and a kind of product, the words of each are picked
+ *     with a Zipf distribution, so a few of them are in many products and most are rare, like in real text</li>
+ *     <li>descriptions are a few sentences of the same vocabulary, with a model number</li>
+ *     <li>prices are log-normal around 30, ending in .99, so most products are cheap and a few very expensive</li>
+ *     <li>one in ten products is out of stock, the stock of the others is exponentially distributed</li>
+ * </ul>
+ *
+ * Products are a function of the seed and the id, so {@link #product(int)} returns the same product every time,
+ * and every load generator of a test creates the same catalog. Queries and ids to look up are Zipf distributed
+ * as well, a few are hot, most are cold.
+ */
+public final class SyntheticCatalog {
+
+    private static final String[] BRANDS = {
+            "Acme", "Northwind", "Contoso", "Globex", "Initech", "Umbrella", "Hooli", "Stark", "Wayne", "Tyrell",
+            "Cyberdyne", "Soylent", "Aperture", "Vandelay", "Wonka", "Oscorp", "Gringotts", "Monarch", "Pendant", "Dunder"
+    };
+    private static final String[] ADJECTIVES = {
+            "classic", "lightweight", "waterproof", "compact", "premium", "organic", "wireless", "ergonomic", "vintage",
+            "foldable", "insulated", "heavy", "slim", "rugged", "portable", "adjustable", "handmade", "reusable", "smart",
+            "quiet", "breathable", "stackable", "magnetic", "reinforced", "scented"
+    };
+    private static final String[] MATERIALS = {
+            "cotton", "leather", "steel", "wooden", "bamboo", "ceramic", "glass", "wool", "aluminium", "linen",
+            "plastic", "silicone", "canvas", "copper", "marble", "denim", "cork", "titanium", "velvet", "rubber"
+    };
+    private static final String[] NOUNS = {
+            "shirt", "boots", "backpack", "mug", "lamp", "chair", "headphones", "jacket", "bottle", "watch", "desk",
+            "pillow", "kettle", "umbrella", "wallet", "speaker", "blanket", "knife", "sneakers", "tent", "keyboard",
+            "scarf", "pan", "charger", "vase", "gloves", "helmet", "notebook", "sunglasses", "towel"
+    };
+    private static final String[] FEATURES = {
+            "Built to last for years of daily use.", "Easy to clean and dishwasher safe.", "Ships in recyclable packaging.",
+            "Comes with a two year warranty.", "Designed for travel and the outdoors.", "Fits in any bag.",
+            "Available in several colors.", "Made in small batches.", "Tested in harsh conditions.",
+            "A favorite of our customers.", "Perfect as a gift."
+    };
+
+    private final long seed;
+    private final int size;
+    private final Zipf brands = new Zipf(BRANDS.length, 1.1);
+    private final Zipf adjectives = new Zipf(ADJECTIVES.length, 1.0);
+    private final Zipf materials = new Zipf(MATERIALS.length, 1.0);
+    private final Zipf nouns = new Zipf(NOUNS.length, 0.9);
+    private final Zipf hotIds;
+
+    /**
+     * @param size number of products, ids are {@code 0} to {@code size - 1}
+     */
+    public SyntheticCatalog(int size, long seed) {
+        if (size < 1) {
+            throw new IllegalArgumentException("size must be positive");
+        }
+        this.size = size;
+        this.seed = seed;
+        this.hotIds = new Zipf(size, 0.8);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return all products of the catalog
+     */
+    public List<Product> products() {
+        return products(0, size);
+    }
+
+    /**
+     * @return the products with the ids {@code from} (inclusive) to {@code to} (exclusive), to save a large catalog in chunks
+     */
+    public List<Product> products(int from, int to) {
+        final List<Product> products = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            products.add(product(i));
+        }
+        return products;
+    }
+
+    public Product product(int id) {
+        final Random random = new Random(seed * 31 + id);
+        final String brand = BRANDS[brands.next(random)];
+        final String adjective = ADJECTIVES[adjectives.next(random)];
+        final String material = MATERIALS[materials.next(random)];
+        final String noun = NOUNS[nouns.next(random)];
+
+        final StringBuilder description = new StringBuilder()
+                .append("The ").append(adjective).append(' ').append(noun).append(" by ").append(brand)
+                .append(", model ").append(id).append(", made of ").append(material).append(". ");
+        final int features = 1 + random.nextInt(4);
+        for (int i = 0; i < features; i++) {
+            description.append(FEATURES[random.nextInt(FEATURES.length)]).append(' ');
+        }
+
+        final Product product = new Product();
+        product.setId(String.valueOf(id));
+        product.setName(brand + " " + adjective + " " + material + " " + noun);
+        product.setDescription(description.toString().trim());
+        product.setPrice(price(random));
+        product.setStockAvailable(stock(random));
+        return product;
+    }
+
+    /**
+     * @return a product of the catalog with a changed price and stock, as a shop saves it after a sale or a restock
+     */
+    public Product changedProduct(Random random) {
+        final Product product = product(productId(random));
+        product.setPrice(price(random));
+        product.setStockAvailable(stock(random));
+        return product;
+    }
+
+    /**
+     * @return an id of the catalog, low ids are looked up far more often than high ones
+     */
+    public int productId(Random random) {
+        return hotIds.next(random);
+    }
+
+    /**
+     * @return what a user types into the search box, mostly a kind of product, sometimes with a brand or a material
+     */
+    public String query(Random random) {
+        final String noun = NOUNS[nouns.next(random)];
+        final double kind = random.nextDouble();
+        if (kind < 0.5) {
+            return noun;
+        } else if (kind < 0.7) {
+            return BRANDS[brands.next(random)] + " " + noun;
+        } else if (kind < 0.9) {
+            return MATERIALS[materials.next(random)] + " " + noun;
+        }
+        return ADJECTIVES[adjectives.next(random)] + " " + MATERIALS[materials.next(random)] + " " + noun;
+    }
+
+    private static double price(Random random) {
+        final double price = Math.exp(Math.log(30) + 0.9 * random.nextGaussian());
+        return Math.floor(Math.min(price, 5000)) + 0.99;
+    }
+
+    private static int stock(Random random) {
+        if (random.nextInt(10) == 0) {
+            return 0;
+        }
+        return 1 + (int) (-Math.log(1 - random.nextDouble()) * 40);
+    }
+
+    /**
+     * Picks {@code 0} to {@code n - 1}, the probability of {@code k} being proportional to {@code 1 / (k + 1)^exponent}
+     */
+    private static final class Zipf {
+        private final double[] cumulative;
+
+        private Zipf(int n, double exponent) {
+            cumulative = new double[n];
+            double sum = 0;
+            for (int k = 0; k < n; k++) {
+                sum += 1 / Math.pow(k + 1, exponent);
+                cumulative[k] = sum;
+            }
+            for (int k = 0; k < n; k++) {
+                cumulative[k] /= sum;
+            }
+        }
+
+        private int next(Random random) {
+            final double value = random.nextDouble();
+            int low = 0;
+            int high = cumulative.length - 1;
+            while (low < high) {
+                final int middle = (low + high) >>> 1;
+                if (cumulative[middle] < value) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+    }
+}
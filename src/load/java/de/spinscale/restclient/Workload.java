@@ -0,0 +1,174 @@
+package de.spinscale.restclient;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * What a {@link LoadGenerator} sends: how many operations per second, for how long, and which ones.
+ *
+ * <pre>{@code
+ * Workload workload = Workload.builder()
+ *         .rate(500)
+ *         .duration(Duration.ofMinutes(5))
+ *         .mix(Operation.FIND_BY_ID, 60).mix(Operation.SEARCH, 25).mix(Operation.NEXT, 10).mix(Operation.SAVE, 5)
+ *         .build();
+ * }</pre>
+ */
+public final class Workload {
+
+    public enum Operation {
+        FIND_BY_ID("findById"),
+        SEARCH("search"),
+        /**
+         * The next page of a search sent before, a search if there is none
+         */
+        NEXT("next"),
+        /**
+         * Saves a product of the catalog with a changed price and stock
+         */
+        SAVE("save");
+
+        private final String label;
+
+        Operation(String label) {
+            this.label = label;
+        }
+
+        public String label() {
+            return label;
+        }
+    }
+
+    private final double rate;
+    private final Duration duration;
+    private final Duration warmup;
+    private final int maxConcurrency;
+    private final Map<Operation, Integer> mix;
+    private final Operation[] operations;
+    private final int[] cumulativeWeights;
+
+    private Workload(Builder builder) {
+        this.rate = builder.rate;
+        this.duration = builder.duration;
+        this.warmup = builder.warmup;
+        this.maxConcurrency = builder.maxConcurrency;
+        this.mix = new EnumMap<>(builder.mix);
+        this.operations = mix.keySet().toArray(new Operation[0]);
+        this.cumulativeWeights = new int[operations.length];
+        int sum = 0;
+        for (int i = 0; i < operations.length; i++) {
+            sum += mix.get(operations[i]);
+            cumulativeWeights[i] = sum;
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public double rate() {
+        return rate;
+    }
+
+    public Duration duration() {
+        return duration;
+    }
+
+    public Duration warmup() {
+        return warmup;
+    }
+
+    public int maxConcurrency() {
+        return maxConcurrency;
+    }
+
+    public Map<Operation, Integer> mix() {
+        return mix;
+    }
+
+    Operation next(Random random) {
+        final int value = random.nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+        for (int i = 0; i < cumulativeWeights.length; i++) {
+            if (value < cumulativeWeights[i]) {
+                return operations[i];
+            }
+        }
+        throw new IllegalStateException("weights must be positive");
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%.0f ops/s for %ds after %ds warmup, at most %d concurrent calls, mix %s",
+                rate, duration.toSeconds(), warmup.toSeconds(), maxConcurrency, mix);
+    }
+
+    public static class Builder {
+        private double rate = 100;
+        private Duration duration = Duration.ofSeconds(60);
+        private Duration warmup = Duration.ofSeconds(10);
+        private int maxConcurrency = 64;
+        private final Map<Operation, Integer> mix = new EnumMap<>(Operation.class);
+
+        private Builder() {
+        }
+
+        /**
+         * Operations started per second, no matter how long they take, defaults to 100
+         */
+        public Builder rate(double rate) {
+            this.rate = rate;
+            return this;
+        }
+
+        /**
+         * How long operations are measured, defaults to 60s
+         */
+        public Builder duration(Duration duration) {
+            this.duration = duration;
+            return this;
+        }
+
+        /**
+         * How long operations are sent before measuring starts, so connections are open and the JIT is done, defaults to 10s
+         */
+        public Builder warmup(Duration warmup) {
+            this.warmup = warmup;
+            return this;
+        }
+
+        /**
+         * Calls running at the same time at most, defaults to 64. Operations due while all of them are busy wait,
+         * and the wait is part of their latency.
+         */
+        public Builder maxConcurrency(int maxConcurrency) {
+            this.maxConcurrency = maxConcurrency;
+            return this;
+        }
+
+        /**
+         * Relative weight of an operation, defaults to 60 findById, 25 search, 10 next and 5 save, if no weight is set
+         */
+        public Builder mix(Operation operation, int weight) {
+            this.mix.put(operation, weight);
+            return this;
+        }
+
+        public Workload build() {
+            if (mix.isEmpty()) {
+                mix.put(Operation.FIND_BY_ID, 60);
+                mix.put(Operation.SEARCH, 25);
+                mix.put(Operation.NEXT, 10);
+                mix.put(Operation.SAVE, 5);
+            }
+            if (rate <= 0 || maxConcurrency < 1 || duration.isNegative() || duration.isZero() || warmup.isNegative()) {
+                throw new IllegalArgumentException("rate, maxConcurrency and duration must be positive");
+            }
+            if (mix.values().stream().anyMatch(weight -> weight < 0) || mix.values().stream().mapToInt(Integer::intValue).sum() == 0) {
+                throw new IllegalArgumentException("weights must not be negative, and at least one must be positive");
+            }
+            return new Workload(this);
+        }
+    }
+}
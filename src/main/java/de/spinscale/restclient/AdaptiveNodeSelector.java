@@ -0,0 +1,95 @@
+package de.spinscale.restclient;
+
+import org.elasticsearch.client.Node;
+import org.elasticsearch.client.NodeSelector;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Sends requests to the nodes with the best {@link NodeLatencyTracker#score}, among the nodes having a role.
+ *
+ * The rest client rotates the nodes left by a selector on every request, so ordering them is not enough,
+ * nodes scoring clearly worse than the best one are removed. The nodes close to the best one are kept, so requests
+ * spread over them instead of all piling onto a single node, and a request failing on one node is retried on the next.
+ * Nodes already having {@code maxOutstandingPerNode} requests outstanding are removed as well, whatever their score.
+ * If every node is at that cap, the rest client fails the request with an {@link java.io.IOException} saying the
+ * selector rejected all nodes, so the caller has to back off. Requests selecting a node at the same instant can
+ * overshoot the cap by a few, the outstanding requests are counted once they are sent.
+ * Nodes without known roles are kept, that is the case until the nodes have been sniffed.
+ */
+final class AdaptiveNodeSelector implements NodeSelector {
+
+    // nodes scoring more than this times the best score are left out
+    static final double MAX_SCORE_RATIO = 2.0;
+
+    private final String name;
+    private final Predicate<Node.Roles> role;
+    private final NodeLatencyTracker tracker;
+    private final int maxOutstandingPerNode;
+
+    private AdaptiveNodeSelector(String name, Predicate<Node.Roles> role, NodeLatencyTracker tracker, int maxOutstandingPerNode) {
+        this.name = name;
+        this.role = role;
+        this.tracker = tracker;
+        this.maxOutstandingPerNode = maxOutstandingPerNode;
+    }
+
+    static AdaptiveNodeSelector dataNodes(NodeLatencyTracker tracker) {
+        return dataNodes(tracker, Integer.MAX_VALUE);
+    }
+
+    /**
+     * For searches and gets
+     */
+    static AdaptiveNodeSelector dataNodes(NodeLatencyTracker tracker, int maxOutstandingPerNode) {
+        return new AdaptiveNodeSelector("data", Node.Roles::canContainData, tracker, maxOutstandingPerNode);
+    }
+
+    static AdaptiveNodeSelector ingestNodes(NodeLatencyTracker tracker) {
+        return ingestNodes(tracker, Integer.MAX_VALUE);
+    }
+
+    /**
+     * For bulk requests, which may run ingest pipelines
+     */
+    static AdaptiveNodeSelector ingestNodes(NodeLatencyTracker tracker, int maxOutstandingPerNode) {
+        return new AdaptiveNodeSelector("ingest", Node.Roles::isIngest, tracker, maxOutstandingPerNode);
+    }
+
+    @Override
+    public void select(Iterable<Node> nodes) {
+        // scored once, the score changes while requests come and go
+        final List<Double> scores = new ArrayList<>();
+        double bestScore = Double.MAX_VALUE;
+        for (Iterator<Node> iterator = nodes.iterator(); iterator.hasNext(); ) {
+            final Node node = iterator.next();
+            if (node.getRoles() != null && !role.test(node.getRoles())) {
+                iterator.remove();
+                continue;
+            }
+            // scoring first drops requests that are no longer outstanding
+            final double score = tracker.score(node.getHost());
+            if (tracker.outstanding(node.getHost()) >= maxOutstandingPerNode) {
+                iterator.remove();
+                continue;
+            }
+            scores.add(score);
+            bestScore = Math.min(bestScore, score);
+        }
+        int i = 0;
+        for (Iterator<Node> iterator = nodes.iterator(); iterator.hasNext(); i++) {
+            iterator.next();
+            if (scores.get(i) > bestScore * MAX_SCORE_RATIO) {
+                iterator.remove();
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "adaptive " + name + " nodes";
+    }
+}
@@ -0,0 +1,240 @@
+package de.spinscale.restclient;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponseInterceptor;
+import org.elasticsearch.client.Node;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestClientBuilder;
+import org.elasticsearch.client.sniff.ElasticsearchNodesSniffer;
+import org.elasticsearch.client.sniff.NodesSniffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Two rest clients talking to the same nodes, routing requests to the nodes answering fastest right now,
+ * instead of round robin:
+ *
+ * <ul>
+ *     <li>{@link #reads()} sends searches and gets to data nodes</li>
+ *     <li>{@link #writes()} sends bulk requests to ingest nodes</li>
+ *     <li>both share the response times measured per node, see {@link NodeLatencyTracker}</li>
+ *     <li>optionally the nodes of the cluster are sniffed periodically and after a node failed</li>
+ * </ul>
+ *
+ * <pre>{@code
+ * AdaptiveRestClients restClients = AdaptiveRestClients.builder(hosts).sniffInterval(Duration.ofMinutes(5)).build();
+ * ElasticsearchClient reads = new ElasticsearchClient(new RestClientTransport(restClients.reads(), mapper));
+ * ElasticsearchClient writes = new ElasticsearchClient(new RestClientTransport(restClients.writes(), mapper));
+ * ProductService productService = new ProductServiceImpl(index, reads, writes, ProductServiceMetrics.DISABLED);
+ * }</pre>
+ */
+public final class AdaptiveRestClients implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(AdaptiveRestClients.class);
+
+    private final NodeLatencyTracker tracker;
+    private final int maxOutstandingPerNode;
+    private final RestClient reads;
+    private final RestClient writes;
+    // null if nodes are not sniffed
+    private final NodesSniffer sniffer;
+    private final ScheduledExecutorService scheduler;
+    private final long sniffIntervalMillis;
+    private final AtomicBoolean sniffScheduled = new AtomicBoolean();
+
+    private AdaptiveRestClients(Builder builder) {
+        this.tracker = new NodeLatencyTracker(builder.decayHalfLife, builder.maxRequestAge, System::nanoTime);
+        this.maxOutstandingPerNode = builder.maxOutstandingPerNode;
+        final RestClient.FailureListener failureListener = new RestClient.FailureListener() {
+            @Override
+            public void onFailure(Node node) {
+                sniffSoon();
+            }
+        };
+        this.reads = restClient(builder, AdaptiveNodeSelector.dataNodes(tracker, maxOutstandingPerNode), failureListener);
+        this.writes = restClient(builder, AdaptiveNodeSelector.ingestNodes(tracker, maxOutstandingPerNode), failureListener);
+        if (builder.sniffInterval != null) {
+            this.sniffer = new ElasticsearchNodesSniffer(reads, ElasticsearchNodesSniffer.DEFAULT_SNIFF_REQUEST_TIMEOUT, builder.scheme);
+            this.sniffIntervalMillis = builder.sniffInterval.toMillis();
+            final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+                final Thread thread = new Thread(runnable, "es-sniffer");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.scheduler = executor;
+            executor.scheduleWithFixedDelay(this::sniff, 0, sniffIntervalMillis, TimeUnit.MILLISECONDS);
+        } else {
+            this.sniffer = null;
+            this.scheduler = null;
+            this.sniffIntervalMillis = 0;
+        }
+    }
+
+    public static Builder builder(HttpHost... hosts) {
+        return new Builder(hosts);
+    }
+
+    private RestClient restClient(Builder builder, AdaptiveNodeSelector selector, RestClient.FailureListener failureListener) {
+        final RestClientBuilder.HttpClientConfigCallback callback = builder.httpClientConfigCallback;
+        return RestClient.builder(builder.hosts)
+                .setNodeSelector(selector)
+                .setFailureListener(failureListener)
+                .setHttpClientConfigCallback(b -> callback.customizeHttpClient(b)
+                        .addInterceptorLast((HttpRequestInterceptor) tracker)
+                        .addInterceptorLast((HttpResponseInterceptor) tracker))
+                .build();
+    }
+
+    /**
+     * For searches and gets
+     */
+    public RestClient reads() {
+        return reads;
+    }
+
+    /**
+     * For bulk requests
+     */
+    public RestClient writes() {
+        return writes;
+    }
+
+    /**
+     * Requests outstanding on one node at most, counting the requests of both clients
+     */
+    int maxOutstandingPerNode() {
+        return maxOutstandingPerNode;
+    }
+
+    /**
+     * Replaces the nodes of both clients with the nodes currently in the cluster
+     */
+    void sniff() {
+        try {
+            final List<Node> nodes = sniffer.sniff();
+            if (nodes.isEmpty()) {
+                logger.warn("sniffing returned no nodes, keeping [{}]", reads.getNodes());
+                return;
+            }
+            reads.setNodes(nodes);
+            writes.setNodes(nodes);
+            tracker.retain(nodes.stream().map(Node::getHost).toList());
+        } catch (IOException | RuntimeException e) {
+            logger.warn("failed to sniff nodes", e);
+        }
+    }
+
+    /**
+     * A node failing may have left the cluster, sniff once more right away instead of waiting for the interval
+     */
+    private void sniffSoon() {
+        if (sniffer == null || !sniffScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            scheduler.execute(() -> {
+                sniffScheduled.set(false);
+                sniff();
+            });
+        } catch (RuntimeException e) {
+            // closed
+            sniffScheduled.set(false);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        try {
+            reads.close();
+        } finally {
+            writes.close();
+        }
+    }
+
+    public static class Builder {
+        private final HttpHost[] hosts;
+        private RestClientBuilder.HttpClientConfigCallback httpClientConfigCallback = b -> b;
+        private Duration decayHalfLife = Duration.ofSeconds(1);
+        private Duration maxRequestAge = Duration.ofMinutes(1);
+        private int maxOutstandingPerNode = Integer.MAX_VALUE;
+        private Duration sniffInterval;
+        private ElasticsearchNodesSniffer.Scheme scheme = ElasticsearchNodesSniffer.Scheme.HTTP;
+
+        private Builder(HttpHost... hosts) {
+            this.hosts = hosts;
+        }
+
+        /**
+         * Configuration of the http clients, e.g. for TLS and credentials
+         */
+        public Builder httpClientConfigCallback(RestClientBuilder.HttpClientConfigCallback httpClientConfigCallback) {
+            this.httpClientConfigCallback = httpClientConfigCallback;
+            return this;
+        }
+
+        /**
+         * How fast the measured response time of a node fades while it receives no requests, defaults to 1s.
+         * A node that has been avoided for being slow gets probed again after a few half lives.
+         */
+        public Builder decayHalfLife(Duration decayHalfLife) {
+            this.decayHalfLife = decayHalfLife;
+            return this;
+        }
+
+        /**
+         * Requests without response for longer are no longer counted as outstanding, set it above the socket timeout.
+         * Defaults to 1m.
+         */
+        public Builder maxRequestAge(Duration maxRequestAge) {
+            this.maxRequestAge = maxRequestAge;
+            return this;
+        }
+
+        /**
+         * Caps the requests outstanding on a single node, reads and writes together. A node at the cap is skipped
+         * even if it answers fastest, and a request finding every node at the cap fails with an IOException.
+         * Keep it at or below the max connections per route of the http client, 10 by default. Unlimited by default.
+         */
+        public Builder maxOutstandingPerNode(int maxOutstandingPerNode) {
+            if (maxOutstandingPerNode < 1) {
+                throw new IllegalArgumentException("maxOutstandingPerNode must be at least 1, got " + maxOutstandingPerNode);
+            }
+            this.maxOutstandingPerNode = maxOutstandingPerNode;
+            return this;
+        }
+
+        /**
+         * Sniff the nodes of the cluster right away and then every {@code interval}, as well as after a node failed.
+         * Disabled by default, only the given hosts are used then.
+         */
+        public Builder sniffInterval(Duration interval) {
+            this.sniffInterval = interval;
+            return this;
+        }
+
+        /**
+         * Scheme of the sniffed nodes, defaults to http
+         */
+        public Builder scheme(ElasticsearchNodesSniffer.Scheme scheme) {
+            this.scheme = scheme;
+            return this;
+        }
+
+        public AdaptiveRestClients build() {
+            return new AdaptiveRestClients(this);
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package de.spinscale.restclient;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Non-blocking variant of {@link ProductService}, no caller thread is parked while
+ * waiting for elasticsearch.
+ */
+public interface AsyncProductService {
+
+    CompletableFuture<Product> findById(String id);
+
+    /**
+     * @see ProductService#findAll(Collection)
+     */
+    CompletableFuture<List<Product>> findAll(Collection<String> ids);
+
+    CompletableFuture<Page<Product>> search(String query);
+
+    /**
+     * Search the next page of current page, with the same size
+     *
+     * @param page current page
+     * @return the next page
+     */
+    CompletableFuture<Page<Product>> next(Page<Product> page);
+
+    /**
+     * @see ProductService#close(Page)
+     */
+    CompletableFuture<Void> close(Page<Product> page);
+
+    CompletableFuture<Void> save(Product product);
+
+    CompletableFuture<Void> save(List<Product> products);
+}
@@ -0,0 +1,349 @@
+package de.spinscale.restclient;
+
+import co.elastic.clients.elasticsearch.ElasticsearchAsyncClient;
+import co.elastic.clients.elasticsearch._types.ElasticsearchException;
+import co.elastic.clients.elasticsearch.core.MsearchRequest;
+import co.elastic.clients.elasticsearch.core.MsearchResponse;
+import co.elastic.clients.elasticsearch.core.SearchRequest;
+import co.elastic.clients.elasticsearch.core.mget.MultiGetResponseItem;
+import co.elastic.clients.elasticsearch.core.msearch.MultiSearchResponseItem;
+import co.elastic.clients.elasticsearch.core.search.ResponseBody;
+import co.elastic.clients.json.JsonpDeserializer;
+import org.elasticsearch.client.Request;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.stream.Collectors;
+
+import static de.spinscale.restclient.ProductServiceImpl.PIT_KEEP_ALIVE;
+import static de.spinscale.restclient.ProductServiceImpl.assignIds;
+import static de.spinscale.restclient.ProductServiceImpl.createBulkRequest;
+import static de.spinscale.restclient.ProductServiceImpl.createMgetRequest;
+import static de.spinscale.restclient.ProductServiceImpl.createMsearchRequest;
+import static de.spinscale.restclient.ProductServiceImpl.createPitSearchRequest;
+import static de.spinscale.restclient.ProductServiceImpl.createSearchRequest;
+import static de.spinscale.restclient.ProductServiceImpl.toPage;
+import static de.spinscale.restclient.ProductServiceImpl.toProduct;
+import static de.spinscale.restclient.ProductServiceImpl.withId;
+
+public class AsyncProductServiceImpl implements AsyncProductService {
+
+    private static final int DEFAULT_MAX_IN_FLIGHT = 64;
+    private static final int DEFAULT_MAX_PENDING = 1024;
+    private static final JsonpDeserializer<MsearchResponse<Product>> MSEARCH_RESPONSE =
+            MsearchResponse.createMsearchResponseDeserializer(JsonpDeserializer.of(Product.class));
+
+    private final String index;
+    private final ElasticsearchAsyncClient client;
+    private final InFlightLimiter limiter;
+    // null if findById is not batched
+    private final MicroBatcher<String, Product> findByIdBatcher;
+    // null if searches are not batched
+    private final MicroBatcher<SearchRequest, ResponseBody<Product>> searchBatcher;
+    // null if multi search bodies are sent uncompressed
+    private final HttpCompression compression;
+
+    public AsyncProductServiceImpl(String index, ElasticsearchAsyncClient client) {
+        this(builder(index, client));
+    }
+
+    /**
+     * @param maxInFlight maximum number of requests sent to elasticsearch at the same time
+     * @param maxPending maximum number of requests waiting for a free slot, further requests are
+     *                   rejected with a {@link java.util.concurrent.RejectedExecutionException}
+     */
+    public AsyncProductServiceImpl(String index, ElasticsearchAsyncClient client, int maxInFlight, int maxPending) {
+        this(builder(index, client).maxInFlight(maxInFlight).maxPending(maxPending));
+    }
+
+    private AsyncProductServiceImpl(Builder builder) {
+        this.index = builder.index;
+        this.client = builder.client;
+        this.limiter = new InFlightLimiter(builder.maxInFlight, builder.maxPending);
+        if (builder.findByIdWindow != null) {
+            this.findByIdBatcher = new MicroBatcher<>(builder.findByIdWindow, builder.findByIdMaxBatchSize, this::findByIds);
+        } else {
+            this.findByIdBatcher = null;
+        }
+        if (builder.searchWindow != null) {
+            this.searchBatcher = new MicroBatcher<>(builder.searchWindow, builder.searchMaxBatchSize, this::searchBatch);
+        } else {
+            this.searchBatcher = null;
+        }
+        this.compression = RawJsonRequests.supports(client._transport()) ? HttpCompression.of(client._transport().options()) : null;
+    }
+
+    public static Builder builder(String index, ElasticsearchAsyncClient client) {
+        return new Builder(index, client);
+    }
+
+    @Override
+    public CompletableFuture<Product> findById(String id) {
+        if (findByIdBatcher != null) {
+            return findByIdBatcher.submit(id);
+        }
+        return limiter.submit(() -> client.get(builder -> builder.index(index).id(id), Product.class))
+                .thenApply(response -> withId(response.source(), response.id()));
+    }
+
+    private void findByIds(List<MicroBatcher.Call<String, Product>> calls) {
+        final List<String> ids = calls.stream().map(MicroBatcher.Call::input).collect(Collectors.toList());
+        limiter.submit(() -> client.mget(createMgetRequest(index, ids), Product.class))
+                .whenComplete((response, throwable) -> {
+                    for (int i = 0; i < calls.size(); i++) {
+                        final CompletableFuture<Product> future = calls.get(i).future();
+                        if (throwable != null) {
+                            future.completeExceptionally(throwable);
+                            continue;
+                        }
+                        try {
+                            future.complete(toProduct(response.docs().get(i)));
+                        } catch (IOException e) {
+                            future.completeExceptionally(e);
+                        }
+                    }
+                });
+    }
+
+    @Override
+    public CompletableFuture<List<Product>> findAll(Collection<String> ids) {
+        if (ids.isEmpty()) {
+            return CompletableFuture.completedFuture(Collections.emptyList());
+        }
+        return limiter.submit(() -> client.mget(createMgetRequest(index, ids), Product.class))
+                .thenCompose(response -> {
+                    final List<Product> products = new ArrayList<>(ids.size());
+                    try {
+                        for (MultiGetResponseItem<Product> item : response.docs()) {
+                            final Product product = toProduct(item);
+                            if (product != null) {
+                                products.add(product);
+                            }
+                        }
+                    } catch (IOException e) {
+                        return CompletableFuture.failedFuture(e);
+                    }
+                    return CompletableFuture.completedFuture(products);
+                });
+    }
+
+    @Override
+    public CompletableFuture<Page<Product>> search(String input) {
+        return search(createSearchRequest(index, input, 0, 10))
+                .thenApply(response -> toPage(response, input, 0, 10));
+    }
+
+    /**
+     * @see ProductServiceImpl#next(Page)
+     */
+    @Override
+    public CompletableFuture<Page<Product>> next(Page<Product> page) {
+        if (page.isLast()) {
+            return CompletableFuture.completedFuture(Page.empty());
+        }
+        int from = page.getFrom() + page.getSize();
+        if (page.hasSearchAfter()) {
+            final SearchRequest request = createPitSearchRequest(page.getPitId(), page.getInput(), from, page.getSize(), page.getSearchAfter());
+            return getPitPageResult(request, page.getInput(), from, page.getSize())
+                    .exceptionallyCompose(throwable -> {
+                        final Throwable cause = throwable instanceof CompletionException ? throwable.getCause() : throwable;
+                        if (cause instanceof ElasticsearchException e && e.status() == 404) {
+                            // the point in time has expired, continue in a new one
+                            return nextInNewPointInTime(page, from);
+                        }
+                        return CompletableFuture.failedFuture(cause);
+                    });
+        }
+        return nextInNewPointInTime(page, from);
+    }
+
+    private CompletableFuture<Page<Product>> nextInNewPointInTime(Page<Product> page, int from) {
+        return limiter.submit(() -> client.openPointInTime(b -> b.index(index).keepAlive(PIT_KEEP_ALIVE)))
+                .thenCompose(response -> getPitPageResult(
+                        createPitSearchRequest(response.id(), page.getInput(), from, page.getSize(), null),
+                        page.getInput(), from, page.getSize()));
+    }
+
+    private CompletableFuture<Page<Product>> getPitPageResult(SearchRequest searchRequest, String input, int from, int size) {
+        return search(searchRequest)
+                .thenCompose(response -> {
+                    final Page<Product> page = toPage(response, input, from, size);
+                    if (page.isLast()) {
+                        return closePointInTime(response.pitId())
+                                .thenApply(ignored -> page.withoutPointInTime());
+                    }
+                    return CompletableFuture.completedFuture(page);
+                });
+    }
+
+    @Override
+    public CompletableFuture<Void> close(Page<Product> page) {
+        return closePointInTime(page.getPitId());
+    }
+
+    private CompletableFuture<ResponseBody<Product>> search(SearchRequest request) {
+        if (searchBatcher != null) {
+            return searchBatcher.submit(request);
+        }
+        return limiter.submit(() -> client.search(request, Product.class)).thenApply(response -> response);
+    }
+
+    private void searchBatch(List<MicroBatcher.Call<SearchRequest, ResponseBody<Product>>> calls) {
+        if (calls.size() == 1) {
+            // nothing to merge with
+            final MicroBatcher.Call<SearchRequest, ResponseBody<Product>> call = calls.get(0);
+            limiter.submit(() -> client.search(call.input(), Product.class))
+                    .whenComplete((response, throwable) -> {
+                        if (throwable != null) {
+                            call.future().completeExceptionally(throwable);
+                        } else {
+                            call.future().complete(response);
+                        }
+                    });
+            return;
+        }
+        final List<SearchRequest> requests = calls.stream().map(MicroBatcher.Call::input).collect(Collectors.toList());
+        limiter.submit(() -> msearch(createMsearchRequest(requests)))
+                .whenComplete((response, throwable) -> {
+                    for (int i = 0; i < calls.size(); i++) {
+                        final CompletableFuture<ResponseBody<Product>> future = calls.get(i).future();
+                        if (throwable != null) {
+                            future.completeExceptionally(throwable);
+                            continue;
+                        }
+                        // every search fails on its own, e.g. with a 404 if its point in time has expired
+                        final MultiSearchResponseItem<Product> item = response.responses().get(i);
+                        if (item.isFailure()) {
+                            future.completeExceptionally(new ElasticsearchException("msearch", item.failure()));
+                        } else {
+                            future.complete(item.result());
+                        }
+                    }
+                });
+    }
+
+    /**
+     * The java client cannot compress a request body, so a compressed multi search is sent as a raw request
+     */
+    private CompletableFuture<MsearchResponse<Product>> msearch(MsearchRequest request) {
+        if (compression == null) {
+            return client.msearch(request, Product.class);
+        }
+        final HttpCompression.Body body = compression.body();
+        final CompletableFuture<MsearchResponse<Product>> future;
+        try {
+            RawJsonRequests.writeNdJson(request, client._jsonpMapper(), body);
+            final Request rawRequest = new Request("POST", "/_msearch");
+            // same as the java client, aggregations are parsed by their type
+            rawRequest.addParameter("typed_keys", "true");
+            rawRequest.setEntity(body.toEntity(NdjsonBulkBody.NDJSON));
+            future = RawJsonRequests.performAsync(client._transport(), rawRequest, MSEARCH_RESPONSE);
+        } catch (IOException | RuntimeException e) {
+            body.release();
+            return CompletableFuture.failedFuture(e);
+        }
+        return future.whenComplete((response, throwable) -> body.release());
+    }
+
+    private CompletableFuture<Void> closePointInTime(String pitId) {
+        if (pitId == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return limiter.submit(() -> client.closePointInTime(b -> b.id(pitId)))
+                .handle((response, throwable) -> {
+                    final Throwable cause = throwable instanceof CompletionException ? throwable.getCause() : throwable;
+                    // already expired
+                    if (cause == null || cause instanceof ElasticsearchException e && e.status() == 404) {
+                        return null;
+                    }
+                    throw new CompletionException(cause);
+                });
+    }
+
+    @Override
+    public CompletableFuture<Void> save(Product product) {
+        return save(Collections.singletonList(product));
+    }
+
+    @Override
+    public CompletableFuture<Void> save(List<Product> products) {
+        return limiter.submit(() -> client.bulk(createBulkRequest(index, products)))
+                .thenCompose(response -> {
+                    try {
+                        assignIds(products, response);
+                        return CompletableFuture.completedFuture(null);
+                    } catch (BulkIngestException e) {
+                        return CompletableFuture.failedFuture(e);
+                    }
+                });
+    }
+
+    public static class Builder {
+        private final String index;
+        private final ElasticsearchAsyncClient client;
+        private int maxInFlight = DEFAULT_MAX_IN_FLIGHT;
+        private int maxPending = DEFAULT_MAX_PENDING;
+        private Duration findByIdWindow;
+        private int findByIdMaxBatchSize;
+        private Duration searchWindow;
+        private int searchMaxBatchSize;
+
+        private Builder(String index, ElasticsearchAsyncClient client) {
+            this.index = index;
+            this.client = client;
+        }
+
+        /**
+         * Maximum number of requests sent to elasticsearch at the same time, defaults to 64
+         */
+        public Builder maxInFlight(int maxInFlight) {
+            this.maxInFlight = maxInFlight;
+            return this;
+        }
+
+        /**
+         * Maximum number of requests waiting for a free slot, further requests are rejected
+         * with a {@link java.util.concurrent.RejectedExecutionException}. Defaults to 1024.
+         */
+        public Builder maxPending(int maxPending) {
+            this.maxPending = maxPending;
+            return this;
+        }
+
+        /**
+         * Merge {@link #findById(String)} calls arriving within {@code window} into a single multi get request.
+         * This adds up to {@code window} of latency to every lookup, in exchange for far fewer requests.
+         *
+         * @param window how long to wait for more lookups after the first one
+         * @param maxBatchSize send the multi get right away once this many lookups are waiting
+         */
+        public Builder batchFindById(Duration window, int maxBatchSize) {
+            this.findByIdWindow = window;
+            this.findByIdMaxBatchSize = maxBatchSize;
+            return this;
+        }
+
+        /**
+         * Merge {@link #search(String)} and {@link #next(Page)} calls arriving within {@code window} into a single
+         * multi search request. Each search still succeeds or fails on its own.
+         *
+         * @param window how long to wait for more searches after the first one
+         * @param maxBatchSize send the multi search right away once this many searches are waiting
+         */
+        public Builder batchSearch(Duration window, int maxBatchSize) {
+            this.searchWindow = window;
+            this.searchMaxBatchSize = maxBatchSize;
+            return this;
+        }
+
+        public AsyncProductServiceImpl build() {
+            return new AsyncProductServiceImpl(this);
+        }
+    }
+}
@@ -0,0 +1,802 @@
+package de.spinscale.restclient;
+
+import co.elastic.clients.elasticsearch.ElasticsearchAsyncClient;
+import co.elastic.clients.elasticsearch.core.BulkResponse;
+import co.elastic.clients.elasticsearch.core.bulk.BulkResponseItem;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import org.apache.http.entity.ContentType;
+import org.apache.http.nio.entity.NByteArrayEntity;
+import org.elasticsearch.client.Request;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+
+/**
+ * Indexes a file of products without turning every line into a {@link Product} and back into JSON.
+ *
+ * <ul>
+ *     <li>{@link Format#BULK} files are in the format of a bulk request body, as logged in {@code example_log}:
+ *     an action line followed by the document, a delete has no document. The bytes of the file are copied into
+ *     the request bodies as they are, they are only scanned for newlines and never decoded</li>
+ *     <li>{@link Format#CSV} files have a header line naming the fields, e.g. {@code id,name,description,price,stock_available}.
+ *     Every row is written as an index operation, {@code price} and {@code stock_available} as numbers, and the
+ *     rows of a request are converted on a pool of {@code parallelism} threads, while earlier requests are sent</li>
+ * </ul>
+ *
+ * The file is memory mapped in windows of {@code chunkBytes}, so files larger than the heap, or larger than 2gb,
+ * can be read. A bulk request is sent once {@code maxOperations} documents or {@code maxBytes} are collected, at most
+ * {@code maxConcurrentRequests} are converted or in flight at a time, reading blocks until one of them is done.
+ *
+ * Documents rejected with 429 or 503 are retried with exponential backoff. After every request the checkpoint
+ * listener is called with the offset in the file up to which every document has been indexed or has finally
+ * failed. Passing it as {@code startOffset} to another ingester continues an interrupted load from there.
+ *
+ * <pre>{@code
+ * BulkFileIngester.builder(asyncClient, "products")
+ *         .maxConcurrentRequests(4)
+ *         .startOffset(lastCheckpoint)
+ *         .onCheckpoint(offset -> saveCheckpoint(offset))
+ *         .build()
+ *         .ingest(Path.of("products.ndjson"));
+ * }</pre>
+ */
+public class BulkFileIngester {
+
+    public enum Format {
+        BULK,
+        CSV
+    }
+
+    private static final JsonFactory JSON = new JsonFactory();
+    private static final ContentType NDJSON = NdjsonBulkBody.NDJSON;
+    private static final byte[] DELETE = "\"delete\"".getBytes(StandardCharsets.US_ASCII);
+
+    private final ElasticsearchAsyncClient client;
+    private final String index;
+    private final Format format;
+    private final int maxOperations;
+    private final int maxBytes;
+    private final int chunkBytes;
+    private final int maxRetries;
+    private final Duration initialBackoff;
+    private final int maxConcurrentRequests;
+    private final int parallelism;
+    private final long startOffset;
+    private final LongConsumer checkpointListener;
+    // null if bulk bodies are sent uncompressed
+    private final HttpCompression compression;
+
+    private BulkFileIngester(Builder builder) {
+        this.client = builder.client;
+        this.index = builder.index;
+        this.format = builder.format;
+        this.maxOperations = builder.maxOperations;
+        this.maxBytes = builder.maxBytes;
+        this.chunkBytes = builder.chunkBytes;
+        this.maxRetries = builder.maxRetries;
+        this.initialBackoff = builder.initialBackoff;
+        this.maxConcurrentRequests = builder.maxConcurrentRequests;
+        this.parallelism = builder.parallelism;
+        this.startOffset = builder.startOffset;
+        this.checkpointListener = builder.checkpointListener;
+        this.compression = HttpCompression.of(client._transport().options());
+    }
+
+    public static Builder builder(ElasticsearchAsyncClient client, String index) {
+        return new Builder(client, index);
+    }
+
+    /**
+     * Indexes the documents of the file, starting at {@code startOffset}, and waits for them
+     *
+     * @return what has been indexed, and the offset to resume from, which is the end of the file
+     * @throws BulkIngestException listing every document that could not be indexed, the checkpoint listener
+     * has been called with the end of the file nonetheless, the failed documents are not retried on resume
+     */
+    public Result ingest(Path file) throws IOException {
+        final Run run = new Run();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final long size = channel.size();
+            long position = startOffset;
+            if (format == Format.CSV) {
+                final long headerEnd = run.readHeader(channel, size);
+                position = Math.max(position, headerEnd);
+            }
+            run.start(position);
+            while (position < size) {
+                final long length = Math.min(chunkBytes, size - position);
+                final ByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                final int consumed = run.scan(chunk, position, position + length == size);
+                if (consumed == 0) {
+                    throw new IOException("document at offset [" + position + "] is longer than the chunk size of [" + chunkBytes + "] bytes");
+                }
+                position += consumed;
+            }
+            run.dispatch();
+            // blank lines after the last batch
+            run.skip(size);
+            run.awaitCompletion();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while waiting for bulk requests", e);
+        } finally {
+            run.converters.shutdownNow();
+        }
+        if (!run.failures.isEmpty()) {
+            throw new BulkIngestException(run.failures);
+        }
+        return new Result(run.indexed.get(), run.bytesRead, run.checkpoints.watermark());
+    }
+
+    /**
+     * @param documents documents indexed by this call
+     * @param bytes bytes of the file read by this call
+     * @param checkpoint offset in the file up to which every document has been processed
+     */
+    public record Result(long documents, long bytes, long checkpoint) {
+    }
+
+    /**
+     * State of one call to {@link #ingest(Path)}
+     */
+    private class Run {
+        private final Semaphore requests = new Semaphore(maxConcurrentRequests);
+        private final BlockingQueue<Body> bodies = new ArrayBlockingQueue<>(maxConcurrentRequests * 2);
+        private final ExecutorService converters = Executors.newFixedThreadPool(parallelism, r -> {
+            Thread thread = new Thread(r, "bulk-file-converter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        private final Checkpoints checkpoints = new Checkpoints();
+        private final List<BulkIngestException.Failure> failures = new ArrayList<>();
+        private final AtomicLong indexed = new AtomicLong();
+        private byte[][] header;
+        private Body batch;
+        // where the next batch starts, the end of the previous one, so that the batches cover blank lines as well
+        private long nextStart;
+        private long bytesRead;
+
+        private void start(long offset) {
+            checkpoints.start(offset);
+            nextStart = offset;
+        }
+
+        /**
+         * Marks the bytes from the end of the last batch up to the offset as done, they contain no documents
+         */
+        private void skip(long offset) {
+            if (nextStart < offset) {
+                checkpoints.complete(nextStart, offset);
+                nextStart = offset;
+            }
+        }
+
+        private long readHeader(FileChannel channel, long size) throws IOException {
+            final ByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(chunkBytes, size));
+            final int end = csvRecordEnd(chunk, 0, chunk.limit(), true);
+            if (end < 0) {
+                throw new IOException("csv header is longer than the chunk size of [" + chunkBytes + "] bytes");
+            }
+            final byte[] line = new byte[end];
+            chunk.get(0, line, 0, end);
+            final List<byte[]> fields = parseCsv(line, 0, end);
+            header = fields.toArray(new byte[0][]);
+            return end;
+        }
+
+        /**
+         * Adds the complete documents of the chunk to batches, sends every full batch
+         *
+         * @return bytes consumed, the rest is read again with the next chunk
+         */
+        private int scan(ByteBuffer chunk, long offset, boolean last) throws IOException, InterruptedException {
+            final int limit = chunk.limit();
+            int position = 0;
+            while (position < limit) {
+                final int end = format == Format.CSV ? csvRecordEnd(chunk, position, limit, last) : bulkRecordEnd(chunk, position, limit, last, offset);
+                if (end < 0) {
+                    break;
+                }
+                if (!isBlank(chunk, position, end)) {
+                    if (batch == null) {
+                        batch = acquireBody(nextStart);
+                    }
+                    batch.addRecord(chunk, position, end - position);
+                }
+                position = end;
+                if (batch != null) {
+                    batch.fileEnd = offset + position;
+                    if (batch.records() >= maxOperations || batch.size() >= maxBytes) {
+                        dispatch();
+                    }
+                }
+            }
+            bytesRead += position;
+            return position;
+        }
+
+        /**
+         * Hands the current batch over for sending, blocks while {@code maxConcurrentRequests} batches are busy
+         */
+        private void dispatch() throws InterruptedException {
+            final Body body = batch;
+            batch = null;
+            if (body == null) {
+                return;
+            }
+            nextStart = body.fileEnd;
+            requests.acquire();
+            if (format == Format.CSV) {
+                CompletableFuture.supplyAsync(() -> toBulk(body), converters)
+                        .whenComplete((converted, throwable) -> {
+                            if (throwable != null) {
+                                fail(body, allRecords(body), -1, "csv_parse_exception", throwable.getMessage());
+                                done(body);
+                            } else {
+                                release(body);
+                                send(converted, allRecords(converted), 0);
+                            }
+                        });
+            } else {
+                send(body, allRecords(body), 0);
+            }
+        }
+
+        private void awaitCompletion() throws InterruptedException {
+            requests.acquire(maxConcurrentRequests);
+            requests.release(maxConcurrentRequests);
+        }
+
+        private void send(Body body, int[] records, int attempt) {
+            final Body request;
+            if (records.length == body.records()) {
+                request = body;
+            } else {
+                request = acquireBody(body.fileStart);
+                for (int record : records) {
+                    request.addRecord(body, record);
+                }
+            }
+            HttpCompression.Buffer gzipped = null;
+            CompletableFuture<BulkResponse> future;
+            try {
+                final Request httpRequest = new Request("POST", "/" + index + "/_bulk");
+                if (compression != null && compression.compresses(request.size())) {
+                    gzipped = compression.gzip(request.array(), 0, request.size());
+                    httpRequest.setEntity(gzipped.toEntity(NDJSON, HttpCompression.GZIP));
+                } else {
+                    httpRequest.setEntity(new NByteArrayEntity(request.array(), 0, request.size(), NDJSON));
+                }
+                future = RawJsonRequests.performAsync(client._transport(), httpRequest, BulkResponse._DESERIALIZER);
+            } catch (Exception e) {
+                future = CompletableFuture.failedFuture(e);
+            }
+            final HttpCompression.Buffer sent = gzipped;
+            future.whenComplete((response, throwable) -> {
+                if (sent != null) {
+                    sent.release();
+                }
+                if (request != body) {
+                    release(request);
+                }
+                final List<Integer> retries = new ArrayList<>();
+                if (throwable != null) {
+                    final Throwable cause = throwable instanceof CompletionException ? throwable.getCause() : throwable;
+                    final int status = ProductBulkIngester.status(cause);
+                    if (ProductBulkIngester.isRetryable(status) && attempt < maxRetries) {
+                        Arrays.stream(records).forEach(retries::add);
+                    } else {
+                        fail(body, records, status, cause.getClass().getSimpleName(), cause.getMessage());
+                    }
+                } else {
+                    final List<BulkResponseItem> items = response.items();
+                    for (int i = 0; i < records.length; i++) {
+                        final BulkResponseItem item = items.get(i);
+                        if (item.error() == null) {
+                            indexed.incrementAndGet();
+                        } else if (ProductBulkIngester.isRetryable(item.status()) && attempt < maxRetries) {
+                            retries.add(records[i]);
+                        } else {
+                            fail(body, new int[] { records[i] }, item.status(), item.error().type(), item.error().reason());
+                        }
+                    }
+                }
+                if (retries.isEmpty()) {
+                    done(body);
+                } else {
+                    final int[] remaining = retries.stream().mapToInt(Integer::intValue).toArray();
+                    CompletableFuture.runAsync(() -> send(body, remaining, attempt + 1),
+                            CompletableFuture.delayedExecutor(initialBackoff.toMillis() << attempt, TimeUnit.MILLISECONDS));
+                }
+            });
+        }
+
+        /**
+         * The permit is released last, so that {@link #awaitCompletion()} sees the checkpoint of every batch
+         */
+        private void done(Body body) {
+            try {
+                checkpoints.complete(body.fileStart, body.fileEnd);
+                release(body);
+            } finally {
+                requests.release();
+            }
+        }
+
+        private void fail(Body body, int[] records, int status, String type, String reason) {
+            synchronized (failures) {
+                for (int record : records) {
+                    failures.add(new BulkIngestException.Failure(body.product(record), status, type, reason));
+                }
+            }
+        }
+
+        /**
+         * Converts the csv rows of the body into index operations
+         */
+        private Body toBulk(Body rows) {
+            final Body bulk = acquireBody(rows.fileStart);
+            bulk.fileEnd = rows.fileEnd;
+            try (JsonGenerator generator = JSON.createGenerator(bulk)) {
+                generator.setRootValueSeparator(null);
+                for (int record = 0; record < rows.records(); record++) {
+                    final int start = rows.recordStart(record);
+                    final List<byte[]> fields = parseCsv(rows.array(), start, trimLineEnd(rows.array(), start, rows.recordEnd(record)));
+                    bulk.startRecord();
+                    generator.writeStartObject();
+                    generator.writeObjectFieldStart("index");
+                    for (int i = 0; i < header.length && i < fields.size(); i++) {
+                        if (isField(header[i], "id") && fields.get(i).length > 0) {
+                            generator.writeFieldName("_id");
+                            generator.writeUTF8String(fields.get(i), 0, fields.get(i).length);
+                        }
+                    }
+                    generator.writeEndObject();
+                    generator.writeEndObject();
+                    generator.writeRaw('\n');
+                    generator.writeStartObject();
+                    for (int i = 0; i < header.length && i < fields.size(); i++) {
+                        final byte[] value = fields.get(i);
+                        if (value.length == 0) {
+                            continue;
+                        }
+                        generator.writeFieldName(new String(header[i], StandardCharsets.UTF_8));
+                        if (isField(header[i], "price") || isField(header[i], "stock_available")) {
+                            writeNumber(generator, value);
+                        } else {
+                            generator.writeUTF8String(value, 0, value.length);
+                        }
+                    }
+                    generator.writeEndObject();
+                    generator.writeRaw('\n');
+                    generator.flush();
+                }
+            } catch (IOException e) {
+                release(bulk);
+                throw new UncheckedIOException(e);
+            }
+            return bulk;
+        }
+
+        private Body acquireBody(long fileStart) {
+            Body body = bodies.poll();
+            if (body == null) {
+                body = new Body(Math.min(maxBytes, 64 * 1024));
+            }
+            body.fileStart = fileStart;
+            body.fileEnd = fileStart;
+            return body;
+        }
+
+        private void release(Body body) {
+            // buffers grown by a huge document are left to the garbage collector
+            if (body.array().length <= maxBytes * 2) {
+                body.clear();
+                bodies.offer(body);
+            }
+        }
+    }
+
+    /**
+     * Offset up to which every batch is done, batches finish out of order
+     */
+    private class Checkpoints {
+        private final TreeMap<Long, Long> done = new TreeMap<>();
+        private long watermark;
+
+        private synchronized void start(long offset) {
+            watermark = offset;
+        }
+
+        private synchronized void complete(long start, long end) {
+            done.put(start, end);
+            final long before = watermark;
+            for (Map.Entry<Long, Long> first = done.firstEntry(); first != null && first.getKey() == watermark; first = done.firstEntry()) {
+                watermark = first.getValue();
+                done.pollFirstEntry();
+            }
+            if (watermark != before) {
+                checkpointListener.accept(watermark);
+            }
+        }
+
+        private synchronized long watermark() {
+            return watermark;
+        }
+    }
+
+    /**
+     * A growable request body, with the start of every document in it and the range of the file it has been read from
+     */
+    private static class Body extends ByteArrayOutputStream {
+        private int[] recordStarts = new int[64];
+        private int records;
+        private long fileStart;
+        private long fileEnd;
+
+        private Body(int size) {
+            super(size);
+        }
+
+        private void startRecord() {
+            if (records == recordStarts.length) {
+                recordStarts = Arrays.copyOf(recordStarts, records * 2);
+            }
+            recordStarts[records++] = count;
+        }
+
+        /**
+         * Copies a document of the file, adds the newline the last line of a file may lack
+         */
+        private void addRecord(ByteBuffer chunk, int position, int length) {
+            startRecord();
+            ensureCapacity(count + length + 1);
+            chunk.get(position, buf, count, length);
+            count += length;
+            if (buf[count - 1] != '\n') {
+                buf[count++] = '\n';
+            }
+        }
+
+        private void addRecord(Body other, int record) {
+            startRecord();
+            final int start = other.recordStart(record);
+            write(other.buf, start, other.recordEnd(record) - start);
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (capacity > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(capacity, buf.length * 2));
+            }
+        }
+
+        private int records() {
+            return records;
+        }
+
+        private int recordStart(int record) {
+            return recordStarts[record];
+        }
+
+        private int recordEnd(int record) {
+            return record + 1 < records ? recordStarts[record + 1] : count;
+        }
+
+        private byte[] array() {
+            return buf;
+        }
+
+        private void clear() {
+            reset();
+            records = 0;
+        }
+
+        /**
+         * Only called for failed documents: the document parsed as product, or a product with the id of the action
+         */
+        private Product product(int record) {
+            final int start = recordStart(record);
+            final int end = recordEnd(record);
+            int newline = start;
+            while (newline < end && buf[newline] != '\n') {
+                newline++;
+            }
+            try (JsonParser parser = JSON.createParser(buf, newline + 1, Math.max(0, end - newline - 1))) {
+                if (parser.nextToken() == JsonToken.START_OBJECT) {
+                    return ProductJson.read(parser);
+                }
+            } catch (IOException | RuntimeException e) {
+                // a delete, or not a product
+            }
+            final Product product = new Product();
+            try (JsonParser parser = JSON.createParser(buf, start, newline - start)) {
+                for (JsonToken token = parser.nextToken(); token != null; token = parser.nextToken()) {
+                    if (token == JsonToken.FIELD_NAME && parser.getCurrentName().equals("_id")) {
+                        product.setId(parser.nextTextValue());
+                        break;
+                    }
+                }
+            } catch (IOException e) {
+                // no id then
+            }
+            return product;
+        }
+    }
+
+    private static int[] allRecords(Body body) {
+        final int[] records = new int[body.records()];
+        Arrays.setAll(records, i -> i);
+        return records;
+    }
+
+    /**
+     * @return end of the action and its document, after the newline, -1 if the chunk ends before
+     */
+    private static int bulkRecordEnd(ByteBuffer chunk, int position, int limit, boolean last, long offset) throws IOException {
+        final int actionEnd = indexOf(chunk, position, limit, (byte) '\n');
+        final int lineEnd = actionEnd < 0 ? limit : actionEnd;
+        if (actionEnd < 0 && !last) {
+            return -1;
+        }
+        if (isBlank(chunk, position, lineEnd) || isDelete(chunk, position, lineEnd)) {
+            return actionEnd < 0 ? limit : actionEnd + 1;
+        }
+        if (actionEnd < 0 || (actionEnd + 1 == limit && last)) {
+            throw new IOException("action at offset [" + (offset + position) + "] is not followed by a document");
+        }
+        final int documentEnd = indexOf(chunk, actionEnd + 1, limit, (byte) '\n');
+        if (documentEnd < 0) {
+            return last ? limit : -1;
+        }
+        return documentEnd + 1;
+    }
+
+    private static boolean isDelete(ByteBuffer chunk, int position, int end) {
+        int i = position;
+        while (i < end && (chunk.get(i) == ' ' || chunk.get(i) == '\t')) {
+            i++;
+        }
+        if (i >= end || chunk.get(i) != '{') {
+            return false;
+        }
+        i++;
+        while (i < end && (chunk.get(i) == ' ' || chunk.get(i) == '\t')) {
+            i++;
+        }
+        if (end - i < DELETE.length) {
+            return false;
+        }
+        for (int j = 0; j < DELETE.length; j++) {
+            if (chunk.get(i + j) != DELETE[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return end of the csv row, after the newline, newlines in quoted fields are part of the row
+     */
+    private static int csvRecordEnd(ByteBuffer chunk, int position, int limit, boolean last) {
+        boolean quoted = false;
+        for (int i = position; i < limit; i++) {
+            final byte b = chunk.get(i);
+            if (b == '"') {
+                quoted = !quoted;
+            } else if (b == '\n' && !quoted) {
+                return i + 1;
+            }
+        }
+        return last ? limit : -1;
+    }
+
+    private static int indexOf(ByteBuffer chunk, int position, int limit, byte b) {
+        for (int i = position; i < limit; i++) {
+            if (chunk.get(i) == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isBlank(ByteBuffer chunk, int position, int end) {
+        for (int i = position; i < end; i++) {
+            final byte b = chunk.get(i);
+            if (b != ' ' && b != '\t' && b != '\r' && b != '\n') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int trimLineEnd(byte[] bytes, int start, int end) {
+        while (end > start && (bytes[end - 1] == '\n' || bytes[end - 1] == '\r')) {
+            end--;
+        }
+        return end;
+    }
+
+    /**
+     * Splits a csv row into its fields, unquoted, still as UTF-8 bytes
+     */
+    static List<byte[]> parseCsv(byte[] bytes, int start, int end) {
+        final List<byte[]> fields = new ArrayList<>();
+        final ByteArrayOutputStream field = new ByteArrayOutputStream();
+        boolean quoted = false;
+        for (int i = start; i < end; i++) {
+            final byte b = bytes[i];
+            if (quoted) {
+                if (b == '"' && i + 1 < end && bytes[i + 1] == '"') {
+                    field.write('"');
+                    i++;
+                } else if (b == '"') {
+                    quoted = false;
+                } else {
+                    field.write(b);
+                }
+            } else if (b == '"') {
+                quoted = true;
+            } else if (b == ',') {
+                fields.add(field.toByteArray());
+                field.reset();
+            } else if (b != '\r' && b != '\n') {
+                field.write(b);
+            }
+        }
+        fields.add(field.toByteArray());
+        return fields;
+    }
+
+    private static boolean isField(byte[] name, String expected) {
+        return Arrays.equals(name, expected.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Numbers are written as they are in the file, anything else as a string, for elasticsearch to coerce or reject
+     */
+    private static void writeNumber(JsonGenerator generator, byte[] value) throws IOException {
+        final String text = new String(value, StandardCharsets.US_ASCII).trim();
+        try {
+            Double.parseDouble(text);
+            generator.writeNumber(text);
+        } catch (NumberFormatException e) {
+            generator.writeUTF8String(value, 0, value.length);
+        }
+    }
+
+    public static class Builder {
+        private final ElasticsearchAsyncClient client;
+        private final String index;
+        private Format format = Format.BULK;
+        private int maxOperations = 1000;
+        private int maxBytes = 5 * 1024 * 1024;
+        private int chunkBytes = 64 * 1024 * 1024;
+        private int maxConcurrentRequests = 2;
+        private int parallelism = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        private int maxRetries = 3;
+        private Duration initialBackoff = Duration.ofMillis(100);
+        private long startOffset;
+        private LongConsumer checkpointListener = offset -> {};
+
+        private Builder(ElasticsearchAsyncClient client, String index) {
+            this.client = client;
+            this.index = index;
+        }
+
+        /**
+         * Format of the file, defaults to {@link Format#BULK}
+         */
+        public Builder format(Format format) {
+            this.format = format;
+            return this;
+        }
+
+        /**
+         * Send a bulk request once this many documents are collected, defaults to 1000
+         */
+        public Builder maxOperations(int maxOperations) {
+            this.maxOperations = maxOperations;
+            return this;
+        }
+
+        /**
+         * Send a bulk request once the collected documents are this many bytes, defaults to 5mb
+         */
+        public Builder maxBytes(int maxBytes) {
+            this.maxBytes = maxBytes;
+            return this;
+        }
+
+        /**
+         * Size of the windows the file is mapped in, defaults to 64mb. No single document may be larger.
+         */
+        public Builder chunkBytes(int chunkBytes) {
+            this.chunkBytes = chunkBytes;
+            return this;
+        }
+
+        /**
+         * Number of bulk requests converted or sent at the same time, defaults to 2
+         */
+        public Builder maxConcurrentRequests(int maxConcurrentRequests) {
+            this.maxConcurrentRequests = maxConcurrentRequests;
+            return this;
+        }
+
+        /**
+         * Threads converting csv rows, defaults to half of the processors
+         */
+        public Builder parallelism(int parallelism) {
+            this.parallelism = parallelism;
+            return this;
+        }
+
+        /**
+         * How often a rejected document is retried before giving up, defaults to 3
+         */
+        public Builder maxRetries(int maxRetries) {
+            this.maxRetries = maxRetries;
+            return this;
+        }
+
+        /**
+         * Backoff before the first retry, doubled for every further retry. Defaults to 100ms.
+         */
+        public Builder initialBackoff(Duration initialBackoff) {
+            this.initialBackoff = initialBackoff;
+            return this;
+        }
+
+        /**
+         * Offset in the file to start reading at, a checkpoint of an earlier load. Defaults to 0.
+         */
+        public Builder startOffset(long startOffset) {
+            this.startOffset = startOffset;
+            return this;
+        }
+
+        /**
+         * Called with increasing offsets, every document before the offset has been indexed or has finally failed
+         */
+        public Builder onCheckpoint(LongConsumer checkpointListener) {
+            this.checkpointListener = checkpointListener;
+            return this;
+        }
+
+        public BulkFileIngester build() {
+            if (maxOperations < 1 || maxBytes < 1 || chunkBytes < 1 || maxConcurrentRequests < 1 || parallelism < 1
+                    || maxRetries < 0 || startOffset < 0) {
+                throw new IllegalArgumentException("thresholds, sizes and concurrency must be positive");
+            }
+            if (!RawJsonRequests.supports(client._transport())) {
+                throw new IllegalArgumentException("file ingestion sends raw request bodies and requires a rest client transport");
+            }
+            return new BulkFileIngester(this);
+        }
+    }
+}
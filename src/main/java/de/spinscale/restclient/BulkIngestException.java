@@ -0,0 +1,39 @@
+package de.spinscale.restclient;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Thrown when some products of a bulk ingestion could not be indexed, even after retrying.
+ * All other products of the same ingestion have been indexed successfully.
+ */
+public class BulkIngestException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    // products are not serializable, a deserialized exception keeps only its message
+    private final transient List<Failure> failures;
+
+    public BulkIngestException(List<Failure> failures) {
+        super(failures.size() + " product(s) failed to index, first failure: " + failures.get(0));
+        this.failures = List.copyOf(failures);
+    }
+
+    public List<Failure> getFailures() {
+        return failures == null ? List.of() : failures;
+    }
+
+    /**
+     * @param product the product that was not indexed
+     * @param status http status of the bulk item, or of the whole bulk request if that failed
+     * @param type elasticsearch error type, e.g. {@code version_conflict_engine_exception}
+     * @param reason human readable reason
+     */
+    public record Failure(Product product, int status, String type, String reason) {
+
+        @Override
+        public String toString() {
+            return "[" + product.getId() + "] status " + status + ", " + type + ": " + reason;
+        }
+    }
+}
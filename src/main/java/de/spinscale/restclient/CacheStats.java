@@ -0,0 +1,18 @@
+package de.spinscale.restclient;
+
+/**
+ * Point in time snapshot of cache counters
+ *
+ * @param hits lookups answered from the cache
+ * @param misses lookups that had to go to elasticsearch, including expired entries
+ * @param evictions entries dropped to stay within the size bound
+ * @param size number of cached entries
+ * @param weight summed weight of all cached entries
+ */
+public record CacheStats(long hits, long misses, long evictions, long size, long weight) {
+
+    public double hitRate() {
+        final long lookups = hits + misses;
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+}
@@ -0,0 +1,275 @@
+package de.spinscale.restclient;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.stream.Stream;
+
+/**
+ * Keeps recently fetched products in memory, so hot products are not fetched from elasticsearch on every lookup.
+ *
+ * <ul>
+ *     <li>entries expire after {@code ttl}, which bounds how stale a product written by another process can get</li>
+ *     <li>saving or updating a product through this service invalidates its entry</li>
+ *     <li>concurrent misses for the same id are answered by a single request</li>
+ * </ul>
+ *
+ * Callers get their own copy of a cached product, so modifying it does not alter the cache.
+ */
+public class CachingProductService implements ProductService {
+
+    private static final int GENERATION_STRIPES = 64;
+
+    private final ProductService delegate;
+    private final LruCache<String, Product> cache;
+    private final ConcurrentHashMap<String, CompletableFuture<Product>> loading = new ConcurrentHashMap<>();
+    // bumped on every write, a load that raced with a write must not put the old product into the cache
+    private final AtomicLongArray generations = new AtomicLongArray(GENERATION_STRIPES);
+
+    /**
+     * @param maxEntries maximum number of cached products, least recently used ones are evicted first
+     * @param ttl how long a product is cached at most
+     */
+    public CachingProductService(ProductService delegate, long maxEntries, Duration ttl) {
+        this.delegate = delegate;
+        this.cache = new LruCache<>(maxEntries, ttl);
+    }
+
+    @Override
+    public Product findById(String id) throws IOException {
+        final Product cached = cache.get(id);
+        if (cached != null) {
+            return copyOf(cached);
+        }
+
+        final CompletableFuture<Product> load = new CompletableFuture<>();
+        final CompletableFuture<Product> running = loading.putIfAbsent(id, load);
+        if (running != null) {
+            return copyOf(await(running));
+        }
+        try {
+            final long generation = generation(id);
+            final Product product = delegate.findById(id);
+            if (product != null && generation == generation(id)) {
+                cache.put(id, copyOf(product));
+            }
+            // waiters get a copy of their own, the caller may change the product right away
+            load.complete(copyOf(product));
+            return product;
+        } catch (IOException | RuntimeException e) {
+            load.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(id, load);
+        }
+    }
+
+    @Override
+    public List<Product> findAll(Collection<String> ids) throws IOException {
+        final Map<String, Product> found = new HashMap<>();
+        // misses loaded by this call, and misses another call is loading already
+        final Map<String, CompletableFuture<Product>> loads = new LinkedHashMap<>();
+        final Map<String, CompletableFuture<Product>> running = new HashMap<>();
+        for (String id : ids) {
+            if (found.containsKey(id) || loads.containsKey(id) || running.containsKey(id)) {
+                continue;
+            }
+            final Product cached = cache.get(id);
+            if (cached != null) {
+                found.put(id, copyOf(cached));
+                continue;
+            }
+            final CompletableFuture<Product> load = new CompletableFuture<>();
+            final CompletableFuture<Product> other = loading.putIfAbsent(id, load);
+            if (other != null) {
+                running.put(id, other);
+            } else {
+                loads.put(id, load);
+            }
+        }
+
+        if (!loads.isEmpty()) {
+            final Map<String, Long> before = new HashMap<>();
+            loads.keySet().forEach(id -> before.put(id, generation(id)));
+            try {
+                for (Product product : delegate.findAll(new ArrayList<>(loads.keySet()))) {
+                    final Long generation = before.get(product.getId());
+                    if (generation != null && generation == generation(product.getId())) {
+                        cache.put(product.getId(), copyOf(product));
+                    }
+                    found.put(product.getId(), product);
+                }
+                // completes with null for the ids that were not found
+                loads.forEach((id, load) -> load.complete(copyOf(found.get(id))));
+            } catch (IOException | RuntimeException e) {
+                loads.values().forEach(load -> load.completeExceptionally(e));
+                throw e;
+            } finally {
+                loads.forEach(loading::remove);
+            }
+        }
+        // only waited for after completing the own loads, which other calls may be waiting for in turn
+        for (Map.Entry<String, CompletableFuture<Product>> entry : running.entrySet()) {
+            final Product product = await(entry.getValue());
+            if (product != null) {
+                found.put(entry.getKey(), copyOf(product));
+            }
+        }
+        return ids.stream().map(found::get).filter(Objects::nonNull).toList();
+    }
+
+    @Override
+    public Page<Product> search(String query) throws IOException {
+        return delegate.search(query);
+    }
+
+    @Override
+    public Page<Product> next(Page<Product> page) throws IOException {
+        return delegate.next(page);
+    }
+
+    @Override
+    public <T> Page<T> search(String query, Projection<T> projection) throws IOException {
+        return delegate.search(query, projection);
+    }
+
+    @Override
+    public <T> Page<T> next(Page<T> page, Projection<T> projection) throws IOException {
+        return delegate.next(page, projection);
+    }
+
+    @Override
+    public ColumnarPage searchColumnar(String query, int size) throws IOException {
+        return delegate.searchColumnar(query, size);
+    }
+
+    @Override
+    public ColumnarPage next(ColumnarPage page) throws IOException {
+        return delegate.next(page);
+    }
+
+    @Override
+    public void close(Page<?> page) throws IOException {
+        delegate.close(page);
+    }
+
+    @Override
+    public Stream<Product> export(int slices, Executor executor) throws IOException {
+        return delegate.export(slices, executor);
+    }
+
+    @Override
+    public Stream<ProductBucket> aggregate(ProductAggregation aggregation) throws IOException {
+        return delegate.aggregate(aggregation);
+    }
+
+    @Override
+    public void save(Product product) throws IOException {
+        save(List.of(product));
+    }
+
+    @Override
+    public void save(List<Product> products) throws IOException {
+        // before, so that loads running concurrently do not cache the old product,
+        // and after, for products which got their id assigned while saving
+        invalidate(products.stream().map(Product::getId).toList());
+        try {
+            delegate.save(products);
+        } finally {
+            invalidate(products.stream().map(Product::getId).toList());
+        }
+    }
+
+    @Override
+    public void updateStock(String id, int delta) throws IOException {
+        invalidate(List.of(id));
+        try {
+            delegate.updateStock(id, delta);
+        } finally {
+            invalidate(List.of(id));
+        }
+    }
+
+    @Override
+    public void updatePrice(String id, double price) throws IOException {
+        invalidate(List.of(id));
+        try {
+            delegate.updatePrice(id, price);
+        } finally {
+            invalidate(List.of(id));
+        }
+    }
+
+    @Override
+    public void update(List<ProductUpdate> updates) throws IOException {
+        final List<String> ids = updates.stream().map(ProductUpdate::id).toList();
+        invalidate(ids);
+        try {
+            delegate.update(updates);
+        } finally {
+            invalidate(ids);
+        }
+    }
+
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    private void invalidate(List<String> ids) {
+        for (String id : ids) {
+            if (id != null) {
+                generations.incrementAndGet(stripe(id));
+                cache.invalidate(id);
+            }
+        }
+    }
+
+    private long generation(String id) {
+        return generations.get(stripe(id));
+    }
+
+    private static int stripe(String id) {
+        return Math.floorMod(id.hashCode(), GENERATION_STRIPES);
+    }
+
+    static <T> T await(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException ioException) {
+                throw ioException;
+            }
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while waiting for concurrent load", e);
+        }
+    }
+
+    static Product copyOf(Product product) {
+        if (product == null) {
+            return null;
+        }
+        final Product copy = new Product();
+        copy.setId(product.getId());
+        copy.setName(product.getName());
+        copy.setDescription(product.getDescription());
+        copy.setPrice(product.getPrice());
+        copy.setStockAvailable(product.getStockAvailable());
+        return copy;
+    }
+}
@@ -0,0 +1,414 @@
+package de.spinscale.restclient;
+
+import co.elastic.clients.json.JsonpDeserializer;
+import co.elastic.clients.json.JsonpMapper;
+import co.elastic.clients.json.JsonpUtils;
+import co.elastic.clients.json.jackson.JacksonJsonpParser;
+import com.fasterxml.jackson.core.JsonToken;
+import jakarta.json.JsonException;
+import jakarta.json.stream.JsonParser;
+import jakarta.json.stream.JsonParser.Event;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.RandomAccess;
+import java.util.function.Consumer;
+import java.util.stream.DoubleStream;
+import java.util.stream.IntStream;
+
+/**
+ * Page keeping its products in columns instead of one object per hit, for consumers reading thousands of hits
+ * and mostly their numeric fields.
+ *
+ * <ul>
+ *     <li>prices and stock are plain {@code double[]} and {@code int[]} arrays</li>
+ *     <li>names and descriptions are kept as UTF-8 bytes in one shared array, a string is only created
+ *     when the text of a row is read</li>
+ *     <li>hit sources are read straight into the columns, no {@link Product} is created for them</li>
+ *     <li>products are handed out as read only views on a row, see {@link #product(int)} and {@link #forEachProduct(Consumer)}</li>
+ * </ul>
+ */
+public final class ColumnarPage extends Page<Product> {
+
+    static final ColumnarPage EMPTY = new ColumnarPage(new Columns(0), null, 0, 0, null, null);
+
+    private final Columns columns;
+
+    ColumnarPage(Columns columns, String input, int from, int size, String pitId, List<String> searchAfter) {
+        super(new Views(columns), input, from, size, pitId, searchAfter);
+        this.columns = columns;
+    }
+
+    /**
+     * @return number of products on this page
+     */
+    public int rows() {
+        return columns.rows;
+    }
+
+    public String id(int row) {
+        return columns.ids[Objects.checkIndex(row, columns.rows)];
+    }
+
+    public double price(int row) {
+        return columns.prices[Objects.checkIndex(row, columns.rows)];
+    }
+
+    public int stockAvailable(int row) {
+        return columns.stockAvailable[Objects.checkIndex(row, columns.rows)];
+    }
+
+    /**
+     * @return the name, decoded on every call
+     */
+    public String name(int row) {
+        return columns.text(Objects.checkIndex(row, columns.rows), Columns.NAME);
+    }
+
+    /**
+     * @return the description, decoded on every call
+     */
+    public String description(int row) {
+        return columns.text(Objects.checkIndex(row, columns.rows), Columns.DESCRIPTION);
+    }
+
+    public DoubleStream prices() {
+        return Arrays.stream(columns.prices, 0, columns.rows);
+    }
+
+    public IntStream stockAvailable() {
+        return Arrays.stream(columns.stockAvailable, 0, columns.rows);
+    }
+
+    /**
+     * @return a read only view on the product of a row, its setters throw {@link UnsupportedOperationException}
+     */
+    public Product product(int row) {
+        return new ProductView(columns, Objects.checkIndex(row, columns.rows));
+    }
+
+    /**
+     * Iterates all products with a single view, which is moved from row to row.
+     * The view must not be kept beyond the call of the action, use {@link #product(int)} for that.
+     */
+    public void forEachProduct(Consumer<? super Product> action) {
+        final ProductView view = new ProductView(columns, 0);
+        for (int row = 0; row < columns.rows; row++) {
+            view.row = row;
+            action.accept(view);
+        }
+    }
+
+    @Override
+    ColumnarPage withoutPointInTime() {
+        if (columns.rows == 0) {
+            return EMPTY;
+        }
+        return new ColumnarPage(columns, getInput(), getFrom(), getSize(), null, null);
+    }
+
+    /**
+     * Column storage, filled by reading hit sources with it. Not thread safe, it must not be modified once
+     * it has been handed to a page.
+     */
+    static final class Columns implements JsonpDeserializer<Integer> {
+
+        private static final EnumSet<Event> EVENTS = EnumSet.of(Event.START_OBJECT);
+
+        // offset and length of the name and the description of a row in text, four ints per row
+        static final int NAME = 0;
+        static final int DESCRIPTION = 2;
+        private static final int RANGE_INTS = 4;
+        private static final int NULL_TEXT = -1;
+
+        private int rows;
+        private String[] ids;
+        private double[] prices;
+        private int[] stockAvailable;
+        private int[] textRanges;
+        private byte[] text;
+        private int textLength;
+
+        /**
+         * @param expectedRows the page size, the columns grow if more rows are added
+         */
+        Columns(int expectedRows) {
+            this.ids = new String[expectedRows];
+            this.prices = new double[expectedRows];
+            this.stockAvailable = new int[expectedRows];
+            this.textRanges = new int[expectedRows * RANGE_INTS];
+            this.text = new byte[expectedRows * 64];
+        }
+
+        int rows() {
+            return rows;
+        }
+
+        @Override
+        public EnumSet<Event> nativeEvents() {
+            return EVENTS;
+        }
+
+        @Override
+        public EnumSet<Event> acceptedEvents() {
+            return EVENTS;
+        }
+
+        /**
+         * Reads a product source into a new row
+         *
+         * @return the row, hits refer to their product by it
+         */
+        @Override
+        public Integer deserialize(JsonParser parser, JsonpMapper mapper, Event event) {
+            JsonpUtils.expectEvent(parser, Event.START_OBJECT, event);
+            final int row = addRow();
+            if (parser instanceof JacksonJsonpParser jacksonJsonpParser) {
+                try {
+                    read(jacksonJsonpParser.jacksonParser(), row);
+                } catch (IOException e) {
+                    throw new JsonException("failed to read product", e);
+                }
+            } else {
+                set(row, ProductJson.read(parser));
+            }
+            return row;
+        }
+
+        /**
+         * Same fields as {@link ProductJson#read(com.fasterxml.jackson.core.JsonParser)}, text is encoded
+         * from the character buffer of the parser without creating a string
+         */
+        private void read(com.fasterxml.jackson.core.JsonParser parser, int row) throws IOException {
+            for (String field = parser.nextFieldName(); field != null; field = parser.nextFieldName()) {
+                final JsonToken token = parser.nextToken();
+                if (token.isStructStart()) {
+                    parser.skipChildren();
+                    continue;
+                }
+                switch (field) {
+                    case "id" -> ids[row] = parser.getValueAsString();
+                    case "name" -> setText(row, NAME, parser, token);
+                    case "description" -> setText(row, DESCRIPTION, parser, token);
+                    case "price" -> prices[row] = parser.getValueAsDouble();
+                    case "stock_available", "stockAvailable" -> stockAvailable[row] = parser.getValueAsInt();
+                    default -> {
+                    }
+                }
+            }
+            if (parser.currentToken() != JsonToken.END_OBJECT) {
+                throw new JsonException("expected end of product object but got " + parser.currentToken());
+            }
+        }
+
+        private void setText(int row, int field, com.fasterxml.jackson.core.JsonParser parser, JsonToken token) throws IOException {
+            if (token == JsonToken.VALUE_NULL) {
+                textRanges[row * RANGE_INTS + field + 1] = NULL_TEXT;
+            } else if (token == JsonToken.VALUE_STRING) {
+                setText(row, field, parser.getTextCharacters(), parser.getTextOffset(), parser.getTextLength());
+            } else {
+                setText(row, field, parser.getValueAsString());
+            }
+        }
+
+        /**
+         * Appends a row, used when the products are at hand already
+         */
+        void add(Product product) {
+            set(addRow(), product);
+        }
+
+        void setId(int row, String id) {
+            ids[row] = id;
+        }
+
+        String id(int row) {
+            return ids[row];
+        }
+
+        private void set(int row, Product product) {
+            ids[row] = product.getId();
+            prices[row] = product.getPrice();
+            stockAvailable[row] = product.getStockAvailable();
+            setText(row, NAME, product.getName());
+            setText(row, DESCRIPTION, product.getDescription());
+        }
+
+        private int addRow() {
+            if (rows == prices.length) {
+                final int capacity = Math.max(16, rows + (rows >> 1));
+                ids = Arrays.copyOf(ids, capacity);
+                prices = Arrays.copyOf(prices, capacity);
+                stockAvailable = Arrays.copyOf(stockAvailable, capacity);
+                textRanges = Arrays.copyOf(textRanges, capacity * RANGE_INTS);
+            }
+            final int row = rows++;
+            textRanges[row * RANGE_INTS + NAME + 1] = NULL_TEXT;
+            textRanges[row * RANGE_INTS + DESCRIPTION + 1] = NULL_TEXT;
+            return row;
+        }
+
+        private void setText(int row, int field, String value) {
+            if (value == null) {
+                textRanges[row * RANGE_INTS + field + 1] = NULL_TEXT;
+                return;
+            }
+            final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            ensureText(bytes.length);
+            System.arraycopy(bytes, 0, text, textLength, bytes.length);
+            setRange(row, field, textLength, bytes.length);
+            textLength += bytes.length;
+        }
+
+        /**
+         * Encodes UTF-8 by hand, {@link java.nio.charset.CharsetEncoder} would need wrappers around the arrays.
+         * Unpaired surrogates become '?', like {@link String#getBytes} does.
+         */
+        private void setText(int row, int field, char[] chars, int offset, int length) {
+            // a char takes three bytes at most, a surrogate pair two chars and four bytes
+            ensureText(length * 3);
+            final byte[] bytes = text;
+            int position = textLength;
+            for (int i = offset, end = offset + length; i < end; i++) {
+                final char c = chars[i];
+                if (c < 0x80) {
+                    bytes[position++] = (byte) c;
+                } else if (c < 0x800) {
+                    bytes[position++] = (byte) (0xC0 | c >> 6);
+                    bytes[position++] = (byte) (0x80 | c & 0x3F);
+                } else if (Character.isSurrogate(c)) {
+                    if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(chars[i + 1])) {
+                        final int codePoint = Character.toCodePoint(c, chars[++i]);
+                        bytes[position++] = (byte) (0xF0 | codePoint >> 18);
+                        bytes[position++] = (byte) (0x80 | codePoint >> 12 & 0x3F);
+                        bytes[position++] = (byte) (0x80 | codePoint >> 6 & 0x3F);
+                        bytes[position++] = (byte) (0x80 | codePoint & 0x3F);
+                    } else {
+                        bytes[position++] = '?';
+                    }
+                } else {
+                    bytes[position++] = (byte) (0xE0 | c >> 12);
+                    bytes[position++] = (byte) (0x80 | c >> 6 & 0x3F);
+                    bytes[position++] = (byte) (0x80 | c & 0x3F);
+                }
+            }
+            setRange(row, field, textLength, position - textLength);
+            textLength = position;
+        }
+
+        private void setRange(int row, int field, int offset, int length) {
+            textRanges[row * RANGE_INTS + field] = offset;
+            textRanges[row * RANGE_INTS + field + 1] = length;
+        }
+
+        private void ensureText(int additional) {
+            final int needed = textLength + additional;
+            if (needed > text.length) {
+                text = Arrays.copyOf(text, Math.max(needed, text.length * 2));
+            }
+        }
+
+        String text(int row, int field) {
+            final int length = textRanges[row * RANGE_INTS + field + 1];
+            if (length == NULL_TEXT) {
+                return null;
+            }
+            return new String(text, textRanges[row * RANGE_INTS + field], length, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Creates a view per access, so {@link Page} methods and code iterating products keep working
+     */
+    private static final class Views extends AbstractList<Product> implements RandomAccess {
+
+        private final Columns columns;
+
+        private Views(Columns columns) {
+            this.columns = columns;
+        }
+
+        @Override
+        public Product get(int index) {
+            return new ProductView(columns, Objects.checkIndex(index, columns.rows));
+        }
+
+        @Override
+        public int size() {
+            return columns.rows;
+        }
+    }
+
+    /**
+     * Read only product backed by a row of the columns. The fields inherited from {@link Product} stay unused.
+     */
+    private static final class ProductView extends Product {
+
+        private final Columns columns;
+        private int row;
+
+        private ProductView(Columns columns, int row) {
+            this.columns = columns;
+            this.row = row;
+        }
+
+        @Override
+        public String getId() {
+            return columns.ids[row];
+        }
+
+        @Override
+        public String getName() {
+            return columns.text(row, Columns.NAME);
+        }
+
+        @Override
+        public String getDescription() {
+            return columns.text(row, Columns.DESCRIPTION);
+        }
+
+        @Override
+        public double getPrice() {
+            return columns.prices[row];
+        }
+
+        @Override
+        public int getStockAvailable() {
+            return columns.stockAvailable[row];
+        }
+
+        @Override
+        public void setId(String id) {
+            throw readOnly();
+        }
+
+        @Override
+        public void setName(String name) {
+            throw readOnly();
+        }
+
+        @Override
+        public void setDescription(String description) {
+            throw readOnly();
+        }
+
+        @Override
+        public void setPrice(double price) {
+            throw readOnly();
+        }
+
+        @Override
+        public void setStockAvailable(int stockAvailable) {
+            throw readOnly();
+        }
+
+        private static UnsupportedOperationException readOnly() {
+            return new UnsupportedOperationException("products of a columnar page are read only, copy them to modify them");
+        }
+    }
+}
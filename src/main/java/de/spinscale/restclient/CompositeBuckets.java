@@ -0,0 +1,182 @@
+package de.spinscale.restclient;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.aggregations.Aggregate;
+import co.elastic.clients.elasticsearch._types.aggregations.CompositeAggregate;
+import co.elastic.clients.elasticsearch._types.aggregations.CompositeAggregationSource;
+import co.elastic.clients.elasticsearch._types.aggregations.CompositeBucket;
+import co.elastic.clients.elasticsearch.core.SearchRequest;
+import co.elastic.clients.json.JsonData;
+import jakarta.json.JsonString;
+import jakarta.json.JsonValue;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Pages through all buckets of a composite aggregation, one request per page, using the {@code after_key} of a page
+ * to request the next one. Pages are only requested while the stream is consumed, so at most one page is in memory,
+ * no matter how many buckets there are. Composite aggregations keep no state on the cluster, there is nothing to
+ * close, and a page failing can be retried by aggregating again.
+ */
+class CompositeBuckets implements Spliterator<ProductBucket> {
+
+    static final String AGGREGATION = "products";
+    static final String AVERAGE_STOCK = "average_stock";
+    static final String TOTAL_STOCK = "total_stock";
+    static final String MIN_PRICE = "min_price";
+    static final String MAX_PRICE = "max_price";
+
+    private final ElasticsearchClient client;
+    private final String index;
+    private final ProductAggregation aggregation;
+    private Iterator<ProductBucket> page;
+    // null once the last page has been read
+    private Map<String, String> afterKey;
+
+    private CompositeBuckets(ElasticsearchClient client, String index, ProductAggregation aggregation) {
+        this.client = client;
+        this.index = index;
+        this.aggregation = aggregation;
+    }
+
+    /**
+     * The first page is requested right away, so a missing index fails here and not while consuming the stream
+     */
+    static Stream<ProductBucket> stream(ElasticsearchClient client, String index, ProductAggregation aggregation) throws IOException {
+        final CompositeBuckets buckets = new CompositeBuckets(client, index, aggregation);
+        buckets.fetch(null);
+        return StreamSupport.stream(buckets, false);
+    }
+
+    private void fetch(Map<String, String> after) throws IOException {
+        final CompositeAggregate composite = client.search(createCompositeRequest(index, aggregation, after), Void.class)
+                .aggregations().get(AGGREGATION).composite();
+        final List<CompositeBucket> buckets = composite.buckets().array();
+        final List<ProductBucket> products = new ArrayList<>(buckets.size());
+        for (CompositeBucket bucket : buckets) {
+            products.add(toProductBucket(bucket));
+        }
+        page = products.iterator();
+        // a short page is the last one, no need to ask for an empty page
+        afterKey = buckets.size() < aggregation.pageSize() || composite.afterKey() == null ? null : toStrings(composite.afterKey());
+    }
+
+    static SearchRequest createCompositeRequest(String index, ProductAggregation aggregation, Map<String, String> after) {
+        String comment = """
+                POST <index>/_search
+                {
+                  "size": 0,
+                  "track_total_hits": false,
+                  "aggregations": {
+                    "products": {
+                      "composite": {
+                        "size": 1000,
+                        "sources": [
+                          { "price": { "histogram": { "field": "price", "interval": 10.0 } } },
+                          { "name.keyword": { "terms": { "field": "name.keyword" } } }
+                        ],
+                        "after": { "price": "10.0", "name.keyword": "Name of 9 product" }
+                      },
+                      "aggregations": {
+                        "average_stock": { "avg": { "field": "stock_available" } },
+                        "total_stock": { "sum": { "field": "stock_available" } },
+                        "min_price": { "min": { "field": "price" } },
+                        "max_price": { "max": { "field": "price" } }
+                      }
+                    }
+                  }
+                }
+                """;
+        final List<Map<String, CompositeAggregationSource>> sources = new ArrayList<>();
+        if (aggregation.priceInterval() != null) {
+            sources.add(Map.of(ProductAggregation.PRICE, CompositeAggregationSource.of(sb -> sb
+                    .histogram(hb -> hb.field("price").interval(aggregation.priceInterval())))));
+        }
+        for (String field : aggregation.terms()) {
+            sources.add(Map.of(field, CompositeAggregationSource.of(sb -> sb.terms(tb -> tb.field(field)))));
+        }
+        return SearchRequest.of(builder -> builder
+                .index(index)
+                .size(0)
+                // only the buckets are needed
+                .trackTotalHits(tb -> tb.enabled(false))
+                .aggregations(AGGREGATION, ab -> ab
+                        .composite(cb -> {
+                            cb.size(aggregation.pageSize()).sources(sources);
+                            if (after != null) {
+                                cb.after(after);
+                            }
+                            return cb;
+                        })
+                        .aggregations(AVERAGE_STOCK, sub -> sub.avg(avg -> avg.field("stock_available")))
+                        .aggregations(TOTAL_STOCK, sub -> sub.sum(sum -> sum.field("stock_available")))
+                        .aggregations(MIN_PRICE, sub -> sub.min(min -> min.field("price")))
+                        .aggregations(MAX_PRICE, sub -> sub.max(max -> max.field("price")))));
+    }
+
+    private ProductBucket toProductBucket(CompositeBucket bucket) {
+        final Map<String, String> key = toStrings(bucket.key());
+        final String price = key.get(ProductAggregation.PRICE);
+        final Map<String, String> terms = new LinkedHashMap<>();
+        for (String field : aggregation.terms()) {
+            terms.put(field, key.get(field));
+        }
+        final Map<String, Aggregate> aggregations = bucket.aggregations();
+        return new ProductBucket(price == null ? null : Double.valueOf(price), terms, bucket.docCount(),
+                aggregations.get(AVERAGE_STOCK).avg().value(), aggregations.get(TOTAL_STOCK).sum().value(),
+                aggregations.get(MIN_PRICE).min().value(), aggregations.get(MAX_PRICE).max().value());
+    }
+
+    private static Map<String, String> toStrings(Map<String, JsonData> key) {
+        final Map<String, String> strings = new LinkedHashMap<>();
+        key.forEach((name, value) -> strings.put(name, toString(value)));
+        return strings;
+    }
+
+    // numbers as their JSON text, strings unquoted, as elasticsearch parses both back in an after key
+    private static String toString(JsonData data) {
+        final JsonValue value = data.toJson();
+        return value instanceof JsonString string ? string.getString() : value.toString();
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super ProductBucket> action) {
+        while (!page.hasNext()) {
+            if (afterKey == null) {
+                return false;
+            }
+            try {
+                fetch(afterKey);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        action.accept(page.next());
+        return true;
+    }
+
+    @Override
+    public Spliterator<ProductBucket> trySplit() {
+        return null;
+    }
+
+    @Override
+    public long estimateSize() {
+        return Long.MAX_VALUE;
+    }
+
+    @Override
+    public int characteristics() {
+        return Spliterator.NONNULL | Spliterator.ORDERED;
+    }
+}
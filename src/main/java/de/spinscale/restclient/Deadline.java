@@ -0,0 +1,111 @@
+package de.spinscale.restclient;
+
+import co.elastic.clients.transport.TransportOptions;
+import co.elastic.clients.transport.rest_client.RestClientOptions;
+import org.apache.http.client.config.RequestConfig;
+import org.elasticsearch.client.RequestOptions;
+
+import java.io.IOException;
+import java.time.Duration;
+
+/**
+ * Point in time by which a call has to be answered.
+ *
+ * While a deadline is set for the current thread with {@link #call(Call)}, every search and get {@link ProductServiceImpl}
+ * sends to elasticsearch times out once the deadline has passed, and none is sent anymore after that.
+ * A request timing out closes its connection, which cancels the search on the elasticsearch side as well.
+ * Writes, exports and aggregations are not covered: a write cut off by the client may still be applied,
+ * so its outcome would be unknown.
+ */
+public final class Deadline {
+
+    private static final ThreadLocal<Deadline> CURRENT = new ThreadLocal<>();
+
+    private final long deadlineNanos;
+
+    private Deadline(long deadlineNanos) {
+        this.deadlineNanos = deadlineNanos;
+    }
+
+    public static Deadline after(Duration budget) {
+        return new Deadline(System.nanoTime() + budget.toNanos());
+    }
+
+    /**
+     * @return the deadline of the current thread, null if there is none
+     */
+    public static Deadline current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * @return time left, negative once the deadline has passed
+     */
+    public Duration remaining() {
+        return Duration.ofNanos(remainingNanos());
+    }
+
+    public boolean isExpired() {
+        return remainingNanos() <= 0;
+    }
+
+    long remainingNanos() {
+        return deadlineNanos - System.nanoTime();
+    }
+
+    long nanos() {
+        return deadlineNanos;
+    }
+
+    /**
+     * Runs the call with this deadline set for the current thread, an enclosing deadline is restored afterwards
+     */
+    public <T> T call(Call<T> call) throws IOException {
+        final Deadline previous = CURRENT.get();
+        CURRENT.set(this);
+        try {
+            return call.call();
+        } finally {
+            if (previous == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(previous);
+            }
+        }
+    }
+
+    /**
+     * Options for a request that has to be answered within the remaining time. Connecting, waiting for a pooled
+     * connection and waiting for response data are each limited, so the request ends at about the deadline.
+     * Options of other transports than the rest client transport are returned as they are.
+     *
+     * @throws DeadlineExceededException if there is no time left to send a request
+     */
+    TransportOptions apply(TransportOptions options) throws DeadlineExceededException {
+        final long remainingMillis = Duration.ofNanos(remainingNanos()).toMillis();
+        if (remainingMillis <= 0) {
+            throw new DeadlineExceededException(this);
+        }
+        if (!(options instanceof RestClientOptions restClientOptions)) {
+            return options;
+        }
+        final int timeout = (int) Math.min(Integer.MAX_VALUE, remainingMillis);
+        final RequestOptions requestOptions = restClientOptions.restClientRequestOptions();
+        // replaces the request config of the client, only the timeouts are changed by a deadline
+        final RequestConfig.Builder config = requestOptions.getRequestConfig() == null
+                ? RequestConfig.custom()
+                : RequestConfig.copy(requestOptions.getRequestConfig());
+        config.setConnectTimeout(timeout).setConnectionRequestTimeout(timeout).setSocketTimeout(timeout);
+        return new RestClientOptions(requestOptions.toBuilder().setRequestConfig(config.build()).build());
+    }
+
+    @Override
+    public String toString() {
+        return "deadline in [" + remaining().toMillis() + "ms]";
+    }
+
+    @FunctionalInterface
+    public interface Call<T> {
+        T call() throws IOException;
+    }
+}
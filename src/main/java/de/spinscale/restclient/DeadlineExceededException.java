@@ -0,0 +1,16 @@
+package de.spinscale.restclient;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a call has not been answered before its {@link Deadline}, or was not started at all because
+ * the deadline had passed already
+ */
+public class DeadlineExceededException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    public DeadlineExceededException(Deadline deadline) {
+        super("deadline exceeded by [" + -deadline.remaining().toMillis() + "ms]");
+    }
+}
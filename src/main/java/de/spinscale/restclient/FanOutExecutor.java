@@ -0,0 +1,333 @@
+package de.spinscale.restclient;
+
+import org.elasticsearch.client.RestClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntSupplier;
+
+/**
+ * Runs many blocking {@link ProductService} calls concurrently, e.g. the product queries needed to answer a
+ * single request of an aggregating API.
+ *
+ * <ul>
+ *     <li>every call runs on its own thread, virtual threads if the JVM has them, see {@link Builder#executor(Executor)}</li>
+ *     <li>the number of calls running at the same time is capped, calls exceeding the cap wait for a free slot</li>
+ *     <li>all calls of a {@link Batch} share one {@link Deadline}, once it has passed the calls not sent yet are
+ *     dropped, the running ones time out and all of them fail with a {@link DeadlineExceededException}</li>
+ * </ul>
+ *
+ * <pre>
+ * try (FanOutExecutor.Batch batch = fanOut.batch(Duration.ofMillis(50))) {
+ *     CompletableFuture&lt;Page&lt;Product&gt;&gt; cheese = batch.search("cheese");
+ *     CompletableFuture&lt;Product&gt; product = batch.findById("42");
+ *     batch.join();
+ *     ...
+ * }
+ * </pre>
+ */
+public class FanOutExecutor implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(FanOutExecutor.class);
+
+    private static final int DEFAULT_MAX_CONCURRENCY = 64;
+
+    private final ProductService service;
+    private final Executor executor;
+    // null if the executor has been passed in and is shut down by its owner
+    private final ExecutorService ownedExecutor;
+    private final ConcurrencyLimit limit;
+    private final ScheduledThreadPoolExecutor timer;
+
+    private FanOutExecutor(Builder builder) {
+        this.service = builder.service;
+        if (builder.executor != null) {
+            this.executor = builder.executor;
+            this.ownedExecutor = null;
+        } else {
+            this.ownedExecutor = newThreadPerTaskExecutor();
+            this.executor = ownedExecutor;
+        }
+        this.limit = new ConcurrencyLimit(builder.maxConcurrency);
+        this.timer = new ScheduledThreadPoolExecutor(1, daemonThreads("fan-out-deadline"));
+        // most batches are done long before their deadline
+        this.timer.setRemoveOnCancelPolicy(true);
+    }
+
+    public static Builder builder(ProductService service) {
+        return new Builder(service);
+    }
+
+    /**
+     * @param budget time all calls of the batch have to be answered in
+     */
+    public Batch batch(Duration budget) {
+        return new Batch(Deadline.after(budget));
+    }
+
+    @Override
+    public void close() {
+        timer.shutdownNow();
+        if (ownedExecutor != null) {
+            ownedExecutor.shutdown();
+        }
+    }
+
+    /**
+     * Virtual threads are only available from Java 21 on, this code is compiled for Java 17.
+     * Otherwise every call gets a new platform thread, they are cached for reuse.
+     */
+    static ExecutorService newThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            logger.debug("virtual threads are not available, falling back to platform threads", e);
+            return Executors.newCachedThreadPool(daemonThreads("fan-out"));
+        }
+    }
+
+    private static ThreadFactory daemonThreads(String prefix) {
+        final AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            final Thread thread = new Thread(runnable, prefix + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Calls sharing one deadline. Closing the batch fails all calls not answered yet.
+     */
+    public final class Batch implements AutoCloseable {
+
+        private final Deadline deadline;
+        private final List<CompletableFuture<?>> calls = new CopyOnWriteArrayList<>();
+        private final ScheduledFuture<?> expiry;
+
+        private Batch(Deadline deadline) {
+            this.deadline = deadline;
+            this.expiry = timer.schedule(this::expire, Math.max(0, deadline.remainingNanos()), TimeUnit.NANOSECONDS);
+        }
+
+        public Deadline deadline() {
+            return deadline;
+        }
+
+        public CompletableFuture<Product> findById(String id) {
+            return submit(service -> service.findById(id));
+        }
+
+        public CompletableFuture<Page<Product>> search(String query) {
+            return submit(service -> service.search(query));
+        }
+
+        public CompletableFuture<Page<Product>> next(Page<Product> page) {
+            return submit(service -> service.next(page));
+        }
+
+        /**
+         * Runs any other call of the product service. Only searches and gets are cut off at the deadline, see
+         * {@link Deadline}, the future of a write fails at the deadline while the write itself goes on.
+         */
+        public <T> CompletableFuture<T> submit(ServiceCall<T> call) {
+            final CompletableFuture<T> result = new CompletableFuture<>();
+            calls.add(result);
+            if (deadline.isExpired()) {
+                result.completeExceptionally(new DeadlineExceededException(deadline));
+                return result;
+            }
+            executor.execute(() -> run(call, result));
+            return result;
+        }
+
+        private <T> void run(ServiceCall<T> call, CompletableFuture<T> result) {
+            if (!limit.acquire(deadline, result)) {
+                // expired or closed while waiting, the result has been failed already
+                return;
+            }
+            try {
+                if (!result.isDone()) {
+                    result.complete(deadline.call(() -> call.call(service)));
+                }
+            } catch (Throwable t) {
+                result.completeExceptionally(deadline.isExpired() ? withCause(new DeadlineExceededException(deadline), t) : t);
+            } finally {
+                limit.release();
+            }
+        }
+
+        /**
+         * Waits until all calls are answered or the deadline has passed, whatever comes first.
+         * The outcome of every call has to be checked on its future.
+         */
+        public void join() throws InterruptedException {
+            for (CompletableFuture<?> call : calls) {
+                try {
+                    call.get();
+                } catch (ExecutionException | CancellationException e) {
+                    // checked by the caller
+                }
+            }
+        }
+
+        private void expire() {
+            fail(new DeadlineExceededException(deadline));
+        }
+
+        private void fail(IOException e) {
+            for (CompletableFuture<?> call : calls) {
+                call.completeExceptionally(e);
+            }
+            // calls waiting for a slot give up
+            limit.wakeUp();
+        }
+
+        @Override
+        public void close() {
+            expiry.cancel(false);
+            fail(new IOException("batch has been closed before the call was answered"));
+        }
+    }
+
+    private static <E extends Throwable> E withCause(E e, Throwable cause) {
+        e.initCause(cause);
+        return e;
+    }
+
+    @FunctionalInterface
+    public interface ServiceCall<T> {
+        T call(ProductService service) throws IOException;
+    }
+
+    /**
+     * Caps the running calls. Waiting threads are cheap when they are virtual ones, so calls block
+     * instead of being queued. The cap is read again on every acquire, as the number of nodes may change.
+     */
+    private static final class ConcurrencyLimit {
+
+        private final IntSupplier maxConcurrency;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition released = lock.newCondition();
+        private int running;
+
+        private ConcurrencyLimit(IntSupplier maxConcurrency) {
+            this.maxConcurrency = maxConcurrency;
+        }
+
+        /**
+         * @return false if the deadline passed or the call has been completed otherwise before a slot was free
+         */
+        boolean acquire(Deadline deadline, CompletableFuture<?> call) {
+            lock.lock();
+            try {
+                while (running >= maxConcurrency.getAsInt()) {
+                    final long remaining = deadline.remainingNanos();
+                    if (call.isDone() || remaining <= 0) {
+                        call.completeExceptionally(new DeadlineExceededException(deadline));
+                        return false;
+                    }
+                    try {
+                        released.awaitNanos(remaining);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        call.completeExceptionally(e);
+                        return false;
+                    }
+                }
+                if (call.isDone()) {
+                    return false;
+                }
+                running++;
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void release() {
+            lock.lock();
+            try {
+                running--;
+                released.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void wakeUp() {
+            lock.lock();
+            try {
+                released.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    public static class Builder {
+        private final ProductService service;
+        private Executor executor;
+        private IntSupplier maxConcurrency = () -> DEFAULT_MAX_CONCURRENCY;
+
+        private Builder(ProductService service) {
+            this.service = service;
+        }
+
+        /**
+         * Runs the calls, every call blocks a thread of it while it is running.
+         * Defaults to a new virtual thread per call, or a cached thread pool before Java 21.
+         */
+        public Builder executor(Executor executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        /**
+         * Maximum number of calls running at the same time, defaults to 64
+         */
+        public Builder maxConcurrency(int maxConcurrency) {
+            if (maxConcurrency < 1) {
+                throw new IllegalArgumentException("maxConcurrency must be at least 1, got " + maxConcurrency);
+            }
+            this.maxConcurrency = () -> maxConcurrency;
+            return this;
+        }
+
+        /**
+         * Caps the calls per node at {@link AdaptiveRestClients.Builder#maxOutstandingPerNode(int)}. The clients skip
+         * a node at its cap, so a node answering fastest does not get all the calls. Here the running calls are
+         * capped at that limit times the number of nodes, so calls wait for a free slot instead of finding every
+         * node busy and failing.
+         */
+        public Builder maxConcurrencyPerNode(AdaptiveRestClients restClients) {
+            final int perNode = restClients.maxOutstandingPerNode();
+            if (perNode == Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("the rest clients have no max outstanding requests per node");
+            }
+            final RestClient restClient = restClients.reads();
+            this.maxConcurrency = () -> perNode * Math.max(1, restClient.getNodes().size());
+            return this;
+        }
+
+        public FanOutExecutor build() {
+            return new FanOutExecutor(this);
+        }
+    }
+}
@@ -0,0 +1,421 @@
+package de.spinscale.restclient;
+
+import co.elastic.clients.json.JsonpMapper;
+import co.elastic.clients.transport.ElasticsearchTransport;
+import co.elastic.clients.transport.Endpoint;
+import co.elastic.clients.transport.TransportOptions;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Sends a read a second time if it has not been answered within the usual response time, and takes whichever
+ * answer comes first. Cuts the tail latency caused by a single slow node or shard copy, at the cost of a few
+ * percent more requests.
+ *
+ * <ul>
+ *     <li>the second request is sent once the read took longer than a percentile of the response times
+ *     measured per endpoint, the 95th by default. Nothing is duplicated until enough reads have been measured</li>
+ *     <li>duplicates are limited to a share of all reads, 5% by default. Every read earns that share of a token,
+ *     a duplicate costs a whole one, so a slow cluster does not get twice the load</li>
+ *     <li>the first successful answer wins and the other request is cancelled. A failure is only returned
+ *     if both failed, or if the first request failed before a duplicate was sent</li>
+ *     <li>the rest client picks the node of the duplicate as usual: the next node with round robin, or
+ *     with {@link AdaptiveRestClients} a node without the outstanding request</li>
+ * </ul>
+ *
+ * Only {@code get} and {@code search} are duplicated by default, these are idempotent. Wrapping the transport
+ * hedges the reads of {@link ProductServiceImpl} as well as of {@link AsyncProductServiceImpl}.
+ *
+ * <pre>{@code
+ * ElasticsearchTransport transport = HedgingTransport.builder(new RestClientTransport(restClient, mapper))
+ *         .metrics(metrics)
+ *         .build();
+ * ProductService productService = new ProductServiceImpl(index, new ElasticsearchClient(transport));
+ * }</pre>
+ */
+public final class HedgingTransport implements ElasticsearchTransport {
+
+    // reads measured before the first duplicate is sent, and before the delay is updated again
+    private static final int MIN_SAMPLES = 100;
+    private static final long UPDATE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+    // token in thousandths, allows for budgets down to 0.1%
+    private static final long TOKEN = 1000;
+    private static final long MAX_TOKENS = 10 * TOKEN;
+
+    private final ElasticsearchTransport delegate;
+    private final Set<String> endpoints;
+    private final double percentile;
+    private final long minDelayNanos;
+    private final long tokensPerRead;
+    private final AtomicLong tokens = new AtomicLong();
+    private final ProductServiceMetrics metrics;
+    private final ConcurrentHashMap<String, HedgeDelay> delays = new ConcurrentHashMap<>();
+    private final ScheduledThreadPoolExecutor timer;
+
+    private HedgingTransport(Builder builder) {
+        this.delegate = builder.delegate;
+        this.endpoints = builder.endpoints;
+        this.percentile = builder.percentile;
+        this.minDelayNanos = builder.minDelay.toNanos();
+        this.tokensPerRead = Math.round(builder.budget * TOKEN);
+        this.metrics = builder.metrics;
+        this.timer = new ScheduledThreadPoolExecutor(1, runnable -> {
+            final Thread thread = new Thread(runnable, "es-hedge");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // most reads are answered before their duplicate is due
+        this.timer.setRemoveOnCancelPolicy(true);
+    }
+
+    public static Builder builder(ElasticsearchTransport delegate) {
+        return new Builder(delegate);
+    }
+
+    @Override
+    public <RequestT, ResponseT, ErrorT> ResponseT performRequest(RequestT request, Endpoint<RequestT, ResponseT, ErrorT> endpoint,
+                                                                  TransportOptions options) throws IOException {
+        if (!endpoints.contains(endpoint.id())) {
+            return delegate.performRequest(request, endpoint, options);
+        }
+        final CompletableFuture<ResponseT> result = performRequestAsync(request, endpoint, options);
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            result.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for [" + endpoint.id() + "]");
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException ioException) {
+                throw ioException;
+            } else if (cause instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            } else if (cause instanceof Error error) {
+                throw error;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    @Override
+    public <RequestT, ResponseT, ErrorT> CompletableFuture<ResponseT> performRequestAsync(RequestT request,
+                                                                                          Endpoint<RequestT, ResponseT, ErrorT> endpoint,
+                                                                                          TransportOptions options) {
+        if (!endpoints.contains(endpoint.id())) {
+            return delegate.performRequestAsync(request, endpoint, options);
+        }
+        tokens.accumulateAndGet(tokensPerRead, (current, earned) -> Math.min(MAX_TOKENS, current + earned));
+        final HedgeDelay delay = delays.computeIfAbsent(endpoint.id(), id -> new HedgeDelay());
+        return new HedgedRead<>(request, endpoint, options, delay, metrics.operation("hedge " + endpoint.id())).start();
+    }
+
+    private boolean tryAcquireToken() {
+        while (true) {
+            final long current = tokens.get();
+            if (current < TOKEN) {
+                return false;
+            }
+            if (tokens.compareAndSet(current, current - TOKEN)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @return the transport without hedging, for requests that must not be sent twice
+     */
+    static ElasticsearchTransport unhedged(ElasticsearchTransport transport) {
+        return transport instanceof HedgingTransport hedging ? hedging.delegate : transport;
+    }
+
+    @Override
+    public JsonpMapper jsonpMapper() {
+        return delegate.jsonpMapper();
+    }
+
+    @Override
+    public TransportOptions options() {
+        return delegate.options();
+    }
+
+    @Override
+    public void close() throws IOException {
+        timer.shutdownNow();
+        delegate.close();
+    }
+
+    /**
+     * A read and its duplicate, if one has been sent
+     */
+    private final class HedgedRead<RequestT, ResponseT, ErrorT> {
+
+        private final RequestT request;
+        private final Endpoint<RequestT, ResponseT, ErrorT> endpoint;
+        private final TransportOptions options;
+        private final HedgeDelay delay;
+        private final OperationMetrics operation;
+        private final CompletableFuture<ResponseT> result = new CompletableFuture<>();
+        private final long startNanos = System.nanoTime();
+        // guarded by this
+        private int pending;
+        private CompletableFuture<ResponseT> primary;
+        private CompletableFuture<ResponseT> hedge;
+        private ScheduledFuture<?> hedgeTimer;
+        private boolean recorded;
+
+        private HedgedRead(RequestT request, Endpoint<RequestT, ResponseT, ErrorT> endpoint, TransportOptions options,
+                           HedgeDelay delay, OperationMetrics operation) {
+            this.request = request;
+            this.endpoint = endpoint;
+            this.options = options;
+            this.delay = delay;
+            this.operation = operation;
+        }
+
+        CompletableFuture<ResponseT> start() {
+            // only records anything if the caller cancelled, otherwise the call is recorded before completing it
+            result.whenComplete((response, t) -> {
+                if (claimRecording()) {
+                    operation.recordCall(startNanos, t != null);
+                }
+                cancelAll();
+            });
+            synchronized (this) {
+                pending = 1;
+            }
+            final CompletableFuture<ResponseT> sent = send();
+            // the response time of the first request, only if it was answered: a cancelled or failed request
+            // ended early, for a reason unrelated to how long reads take
+            sent.whenComplete((response, t) -> {
+                if (t == null) {
+                    delay.record(System.nanoTime() - startNanos);
+                }
+            });
+            synchronized (this) {
+                primary = sent;
+                if (result.isDone()) {
+                    // cancelled by the caller already
+                    sent.cancel(true);
+                }
+                final long delayNanos = delay.nanos(minDelayNanos, percentile);
+                if (delayNanos >= 0 && !result.isDone()) {
+                    try {
+                        hedgeTimer = timer.schedule(this::sendHedge, delayNanos, TimeUnit.NANOSECONDS);
+                    } catch (RejectedExecutionException e) {
+                        // closed
+                    }
+                }
+            }
+            sent.whenComplete((response, t) -> completed(response, t, false));
+            return result;
+        }
+
+        private CompletableFuture<ResponseT> send() {
+            try {
+                return delegate.performRequestAsync(request, endpoint, options);
+            } catch (RuntimeException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+
+        private void sendHedge() {
+            synchronized (this) {
+                if (result.isDone() || !tryAcquireToken()) {
+                    return;
+                }
+                pending++;
+            }
+            operation.recordHedgeSent();
+            final CompletableFuture<ResponseT> sent = send();
+            synchronized (this) {
+                hedge = sent;
+            }
+            if (result.isDone()) {
+                sent.cancel(true);
+            }
+            sent.whenComplete((response, t) -> completed(response, t, true));
+        }
+
+        private void completed(ResponseT response, Throwable t, boolean isHedge) {
+            if (t == null) {
+                if (claimRecording()) {
+                    // the other request is aborted and the call recorded before callers waiting for the result wake up
+                    cancelAll();
+                    operation.recordCall(startNanos, false);
+                    if (isHedge) {
+                        operation.recordHedgeWon();
+                    }
+                    result.complete(response);
+                }
+                return;
+            }
+            final boolean last;
+            synchronized (this) {
+                last = --pending == 0;
+            }
+            if (last && claimRecording()) {
+                cancelAll();
+                operation.recordCall(startNanos, true);
+                result.completeExceptionally(unwrap(t));
+            }
+        }
+
+        /**
+         * @return true for the first of the two requests answering, or the caller cancelling
+         */
+        private synchronized boolean claimRecording() {
+            if (recorded) {
+                return false;
+            }
+            recorded = true;
+            return true;
+        }
+
+        private void cancelAll() {
+            final ScheduledFuture<?> hedgeTimer;
+            final CompletableFuture<ResponseT> primary;
+            final CompletableFuture<ResponseT> hedge;
+            synchronized (this) {
+                hedgeTimer = this.hedgeTimer;
+                primary = this.primary;
+                hedge = this.hedge;
+            }
+            // cancelling a request of the rest client transport aborts the http request
+            if (hedgeTimer != null) {
+                hedgeTimer.cancel(false);
+            }
+            if (primary != null) {
+                primary.cancel(true);
+            }
+            if (hedge != null) {
+                hedge.cancel(true);
+            }
+        }
+    }
+
+    private static Throwable unwrap(Throwable t) {
+        if (t instanceof CompletionException && t.getCause() != null) {
+            return t.getCause();
+        }
+        return t;
+    }
+
+    /**
+     * Response times of one endpoint, the percentile is taken again every second from the reads since,
+     * if there have been enough of them
+     */
+    private static final class HedgeDelay {
+
+        private final Recorder recorder = new Recorder(2);
+        private final AtomicLong samples = new AtomicLong();
+        private final ReentrantLock updateLock = new ReentrantLock();
+        private Histogram recycled;
+        private volatile long delayNanos = -1;
+        private volatile long updatedNanos;
+
+        void record(long nanos) {
+            recorder.recordValue(Math.max(0, TimeUnit.NANOSECONDS.toMicros(nanos)));
+            samples.incrementAndGet();
+        }
+
+        /**
+         * @return the time after which a duplicate is sent, or -1 if not enough reads have been measured yet
+         */
+        long nanos(long minDelayNanos, double percentile) {
+            final long now = System.nanoTime();
+            if (samples.get() >= MIN_SAMPLES && (delayNanos < 0 || now - updatedNanos >= UPDATE_INTERVAL_NANOS)
+                    && updateLock.tryLock()) {
+                try {
+                    recycled = recorder.getIntervalHistogram(recycled);
+                    samples.addAndGet(-recycled.getTotalCount());
+                    final long micros = recycled.getValueAtPercentile(percentile);
+                    delayNanos = Math.max(minDelayNanos, TimeUnit.MICROSECONDS.toNanos(micros));
+                    updatedNanos = now;
+                } finally {
+                    updateLock.unlock();
+                }
+            }
+            return delayNanos;
+        }
+    }
+
+    public static class Builder {
+        private final ElasticsearchTransport delegate;
+        private Set<String> endpoints = Set.of("get", "search");
+        private double percentile = 95;
+        private double budget = 0.05;
+        private Duration minDelay = Duration.ofMillis(1);
+        private ProductServiceMetrics metrics = ProductServiceMetrics.DISABLED;
+
+        private Builder(ElasticsearchTransport delegate) {
+            this.delegate = delegate;
+        }
+
+        /**
+         * Ids of the endpoints to duplicate, e.g. {@code mget}. Only add idempotent reads.
+         * Defaults to {@code get} and {@code search}.
+         */
+        public Builder endpoints(String... endpoints) {
+            this.endpoints = Set.of(endpoints);
+            return this;
+        }
+
+        /**
+         * Percentile of the response times after which a duplicate is sent, defaults to 95
+         */
+        public Builder percentile(double percentile) {
+            if (percentile <= 0 || percentile >= 100) {
+                throw new IllegalArgumentException("percentile must be between 0 and 100, got " + percentile);
+            }
+            this.percentile = percentile;
+            return this;
+        }
+
+        /**
+         * Maximum share of reads that get duplicated, defaults to 0.05
+         */
+        public Builder budget(double budget) {
+            if (budget < 0 || budget > 1) {
+                throw new IllegalArgumentException("budget must be between 0 and 1, got " + budget);
+            }
+            this.budget = budget;
+            return this;
+        }
+
+        /**
+         * Reads answered faster than this are never duplicated, defaults to 1ms
+         */
+        public Builder minDelay(Duration minDelay) {
+            this.minDelay = minDelay;
+            return this;
+        }
+
+        /**
+         * Records every hedged read as {@code hedge <endpoint>}, with the number of duplicates sent and won
+         */
+        public Builder metrics(ProductServiceMetrics metrics) {
+            this.metrics = metrics;
+            return this;
+        }
+
+        public HedgingTransport build() {
+            return new HedgingTransport(this);
+        }
+    }
+}
@@ -0,0 +1,651 @@
+package de.spinscale.restclient;
+
+import co.elastic.clients.transport.TransportOptions;
+import co.elastic.clients.transport.rest_client.RestClientOptions;
+import org.apache.http.ContentTooLongException;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.nio.ContentDecoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.entity.NByteArrayEntity;
+import org.apache.http.nio.protocol.AbstractAsyncResponseConsumer;
+import org.apache.http.nio.protocol.HttpAsyncResponseConsumer;
+import org.apache.http.protocol.HttpContext;
+import org.elasticsearch.client.HttpAsyncResponseConsumerFactory;
+import org.elasticsearch.client.RequestOptions;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Gzip compression of request and response bodies, without allocating a new {@link Deflater}, {@link Inflater}
+ * or buffer per request.
+ *
+ * <ul>
+ *     <li>bulk and multi search bodies larger than a threshold are sent gzipped. Small requests are sent as they are,
+ *     compressing them costs more CPU than it saves bytes</li>
+ *     <li>responses are requested gzipped, and inflated into a pooled buffer while they arrive. Elasticsearch only
+ *     compresses responses if {@code http.compression} is enabled, which is the default without TLS</li>
+ * </ul>
+ *
+ * Everything is configured on the transport options, the bulk ingester and the batched searches pick it up from there:
+ *
+ * <pre>{@code
+ * HttpCompression compression = HttpCompression.builder().build();
+ * RestClientTransport transport = new RestClientTransport(restClient, mapper, compression.transportOptions(RequestOptions.DEFAULT));
+ * }</pre>
+ *
+ * Do not enable the compression of the rest client as well, it would gzip every request body a second time.
+ */
+public final class HttpCompression {
+
+    static final String GZIP = "gzip";
+
+    // same limit as the heap buffered response consumer of the rest client
+    private static final int DEFAULT_BUFFER_LIMIT = 100 * 1024 * 1024;
+    private static final int CHUNK_SIZE = 8 * 1024;
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_POOLED_BUFFER_SIZE = 16 * 1024 * 1024;
+
+    private final int threshold;
+    private final int level;
+    private final int bufferLimit;
+    private final BlockingQueue<Deflater> deflaters;
+    private final BlockingQueue<Inflater> inflaters;
+    private final BlockingQueue<Buffer> buffers;
+    private final BlockingQueue<ByteBuffer> chunks;
+    private final ResponseConsumerFactory responseConsumerFactory = new ResponseConsumerFactory();
+
+    private HttpCompression(Builder builder) {
+        this.threshold = builder.threshold;
+        this.level = builder.level;
+        this.bufferLimit = builder.bufferLimit;
+        this.deflaters = new ArrayBlockingQueue<>(builder.maxPooled);
+        this.inflaters = new ArrayBlockingQueue<>(builder.maxPooled);
+        this.buffers = new ArrayBlockingQueue<>(builder.maxPooled);
+        this.chunks = new ArrayBlockingQueue<>(builder.maxPooled);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @param requestOptions e.g. {@link RequestOptions#DEFAULT}, its response consumer factory is replaced
+     * @return options accepting gzipped responses, to create the {@link co.elastic.clients.transport.rest_client.RestClientTransport} with
+     */
+    public RestClientOptions transportOptions(RequestOptions requestOptions) {
+        return new RestClientOptions(requestOptions.toBuilder()
+                .addHeader(HttpHeaders.ACCEPT_ENCODING, GZIP)
+                .setHttpAsyncResponseConsumerFactory(responseConsumerFactory)
+                .build());
+    }
+
+    /**
+     * @return the compression configured on the options, or null if there is none
+     */
+    static HttpCompression of(TransportOptions options) {
+        if (options instanceof RestClientOptions restClientOptions
+                && restClientOptions.restClientRequestOptions().getHttpAsyncResponseConsumerFactory() instanceof ResponseConsumerFactory factory) {
+            return factory.compression();
+        }
+        return null;
+    }
+
+    boolean compresses(int length) {
+        return length >= threshold;
+    }
+
+    /**
+     * @return a new pooled body, which must be released once the request completed
+     */
+    Body body() {
+        return new Body(this);
+    }
+
+    /**
+     * Gzips the bytes into a pooled buffer, which must be released once the request completed
+     */
+    Buffer gzip(byte[] bytes, int offset, int length) {
+        final Buffer buffer = acquireBuffer();
+        Deflater deflater = deflaters.poll();
+        if (deflater == null) {
+            // gzip header and trailer are written here, so no zlib wrapping
+            deflater = new Deflater(level, true);
+        }
+        try {
+            buffer.writeGzipHeader();
+            deflater.setInput(bytes, offset, length);
+            deflater.finish();
+            while (!deflater.finished()) {
+                buffer.ensureCapacity(buffer.size + CHUNK_SIZE);
+                buffer.size += deflater.deflate(buffer.bytes, buffer.size, buffer.bytes.length - buffer.size);
+            }
+            final CRC32 crc = new CRC32();
+            crc.update(bytes, offset, length);
+            buffer.writeIntLE((int) crc.getValue());
+            buffer.writeIntLE(length);
+            return buffer;
+        } finally {
+            deflater.reset();
+            if (!deflaters.offer(deflater)) {
+                deflater.end();
+            }
+        }
+    }
+
+    private Buffer acquireBuffer() {
+        final Buffer buffer = buffers.poll();
+        return buffer != null ? buffer : new Buffer(this, INITIAL_BUFFER_SIZE);
+    }
+
+    private void release(Buffer buffer) {
+        if (buffer.bytes.length <= MAX_POOLED_BUFFER_SIZE) {
+            buffer.size = 0;
+            buffers.offer(buffer);
+        }
+    }
+
+    private Inflater acquireInflater() {
+        final Inflater inflater = inflaters.poll();
+        return inflater != null ? inflater : new Inflater(true);
+    }
+
+    private void release(Inflater inflater) {
+        inflater.reset();
+        if (!inflaters.offer(inflater)) {
+            inflater.end();
+        }
+    }
+
+    private ByteBuffer acquireChunk() {
+        final ByteBuffer chunk = chunks.poll();
+        return chunk != null ? chunk : ByteBuffer.allocate(CHUNK_SIZE);
+    }
+
+    private void release(ByteBuffer chunk) {
+        chunk.clear();
+        chunks.offer(chunk);
+    }
+
+    /**
+     * A growable byte array, pooled
+     */
+    static final class Buffer extends OutputStream {
+
+        private final HttpCompression compression;
+        private byte[] bytes;
+        private int size;
+
+        private Buffer(HttpCompression compression, int initialSize) {
+            this.compression = compression;
+            this.bytes = new byte[initialSize];
+        }
+
+        @Override
+        public void write(int b) {
+            ensureCapacity(size + 1);
+            bytes[size++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            ensureCapacity(size + len);
+            System.arraycopy(b, off, bytes, size, len);
+            size += len;
+        }
+
+        int size() {
+            return size;
+        }
+
+        /**
+         * The entity shares the buffer, it must not be released before the request completed
+         */
+        HttpEntity toEntity(ContentType contentType, String contentEncoding) {
+            final NByteArrayEntity entity = new NByteArrayEntity(bytes, 0, size, contentType);
+            entity.setContentEncoding(contentEncoding);
+            return entity;
+        }
+
+        void release() {
+            compression.release(this);
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (capacity > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(capacity, bytes.length * 2));
+            }
+        }
+
+        private void writeGzipHeader() {
+            // magic, deflate, no flags, no modification time, no extra flags, unknown OS
+            write(new byte[] { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff }, 0, 10);
+        }
+
+        private void writeIntLE(int value) {
+            write(value);
+            write(value >>> 8);
+            write(value >>> 16);
+            write(value >>> 24);
+        }
+    }
+
+    /**
+     * A request body, gzipped if it exceeds the threshold
+     */
+    static final class Body extends OutputStream {
+
+        private final HttpCompression compression;
+        private Buffer plain;
+        // null if not compressed
+        private Buffer gzipped;
+
+        private Body(HttpCompression compression) {
+            this.compression = compression;
+            this.plain = compression.acquireBuffer();
+        }
+
+        @Override
+        public void write(int b) {
+            plain.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            plain.write(b, off, len);
+        }
+
+        /**
+         * The entity shares the pooled buffers, the body must not be released before the request completed
+         */
+        HttpEntity toEntity(ContentType contentType) {
+            if (!compression.compresses(plain.size)) {
+                return plain.toEntity(contentType, null);
+            }
+            gzipped = compression.gzip(plain.bytes, 0, plain.size);
+            plain.release();
+            plain = null;
+            return gzipped.toEntity(contentType, GZIP);
+        }
+
+        void release() {
+            if (plain != null) {
+                plain.release();
+                plain = null;
+            }
+            if (gzipped != null) {
+                gzipped.release();
+                gzipped = null;
+            }
+        }
+    }
+
+    /**
+     * Recognized in the transport options by {@link #of(TransportOptions)}
+     */
+    private final class ResponseConsumerFactory implements HttpAsyncResponseConsumerFactory {
+
+        private HttpCompression compression() {
+            return HttpCompression.this;
+        }
+
+        @Override
+        public HttpAsyncResponseConsumer<HttpResponse> createHttpAsyncResponseConsumer() {
+            return new InflatingResponseConsumer();
+        }
+    }
+
+    /**
+     * Buffers the response body like the default consumer of the rest client, inflating it while it arrives if
+     * it is gzipped. The rest client does not inflate it a second time, as the entity has no content encoding anymore.
+     */
+    private final class InflatingResponseConsumer extends AbstractAsyncResponseConsumer<HttpResponse> {
+
+        private volatile HttpResponse response;
+        private ContentType contentType;
+        private Buffer body;
+        private ByteBuffer chunk;
+        // null if the response is not compressed
+        private GzipInflater gzip;
+
+        @Override
+        protected void onResponseReceived(HttpResponse response) {
+            this.response = response;
+        }
+
+        @Override
+        protected void onEntityEnclosed(HttpEntity entity, ContentType contentType) throws IOException {
+            if (entity.getContentLength() > bufferLimit) {
+                throw new ContentTooLongException("entity content is too long [" + entity.getContentLength()
+                        + "] for the configured buffer limit [" + bufferLimit + "]");
+            }
+            this.contentType = contentType;
+            this.body = acquireBuffer();
+            this.chunk = acquireChunk();
+            final Header encoding = entity.getContentEncoding();
+            if (encoding != null && GZIP.equalsIgnoreCase(encoding.getValue())) {
+                this.gzip = new GzipInflater(acquireInflater());
+            }
+        }
+
+        @Override
+        protected void onContentReceived(ContentDecoder decoder, IOControl ioControl) throws IOException {
+            while (decoder.read(chunk) > 0) {
+                if (gzip != null) {
+                    gzip.inflate(chunk.array(), chunk.position(), body);
+                } else {
+                    body.write(chunk.array(), 0, chunk.position());
+                }
+                chunk.clear();
+                if (body.size > bufferLimit) {
+                    throw new ContentTooLongException("inflated entity content is too long for the configured buffer limit [" + bufferLimit + "]");
+                }
+            }
+        }
+
+        @Override
+        protected HttpResponse buildResult(HttpContext context) throws IOException {
+            if (body != null) {
+                if (gzip != null) {
+                    gzip.finish();
+                    response.removeHeaders(HttpHeaders.CONTENT_ENCODING);
+                    response.removeHeaders(HttpHeaders.CONTENT_LENGTH);
+                }
+                response.setEntity(new PooledEntity(body, contentType));
+                body = null;
+            }
+            return response;
+        }
+
+        @Override
+        protected void releaseResources() {
+            if (gzip != null) {
+                release(gzip.inflater);
+                gzip = null;
+            }
+            if (chunk != null) {
+                release(chunk);
+                chunk = null;
+            }
+            // only left if the response failed
+            if (body != null) {
+                body.release();
+                body = null;
+            }
+        }
+    }
+
+    /**
+     * Inflates a gzip stream that arrives in chunks: header, deflated data, trailer. Several members are inflated one after another.
+     */
+    private static final class GzipInflater {
+
+        // optional header fields, in the order they appear
+        private static final int FEXTRA = 4;
+        private static final int FNAME = 8;
+        private static final int FCOMMENT = 16;
+        private static final int FHCRC = 2;
+        private static final int[] FIELDS = { FEXTRA, FNAME, FCOMMENT, FHCRC };
+
+        private final Inflater inflater;
+        private final CRC32 crc = new CRC32();
+        private final byte[] trailer = new byte[8];
+        private int trailerLength;
+        private boolean inHeader = true;
+        private boolean inTrailer;
+        private boolean complete;
+        // header state
+        private int headerBytes;
+        private int flags;
+        private int field;
+        private int fieldBytes;
+        private int remaining;
+
+        private GzipInflater(Inflater inflater) {
+            this.inflater = inflater;
+        }
+
+        void inflate(byte[] input, int length, Buffer output) throws IOException {
+            int offset = 0;
+            while (offset < length) {
+                if (inHeader) {
+                    offset += readHeader(input, offset, length - offset);
+                } else if (inTrailer) {
+                    offset += readTrailer(input, offset, length - offset);
+                } else {
+                    offset += inflate(input, offset, length - offset, output);
+                }
+            }
+        }
+
+        private int readHeader(byte[] input, int offset, int length) throws IOException {
+            complete = false;
+            int consumed = 0;
+            while (consumed < length && inHeader) {
+                final int b = input[offset + consumed++] & 0xff;
+                if (headerBytes < 10) {
+                    headerBytes++;
+                    if ((headerBytes == 1 && b != 0x1f) || (headerBytes == 2 && b != 0x8b) || (headerBytes == 3 && b != Deflater.DEFLATED)) {
+                        throw new ZipException("not in gzip format");
+                    } else if (headerBytes == 4) {
+                        flags = b;
+                    } else if (headerBytes == 10) {
+                        nextField();
+                    }
+                } else if (field == FEXTRA && fieldBytes < 2) {
+                    // little endian length of the extra field
+                    remaining |= b << (8 * fieldBytes++);
+                    if (fieldBytes == 2 && remaining == 0) {
+                        nextField();
+                    }
+                } else if (field == FNAME || field == FCOMMENT) {
+                    // zero terminated
+                    if (b == 0) {
+                        nextField();
+                    }
+                } else if (--remaining == 0) {
+                    nextField();
+                }
+            }
+            return consumed;
+        }
+
+        private void nextField() {
+            int next = 0;
+            for (int candidate : FIELDS) {
+                if (candidate == field) {
+                    next = -1;
+                } else if ((field == 0 || next == -1) && (flags & candidate) != 0) {
+                    next = candidate;
+                    break;
+                }
+            }
+            field = Math.max(next, 0);
+            fieldBytes = 0;
+            remaining = field == FHCRC ? 2 : 0;
+            if (field == 0) {
+                inHeader = false;
+                headerBytes = 0;
+                crc.reset();
+            }
+        }
+
+        private int inflate(byte[] input, int offset, int length, Buffer output) throws IOException {
+            inflater.setInput(input, offset, length);
+            try {
+                while (!inflater.finished() && !inflater.needsInput()) {
+                    output.ensureCapacity(output.size + CHUNK_SIZE);
+                    final int inflated = inflater.inflate(output.bytes, output.size, output.bytes.length - output.size);
+                    if (inflated == 0 && inflater.needsDictionary()) {
+                        throw new ZipException("gzip stream needs a dictionary");
+                    }
+                    crc.update(output.bytes, output.size, inflated);
+                    output.size += inflated;
+                }
+            } catch (DataFormatException e) {
+                throw new ZipException(e.getMessage());
+            }
+            if (inflater.finished()) {
+                inTrailer = true;
+            }
+            return length - inflater.getRemaining();
+        }
+
+        private int readTrailer(byte[] input, int offset, int length) throws IOException {
+            final int consumed = Math.min(length, trailer.length - trailerLength);
+            System.arraycopy(input, offset, trailer, trailerLength, consumed);
+            trailerLength += consumed;
+            if (trailerLength == trailer.length) {
+                if (readIntLE(trailer, 0) != (int) crc.getValue()) {
+                    throw new ZipException("corrupt gzip stream, crc mismatch");
+                }
+                // the size modulo 2^32
+                if (readIntLE(trailer, 4) != (int) inflater.getBytesWritten()) {
+                    throw new ZipException("corrupt gzip stream, size mismatch");
+                }
+                // another member may follow
+                inflater.reset();
+                trailerLength = 0;
+                inTrailer = false;
+                inHeader = true;
+                complete = true;
+            }
+            return consumed;
+        }
+
+        private static int readIntLE(byte[] bytes, int offset) {
+            return (bytes[offset] & 0xff) | (bytes[offset + 1] & 0xff) << 8 | (bytes[offset + 2] & 0xff) << 16 | (bytes[offset + 3] & 0xff) << 24;
+        }
+
+        void finish() throws IOException {
+            if (!complete) {
+                throw new ZipException("gzip stream is truncated");
+            }
+        }
+    }
+
+    /**
+     * The inflated response body. The buffer goes back to the pool once the content has been read and closed,
+     * as the java client does for every response. Not repeatable, so code reading the content twice copies it first.
+     */
+    private static final class PooledEntity extends AbstractHttpEntity {
+
+        private final Buffer buffer;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private PooledEntity(Buffer buffer, ContentType contentType) {
+            this.buffer = buffer;
+            if (contentType != null) {
+                setContentType(contentType.toString());
+            }
+        }
+
+        @Override
+        public boolean isRepeatable() {
+            return false;
+        }
+
+        @Override
+        public long getContentLength() {
+            return released.get() ? 0 : buffer.size;
+        }
+
+        @Override
+        public InputStream getContent() {
+            if (released.get()) {
+                return InputStream.nullInputStream();
+            }
+            return new ByteArrayInputStream(buffer.bytes, 0, buffer.size) {
+                @Override
+                public void close() {
+                    release();
+                }
+            };
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            try (InputStream content = getContent()) {
+                content.transferTo(out);
+            }
+        }
+
+        @Override
+        public boolean isStreaming() {
+            return !released.get();
+        }
+
+        private void release() {
+            if (released.compareAndSet(false, true)) {
+                buffer.release();
+            }
+        }
+    }
+
+    public static class Builder {
+        private int threshold = 4 * 1024;
+        private int level = Deflater.BEST_SPEED;
+        private int maxPooled = 16;
+        private int bufferLimit = DEFAULT_BUFFER_LIMIT;
+
+        private Builder() {
+        }
+
+        /**
+         * Request bodies smaller than this are sent uncompressed, defaults to 4kb
+         */
+        public Builder threshold(int bytes) {
+            this.threshold = bytes;
+            return this;
+        }
+
+        /**
+         * Deflate level from 1 to 9, defaults to 1. Repetitive JSON compresses well already at the fastest level.
+         */
+        public Builder level(int level) {
+            if (level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION) {
+                throw new IllegalArgumentException("level must be between 1 and 9, got " + level);
+            }
+            this.level = level;
+            return this;
+        }
+
+        /**
+         * Number of deflaters, inflaters and buffers kept for reuse, each. Defaults to 16,
+         * set it to the number of requests usually in flight.
+         */
+        public Builder maxPooled(int maxPooled) {
+            this.maxPooled = maxPooled;
+            return this;
+        }
+
+        /**
+         * Maximum size of a response body after inflating it, defaults to 100mb
+         */
+        public Builder bufferLimit(int bytes) {
+            this.bufferLimit = bytes;
+            return this;
+        }
+
+        public HttpCompression build() {
+            return new HttpCompression(this);
+        }
+    }
+}
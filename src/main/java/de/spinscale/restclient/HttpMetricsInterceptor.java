@@ -0,0 +1,64 @@
+package de.spinscale.restclient;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * Records the size of request and response bodies per elasticsearch endpoint, e.g. {@code http _search}.
+ * Runs on the I/O threads of the http client, before the response body has been read, so only responses
+ * with a content length are counted.
+ */
+class HttpMetricsInterceptor implements HttpRequestInterceptor, HttpResponseInterceptor {
+
+    private static final String OPERATION_ATTRIBUTE = HttpMetricsInterceptor.class.getName() + ".operation";
+
+    private final ProductServiceMetrics metrics;
+
+    HttpMetricsInterceptor(ProductServiceMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void process(HttpRequest request, HttpContext context) {
+        final OperationMetrics operation = metrics.operation("http " + endpoint(request.getRequestLine().getUri()));
+        context.setAttribute(OPERATION_ATTRIBUTE, operation);
+        if (request instanceof HttpEntityEnclosingRequest enclosingRequest && enclosingRequest.getEntity() != null) {
+            operation.recordRequestBytes(enclosingRequest.getEntity().getContentLength());
+        }
+    }
+
+    @Override
+    public void process(HttpResponse response, HttpContext context) {
+        final HttpEntity entity = response.getEntity();
+        if (entity != null && context.getAttribute(OPERATION_ATTRIBUTE) instanceof OperationMetrics operation) {
+            operation.recordResponseBytes(entity.getContentLength());
+        }
+    }
+
+    /**
+     * @return the last path element starting with an underscore, e.g. {@code _search} for {@code /products/_search?q=x},
+     * or {@code /} if there is none
+     */
+    static String endpoint(String uri) {
+        int end = uri.indexOf('?');
+        if (end < 0) {
+            end = uri.length();
+        }
+        while (end > 0) {
+            final int start = uri.lastIndexOf('/', end - 1);
+            if (start + 1 < end && uri.charAt(start + 1) == '_') {
+                return uri.substring(start + 1, end);
+            }
+            if (start < 0) {
+                break;
+            }
+            end = start;
+        }
+        return "/";
+    }
+}
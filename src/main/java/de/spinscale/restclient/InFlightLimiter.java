@@ -0,0 +1,111 @@
+package de.spinscale.restclient;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
+
+/**
+ * Caps the number of concurrently running async operations without blocking the caller.
+ *
+ * Operations exceeding {@code maxInFlight} are parked in a bounded queue and started as soon
+ * as a running one completes. Once that queue is full as well, new operations are rejected
+ * with a {@link RejectedExecutionException}, so the caller has to back off.
+ */
+class InFlightLimiter {
+
+    private final int maxInFlight;
+    private final int maxPending;
+    private final Deque<Runnable> pending = new ArrayDeque<>();
+    // set while the current thread hands permits over, see release()
+    private final ThreadLocal<HandOver> handOver = new ThreadLocal<>();
+    private int inFlight;
+
+    InFlightLimiter(int maxInFlight, int maxPending) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight must be at least 1, got " + maxInFlight);
+        }
+        if (maxPending < 0) {
+            throw new IllegalArgumentException("maxPending must not be negative, got " + maxPending);
+        }
+        this.maxInFlight = maxInFlight;
+        this.maxPending = maxPending;
+    }
+
+    <T> CompletableFuture<T> submit(Supplier<CompletableFuture<T>> operation) {
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        final Runnable start = () -> {
+            CompletableFuture<T> future;
+            try {
+                future = operation.get();
+            } catch (Exception e) {
+                future = CompletableFuture.failedFuture(e);
+            }
+            future.whenComplete((value, throwable) -> {
+                release();
+                if (throwable != null) {
+                    result.completeExceptionally(throwable);
+                } else {
+                    result.complete(value);
+                }
+            });
+        };
+
+        synchronized (this) {
+            if (inFlight < maxInFlight) {
+                inFlight++;
+            } else if (pending.size() < maxPending) {
+                pending.add(start);
+                return result;
+            } else {
+                return CompletableFuture.failedFuture(new RejectedExecutionException(
+                        "too many requests: " + inFlight + " in flight, " + pending.size() + " pending"));
+            }
+        }
+        start.run();
+        return result;
+    }
+
+    /**
+     * Hands the permit over to the next pending operation. If that one completes right away, its release happens
+     * inside this one; it is only counted then and picked up by the loop, so a long queue of operations
+     * completing synchronously does not grow the stack.
+     */
+    private void release() {
+        final HandOver current = handOver.get();
+        if (current != null) {
+            current.releases++;
+            return;
+        }
+        final HandOver loop = new HandOver();
+        handOver.set(loop);
+        try {
+            for (; loop.releases > 0; loop.releases--) {
+                final Runnable next;
+                synchronized (this) {
+                    next = pending.poll();
+                    if (next == null) {
+                        inFlight--;
+                        continue;
+                    }
+                }
+                next.run();
+            }
+        } finally {
+            handOver.remove();
+        }
+    }
+
+    synchronized int inFlight() {
+        return inFlight;
+    }
+
+    synchronized int pending() {
+        return pending.size();
+    }
+
+    private static final class HandOver {
+        private int releases = 1;
+    }
+}
@@ -0,0 +1,39 @@
+package de.spinscale.restclient;
+
+import org.HdrHistogram.Histogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+
+/**
+ * Logs one line per operation, with latency percentiles next to the percentiles of the time elasticsearch took
+ */
+public class LoggingMetricsExporter implements MetricsExporter {
+
+    private static final Logger logger = LoggerFactory.getLogger("metrics");
+
+    @Override
+    public void export(List<OperationSnapshot> snapshots) {
+        if (!logger.isInfoEnabled()) {
+            return;
+        }
+        for (OperationSnapshot snapshot : snapshots) {
+            logger.info("{} calls={} failures={} latency_ms[{}] took_ms[{}] request_bytes={} response_bytes={} bulk_items_ok={} bulk_items_failed={} hedges={} hedges_won={}",
+                    snapshot.operation(), snapshot.calls(), snapshot.failures(),
+                    percentiles(snapshot.latencyMicros(), 1000.0), percentiles(snapshot.tookMillis(), 1.0),
+                    snapshot.requestBytes(), snapshot.responseBytes(), snapshot.bulkItemsSucceeded(), snapshot.bulkItemsFailed(),
+                    snapshot.hedges(), snapshot.hedgesWon());
+        }
+    }
+
+    private static String percentiles(Histogram histogram, double unitsPerMilli) {
+        if (histogram.getTotalCount() == 0) {
+            return "-";
+        }
+        return String.format("p50=%.1f p99=%.1f max=%.1f",
+                histogram.getValueAtPercentile(50) / unitsPerMilli,
+                histogram.getValueAtPercentile(99) / unitsPerMilli,
+                histogram.getMaxValue() / unitsPerMilli);
+    }
+}
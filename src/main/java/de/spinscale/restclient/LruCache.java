@@ -0,0 +1,120 @@
+package de.spinscale.restclient;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+import java.util.function.ToLongFunction;
+
+/**
+ * Weight bounded LRU cache, entries expire after a fixed time to live.
+ *
+ * Deliberately simple: a single lock around an access ordered {@link LinkedHashMap}, which is plenty
+ * for a near cache in front of network round trips.
+ */
+class LruCache<K, V> {
+
+    private final long maxWeight;
+    private final long ttlNanos;
+    private final ToLongFunction<V> weigher;
+    private final LongSupplier nanoClock;
+    private final LinkedHashMap<K, Entry<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long weight;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    LruCache(long maxWeight, Duration ttl, ToLongFunction<V> weigher, LongSupplier nanoClock) {
+        if (maxWeight < 1) {
+            throw new IllegalArgumentException("maxWeight must be at least 1, got " + maxWeight);
+        }
+        this.maxWeight = maxWeight;
+        this.ttlNanos = ttl.toNanos();
+        this.weigher = weigher;
+        this.nanoClock = nanoClock;
+    }
+
+    /**
+     * Cache bounded by the number of entries
+     */
+    LruCache(long maxEntries, Duration ttl) {
+        this(maxEntries, ttl, value -> 1, System::nanoTime);
+    }
+
+    synchronized V get(K key) {
+        final Lookup<V> lookup = lookup(key, ttlNanos);
+        return lookup == null ? null : lookup.value();
+    }
+
+    /**
+     * Like {@link #get(Object)}, but also tells if the entry should be refreshed
+     *
+     * @param refreshAfterNanos age after which an entry is still returned, but reported as stale
+     * @return null if there is no entry or it has expired
+     */
+    synchronized Lookup<V> lookup(K key, long refreshAfterNanos) {
+        final Entry<V> entry = entries.get(key);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        final long age = nanoClock.getAsLong() - entry.writtenAt;
+        if (age > ttlNanos) {
+            remove(key);
+            misses++;
+            return null;
+        }
+        hits++;
+        return new Lookup<>(entry.value, age > refreshAfterNanos);
+    }
+
+    synchronized void put(K key, V value) {
+        final long valueWeight = weigher.applyAsLong(value);
+        if (valueWeight > maxWeight) {
+            // would evict everything else and still not fit
+            remove(key);
+            return;
+        }
+        final Entry<V> previous = entries.put(key, new Entry<>(value, valueWeight, nanoClock.getAsLong()));
+        if (previous != null) {
+            weight -= previous.weight;
+        }
+        weight += valueWeight;
+
+        final Iterator<Map.Entry<K, Entry<V>>> iterator = entries.entrySet().iterator();
+        while (weight > maxWeight && iterator.hasNext()) {
+            final Map.Entry<K, Entry<V>> eldest = iterator.next();
+            iterator.remove();
+            weight -= eldest.getValue().weight;
+            evictions++;
+        }
+    }
+
+    synchronized void invalidate(K key) {
+        remove(key);
+    }
+
+    synchronized void invalidateAll() {
+        entries.clear();
+        weight = 0;
+    }
+
+    synchronized CacheStats stats() {
+        return new CacheStats(hits, misses, evictions, entries.size(), weight);
+    }
+
+    private void remove(K key) {
+        final Entry<V> removed = entries.remove(key);
+        if (removed != null) {
+            weight -= removed.weight;
+        }
+    }
+
+    record Lookup<V>(V value, boolean stale) {
+    }
+
+    private record Entry<V>(V value, long weight, long writtenAt) {
+    }
+}
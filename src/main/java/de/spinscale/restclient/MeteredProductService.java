@@ -0,0 +1,158 @@
+package de.spinscale.restclient;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.stream.Stream;
+
+/**
+ * Records the latency and failures of every call, as seen by the caller, see {@link ProductServiceMetrics}
+ */
+public class MeteredProductService implements ProductService {
+
+    private final ProductService delegate;
+    private final OperationMetrics findById;
+    private final OperationMetrics findAll;
+    private final OperationMetrics search;
+    private final OperationMetrics next;
+    private final OperationMetrics close;
+    private final OperationMetrics export;
+    private final OperationMetrics aggregate;
+    private final OperationMetrics save;
+    private final OperationMetrics update;
+
+    public MeteredProductService(ProductService delegate, ProductServiceMetrics metrics) {
+        this.delegate = delegate;
+        this.findById = metrics.operation("findById");
+        this.findAll = metrics.operation("findAll");
+        this.search = metrics.operation("search");
+        this.next = metrics.operation("next");
+        this.close = metrics.operation("close");
+        this.export = metrics.operation("export");
+        this.aggregate = metrics.operation("aggregate");
+        this.save = metrics.operation("save");
+        this.update = metrics.operation("update");
+    }
+
+    @Override
+    public Product findById(String id) throws IOException {
+        return record(findById, () -> delegate.findById(id));
+    }
+
+    @Override
+    public List<Product> findAll(Collection<String> ids) throws IOException {
+        return record(findAll, () -> delegate.findAll(ids));
+    }
+
+    @Override
+    public Page<Product> search(String query) throws IOException {
+        return record(search, () -> delegate.search(query));
+    }
+
+    @Override
+    public <T> Page<T> search(String query, Projection<T> projection) throws IOException {
+        return record(search, () -> delegate.search(query, projection));
+    }
+
+    @Override
+    public Page<Product> next(Page<Product> page) throws IOException {
+        return record(next, () -> delegate.next(page));
+    }
+
+    @Override
+    public <T> Page<T> next(Page<T> page, Projection<T> projection) throws IOException {
+        return record(next, () -> delegate.next(page, projection));
+    }
+
+    @Override
+    public ColumnarPage searchColumnar(String query, int size) throws IOException {
+        return record(search, () -> delegate.searchColumnar(query, size));
+    }
+
+    @Override
+    public ColumnarPage next(ColumnarPage page) throws IOException {
+        return record(next, () -> delegate.next(page));
+    }
+
+    @Override
+    public void close(Page<?> page) throws IOException {
+        record(close, () -> {
+            delegate.close(page);
+            return null;
+        });
+    }
+
+    /**
+     * Only opening the stream is recorded, not consuming it
+     */
+    @Override
+    public Stream<Product> export(int slices, Executor executor) throws IOException {
+        return record(export, () -> delegate.export(slices, executor));
+    }
+
+    /**
+     * Only opening the stream is recorded, not consuming it
+     */
+    @Override
+    public Stream<ProductBucket> aggregate(ProductAggregation aggregation) throws IOException {
+        return record(aggregate, () -> delegate.aggregate(aggregation));
+    }
+
+    @Override
+    public void save(Product product) throws IOException {
+        save(List.of(product));
+    }
+
+    @Override
+    public void save(List<Product> products) throws IOException {
+        record(save, () -> {
+            delegate.save(products);
+            return null;
+        });
+    }
+
+    @Override
+    public void updateStock(String id, int delta) throws IOException {
+        record(update, () -> {
+            delegate.updateStock(id, delta);
+            return null;
+        });
+    }
+
+    @Override
+    public void updatePrice(String id, double price) throws IOException {
+        record(update, () -> {
+            delegate.updatePrice(id, price);
+            return null;
+        });
+    }
+
+    @Override
+    public void update(List<ProductUpdate> updates) throws IOException {
+        record(update, () -> {
+            delegate.update(updates);
+            return null;
+        });
+    }
+
+    private static <T> T record(OperationMetrics operation, Call<T> call) throws IOException {
+        if (!operation.enabled()) {
+            return call.call();
+        }
+        final long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            final T result = call.call();
+            failed = false;
+            return result;
+        } finally {
+            operation.recordCall(start, failed);
+        }
+    }
+
+    @FunctionalInterface
+    private interface Call<T> {
+        T call() throws IOException;
+    }
+}
@@ -0,0 +1,15 @@
+package de.spinscale.restclient;
+
+import java.util.List;
+
+/**
+ * Hands the metrics of a {@link ProductServiceMetrics} over to a monitoring system
+ */
+@FunctionalInterface
+public interface MetricsExporter {
+
+    /**
+     * @param snapshots one per operation that recorded anything since the previous export
+     */
+    void export(List<OperationSnapshot> snapshots);
+}
@@ -0,0 +1,75 @@
+package de.spinscale.restclient;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Merges calls arriving within a short window into a single batch.
+ *
+ * The first call of a batch starts the window, the batch is handed to the handler once the window
+ * has passed or {@code maxBatchSize} calls have been collected, whichever happens first. The handler
+ * has to complete the future of every call, so each caller can succeed or fail on its own.
+ */
+class MicroBatcher<I, O> {
+
+    private final int maxBatchSize;
+    private final Executor delayedExecutor;
+    private final Consumer<List<Call<I, O>>> handler;
+
+    private List<Call<I, O>> batch = new ArrayList<>();
+
+    MicroBatcher(Duration window, int maxBatchSize, Consumer<List<Call<I, O>>> handler) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("maxBatchSize must be at least 1, got " + maxBatchSize);
+        }
+        this.maxBatchSize = maxBatchSize;
+        this.delayedExecutor = CompletableFuture.delayedExecutor(window.toNanos(), TimeUnit.NANOSECONDS);
+        this.handler = handler;
+    }
+
+    CompletableFuture<O> submit(I input) {
+        final Call<I, O> call = new Call<>(input, new CompletableFuture<>());
+        List<Call<I, O>> full = null;
+        synchronized (this) {
+            final List<Call<I, O>> current = batch;
+            current.add(call);
+            if (current.size() >= maxBatchSize) {
+                full = current;
+                batch = new ArrayList<>();
+            } else if (current.size() == 1) {
+                delayedExecutor.execute(() -> flush(current));
+            }
+        }
+        if (full != null) {
+            dispatch(full);
+        }
+        return call.future();
+    }
+
+    private void flush(List<Call<I, O>> expected) {
+        synchronized (this) {
+            // already dispatched because it was full
+            if (batch != expected) {
+                return;
+            }
+            batch = new ArrayList<>();
+        }
+        dispatch(expected);
+    }
+
+    private void dispatch(List<Call<I, O>> calls) {
+        try {
+            handler.accept(calls);
+        } catch (Exception e) {
+            calls.forEach(call -> call.future().completeExceptionally(e));
+        }
+    }
+
+    record Call<I, O>(I input, CompletableFuture<O> future) {
+    }
+}
@@ -0,0 +1,177 @@
+package de.spinscale.restclient;
+
+import co.elastic.clients.json.JsonpMapper;
+import co.elastic.clients.json.jackson.JacksonJsonpMapper;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.nio.entity.NByteArrayEntity;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A bulk request body, products are serialized straight into a pooled byte buffer
+ * instead of building a {@link co.elastic.clients.elasticsearch.core.BulkRequest} object tree first.
+ *
+ * The body looks exactly like the one the java client would send:
+ * <pre>
+ * {"index":{"_id":"0"}}
+ * {"id":"0","name":"Name of 0 product","description":"Description of 0 product","price":0.0,"stock_available":0}
+ * </pre>
+ *
+ * The buffer must be handed back with {@link #release()} once the request has completed.
+ */
+class NdjsonBulkBody {
+
+    static final ContentType NDJSON = ContentType.create("application/x-ndjson");
+
+    private final Pool pool;
+    private final Buffer buffer;
+    private final JsonGenerator generator;
+    private int operations;
+    // null unless the body has been compressed
+    private HttpCompression.Buffer gzipped;
+
+    private NdjsonBulkBody(Pool pool, Buffer buffer) {
+        this.pool = pool;
+        this.buffer = buffer;
+        try {
+            this.generator = pool.writer.createGenerator(buffer);
+            // no separator between root values, each line is terminated explicitly
+            this.generator.setRootValueSeparator(null);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static boolean supports(JsonpMapper mapper) {
+        return mapper instanceof JacksonJsonpMapper;
+    }
+
+    /**
+     * Append an index operation for the product, using the product id if set
+     *
+     * @return number of bytes appended
+     */
+    int index(Product product) {
+        final int before = buffer.size();
+        try {
+            generator.writeStartObject();
+            generator.writeFieldName("index");
+            generator.writeStartObject();
+            if (product.getId() != null) {
+                generator.writeStringField("_id", product.getId());
+            }
+            generator.writeEndObject();
+            generator.writeEndObject();
+            generator.writeRaw('\n');
+            ProductJson.write(product, generator);
+            generator.writeRaw('\n');
+            generator.flush();
+        } catch (IOException e) {
+            // only a ByteArrayOutputStream is written to
+            throw new UncheckedIOException(e);
+        }
+        operations++;
+        return buffer.size() - before;
+    }
+
+    int operations() {
+        return operations;
+    }
+
+    int bytes() {
+        return buffer.size();
+    }
+
+    /**
+     * The returned entity shares the pooled buffer, so the body must not be released before the request completed
+     */
+    HttpEntity toEntity() {
+        return new NByteArrayEntity(buffer.array(), 0, buffer.size(), NDJSON);
+    }
+
+    /**
+     * @param compression null to send the body uncompressed
+     */
+    HttpEntity toEntity(HttpCompression compression) {
+        if (compression == null || !compression.compresses(buffer.size())) {
+            return toEntity();
+        }
+        gzipped = compression.gzip(buffer.array(), 0, buffer.size());
+        return gzipped.toEntity(NDJSON, HttpCompression.GZIP);
+    }
+
+    void release() {
+        pool.release(buffer);
+        if (gzipped != null) {
+            gzipped.release();
+            gzipped = null;
+        }
+    }
+
+    /**
+     * Keeps a few buffers around so that steady bulk indexing does not allocate a new multi megabyte array per request.
+     * Buffers that grew beyond {@code maxPooledBytes} are left to the garbage collector.
+     */
+    static class Pool {
+
+        private final ObjectWriter writer;
+        private final BlockingQueue<Buffer> buffers;
+        private final int initialBytes;
+        private final int maxPooledBytes;
+
+        Pool(JsonpMapper mapper, int maxPooled, int initialBytes, int maxPooledBytes) {
+            if (!supports(mapper)) {
+                throw new IllegalArgumentException("streaming bulk bodies require a JacksonJsonpMapper, got " + mapper.getClass().getName());
+            }
+            this.writer = ((JacksonJsonpMapper) mapper).objectMapper().writer()
+                    .without(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            this.buffers = new ArrayBlockingQueue<>(maxPooled);
+            this.initialBytes = initialBytes;
+            this.maxPooledBytes = maxPooledBytes;
+        }
+
+        Pool(JsonpMapper mapper) {
+            this(mapper, 8, 64 * 1024, 16 * 1024 * 1024);
+        }
+
+        NdjsonBulkBody acquire() {
+            Buffer buffer = buffers.poll();
+            if (buffer == null) {
+                buffer = new Buffer(initialBytes);
+            }
+            return new NdjsonBulkBody(this, buffer);
+        }
+
+        private void release(Buffer buffer) {
+            if (buffer.capacity() <= maxPooledBytes) {
+                buffer.reset();
+                buffers.offer(buffer);
+            }
+        }
+    }
+
+    /**
+     * Exposes the backing array, so the http entity can be created without copying
+     */
+    private static class Buffer extends ByteArrayOutputStream {
+
+        private Buffer(int size) {
+            super(size);
+        }
+
+        private byte[] array() {
+            return buf;
+        }
+
+        private int capacity() {
+            return buf.length;
+        }
+    }
+}
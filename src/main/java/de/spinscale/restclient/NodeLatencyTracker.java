@@ -0,0 +1,165 @@
+package de.spinscale.restclient;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.client.methods.HttpRequestWrapper;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpCoreContext;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BooleanSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * Response time and outstanding requests per node, measured on the I/O threads of the http client.
+ *
+ * <ul>
+ *     <li>the response time is the time until the response headers arrived, kept as exponentially weighted moving average</li>
+ *     <li>the average decays while a node receives no requests, so a node that was slow gets probed again later</li>
+ *     <li>requests that never got a response, e.g. because the connection failed, count as outstanding until
+ *     {@code maxRequestAge} and are then recorded as a response of that age</li>
+ *     <li>requests aborted by the caller, e.g. the losing attempt of a {@link HedgingTransport}, are dropped
+ *     without a sample the next time the node is scored</li>
+ * </ul>
+ */
+final class NodeLatencyTracker implements HttpRequestInterceptor, HttpResponseInterceptor {
+
+    private static final String ATTEMPT_ATTRIBUTE = NodeLatencyTracker.class.getName() + ".attempt";
+    // weight of a new sample in the moving average
+    private static final double ALPHA = 0.3;
+    // keeps outstanding requests relevant for nodes nothing has been measured for yet
+    private static final double MIN_LATENCY_NANOS = 100_000;
+    private static final BooleanSupplier NEVER_ABORTED = () -> false;
+
+    private final long halfLifeNanos;
+    private final long maxRequestAgeNanos;
+    private final LongSupplier nanoClock;
+    private final ConcurrentHashMap<HttpHost, NodeStats> nodes = new ConcurrentHashMap<>();
+
+    NodeLatencyTracker(Duration halfLife, Duration maxRequestAge, LongSupplier nanoClock) {
+        this.halfLifeNanos = halfLife.toNanos();
+        this.maxRequestAgeNanos = maxRequestAge.toNanos();
+        this.nanoClock = nanoClock;
+    }
+
+    @Override
+    public void process(HttpRequest request, HttpContext context) {
+        if (context.getAttribute(HttpCoreContext.HTTP_TARGET_HOST) instanceof HttpHost host) {
+            context.setAttribute(ATTEMPT_ATTRIBUTE, started(host, aborted(request)));
+        }
+    }
+
+    // the client wraps the request the rest client aborts once the caller cancels its future
+    private static BooleanSupplier aborted(HttpRequest request) {
+        final HttpRequest original = request instanceof HttpRequestWrapper wrapper ? wrapper.getOriginal() : request;
+        return original instanceof HttpUriRequest uriRequest ? uriRequest::isAborted : NEVER_ABORTED;
+    }
+
+    @Override
+    public void process(HttpResponse response, HttpContext context) {
+        if (context.getAttribute(ATTEMPT_ATTRIBUTE) instanceof Attempt attempt) {
+            context.removeAttribute(ATTEMPT_ATTRIBUTE);
+            completed(attempt);
+        }
+    }
+
+    Attempt started(HttpHost host) {
+        return started(host, NEVER_ABORTED);
+    }
+
+    Attempt started(HttpHost host, BooleanSupplier aborted) {
+        final Attempt attempt = new Attempt(host, nanoClock.getAsLong(), aborted);
+        stats(host).outstanding.add(attempt);
+        return attempt;
+    }
+
+    void completed(Attempt attempt) {
+        final NodeStats stats = stats(attempt.host);
+        if (stats.outstanding.remove(attempt)) {
+            final long now = nanoClock.getAsLong();
+            stats.sample(now - attempt.startNanos, now);
+        }
+    }
+
+    /**
+     * Score in the manner of adaptive replica selection: the response time, with a cubic penalty
+     * on the requests still outstanding. Lower is better.
+     */
+    double score(HttpHost host) {
+        final NodeStats stats = nodes.get(host);
+        if (stats == null) {
+            return MIN_LATENCY_NANOS;
+        }
+        final long now = nanoClock.getAsLong();
+        for (Attempt attempt : stats.outstanding) {
+            if (attempt.aborted.getAsBoolean()) {
+                // no response is coming, and the time until the abort says nothing about the node
+                stats.outstanding.remove(attempt);
+            } else if (now - attempt.startNanos > maxRequestAgeNanos && stats.outstanding.remove(attempt)) {
+                stats.sample(now - attempt.startNanos, now);
+            }
+        }
+        final int outstanding = stats.outstanding.size();
+        return Math.max(stats.latencyNanos(now, halfLifeNanos), MIN_LATENCY_NANOS) * (1 + (double) outstanding * outstanding * outstanding);
+    }
+
+    int outstanding(HttpHost host) {
+        final NodeStats stats = nodes.get(host);
+        return stats == null ? 0 : stats.outstanding.size();
+    }
+
+    /**
+     * Drops nodes that left the cluster
+     */
+    void retain(Collection<HttpHost> hosts) {
+        nodes.keySet().retainAll(hosts);
+    }
+
+    private NodeStats stats(HttpHost host) {
+        return nodes.computeIfAbsent(host, h -> new NodeStats());
+    }
+
+    private static final class NodeStats {
+
+        private final Set<Attempt> outstanding = ConcurrentHashMap.newKeySet();
+        private boolean sampled;
+        private double averageNanos;
+        private long lastSampleNanos;
+
+        synchronized void sample(long latencyNanos, long now) {
+            averageNanos = sampled ? ALPHA * latencyNanos + (1 - ALPHA) * averageNanos : latencyNanos;
+            lastSampleNanos = now;
+            sampled = true;
+        }
+
+        synchronized double latencyNanos(long now, long halfLifeNanos) {
+            if (!sampled) {
+                return 0;
+            }
+            return averageNanos * Math.pow(0.5, (double) (now - lastSampleNanos) / halfLifeNanos);
+        }
+    }
+
+    /**
+     * A request sent to a node, compared by identity
+     */
+    static final class Attempt {
+
+        private final HttpHost host;
+        private final long startNanos;
+        private final BooleanSupplier aborted;
+
+        private Attempt(HttpHost host, long startNanos, BooleanSupplier aborted) {
+            this.host = host;
+            this.startNanos = startNanos;
+            this.aborted = aborted;
+        }
+    }
+}
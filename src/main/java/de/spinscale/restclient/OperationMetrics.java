@@ -0,0 +1,107 @@
+package de.spinscale.restclient;
+
+import org.HdrHistogram.Recorder;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and histograms of a single operation. Recording is lock free, and does nothing at all if disabled.
+ */
+final class OperationMetrics {
+
+    static final OperationMetrics NOOP = new OperationMetrics("noop", false);
+
+    private final String name;
+    private final boolean enabled;
+    private final Recorder latencyMicros = new Recorder(3);
+    private final Recorder tookMillis = new Recorder(3);
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder requestBytes = new LongAdder();
+    private final LongAdder responseBytes = new LongAdder();
+    private final LongAdder bulkItemsSucceeded = new LongAdder();
+    private final LongAdder bulkItemsFailed = new LongAdder();
+    private final LongAdder hedges = new LongAdder();
+    private final LongAdder hedgesWon = new LongAdder();
+
+    OperationMetrics(String name) {
+        this(name, true);
+    }
+
+    private OperationMetrics(String name, boolean enabled) {
+        this.name = name;
+        this.enabled = enabled;
+    }
+
+    boolean enabled() {
+        return enabled;
+    }
+
+    /**
+     * @param startNanos {@link System#nanoTime()} when the call started
+     */
+    void recordCall(long startNanos, boolean failed) {
+        if (!enabled) {
+            return;
+        }
+        latencyMicros.recordValue(Math.max(0, TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos)));
+        calls.increment();
+        if (failed) {
+            failures.increment();
+        }
+    }
+
+    /**
+     * @param millis time elasticsearch reports to have spent on the request
+     */
+    void recordTook(long millis) {
+        if (enabled) {
+            tookMillis.recordValue(Math.max(0, millis));
+        }
+    }
+
+    void recordRequestBytes(long bytes) {
+        if (enabled && bytes > 0) {
+            requestBytes.add(bytes);
+        }
+    }
+
+    void recordResponseBytes(long bytes) {
+        if (enabled && bytes > 0) {
+            responseBytes.add(bytes);
+        }
+    }
+
+    void recordBulkItem(boolean succeeded) {
+        if (enabled) {
+            (succeeded ? bulkItemsSucceeded : bulkItemsFailed).increment();
+        }
+    }
+
+    void recordHedgeSent() {
+        if (enabled) {
+            hedges.increment();
+        }
+    }
+
+    /**
+     * The duplicate answered before the request it duplicated
+     */
+    void recordHedgeWon() {
+        if (enabled) {
+            hedgesWon.increment();
+        }
+    }
+
+    /**
+     * Everything recorded since the previous snapshot
+     */
+    OperationSnapshot snapshot() {
+        return new OperationSnapshot(name, calls.sumThenReset(), failures.sumThenReset(),
+                latencyMicros.getIntervalHistogram(), tookMillis.getIntervalHistogram(),
+                requestBytes.sumThenReset(), responseBytes.sumThenReset(),
+                bulkItemsSucceeded.sumThenReset(), bulkItemsFailed.sumThenReset(),
+                hedges.sumThenReset(), hedgesWon.sumThenReset());
+    }
+}
@@ -0,0 +1,31 @@
+package de.spinscale.restclient;
+
+import org.HdrHistogram.Histogram;
+
+/**
+ * What an operation recorded between two exports
+ *
+ * @param operation name of the service method, {@code http <endpoint>} for what was sent over the wire,
+ *                  or {@code hedge <endpoint>} for the reads of a {@link HedgingTransport}
+ * @param calls calls finished, successful or not
+ * @param failures calls that threw
+ * @param latencyMicros time spent by the caller, in microseconds
+ * @param tookMillis time elasticsearch reports to have spent, in milliseconds. Compared to the latency it tells
+ *                   how much is spent in the network and in the client, e.g. mapping JSON
+ * @param requestBytes bytes of request bodies, only recorded at the transport
+ * @param responseBytes bytes of response bodies as sent over the wire, only recorded at the transport,
+ *                      responses without a content length are not counted
+ * @param bulkItemsSucceeded products indexed
+ * @param bulkItemsFailed products that finally failed to be indexed, after all retries
+ * @param hedges duplicates sent because a read had not been answered in time
+ * @param hedgesWon duplicates answering before the read they duplicated
+ */
+public record OperationSnapshot(String operation, long calls, long failures, Histogram latencyMicros, Histogram tookMillis,
+                                long requestBytes, long responseBytes, long bulkItemsSucceeded, long bulkItemsFailed,
+                                long hedges, long hedgesWon) {
+
+    public boolean isEmpty() {
+        return calls == 0 && tookMillis.getTotalCount() == 0 && requestBytes == 0 && responseBytes == 0
+                && bulkItemsSucceeded == 0 && bulkItemsFailed == 0 && hedges == 0;
+    }
+}
@@ -12,16 +12,31 @@ public class Page<T> {
     private final String input;
     private final int from;
     private final int size;
+    /**
+     * point in time the next page is searched in, null if no PIT has been opened yet
+     */
+    private final String pitId;
+    /**
+     * sort values of the last hit, the next page continues right after it
+     */
+    private final List<String> searchAfter;
 
     public Page(List<T> products, String input, int from, int size) {
-        this.products = products;
+        this(products, input, from, size, null, null);
+    }
+
+    public Page(List<T> products, String input, int from, int size, String pitId, List<String> searchAfter) {
+        // wrapped once, get() is called for every access
+        this.products = Collections.unmodifiableList(products);
         this.input = input;
         this.from = from;
         this.size = size;
+        this.pitId = pitId;
+        this.searchAfter = searchAfter;
     }
 
     List<T> get() {
-        return Collections.unmodifiableList(products);
+        return products;
     }
 
     public static<TT> Page<TT> empty() {
@@ -41,4 +56,36 @@ public class Page<T> {
     public int getSize() {
         return size;
     }
+
+    public String getPitId() {
+        return pitId;
+    }
+
+    public List<String> getSearchAfter() {
+        return searchAfter;
+    }
+
+    /**
+     * @return true if the next page can be fetched with search_after instead of from/size
+     */
+    boolean hasSearchAfter() {
+        return pitId != null && searchAfter != null && !searchAfter.isEmpty();
+    }
+
+    /**
+     * @return this page without point in time, for the last page of a point in time that has been closed
+     */
+    Page<T> withoutPointInTime() {
+        if (products.isEmpty()) {
+            return empty();
+        }
+        return new Page<>(products, input, from, size);
+    }
+
+    /**
+     * @return true if there cannot be another page after this one
+     */
+    boolean isLast() {
+        return products.isEmpty() || products.size() < size;
+    }
 }
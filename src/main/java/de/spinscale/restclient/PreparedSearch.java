@@ -0,0 +1,365 @@
+package de.spinscale.restclient;
+
+import co.elastic.clients.elasticsearch.ElasticsearchAsyncClient;
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.ErrorResponse;
+import co.elastic.clients.elasticsearch.core.SearchRequest;
+import co.elastic.clients.elasticsearch.core.SearchResponse;
+import co.elastic.clients.json.JsonData;
+import co.elastic.clients.json.JsonpDeserializer;
+import co.elastic.clients.json.JsonpMapper;
+import co.elastic.clients.json.JsonpSerializable;
+import co.elastic.clients.json.jackson.JacksonJsonpGenerator;
+import co.elastic.clients.json.jackson.JacksonJsonpMapper;
+import co.elastic.clients.transport.ElasticsearchTransport;
+import co.elastic.clients.transport.Endpoint;
+import co.elastic.clients.transport.JsonEndpoint;
+import co.elastic.clients.transport.TransportOptions;
+import co.elastic.clients.transport.endpoints.SimpleEndpoint;
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+import jakarta.json.JsonException;
+import jakarta.json.stream.JsonGenerator;
+import jakarta.json.stream.JsonParser;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+/**
+ * A search body serialized once, with slots for the values that change from call to call. A search then only splices
+ * the escaped values into the template, instead of building a {@link SearchRequest} object tree and serializing it
+ * again. The body sent is the same the java client sends for the prototype with these values.
+ *
+ * <pre>{@code
+ * PreparedSearch cheaperThan = PreparedSearch.prepare(mapper, p -> SearchRequest.of(b -> b
+ *         .index("products")
+ *         .size(p.integer("size"))
+ *         .query(q -> q.bool(bq -> bq
+ *                 .must(m -> m.multiMatch(mm -> mm.query(p.string("input")).fields("name", "description")))
+ *                 .filter(f -> f.range(r -> r.field("price").lt(p.json("max_price"))))))));
+ * SearchResponse<Product> response = cheaperThan.search(client, Map.of("input", "book", "size", 10, "max_price", 100), Product.class);
+ * }</pre>
+ *
+ * Only the index is taken from the url of the prototype, other url parameters like routing are not sent.
+ * Search templates stored in the cluster would save the serialization as well, but they have to be stored on every
+ * cluster up front and are rendered with mustache on every search, so the template is kept on the client.
+ */
+public final class PreparedSearch {
+
+    private static final Pattern NAME = Pattern.compile("[A-Za-z0-9_]+");
+    // integers cannot hold a marker text, a reserved value is written instead, one per parameter
+    private static final int INTEGER_MARKER = -2_147_000_000;
+
+    private final List<String> index;
+    private final String[] segments;
+    private final Parameter[] slots;
+    private final int length;
+
+    private PreparedSearch(List<String> index, List<String> segments, List<Parameter> slots) {
+        this.index = List.copyOf(index);
+        this.segments = segments.toArray(new String[0]);
+        this.slots = slots.toArray(new Parameter[0]);
+        this.length = segments.stream().mapToInt(String::length).sum();
+    }
+
+    /**
+     * Only the jackson mapper can write a prepared body as is, others parse it first
+     */
+    static boolean supports(JsonpMapper mapper) {
+        return mapper instanceof JacksonJsonpMapper;
+    }
+
+    /**
+     * @param mapper serializes the prototype, use the mapper of the client
+     * @param prototype builds the search, with values of the {@link Parameters} where the values of a search go
+     * @throws IllegalArgumentException if a parameter does not end up in the body, e.g. because it was set as url parameter
+     */
+    public static PreparedSearch prepare(JsonpMapper mapper, Function<Parameters, SearchRequest> prototype) {
+        final Parameters parameters = new Parameters();
+        final SearchRequest request = prototype.apply(parameters);
+        final StringWriter writer = new StringWriter();
+        final JsonGenerator generator = mapper.jsonProvider().createGenerator(writer);
+        mapper.serialize(request, generator);
+        generator.close();
+        final String body = writer.toString();
+
+        final List<String> segments = new ArrayList<>();
+        final List<Parameter> slots = new ArrayList<>();
+        final Map<String, Boolean> used = new LinkedHashMap<>();
+        parameters.parameters.keySet().forEach(name -> used.put(name, false));
+        int start = 0;
+        while (true) {
+            // the marker found first, for markers occurring several times the next occurrence
+            Parameter next = null;
+            int position = -1;
+            for (Parameter parameter : parameters.parameters.values()) {
+                final int found = find(body, parameter, start);
+                if (found >= 0 && (position < 0 || found < position)) {
+                    next = parameter;
+                    position = found;
+                }
+            }
+            if (next == null) {
+                break;
+            }
+            segments.add(body.substring(start, position));
+            slots.add(next);
+            used.put(next.name(), true);
+            start = position + next.marker().length();
+        }
+        segments.add(body.substring(start));
+
+        used.forEach((name, found) -> {
+            if (!found) {
+                throw new IllegalArgumentException("parameter [" + name + "] is not part of the search body " + body);
+            }
+        });
+        return new PreparedSearch(request.index(), segments, slots);
+    }
+
+    private static int find(String body, Parameter parameter, int start) {
+        int found = body.indexOf(parameter.marker(), start);
+        // an integer marker must not be the prefix of a longer number
+        while (parameter.integer() && found >= 0 && found + parameter.marker().length() < body.length()
+                && Character.isDigit(body.charAt(found + parameter.marker().length()))) {
+            found = body.indexOf(parameter.marker(), found + 1);
+        }
+        return found;
+    }
+
+    public <T> SearchResponse<T> search(ElasticsearchClient client, Map<String, ?> values, Class<T> type) throws IOException {
+        return search(client._transport(), client._transportOptions(), values, SearchRequest.createSearchEndpoint(JsonpDeserializer.of(type)));
+    }
+
+    public <T> CompletableFuture<SearchResponse<T>> search(ElasticsearchAsyncClient client, Map<String, ?> values, Class<T> type) {
+        final Request request;
+        try {
+            request = bind(values);
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return client._transport().performRequestAsync(request, endpoint(SearchRequest.createSearchEndpoint(JsonpDeserializer.of(type))),
+                client._transportOptions());
+    }
+
+    /**
+     * @param search the endpoint the prototype would be sent to, e.g. one reading hits into columns
+     */
+    <T> SearchResponse<T> search(ElasticsearchTransport transport, TransportOptions options, Map<String, ?> values,
+                                 Endpoint<SearchRequest, SearchResponse<T>, ErrorResponse> search) throws IOException {
+        return transport.performRequest(bind(values), endpoint(search), options);
+    }
+
+    /**
+     * @param values by parameter name. Strings are escaped, collections become the elements of the array
+     *               of a {@link Parameters#strings(String)} parameter.
+     * @throws IllegalArgumentException if a value is missing, or an integer parameter got something else
+     */
+    Request bind(Map<String, ?> values) {
+        final StringBuilder body = new StringBuilder(length + 64);
+        for (int i = 0; i < slots.length; i++) {
+            body.append(segments[i]);
+            final Parameter slot = slots[i];
+            final Object value = values.get(slot.name());
+            if (value == null && !values.containsKey(slot.name())) {
+                throw new IllegalArgumentException("no value for parameter [" + slot.name() + "]");
+            }
+            if (slot.integer()) {
+                if (!(value instanceof Integer integer)) {
+                    throw new IllegalArgumentException("parameter [" + slot.name() + "] must be an integer, got [" + value + "]");
+                }
+                body.append(integer.intValue());
+            } else {
+                appendJson(body, value);
+            }
+        }
+        body.append(segments[slots.length]);
+        return new Request(index, body.toString());
+    }
+
+    private static void appendJson(StringBuilder body, Object value) {
+        if (value == null) {
+            body.append("null");
+        } else if (value instanceof Number || value instanceof Boolean) {
+            body.append(value);
+        } else if (value instanceof Collection<?> collection) {
+            boolean first = true;
+            for (Object element : collection) {
+                if (!first) {
+                    body.append(',');
+                }
+                appendJson(body, element);
+                first = false;
+            }
+        } else {
+            body.append('"');
+            JsonStringEncoder.getInstance().quoteAsString(value.toString(), body);
+            body.append('"');
+        }
+    }
+
+    private static <T> JsonEndpoint<Request, SearchResponse<T>, ErrorResponse> endpoint(Endpoint<SearchRequest, SearchResponse<T>, ErrorResponse> search) {
+        return new PreparedEndpoint<>((JsonEndpoint<SearchRequest, SearchResponse<T>, ErrorResponse>) search);
+    }
+
+    /**
+     * Hands out the values put into the prototype where the values of a search go. Any name may be used
+     * several times, e.g. for the same input in two queries.
+     */
+    public static final class Parameters {
+
+        private final Map<String, Parameter> parameters = new LinkedHashMap<>();
+
+        private Parameters() {
+        }
+
+        /**
+         * For string values, e.g. the input of a query or a point in time id
+         */
+        public String string(String name) {
+            final String value = "{{" + name + "}}";
+            add(new Parameter(name, '"' + value + '"', false));
+            return value;
+        }
+
+        /**
+         * For values of any JSON type, e.g. the bounds of a range query
+         */
+        public JsonData json(String name) {
+            return JsonData.of(string(name));
+        }
+
+        /**
+         * For arrays of values, e.g. {@code search_after}
+         */
+        public List<String> strings(String name) {
+            return List.of(string(name));
+        }
+
+        /**
+         * For integers, e.g. {@code from} and {@code size}
+         */
+        public int integer(String name) {
+            final Parameter existing = parameters.get(name);
+            final int value = existing != null && existing.integer()
+                    ? Integer.parseInt(existing.marker())
+                    : INTEGER_MARKER - (int) parameters.values().stream().filter(Parameter::integer).count();
+            add(new Parameter(name, Integer.toString(value), true));
+            return value;
+        }
+
+        private void add(Parameter parameter) {
+            if (!NAME.matcher(parameter.name()).matches()) {
+                throw new IllegalArgumentException("parameter names may only contain letters, digits and _, got [" + parameter.name() + "]");
+            }
+            final Parameter existing = parameters.putIfAbsent(parameter.name(), parameter);
+            if (existing != null && existing.integer() != parameter.integer()) {
+                throw new IllegalArgumentException("parameter [" + parameter.name() + "] is used as integer and as JSON value");
+            }
+        }
+    }
+
+    private record Parameter(String name, String marker, boolean integer) {
+    }
+
+    /**
+     * A search body with all values in place
+     */
+    static final class Request implements JsonpSerializable {
+
+        private final List<String> index;
+        private final String body;
+
+        private Request(List<String> index, String body) {
+            this.index = index;
+            this.body = body;
+        }
+
+        String body() {
+            return body;
+        }
+
+        @Override
+        public void serialize(JsonGenerator generator, JsonpMapper mapper) {
+            if (generator instanceof JacksonJsonpGenerator jacksonJsonpGenerator) {
+                try {
+                    jacksonJsonpGenerator.jacksonGenerator().writeRawValue(body);
+                } catch (IOException e) {
+                    throw new JsonException("failed to write prepared search", e);
+                }
+                return;
+            }
+            try (JsonParser parser = mapper.jsonProvider().createParser(new StringReader(body))) {
+                parser.next();
+                generator.write(parser.getValue());
+            }
+        }
+    }
+
+    /**
+     * Sends a prepared body to the url of the search endpoint, responses and errors are read by the search endpoint
+     */
+    private static final class PreparedEndpoint<T> implements JsonEndpoint<Request, SearchResponse<T>, ErrorResponse> {
+
+        private final JsonEndpoint<SearchRequest, SearchResponse<T>, ErrorResponse> search;
+
+        private PreparedEndpoint(JsonEndpoint<SearchRequest, SearchResponse<T>, ErrorResponse> search) {
+            this.search = search;
+        }
+
+        @Override
+        public String id() {
+            // hedged and measured like any other search
+            return search.id();
+        }
+
+        @Override
+        public String method(Request request) {
+            return "POST";
+        }
+
+        @Override
+        public String requestUrl(Request request) {
+            if (request.index.isEmpty()) {
+                return "/_search";
+            }
+            final StringBuilder url = new StringBuilder("/");
+            SimpleEndpoint.pathEncode(String.join(",", request.index), url);
+            return url.append("/_search").toString();
+        }
+
+        @Override
+        public Map<String, String> queryParameters(Request request) {
+            // same as the java client, aggregations are parsed by their type
+            return Map.of("typed_keys", "true");
+        }
+
+        @Override
+        public boolean hasRequestBody() {
+            return true;
+        }
+
+        @Override
+        public boolean isError(int statusCode) {
+            return search.isError(statusCode);
+        }
+
+        @Override
+        public JsonpDeserializer<ErrorResponse> errorDeserializer(int statusCode) {
+            return search.errorDeserializer(statusCode);
+        }
+
+        @Override
+        public JsonpDeserializer<SearchResponse<T>> responseDeserializer() {
+            return search.responseDeserializer();
+        }
+    }
+}
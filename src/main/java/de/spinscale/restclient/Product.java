@@ -1,6 +1,18 @@
 package de.spinscale.restclient;
 
-public class Product {
+import co.elastic.clients.json.JsonpDeserializable;
+import co.elastic.clients.json.JsonpDeserializer;
+import co.elastic.clients.json.JsonpMapper;
+import co.elastic.clients.json.JsonpSerializable;
+import jakarta.json.stream.JsonGenerator;
+
+/**
+ * The elasticsearch client reads and writes products with {@link ProductJson} instead of data binding
+ */
+@JsonpDeserializable
+public class Product implements JsonpSerializable {
+
+    public static final JsonpDeserializer<Product> _DESERIALIZER = ProductJson.INSTANCE;
 
     /**
      * if id is null, it will be set to elasticsearch's
@@ -51,4 +63,9 @@ public class Product {
     public void setStockAvailable(int stockAvailable) {
         this.stockAvailable = stockAvailable;
     }
+
+    @Override
+    public void serialize(JsonGenerator generator, JsonpMapper mapper) {
+        ProductJson.write(this, generator);
+    }
 }
@@ -0,0 +1,104 @@
+package de.spinscale.restclient;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * How {@link ProductService#aggregate(ProductAggregation)} groups products: by price bucket, by the values of
+ * keyword fields, or by both. Every combination found in the index is one {@link ProductBucket}.
+ *
+ * <pre>{@code
+ * ProductAggregation aggregation = ProductAggregation.builder()
+ *         .priceInterval(10.0)
+ *         .terms("name.keyword")
+ *         .build();
+ * try (Stream<ProductBucket> buckets = productService.aggregate(aggregation)) {
+ *     buckets.forEach(bucket -> report.add(bucket.price(), bucket.terms().get("name.keyword"), bucket.averageStock()));
+ * }
+ * }</pre>
+ */
+public final class ProductAggregation {
+
+    /**
+     * Name of the price source in the composite aggregation and its after key
+     */
+    static final String PRICE = "price";
+
+    private final Double priceInterval;
+    private final List<String> terms;
+    private final int pageSize;
+
+    private ProductAggregation(Builder builder) {
+        this.priceInterval = builder.priceInterval;
+        this.terms = List.copyOf(builder.terms);
+        this.pageSize = builder.pageSize;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @return width of the price buckets, null if products are not grouped by price
+     */
+    public Double priceInterval() {
+        return priceInterval;
+    }
+
+    /**
+     * @return keyword fields products are grouped by, in the order of the bucket keys
+     */
+    public List<String> terms() {
+        return terms;
+    }
+
+    public int pageSize() {
+        return pageSize;
+    }
+
+    public static class Builder {
+        private Double priceInterval;
+        private final List<String> terms = new ArrayList<>();
+        private int pageSize = 1000;
+
+        private Builder() {
+        }
+
+        /**
+         * Group by price, in buckets of this width starting at 0. Not grouped by price by default.
+         */
+        public Builder priceInterval(double priceInterval) {
+            this.priceInterval = priceInterval;
+            return this;
+        }
+
+        /**
+         * Group by the values of a keyword field, e.g. {@code name.keyword}, can be called for several fields
+         */
+        public Builder terms(String field) {
+            this.terms.add(field);
+            return this;
+        }
+
+        /**
+         * Buckets fetched per request, defaults to 1000. Only one page is held in memory at a time.
+         */
+        public Builder pageSize(int pageSize) {
+            this.pageSize = pageSize;
+            return this;
+        }
+
+        public ProductAggregation build() {
+            if (priceInterval == null && terms.isEmpty()) {
+                throw new IllegalArgumentException("group by price, by terms or both");
+            }
+            if ((priceInterval != null && priceInterval <= 0) || pageSize < 1) {
+                throw new IllegalArgumentException("priceInterval and pageSize must be positive");
+            }
+            if (terms.contains(PRICE) || terms.stream().distinct().count() != terms.size()) {
+                throw new IllegalArgumentException("terms fields must be distinct and must not be [" + PRICE + "], got " + terms);
+            }
+            return new ProductAggregation(this);
+        }
+    }
+}
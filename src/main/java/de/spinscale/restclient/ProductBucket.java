@@ -0,0 +1,18 @@
+package de.spinscale.restclient;
+
+import java.util.Map;
+
+/**
+ * A group of products, as returned by {@link ProductService#aggregate(ProductAggregation)}
+ *
+ * @param price lower bound of the price bucket, null if not grouped by price
+ * @param terms value of every keyword field grouped by, by field name
+ * @param docCount number of products in the bucket
+ * @param averageStock average of {@code stock_available}, NaN if no product in the bucket has a stock
+ * @param totalStock sum of {@code stock_available}
+ * @param minPrice lowest price in the bucket, NaN if no product in the bucket has a price
+ * @param maxPrice highest price in the bucket, NaN if no product in the bucket has a price
+ */
+public record ProductBucket(Double price, Map<String, String> terms, long docCount, double averageStock, double totalStock,
+                            double minPrice, double maxPrice) {
+}
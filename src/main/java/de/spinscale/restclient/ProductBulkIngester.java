@@ -0,0 +1,519 @@
+package de.spinscale.restclient;
+
+import co.elastic.clients.elasticsearch.ElasticsearchAsyncClient;
+import co.elastic.clients.elasticsearch._types.ElasticsearchException;
+import co.elastic.clients.elasticsearch.core.BulkRequest;
+import co.elastic.clients.elasticsearch.core.BulkResponse;
+import co.elastic.clients.elasticsearch.core.bulk.BulkResponseItem;
+import co.elastic.clients.json.JsonpMapper;
+import jakarta.json.stream.JsonGenerator;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.ResponseException;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+
+/**
+ * Collects products and indexes them with as many bulk requests as needed.
+ *
+ * A bulk request is sent as soon as the buffered products reach {@code maxOperations} documents or
+ * {@code maxBytes} of serialized source, or when {@code flushInterval} has passed. At most
+ * {@code maxConcurrentRequests} bulk requests are in flight; {@link #add(Product)} blocks until one
+ * of them finishes, so a fast producer cannot overrun the cluster.
+ *
+ * If the client uses a {@link co.elastic.clients.transport.rest_client.RestClientTransport} with a jackson
+ * mapper, products are serialized right away into a pooled NDJSON buffer (see {@link NdjsonBulkBody}), and
+ * {@code maxBytes} is the exact size of the request body. Otherwise a regular {@link BulkRequest} is built on flush.
+ * Streamed bodies are gzipped if the transport options carry a {@link HttpCompression}.
+ *
+ * Items rejected with 429 (too many requests) or 503 (unavailable) are retried with exponential backoff,
+ * everything else fails the future returned by {@link #add(Product)} with a {@link BulkIngestException}.
+ *
+ * <pre>{@code
+ * try (ProductBulkIngester ingester = ProductBulkIngester.builder(asyncClient, "products")
+ *         .maxOperations(500)
+ *         .maxConcurrentRequests(4)
+ *         .build()) {
+ *     products.forEach(ingester::add);
+ * }
+ * }</pre>
+ */
+public class ProductBulkIngester implements AutoCloseable {
+
+    private final ElasticsearchAsyncClient client;
+    private final String index;
+    private final int maxOperations;
+    private final long maxBytes;
+    private final int maxRetries;
+    private final Duration initialBackoff;
+    private final Semaphore requests;
+    private final ScheduledExecutorService scheduler;
+    // null if bulk bodies cannot be streamed with this client
+    private final NdjsonBulkBody.Pool pool;
+    // null if bulk bodies are sent uncompressed
+    private final HttpCompression compression;
+    private final OperationMetrics metrics;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition idle = lock.newCondition();
+    private Batch buffer = new Batch();
+    private int outstanding;
+    private boolean closed;
+
+    private ProductBulkIngester(Builder builder) {
+        this.client = builder.client;
+        this.index = builder.index;
+        this.maxOperations = builder.maxOperations;
+        this.maxBytes = builder.maxBytes;
+        this.maxRetries = builder.maxRetries;
+        this.initialBackoff = builder.initialBackoff;
+        this.requests = new Semaphore(builder.maxConcurrentRequests);
+        this.metrics = builder.metrics;
+        if (builder.streaming && RawJsonRequests.supports(client._transport()) && NdjsonBulkBody.supports(client._jsonpMapper())) {
+            this.pool = builder.pool != null ? builder.pool : new NdjsonBulkBody.Pool(client._jsonpMapper());
+        } else {
+            this.pool = null;
+        }
+        this.compression = HttpCompression.of(client._transport().options());
+        if (builder.flushInterval != null) {
+            this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "bulk-ingester-flusher");
+                thread.setDaemon(true);
+                return thread;
+            });
+            final long millis = builder.flushInterval.toMillis();
+            scheduler.scheduleWithFixedDelay(this::flush, millis, millis, TimeUnit.MILLISECONDS);
+        } else {
+            this.scheduler = null;
+        }
+    }
+
+    public static Builder builder(ElasticsearchAsyncClient client, String index) {
+        return new Builder(client, index);
+    }
+
+    /**
+     * Queue a product for indexing. Blocks if the buffer is full and all concurrent bulk requests are busy.
+     *
+     * @return future completing with the id of the indexed product, which is also set on the product
+     */
+    public CompletableFuture<String> add(Product product) {
+        final Item item = new Item(product);
+        final long estimatedBytes = pool == null ? estimateSize(product) : 0;
+        final Batch batch;
+        lock.lock();
+        try {
+            if (closed) {
+                throw new IllegalStateException("bulk ingester is closed");
+            }
+            outstanding++;
+            buffer.add(item, estimatedBytes);
+            batch = buffer.items.size() >= maxOperations || buffer.bytes >= maxBytes ? drain() : null;
+        } finally {
+            lock.unlock();
+        }
+        if (batch != null) {
+            send(batch);
+        }
+        return item.future;
+    }
+
+    /**
+     * Send all buffered products, without waiting for the response.
+     */
+    public void flush() {
+        final Batch batch;
+        lock.lock();
+        try {
+            batch = buffer.items.isEmpty() ? null : drain();
+        } finally {
+            lock.unlock();
+        }
+        if (batch != null) {
+            send(batch);
+        }
+    }
+
+    /**
+     * Flush and wait until every queued product has been indexed or has finally failed.
+     * If the waiting thread is interrupted, this returns early with the interrupt flag set, and products
+     * still in flight complete their futures later.
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+        } finally {
+            lock.unlock();
+        }
+        if (scheduler != null) {
+            scheduler.shutdown();
+        }
+        flush();
+        lock.lock();
+        try {
+            while (outstanding > 0) {
+                idle.await();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Index all products and wait for them, the ids are set on the products afterwards.
+     *
+     * @throws BulkIngestException listing every product that could not be indexed
+     */
+    static void ingest(ProductBulkIngester ingester, List<Product> products) throws IOException {
+        final List<CompletableFuture<String>> futures;
+        // if close() is interrupted, the first get() below throws right away
+        try (ingester) {
+            futures = products.stream().map(ingester::add).collect(Collectors.toList());
+        }
+
+        final List<BulkIngestException.Failure> failures = new ArrayList<>();
+        for (CompletableFuture<String> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof BulkIngestException bulkIngestException) {
+                    failures.addAll(bulkIngestException.getFailures());
+                } else {
+                    throw new IOException(e.getCause());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted while waiting for bulk requests", e);
+            }
+        }
+        if (!failures.isEmpty()) {
+            throw new BulkIngestException(failures);
+        }
+    }
+
+    // must hold the lock
+    private Batch drain() {
+        final Batch batch = buffer;
+        buffer = new Batch();
+        return batch;
+    }
+
+    private void send(Batch batch) {
+        try {
+            requests.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            batch.release();
+            batch.items.forEach(item -> fail(item, -1, "interrupted", "interrupted while waiting for a free bulk request slot"));
+            return;
+        }
+        dispatch(batch);
+    }
+
+    // retries run on the common pool, so they must not block it waiting for a free request slot
+    private void resend(Batch batch) {
+        if (requests.tryAcquire()) {
+            dispatch(batch);
+        } else {
+            CompletableFuture.runAsync(() -> resend(batch), CompletableFuture.delayedExecutor(initialBackoff.toMillis(), TimeUnit.MILLISECONDS));
+        }
+    }
+
+    // must hold a request permit, which is released once the response arrived
+    private void dispatch(Batch batch) {
+        CompletableFuture<BulkResponse> future;
+        try {
+            if (batch.body != null) {
+                final Request request = new Request("POST", "/" + index + "/_bulk");
+                request.setEntity(batch.body.toEntity(compression));
+                future = RawJsonRequests.performAsync(client._transport(), request, BulkResponse._DESERIALIZER);
+            } else {
+                final List<Product> products = batch.items.stream().map(item -> item.product).collect(Collectors.toList());
+                future = client.bulk(ProductServiceImpl.createBulkRequest(index, products));
+            }
+        } catch (Exception e) {
+            future = CompletableFuture.failedFuture(e);
+        }
+        future.whenComplete((response, throwable) -> {
+            requests.release();
+            batch.release();
+            if (throwable != null) {
+                onRequestFailure(batch.items, throwable);
+            } else {
+                onResponse(batch.items, response);
+            }
+        });
+    }
+
+    private void onResponse(List<Item> batch, BulkResponse response) {
+        metrics.recordTook(response.took());
+        final List<Item> retries = new ArrayList<>();
+        final List<BulkResponseItem> items = response.items();
+        for (int i = 0; i < batch.size(); i++) {
+            final Item item = batch.get(i);
+            final BulkResponseItem responseItem = items.get(i);
+            if (responseItem.error() == null) {
+                item.product.setId(responseItem.id());
+                complete(item);
+            } else if (isRetryable(responseItem.status()) && item.attempt < maxRetries) {
+                retries.add(item);
+            } else {
+                fail(item, responseItem.status(), responseItem.error().type(), responseItem.error().reason());
+            }
+        }
+        retry(retries);
+    }
+
+    private void onRequestFailure(List<Item> batch, Throwable throwable) {
+        final Throwable cause = throwable instanceof CompletionException ? throwable.getCause() : throwable;
+        final int status = status(cause);
+        if (isRetryable(status)) {
+            final List<Item> retries = new ArrayList<>();
+            for (Item item : batch) {
+                if (item.attempt < maxRetries) {
+                    retries.add(item);
+                } else {
+                    fail(item, status, cause.getClass().getSimpleName(), cause.getMessage());
+                }
+            }
+            retry(retries);
+        } else {
+            batch.forEach(item -> fail(item, status, cause.getClass().getSimpleName(), cause.getMessage()));
+        }
+    }
+
+    private void retry(List<Item> retries) {
+        if (retries.isEmpty()) {
+            return;
+        }
+        int attempt = 0;
+        for (Item item : retries) {
+            attempt = Math.max(attempt, item.attempt);
+            item.attempt++;
+        }
+        final long delay = initialBackoff.toMillis() << attempt;
+        CompletableFuture.runAsync(() -> {
+            final Batch batch = new Batch();
+            retries.forEach(item -> batch.add(item, 0));
+            resend(batch);
+        }, CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS));
+    }
+
+    private void complete(Item item) {
+        metrics.recordBulkItem(true);
+        item.future.complete(item.product.getId());
+        done();
+    }
+
+    private void fail(Item item, int status, String type, String reason) {
+        metrics.recordBulkItem(false);
+        item.future.completeExceptionally(
+                new BulkIngestException(List.of(new BulkIngestException.Failure(item.product, status, type, reason))));
+        done();
+    }
+
+    private void done() {
+        lock.lock();
+        try {
+            if (--outstanding == 0) {
+                idle.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    static boolean isRetryable(int status) {
+        return status == 429 || status == 503;
+    }
+
+    static int status(Throwable throwable) {
+        for (Throwable t = throwable; t != null; t = t.getCause()) {
+            if (t instanceof ElasticsearchException elasticsearchException) {
+                return elasticsearchException.status();
+            }
+            if (t instanceof ResponseException responseException) {
+                return responseException.getResponse().getStatusLine().getStatusCode();
+            }
+        }
+        return -1;
+    }
+
+    private long estimateSize(Product product) {
+        final JsonpMapper mapper = client._jsonpMapper();
+        final CountingOutputStream out = new CountingOutputStream();
+        try (JsonGenerator generator = mapper.jsonProvider().createGenerator(out)) {
+            mapper.serialize(product, generator);
+        }
+        // plus the action line and the newlines
+        return out.count + 32 + (product.getId() == null ? 0 : product.getId().length());
+    }
+
+    private static class Item {
+        private final Product product;
+        private final CompletableFuture<String> future = new CompletableFuture<>();
+        private int attempt;
+
+        private Item(Product product) {
+            this.product = product;
+        }
+    }
+
+    /**
+     * Products of the next bulk request, already serialized into {@link #body} when streaming
+     */
+    private class Batch {
+        private final List<Item> items = new ArrayList<>();
+        private NdjsonBulkBody body;
+        private long bytes;
+
+        private void add(Item item, long estimatedBytes) {
+            items.add(item);
+            if (pool != null) {
+                if (body == null) {
+                    body = pool.acquire();
+                }
+                bytes += body.index(item.product);
+            } else {
+                bytes += estimatedBytes;
+            }
+        }
+
+        private void release() {
+            if (body != null) {
+                body.release();
+                body = null;
+            }
+        }
+    }
+
+    private static class CountingOutputStream extends OutputStream {
+        private long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+
+    public static class Builder {
+        private final ElasticsearchAsyncClient client;
+        private final String index;
+        private int maxOperations = 1000;
+        private long maxBytes = 5 * 1024 * 1024;
+        private Duration flushInterval;
+        private int maxConcurrentRequests = 1;
+        private int maxRetries = 3;
+        private Duration initialBackoff = Duration.ofMillis(100);
+        private boolean streaming = true;
+        private NdjsonBulkBody.Pool pool;
+        private OperationMetrics metrics = OperationMetrics.NOOP;
+
+        private Builder(ElasticsearchAsyncClient client, String index) {
+            this.client = client;
+            this.index = index;
+        }
+
+        /**
+         * Flush once this many products are buffered, defaults to 1000
+         */
+        public Builder maxOperations(int maxOperations) {
+            this.maxOperations = maxOperations;
+            return this;
+        }
+
+        /**
+         * Flush once the buffered products serialize to this many bytes, defaults to 5mb
+         */
+        public Builder maxBytes(long maxBytes) {
+            this.maxBytes = maxBytes;
+            return this;
+        }
+
+        /**
+         * Flush periodically, even if no other threshold has been reached. Disabled by default.
+         */
+        public Builder flushInterval(Duration flushInterval) {
+            this.flushInterval = flushInterval;
+            return this;
+        }
+
+        /**
+         * Number of bulk requests sent at the same time, defaults to 1
+         */
+        public Builder maxConcurrentRequests(int maxConcurrentRequests) {
+            this.maxConcurrentRequests = maxConcurrentRequests;
+            return this;
+        }
+
+        /**
+         * How often a rejected product is retried before giving up, defaults to 3
+         */
+        public Builder maxRetries(int maxRetries) {
+            this.maxRetries = maxRetries;
+            return this;
+        }
+
+        /**
+         * Backoff before the first retry, doubled for every further retry. Defaults to 100ms.
+         */
+        public Builder initialBackoff(Duration initialBackoff) {
+            this.initialBackoff = initialBackoff;
+            return this;
+        }
+
+        /**
+         * Serialize products straight into the request body instead of building a {@link BulkRequest} first.
+         * Enabled by default, only takes effect with a rest client transport and a jackson mapper.
+         */
+        public Builder streaming(boolean streaming) {
+            this.streaming = streaming;
+            return this;
+        }
+
+        /**
+         * Share request body buffers between several ingesters
+         */
+        Builder bufferPool(NdjsonBulkBody.Pool pool) {
+            this.pool = pool;
+            return this;
+        }
+
+        /**
+         * Records the time elasticsearch took for every bulk request, and the outcome of every product
+         */
+        Builder metrics(OperationMetrics metrics) {
+            this.metrics = metrics;
+            return this;
+        }
+
+        public ProductBulkIngester build() {
+            if (maxOperations < 1 || maxBytes < 1 || maxConcurrentRequests < 1 || maxRetries < 0) {
+                throw new IllegalArgumentException("thresholds and concurrency must be positive");
+            }
+            return new ProductBulkIngester(this);
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package de.spinscale.restclient;
+
+import co.elastic.clients.json.JsonpDeserializer;
+import co.elastic.clients.json.JsonpMapper;
+import co.elastic.clients.json.JsonpUtils;
+import co.elastic.clients.json.jackson.JacksonJsonpGenerator;
+import co.elastic.clients.json.jackson.JacksonJsonpParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+import jakarta.json.JsonException;
+import jakarta.json.stream.JsonGenerator;
+import jakarta.json.stream.JsonParser;
+import jakarta.json.stream.JsonParser.Event;
+
+import java.io.IOException;
+import java.util.EnumSet;
+
+/**
+ * Hand written JSON binding of {@link Product}, replacing reflection based data binding and the snake_case
+ * name translation done for every property.
+ *
+ * <ul>
+ *     <li>fields are read straight from the parser, jackson hands out interned field names, so matching
+ *     them costs a hash lookup and no allocation</li>
+ *     <li>unknown fields are skipped, without building a tree</li>
+ *     <li>field names are written from pre-encoded strings</li>
+ * </ul>
+ *
+ * The output is the same as the one of an object mapper using snake_case and skipping null values.
+ * The elasticsearch client picks it up through {@link Product#_DESERIALIZER} and {@link Product#serialize},
+ * for any {@link JsonpMapper}; with a jackson mapper the underlying jackson parser and generator are used directly.
+ */
+final class ProductJson implements JsonpDeserializer<Product> {
+
+    static final ProductJson INSTANCE = new ProductJson();
+
+    private static final EnumSet<Event> EVENTS = EnumSet.of(Event.START_OBJECT);
+
+    private static final SerializableString ID = new SerializedString("id");
+    private static final SerializableString NAME = new SerializedString("name");
+    private static final SerializableString DESCRIPTION = new SerializedString("description");
+    private static final SerializableString PRICE = new SerializedString("price");
+    private static final SerializableString STOCK_AVAILABLE = new SerializedString("stock_available");
+
+    private ProductJson() {
+    }
+
+    @Override
+    public EnumSet<Event> nativeEvents() {
+        return EVENTS;
+    }
+
+    @Override
+    public EnumSet<Event> acceptedEvents() {
+        return EVENTS;
+    }
+
+    @Override
+    public Product deserialize(JsonParser parser, JsonpMapper mapper, Event event) {
+        JsonpUtils.expectEvent(parser, Event.START_OBJECT, event);
+        if (parser instanceof JacksonJsonpParser jacksonJsonpParser) {
+            try {
+                return read(jacksonJsonpParser.jacksonParser());
+            } catch (IOException e) {
+                throw new JsonException("failed to read product", e);
+            }
+        }
+        return read(parser);
+    }
+
+    /**
+     * @param parser positioned on the start of the product object, is left on its end
+     */
+    static Product read(com.fasterxml.jackson.core.JsonParser parser) throws IOException {
+        final Product product = new Product();
+        for (String field = parser.nextFieldName(); field != null; field = parser.nextFieldName()) {
+            final JsonToken token = parser.nextToken();
+            if (token.isStructStart()) {
+                parser.skipChildren();
+                continue;
+            }
+            switch (field) {
+                case "id" -> product.setId(parser.getValueAsString());
+                case "name" -> product.setName(parser.getValueAsString());
+                case "description" -> product.setDescription(parser.getValueAsString());
+                case "price" -> product.setPrice(parser.getValueAsDouble());
+                // camelCase as written by a mapper without naming strategy
+                case "stock_available", "stockAvailable" -> product.setStockAvailable(parser.getValueAsInt());
+                default -> {
+                    // unknown scalar, nothing to skip
+                }
+            }
+        }
+        if (parser.currentToken() != JsonToken.END_OBJECT) {
+            throw new JsonException("expected end of product object but got " + parser.currentToken());
+        }
+        return product;
+    }
+
+    /**
+     * Slower fallback for other JSON providers than jackson
+     */
+    static Product read(JsonParser parser) {
+        final Product product = new Product();
+        Event event;
+        while ((event = parser.next()) == Event.KEY_NAME) {
+            final String field = parser.getString();
+            final Event value = parser.next();
+            if (value == Event.START_OBJECT || value == Event.START_ARRAY) {
+                JsonpUtils.skipValue(parser, value);
+                continue;
+            }
+            final boolean isNull = value == Event.VALUE_NULL;
+            switch (field) {
+                case "id" -> product.setId(isNull ? null : parser.getString());
+                case "name" -> product.setName(isNull ? null : parser.getString());
+                case "description" -> product.setDescription(isNull ? null : parser.getString());
+                case "price" -> product.setPrice(isNull ? 0 : Double.parseDouble(parser.getString()));
+                case "stock_available", "stockAvailable" -> product.setStockAvailable(isNull ? 0 : Integer.parseInt(parser.getString()));
+                default -> {
+                }
+            }
+        }
+        JsonpUtils.expectEvent(parser, Event.END_OBJECT, event);
+        return product;
+    }
+
+    static void write(Product product, JsonGenerator generator) {
+        if (generator instanceof JacksonJsonpGenerator jacksonJsonpGenerator) {
+            try {
+                write(product, jacksonJsonpGenerator.jacksonGenerator());
+            } catch (IOException e) {
+                throw new JsonException("failed to write product", e);
+            }
+            return;
+        }
+        generator.writeStartObject();
+        if (product.getId() != null) {
+            generator.write("id", product.getId());
+        }
+        if (product.getName() != null) {
+            generator.write("name", product.getName());
+        }
+        if (product.getDescription() != null) {
+            generator.write("description", product.getDescription());
+        }
+        generator.write("price", product.getPrice());
+        generator.write("stock_available", product.getStockAvailable());
+        generator.writeEnd();
+    }
+
+    static void write(Product product, com.fasterxml.jackson.core.JsonGenerator generator) throws IOException {
+        generator.writeStartObject(product);
+        if (product.getId() != null) {
+            generator.writeFieldName(ID);
+            generator.writeString(product.getId());
+        }
+        if (product.getName() != null) {
+            generator.writeFieldName(NAME);
+            generator.writeString(product.getName());
+        }
+        if (product.getDescription() != null) {
+            generator.writeFieldName(DESCRIPTION);
+            generator.writeString(product.getDescription());
+        }
+        generator.writeFieldName(PRICE);
+        generator.writeNumber(product.getPrice());
+        generator.writeFieldName(STOCK_AVAILABLE);
+        generator.writeNumber(product.getStockAvailable());
+        generator.writeEndObject();
+    }
+}
@@ -1,14 +1,36 @@
 package de.spinscale.restclient;
 
 import java.io.IOException;
+import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.stream.Stream;
 
 public interface ProductService {
 
     Product findById(String id) throws IOException;
 
+    /**
+     * Fetch several products with a single request
+     *
+     * @param ids ids of the products
+     * @return the products found, in the order of the ids, ids not found are skipped
+     * @throws IOException
+     */
+    List<Product> findAll(Collection<String> ids) throws IOException;
+
     Page<Product> search(String query) throws IOException;
 
+    /**
+     * Search returning only part of each product, e.g. {@link Projection#SUMMARY} for listings
+     *
+     * @param query input matched against name and description
+     * @param projection the source fields returned and the type they are read into
+     * @return the first page
+     * @throws IOException
+     */
+    <T> Page<T> search(String query, Projection<T> projection) throws IOException;
+
     /**
      * Search the next page of current page, with the same size
      *
@@ -18,7 +40,83 @@ public interface ProductService {
      */
     Page<Product> next(Page<Product> page) throws IOException;
 
+    /**
+     * @see #next(Page)
+     */
+    <T> Page<T> next(Page<T> page, Projection<T> projection) throws IOException;
+
+    /**
+     * Search for consumers reading many hits at once, mostly for their prices and stock.
+     * The page keeps the products in columns, see {@link ColumnarPage}.
+     *
+     * @param query input matched against name and description
+     * @param size number of hits per page
+     * @return the first page
+     * @throws IOException
+     */
+    ColumnarPage searchColumnar(String query, int size) throws IOException;
+
+    /**
+     * @see #next(Page)
+     */
+    ColumnarPage next(ColumnarPage page) throws IOException;
+
+    /**
+     * Release server side resources held for paging further, needed only if paging stops before the last page.
+     * Otherwise they expire after their keep alive.
+     *
+     * @param page the last page fetched
+     * @throws IOException
+     */
+    void close(Page<?> page) throws IOException;
+
+    /**
+     * Read all products of the index, the index is split into slices which are read in parallel.
+     * The stream must be closed if it is not consumed completely.
+     *
+     * @param slices number of slices read concurrently, each of them occupies one thread of the executor
+     * @param executor runs the slices
+     * @return lazy stream of all products, in no particular order
+     * @throws IOException
+     */
+    Stream<Product> export(int slices, Executor executor) throws IOException;
+
+    /**
+     * Group all products of the index by price bucket and/or keyword fields, with stock and price statistics per group.
+     * Groups are fetched page by page while the stream is consumed, so there can be any number of them.
+     *
+     * @param aggregation how products are grouped
+     * @return lazy stream of all groups, ordered by their key
+     * @throws IOException
+     */
+    Stream<ProductBucket> aggregate(ProductAggregation aggregation) throws IOException;
+
     void save(Product product) throws IOException;
 
     void save(List<Product> products) throws IOException;
+
+    /**
+     * Add to the stock of a product, without sending the whole product. Version conflicts with concurrent
+     * updates of the same product are retried.
+     *
+     * @param id id of the product
+     * @param delta negative to decrease the stock
+     * @throws IOException
+     */
+    void updateStock(String id, int delta) throws IOException;
+
+    /**
+     * Set the price of a product, without sending the whole product
+     *
+     * @see #updateStock(String, int)
+     */
+    void updatePrice(String id, double price) throws IOException;
+
+    /**
+     * Apply several updates with a single request
+     *
+     * @param updates changes of stock and price
+     * @throws BulkIngestException listing the updates that failed, e.g. because the product does not exist
+     */
+    void update(List<ProductUpdate> updates) throws IOException;
 }
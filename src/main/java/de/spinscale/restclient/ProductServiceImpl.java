@@ -1,80 +1,502 @@
 package de.spinscale.restclient;
 
+import co.elastic.clients.elasticsearch.ElasticsearchAsyncClient;
 import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.ElasticsearchException;
+import co.elastic.clients.elasticsearch._types.ErrorResponse;
+import co.elastic.clients.elasticsearch._types.Script;
+import co.elastic.clients.elasticsearch._types.SortOrder;
+import co.elastic.clients.elasticsearch._types.Time;
+import co.elastic.clients.elasticsearch._types.query_dsl.Query;
+import co.elastic.clients.elasticsearch.core.BulkRequest;
 import co.elastic.clients.elasticsearch.core.BulkResponse;
 import co.elastic.clients.elasticsearch.core.GetResponse;
+import co.elastic.clients.elasticsearch.core.MgetRequest;
+import co.elastic.clients.elasticsearch.core.MgetResponse;
+import co.elastic.clients.elasticsearch.core.MsearchRequest;
 import co.elastic.clients.elasticsearch.core.SearchRequest;
 import co.elastic.clients.elasticsearch.core.SearchResponse;
+import co.elastic.clients.elasticsearch.core.UpdateRequest;
+import co.elastic.clients.elasticsearch.core.bulk.BulkResponseItem;
+import co.elastic.clients.elasticsearch.core.get.GetResult;
+import co.elastic.clients.elasticsearch.core.mget.MultiGetResponseItem;
+import co.elastic.clients.elasticsearch.core.msearch.RequestItem;
 import co.elastic.clients.elasticsearch.core.search.Hit;
+import co.elastic.clients.elasticsearch.core.search.ResponseBody;
+import co.elastic.clients.json.JsonData;
+import co.elastic.clients.json.JsonpDeserializer;
+import co.elastic.clients.json.JsonpMapper;
+import co.elastic.clients.transport.ElasticsearchTransport;
+import co.elastic.clients.transport.Endpoint;
+import co.elastic.clients.transport.TransportOptions;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 // use async in a real application
 public class ProductServiceImpl implements ProductService {
 
+    static final Time PIT_KEEP_ALIVE = Time.of(tb -> tb.time("1m"));
+    // concurrent updates of a hot product conflict, elasticsearch retries them right away
+    static final int RETRY_ON_CONFLICT = 5;
+    private static final String STOCK_SCRIPT = "ctx._source.stock_available += params.stock_delta";
+    private static final String STOCK_AND_PRICE_SCRIPT = STOCK_SCRIPT + "; ctx._source.price = params.price";
+    // projections are usually constants, a projection created per search is not worth preparing
+    private static final int MAX_PREPARED_PROJECTIONS = 16;
+    // bulk requests of a single save in flight at the same time
+    static final int SAVE_CONCURRENT_REQUESTS = 3;
+    // parameters of the prepared searches
+    private static final String INPUT = "input";
+    private static final String FROM = "from";
+    private static final String SIZE = "size";
+    private static final String PIT_ID = "pit_id";
+    private static final String SEARCH_AFTER = "search_after";
+
     private final String index;
     private final ElasticsearchClient client;
+    private final ElasticsearchClient writeClient;
+    private final ElasticsearchAsyncClient asyncClient;
+    private final NdjsonBulkBody.Pool bulkBufferPool;
+    // null if the searches are built and serialized per call
+    private final Map<Projection<?>, PreparedSearches> preparedSearches;
+    private final OperationMetrics searchMetrics;
+    private final OperationMetrics nextMetrics;
+    private final OperationMetrics saveMetrics;
 
     public ProductServiceImpl(String index, ElasticsearchClient client) {
+        this(index, client, ProductServiceMetrics.DISABLED);
+    }
+
+    /**
+     * @param metrics records the time elasticsearch took for searches, and the outcome of every bulk item
+     */
+    public ProductServiceImpl(String index, ElasticsearchClient client, ProductServiceMetrics metrics) {
+        this(index, client, client, metrics);
+    }
+
+    /**
+     * @param writeClient used for saving and updating products, e.g. one sending requests to ingest nodes, see {@link AdaptiveRestClients}
+     */
+    public ProductServiceImpl(String index, ElasticsearchClient client, ElasticsearchClient writeClient, ProductServiceMetrics metrics) {
         this.index = index;
         this.client = client;
+        this.writeClient = writeClient;
+        // bulk ingestion sends up to SAVE_CONCURRENT_REQUESTS bulk requests concurrently
+        this.asyncClient = new ElasticsearchAsyncClient(writeClient._transport(), writeClient._transportOptions());
+        this.bulkBufferPool = NdjsonBulkBody.supports(writeClient._jsonpMapper()) ? new NdjsonBulkBody.Pool(writeClient._jsonpMapper()) : null;
+        this.preparedSearches = PreparedSearch.supports(client._jsonpMapper()) ? new ConcurrentHashMap<>() : null;
+        this.searchMetrics = metrics.operation("search");
+        this.nextMetrics = metrics.operation("next");
+        this.saveMetrics = metrics.operation("save");
+    }
+
+    /**
+     * @return the client, with timeouts ending requests at the {@link Deadline} of the current thread if there is one
+     * @throws DeadlineExceededException if the deadline has passed already
+     */
+    private ElasticsearchClient client() throws DeadlineExceededException {
+        final Deadline deadline = Deadline.current();
+        if (deadline == null) {
+            return client;
+        }
+        final TransportOptions options = client._transportOptions() != null ? client._transportOptions() : client._transport().options();
+        return client.withTransportOptions(deadline.apply(options));
     }
 
     @Override
     public Product findById(String id) throws IOException {
-        final GetResponse<Product> getResponse = client.get(builder -> builder.index(index).id(id), Product.class);
-        return getResponse.source();
+        final GetResponse<Product> getResponse = client().get(builder -> builder.index(index).id(id), Product.class);
+        return withId(getResponse.source(), getResponse.id());
+    }
+
+    @Override
+    public List<Product> findAll(Collection<String> ids) throws IOException {
+        if (ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+        final MgetResponse<Product> response = client().mget(createMgetRequest(index, ids), Product.class);
+        final List<Product> products = new ArrayList<>(ids.size());
+        for (MultiGetResponseItem<Product> item : response.docs()) {
+            final Product product = toProduct(item);
+            if (product != null) {
+                products.add(product);
+            }
+        }
+        return products;
+    }
+
+    static MgetRequest createMgetRequest(String index, Collection<String> ids) {
+        String comment = """
+                GET <index>/_mget
+                {
+                  "ids" : ["1", "2"]
+                }
+                """;
+        return MgetRequest.of(b -> b.index(index).ids(new ArrayList<>(ids)));
+    }
+
+    /**
+     * @return the product, or null if it does not exist
+     * @throws IOException if the item failed, e.g. because its shard is not available
+     */
+    static Product toProduct(MultiGetResponseItem<Product> item) throws IOException {
+        if (item.isFailure()) {
+            throw new IOException("failed to get product [" + item.failure().id() + "]: " + item.failure().error().reason());
+        }
+        final GetResult<Product> result = item.result();
+        return result.found() ? withId(result.source(), result.id()) : null;
+    }
+
+    /**
+     * Products indexed without an id do not contain it in their source, so it has to be taken from the hit
+     */
+    static Product withId(Product product, String id) {
+        if (product != null && product.getId() == null) {
+            product.setId(id);
+        }
+        return product;
     }
 
     @Override
     public Page<Product> search(String input) throws IOException {
-        return getPageResult(createSearchRequest(input, 0, 10), input);
+        return search(input, Projection.FULL);
+    }
+
+    @Override
+    public <T> Page<T> search(String input, Projection<T> projection) throws IOException {
+        final ElasticsearchClient client = client();
+        final SearchResponse<T> response = search(client._transport(), client._transportOptions(), null, input, 0, 10, null,
+                projection, SearchRequest.createSearchEndpoint(JsonpDeserializer.of(projection.type())));
+        searchMetrics.recordTook(response.took());
+        return toPage(response, input, 0, 10, projection);
     }
 
     @Override
     public Page<Product> next(Page<Product> page) throws IOException {
-        int from = page.getFrom() + page.getSize();
-        final SearchRequest request = createSearchRequest(page.getInput(), from, page.getSize());
-        return getPageResult(request, page.getInput());
+        return next(page, Projection.FULL);
     }
 
-    private Page<Product> getPageResult(SearchRequest searchRequest, String input) throws IOException {
-        final SearchResponse<Product> response = client.search(searchRequest, Product.class);
-        if (response.hits().total().value() == 0) {
+    /**
+     * The first call opens a point in time, all further pages are read from that PIT with search_after.
+     * This keeps the cost of a page constant no matter how deep it is, and the pages do not shift when
+     * documents are indexed in the meantime.
+     */
+    @Override
+    public <T> Page<T> next(Page<T> page, Projection<T> projection) throws IOException {
+        if (page.isLast()) {
             return Page.empty();
         }
-        if (response.hits().hits().isEmpty()) {
+        return nextInPointInTime(page, (pitId, searchAfter, from) -> {
+            final ElasticsearchClient client = client();
+            final SearchResponse<T> response = search(client._transport(), client._transportOptions(), pitId, page.getInput(), from,
+                    page.getSize(), searchAfter, projection, SearchRequest.createSearchEndpoint(JsonpDeserializer.of(projection.type())));
+            nextMetrics.recordTook(response.took());
+            return toPage(response, page.getInput(), from, page.getSize(), projection);
+        });
+    }
+
+    /**
+     * Hits are read straight into the columns of the page
+     *
+     * @param size number of hits, at most the max_result_window of the index
+     */
+    @Override
+    public ColumnarPage searchColumnar(String input, int size) throws IOException {
+        return searchColumnar(null, input, 0, size, null, searchMetrics);
+    }
+
+    @Override
+    public ColumnarPage next(ColumnarPage page) throws IOException {
+        if (page.isLast()) {
+            return ColumnarPage.EMPTY;
+        }
+        return nextInPointInTime(page,
+                (pitId, searchAfter, from) -> searchColumnar(pitId, page.getInput(), from, page.getSize(), searchAfter, nextMetrics));
+    }
+
+    private ColumnarPage searchColumnar(String pitId, String input, int from, int size, List<String> searchAfter,
+                                        OperationMetrics metrics) throws IOException {
+        // the columns are filled while the response is read, so every request needs its own endpoint
+        final ColumnarPage.Columns columns = new ColumnarPage.Columns(size);
+        final ElasticsearchClient client = client();
+        // nor can it be read twice, by a hedged request
+        final SearchResponse<Integer> response = search(HedgingTransport.unhedged(client._transport()), client._transportOptions(),
+                pitId, input, from, size, searchAfter, Projection.FULL, SearchRequest.createSearchEndpoint(columns));
+        metrics.recordTook(response.took());
+        return toColumnarPage(response, columns, input, from, size);
+    }
+
+    /**
+     * Sends the prepared body of the search if the searches of the projection are prepared, otherwise the request
+     * built by {@link #createSearchRequest} or {@link #createPitSearchRequest}
+     *
+     * @param pitId null to search the index
+     */
+    private <T> SearchResponse<T> search(ElasticsearchTransport transport, TransportOptions options, String pitId, String input,
+                                         int from, int size, List<String> searchAfter, Projection<?> projection,
+                                         Endpoint<SearchRequest, SearchResponse<T>, ErrorResponse> endpoint) throws IOException {
+        final PreparedSearches prepared = preparedSearches(projection);
+        if (prepared == null) {
+            final SearchRequest request = pitId == null
+                    ? createSearchRequest(index, input, from, size, projection)
+                    : createPitSearchRequest(pitId, input, from, size, searchAfter, projection);
+            return transport.performRequest(request, endpoint, options);
+        }
+        if (pitId == null) {
+            return prepared.search().search(transport, options, Map.of(INPUT, input, FROM, from, SIZE, size), endpoint);
+        }
+        if (searchAfter == null) {
+            return prepared.pitSearch().search(transport, options, Map.of(PIT_ID, pitId, INPUT, input, FROM, from, SIZE, size), endpoint);
+        }
+        return prepared.pitSearchAfter().search(transport, options,
+                Map.of(PIT_ID, pitId, INPUT, input, SIZE, size, SEARCH_AFTER, searchAfter), endpoint);
+    }
+
+    private PreparedSearches preparedSearches(Projection<?> projection) {
+        if (preparedSearches == null) {
+            return null;
+        }
+        final PreparedSearches prepared = preparedSearches.get(projection);
+        if (prepared != null || preparedSearches.size() >= MAX_PREPARED_PROJECTIONS) {
+            return prepared;
+        }
+        return preparedSearches.computeIfAbsent(projection, p -> PreparedSearches.prepare(client._jsonpMapper(), index, p));
+    }
+
+    /**
+     * The searches of this class for one projection, prepared from their request factories, so the bodies are the same
+     */
+    private record PreparedSearches(PreparedSearch search, PreparedSearch pitSearch, PreparedSearch pitSearchAfter) {
+
+        static PreparedSearches prepare(JsonpMapper mapper, String index, Projection<?> projection) {
+            return new PreparedSearches(
+                    PreparedSearch.prepare(mapper, p -> createSearchRequest(index, p.string(INPUT), p.integer(FROM), p.integer(SIZE), projection)),
+                    PreparedSearch.prepare(mapper, p -> createPitSearchRequest(p.string(PIT_ID), p.string(INPUT), p.integer(FROM),
+                            p.integer(SIZE), null, projection)),
+                    PreparedSearch.prepare(mapper, p -> createPitSearchRequest(p.string(PIT_ID), p.string(INPUT), 0,
+                            p.integer(SIZE), p.strings(SEARCH_AFTER), projection)));
+        }
+    }
+
+    private <P extends Page<?>> P nextInPointInTime(Page<?> page, PitSearch<P> search) throws IOException {
+        int from = page.getFrom() + page.getSize();
+        if (page.hasSearchAfter()) {
+            try {
+                return closeIfLast(search.search(page.getPitId(), page.getSearchAfter(), from));
+            } catch (ElasticsearchException e) {
+                if (e.status() != 404) {
+                    throw e;
+                }
+                // the point in time has expired, continue in a new one
+            }
+        }
+
+        final String pitId = client().openPointInTime(b -> b.index(index).keepAlive(PIT_KEEP_ALIVE)).id();
+        return closeIfLast(search.search(pitId, null, from));
+    }
+
+    private <P extends Page<?>> P closeIfLast(P page) throws IOException {
+        if (page.isLast()) {
+            closePointInTime(page.getPitId());
+            @SuppressWarnings("unchecked")
+            final P withoutPit = (P) page.withoutPointInTime();
+            return withoutPit;
+        }
+        return page;
+    }
+
+    @FunctionalInterface
+    private interface PitSearch<P> {
+        /**
+         * @param searchAfter null to start at {@code from}
+         */
+        P search(String pitId, List<String> searchAfter, int from) throws IOException;
+    }
+
+    @Override
+    public void close(Page<?> page) throws IOException {
+        closePointInTime(page.getPitId());
+    }
+
+    private void closePointInTime(String pitId) throws IOException {
+        if (pitId == null) {
+            return;
+        }
+        try {
+            client.closePointInTime(b -> b.id(pitId));
+        } catch (ElasticsearchException e) {
+            // already expired
+            if (e.status() != 404) {
+                throw e;
+            }
+        }
+    }
+
+    static Page<Product> toPage(ResponseBody<Product> response, String input, int from, int size) {
+        return toPage(response, input, from, size, Projection.FULL);
+    }
+
+    /**
+     * @param response of a search, or an item of a multi search
+     */
+    static <T> Page<T> toPage(ResponseBody<T> response, String input, int from, int size, Projection<T> projection) {
+        // total hits are not tracked when paging through a PIT
+        if (response.hits().total() != null && response.hits().total().value() == 0) {
             return Page.empty();
         }
+        final List<Hit<T>> hits = response.hits().hits();
+        if (hits.isEmpty()) {
+            // keeps the point in time, so it can be closed
+            return response.pitId() == null ? Page.empty() : new Page<>(Collections.emptyList(), input, from, size, response.pitId(), null);
+        }
+
+        final List<T> products = hits.stream().map(hit -> projection.withId(hit.source(), hit.id())).collect(Collectors.toList());
+        return new Page<>(products, input, from, size, response.pitId(), hits.get(hits.size() - 1).sort());
+    }
+
+    static ColumnarPage toColumnarPage(SearchResponse<Integer> response, ColumnarPage.Columns columns, String input, int from, int size) {
+        final List<Hit<Integer>> hits = response.hits().hits();
+        if (hits.isEmpty()) {
+            return response.pitId() == null ? ColumnarPage.EMPTY : new ColumnarPage(columns, input, from, size, response.pitId(), null);
+        }
+        for (Hit<Integer> hit : hits) {
+            final int row = hit.source();
+            if (columns.id(row) == null) {
+                columns.setId(row, hit.id());
+            }
+        }
+        return new ColumnarPage(columns, input, from, size, response.pitId(), hits.get(hits.size() - 1).sort());
+    }
 
-        final List<Product> products = response.hits().hits().stream().map(Hit::source).collect(Collectors.toList());
-        return new Page<>(products, input, searchRequest.from(), searchRequest.size());
+    static SearchRequest createSearchRequest(String index, String input, int from, int size) {
+        return createSearchRequest(index, input, from, size, Projection.FULL);
     }
 
-    private SearchRequest createSearchRequest(String input, int from, int size) {
+    static SearchRequest createSearchRequest(String index, String input, int from, int size, Projection<?> projection) {
         String comment = """
-                GET /_search
+                GET <index>/_search
                 {
                   "query": {
                     "multi_match" : {
                       "query":    "this is a test",
                       "fields": [ "name", "description" ]
                     }
+                  },
+                  "_source": {
+                    "includes": [ "id", "name", "price" ]
                   }
                 }
                 """;
-        return new SearchRequest.Builder()
+        final SearchRequest.Builder builder = new SearchRequest.Builder()
+                .index(index)
                 .from(from)
                 .size(size)
-                .query(
-                        qb -> qb.multiMatch(
-                                mmqb -> mmqb.query(input).fields("name", "description")
-                        )
-                )
-                .build();
+                .query(multiMatchQuery(input));
+        projection.apply(builder);
+        return builder.build();
+    }
+
+    /**
+     * @param searchAfter sort values of the last hit of the previous page, or null to start at {@code from}
+     */
+    static SearchRequest createPitSearchRequest(String pitId, String input, int from, int size, List<String> searchAfter) {
+        return createPitSearchRequest(pitId, input, from, size, searchAfter, Projection.FULL);
+    }
+
+    static SearchRequest createPitSearchRequest(String pitId, String input, int from, int size, List<String> searchAfter,
+                                                Projection<?> projection) {
+        String comment = """
+                GET /_search
+                {
+                  "size": 10,
+                  "query": {
+                    "multi_match" : {
+                      "query":    "this is a test",
+                      "fields": [ "name", "description" ]
+                    }
+                  },
+                  "pit": {
+                    "id": "<pit id>",
+                    "keep_alive": "1m"
+                  },
+                  "sort": [
+                    { "_score": { "order": "desc" } }
+                  ],
+                  "search_after": [ "1.2345", "42" ],
+                  "track_total_hits": false
+                }
+                """;
+        // an implicit _shard_doc tiebreaker is added to the sort, as a PIT is used
+        final SearchRequest.Builder builder = new SearchRequest.Builder()
+                .size(size)
+                .query(multiMatchQuery(input))
+                .pit(pb -> pb.id(pitId).keepAlive(PIT_KEEP_ALIVE))
+                .sort(sb -> sb.score(ssb -> ssb.order(SortOrder.Desc)))
+                .trackTotalHits(tb -> tb.enabled(false));
+        if (searchAfter != null) {
+            builder.searchAfter(searchAfter);
+        } else {
+            builder.from(from);
+        }
+        projection.apply(builder);
+        return builder.build();
+    }
+
+    /**
+     * Sends several searches at once, each one keeps its index or point in time
+     */
+    static MsearchRequest createMsearchRequest(List<SearchRequest> requests) {
+        String comment = """
+                GET /_msearch
+                {"index":"<index>"}
+                {"query":{"multi_match":{"query":"this is a test","fields":["name","description"]}},"from":0,"size":10}
+                {}
+                {"query":{"multi_match":{"query":"this is a test","fields":["name","description"]}},"size":10,"pit":{"id":"<pit id>","keep_alive":"1m"},"sort":[{"_score":{"order":"desc"}}],"search_after":["1.2345","42"],"track_total_hits":false}
+                """;
+        return MsearchRequest.of(b -> b.searches(requests.stream().map(ProductServiceImpl::toRequestItem).collect(Collectors.toList())));
+    }
+
+    /**
+     * Copies everything the search requests of this class set
+     */
+    static RequestItem toRequestItem(SearchRequest request) {
+        return RequestItem.of(ib -> ib
+                .header(hb -> request.index().isEmpty() ? hb : hb.index(request.index()))
+                .body(bb -> {
+                    bb.query(request.query()).from(request.from()).size(request.size())
+                      .pit(request.pit()).source(request.source()).trackTotalHits(request.trackTotalHits());
+                    if (!request.sort().isEmpty()) {
+                        bb.sort(request.sort());
+                    }
+                    if (!request.searchAfter().isEmpty()) {
+                        bb.searchAfter(request.searchAfter());
+                    }
+                    return bb;
+                }));
+    }
+
+    static Query multiMatchQuery(String input) {
+        return Query.of(qb -> qb.multiMatch(
+                mmqb -> mmqb.query(input).fields("name", "description")
+        ));
+    }
+
+    @Override
+    public Stream<Product> export(int slices, Executor executor) throws IOException {
+        return SlicedExport.stream(client, index, slices, 1000, executor);
+    }
+
+    @Override
+    public Stream<ProductBucket> aggregate(ProductAggregation aggregation) throws IOException {
+        return CompositeBuckets.stream(client, index, aggregation);
     }
 
     @Override
@@ -82,8 +504,21 @@ public class ProductServiceImpl implements ProductService {
         save(Collections.singletonList(product));
     }
 
+    /**
+     * Products are split into several bulk requests if needed, see {@link ProductBulkIngester}
+     *
+     * @throws BulkIngestException if some products could not be indexed, all others have their id set
+     */
     @Override
     public void save(List<Product> products) throws IOException {
+        ProductBulkIngester.ingest(ProductBulkIngester.builder(asyncClient, index)
+                .maxConcurrentRequests(SAVE_CONCURRENT_REQUESTS)
+                .bufferPool(bulkBufferPool)
+                .metrics(saveMetrics)
+                .build(), products);
+    }
+
+    static BulkRequest createBulkRequest(String index, List<Product> products) {
         String comment = """
                 POST <index>/_bulk
                 {"index":{"_id":"0"}}
@@ -91,7 +526,7 @@ public class ProductServiceImpl implements ProductService {
                 {"index":{"_id":"1"}}
                 {"id":"1","name":"Name of 1 product","description":"Description of 1 product","price":1.2,"stock_available":10}
                 """;
-        final BulkResponse response = client.bulk(builder -> {
+        return BulkRequest.of(builder -> {
             for (Product product : products) {
                 builder.index(index)
                        .operations(ob -> {
@@ -105,10 +540,118 @@ public class ProductServiceImpl implements ProductService {
             }
             return builder;
         });
+    }
 
+    @Override
+    public void updateStock(String id, int delta) throws IOException {
+        update(ProductUpdate.stock(id, delta));
+    }
+
+    @Override
+    public void updatePrice(String id, double price) throws IOException {
+        update(ProductUpdate.price(id, price));
+    }
+
+    private void update(ProductUpdate update) throws IOException {
+        writeClient.update(createUpdateRequest(index, update), Product.class);
+    }
+
+    /**
+     * Updates of stock and price are small, a single bulk request is sent no matter how many there are
+     */
+    @Override
+    public void update(List<ProductUpdate> updates) throws IOException {
+        if (updates.isEmpty()) {
+            return;
+        }
+        final BulkResponse response = writeClient.bulk(createUpdateBulkRequest(index, updates));
+        saveMetrics.recordTook(response.took());
+        checkUpdates(updates, response);
+    }
+
+    static UpdateRequest<Product, Map<String, Object>> createUpdateRequest(String index, ProductUpdate update) {
+        String comment = """
+                POST <index>/_update/<id>?retry_on_conflict=5
+                {
+                  "script": {
+                    "source": "ctx._source.stock_available += params.stock_delta",
+                    "params": { "stock_delta": -1 }
+                  }
+                }
+                """;
+        return UpdateRequest.of(builder -> {
+            builder.index(index).id(update.id()).retryOnConflict(RETRY_ON_CONFLICT);
+            if (update.needsScript()) {
+                builder.script(createUpdateScript(update));
+            } else {
+                builder.doc(update.partialDocument());
+            }
+            return builder;
+        });
+    }
+
+    static BulkRequest createUpdateBulkRequest(String index, List<ProductUpdate> updates) {
+        String comment = """
+                POST <index>/_bulk
+                {"update":{"_id":"0","retry_on_conflict":5}}
+                {"script":{"source":"ctx._source.stock_available += params.stock_delta","params":{"stock_delta":-1}}}
+                {"update":{"_id":"1","retry_on_conflict":5}}
+                {"doc":{"price":1.5}}
+                """;
+        return BulkRequest.of(builder -> {
+            builder.index(index);
+            for (ProductUpdate update : updates) {
+                builder.operations(ob -> ob.update(ub -> ub
+                        .id(update.id())
+                        .retryOnConflict(RETRY_ON_CONFLICT)
+                        .action(ab -> update.needsScript() ? ab.script(createUpdateScript(update)) : ab.doc(update.partialDocument()))
+                ));
+            }
+            return builder;
+        });
+    }
+
+    /**
+     * The source is the same for every update, so elasticsearch compiles it once and caches it like a stored script
+     */
+    static Script createUpdateScript(ProductUpdate update) {
+        return Script.of(sb -> sb.inline(ib -> {
+            ib.params("stock_delta", JsonData.of(update.stockDelta()));
+            if (update.price() != null) {
+                ib.source(STOCK_AND_PRICE_SCRIPT).params("price", JsonData.of(update.price()));
+            } else {
+                ib.source(STOCK_SCRIPT);
+            }
+            return ib;
+        }));
+    }
+
+    static void checkUpdates(List<ProductUpdate> updates, BulkResponse response) throws BulkIngestException {
+        final List<BulkIngestException.Failure> failures = new ArrayList<>();
+        for (int i = 0; i < updates.size(); i++) {
+            final BulkResponseItem item = response.items().get(i);
+            if (item.error() != null) {
+                failures.add(new BulkIngestException.Failure(updates.get(i).toProduct(), item.status(), item.error().type(), item.error().reason()));
+            }
+        }
+        if (!failures.isEmpty()) {
+            throw new BulkIngestException(failures);
+        }
+    }
+
+    static void assignIds(List<Product> products, BulkResponse response) throws BulkIngestException {
+        final List<BulkIngestException.Failure> failures = new ArrayList<>();
         final int size = products.size();
         for (int i = 0; i < size; i++) {
-            products.get(i).setId(response.items().get(i).id());
+            final BulkResponseItem item = response.items().get(i);
+            if (item.error() != null) {
+                failures.add(new BulkIngestException.Failure(products.get(i), item.status(), item.error().type(), item.error().reason()));
+            } else {
+                products.get(i).setId(item.id());
+            }
+        }
+        if (!failures.isEmpty()) {
+            throw new BulkIngestException(failures);
         }
     }
 }
@@ -0,0 +1,91 @@
+package de.spinscale.restclient;
+
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponseInterceptor;
+import org.elasticsearch.client.RestClientBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Latency histograms and counters per operation, recorded at three places sharing one instance:
+ *
+ * <ul>
+ *     <li>{@link MeteredProductService} records the latency seen by callers of every service method</li>
+ *     <li>{@link ProductServiceImpl} records the {@code took} of search responses and the outcome of bulk items</li>
+ *     <li>{@link #instrument(RestClientBuilder.HttpClientConfigCallback)} records request and response bytes per endpoint</li>
+ * </ul>
+ *
+ * Call {@link #exportTo(MetricsExporter)} periodically, every export covers the time since the previous one.
+ *
+ * <pre>{@code
+ * ProductServiceMetrics metrics = ProductServiceMetrics.create();
+ * RestClient restClient = RestClient.builder(host).setHttpClientConfigCallback(metrics.instrument(b -> b)).build();
+ * ElasticsearchClient client = new ElasticsearchClient(new RestClientTransport(restClient, mapper));
+ * ProductService productService = new MeteredProductService(new ProductServiceImpl(index, client, metrics), metrics);
+ * scheduler.scheduleAtFixedRate(() -> metrics.exportTo(new LoggingMetricsExporter()), 1, 1, TimeUnit.MINUTES);
+ * }</pre>
+ */
+public final class ProductServiceMetrics {
+
+    /**
+     * Records nothing, this is the default
+     */
+    public static final ProductServiceMetrics DISABLED = new ProductServiceMetrics(false);
+
+    private final boolean enabled;
+    private final ConcurrentHashMap<String, OperationMetrics> operations = new ConcurrentHashMap<>();
+
+    private ProductServiceMetrics(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public static ProductServiceMetrics create() {
+        return new ProductServiceMetrics(true);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    OperationMetrics operation(String name) {
+        if (!enabled) {
+            return OperationMetrics.NOOP;
+        }
+        return operations.computeIfAbsent(name, OperationMetrics::new);
+    }
+
+    /**
+     * @return everything recorded since the previous snapshot, operations that recorded nothing are left out
+     */
+    public List<OperationSnapshot> snapshot() {
+        final List<OperationSnapshot> snapshots = new ArrayList<>(operations.size());
+        for (OperationMetrics operation : operations.values()) {
+            final OperationSnapshot snapshot = operation.snapshot();
+            if (!snapshot.isEmpty()) {
+                snapshots.add(snapshot);
+            }
+        }
+        return snapshots;
+    }
+
+    public void exportTo(MetricsExporter exporter) {
+        exporter.export(snapshot());
+    }
+
+    /**
+     * Count the bytes sent to and received from elasticsearch, by wrapping the http client configuration of the rest client
+     *
+     * @param callback existing configuration, e.g. for TLS and credentials
+     */
+    public RestClientBuilder.HttpClientConfigCallback instrument(RestClientBuilder.HttpClientConfigCallback callback) {
+        if (!enabled) {
+            return callback;
+        }
+        final HttpMetricsInterceptor interceptor = new HttpMetricsInterceptor(this);
+        return builder -> callback.customizeHttpClient(builder)
+                .addInterceptorLast((HttpRequestInterceptor) interceptor)
+                .addInterceptorLast((HttpResponseInterceptor) interceptor);
+    }
+}
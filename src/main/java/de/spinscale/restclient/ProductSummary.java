@@ -0,0 +1,11 @@
+package de.spinscale.restclient;
+
+/**
+ * Product without its description, see {@link Projection#SUMMARY}
+ */
+public record ProductSummary(String id, String name, double price) {
+
+    ProductSummary withId(String hitId) {
+        return id != null ? this : new ProductSummary(hitId, name, price);
+    }
+}
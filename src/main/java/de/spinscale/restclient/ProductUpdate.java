@@ -0,0 +1,61 @@
+package de.spinscale.restclient;
+
+import java.util.Map;
+
+/**
+ * A change of the stock and/or the price of a product, sent as an update instead of reindexing the whole product
+ *
+ * @param id the product to update
+ * @param stockDelta added to the available stock, negative to decrease it
+ * @param price the new price, or null to keep the price
+ */
+public record ProductUpdate(String id, int stockDelta, Double price) {
+
+    public ProductUpdate {
+        if (id == null) {
+            throw new IllegalArgumentException("a product update needs the id of the product");
+        }
+    }
+
+    public static ProductUpdate stock(String id, int delta) {
+        return new ProductUpdate(id, delta, null);
+    }
+
+    public static ProductUpdate price(String id, double price) {
+        return new ProductUpdate(id, 0, price);
+    }
+
+    /**
+     * A stock delta has to be added to the stored value, which only a script can do.
+     * A new price alone is sent as a partial document.
+     */
+    boolean needsScript() {
+        return stockDelta != 0;
+    }
+
+    /**
+     * @return the fields set by the update, only valid if no script is needed
+     */
+    Map<String, Object> partialDocument() {
+        return price == null ? Map.of() : Map.of("price", price);
+    }
+
+    /**
+     * Changes a product the same way elasticsearch changes the stored one
+     */
+    void applyTo(Product product) {
+        product.setStockAvailable(product.getStockAvailable() + stockDelta);
+        if (price != null) {
+            product.setPrice(price);
+        }
+    }
+
+    /**
+     * @return a product with the id only, for reporting a failed update
+     */
+    Product toProduct() {
+        final Product product = new Product();
+        product.setId(id);
+        return product;
+    }
+}
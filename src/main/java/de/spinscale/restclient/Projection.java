@@ -0,0 +1,69 @@
+package de.spinscale.restclient;
+
+import co.elastic.clients.elasticsearch.core.SearchRequest;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.BiFunction;
+
+/**
+ * Selects the part of the {@code _source} a search returns, and the type the hits are read into.
+ * Listings rarely need the long description of a product, leaving it out shrinks responses and parsing time.
+ *
+ * @param <T> type a filtered {@code _source} is deserialized into
+ */
+public final class Projection<T> {
+
+    /**
+     * The whole source, read into {@link Product}
+     */
+    public static final Projection<Product> FULL = new Projection<>(Product.class, ProductServiceImpl::withId, List.of(), List.of());
+
+    /**
+     * Id, name and price, enough to render a listing
+     */
+    public static final Projection<ProductSummary> SUMMARY = of(ProductSummary.class, ProductSummary::withId, "id", "name", "price");
+
+    private final Class<T> type;
+    private final BiFunction<T, String, T> withId;
+    private final List<String> includes;
+    private final List<String> excludes;
+
+    private Projection(Class<T> type, BiFunction<T, String, T> withId, List<String> includes, List<String> excludes) {
+        this.type = type;
+        this.withId = withId;
+        this.includes = includes;
+        this.excludes = excludes;
+    }
+
+    /**
+     * @param type the filtered source is read into, must not require any field that is not included
+     * @param withId sets the id of the hit, for products indexed without an id in their source
+     * @param includes source fields to return, wildcards are allowed
+     */
+    public static <T> Projection<T> of(Class<T> type, BiFunction<T, String, T> withId, String... includes) {
+        return new Projection<>(type, withId, List.of(includes), List.of());
+    }
+
+    /**
+     * @param excludes source fields to leave out, wins over includes
+     */
+    public Projection<T> excludes(String... excludes) {
+        return new Projection<>(type, withId, includes, List.copyOf(Arrays.asList(excludes)));
+    }
+
+    Class<T> type() {
+        return type;
+    }
+
+    T withId(T source, String id) {
+        return source == null ? null : withId.apply(source, id);
+    }
+
+    void apply(SearchRequest.Builder builder) {
+        if (includes.isEmpty() && excludes.isEmpty()) {
+            return;
+        }
+        builder.source(sc -> sc.filter(fb -> fb.includes(includes).excludes(excludes)));
+    }
+}
@@ -0,0 +1,103 @@
+package de.spinscale.restclient;
+
+import co.elastic.clients.json.JsonpDeserializer;
+import co.elastic.clients.json.JsonpMapper;
+import co.elastic.clients.json.NdJsonpSerializable;
+import co.elastic.clients.transport.ElasticsearchTransport;
+import co.elastic.clients.transport.rest_client.RestClientOptions;
+import co.elastic.clients.transport.rest_client.RestClientTransport;
+import jakarta.json.stream.JsonGenerator;
+import jakarta.json.stream.JsonParser;
+import org.elasticsearch.client.Cancellable;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseListener;
+import org.elasticsearch.client.RestClient;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Sends pre-serialized request bodies through the low level {@link RestClient} of a transport,
+ * while responses are still parsed into the typed response classes of the java client.
+ */
+final class RawJsonRequests {
+
+    private RawJsonRequests() {
+    }
+
+    static boolean supports(ElasticsearchTransport transport) {
+        return transport instanceof RestClientTransport;
+    }
+
+    static <T> CompletableFuture<T> performAsync(ElasticsearchTransport transport, Request request, JsonpDeserializer<T> deserializer) {
+        final RestClientTransport restClientTransport = (RestClientTransport) transport;
+        if (restClientTransport.options() instanceof RestClientOptions options) {
+            request.setOptions(options.restClientRequestOptions());
+        }
+
+        final RequestFuture<T> future = new RequestFuture<>();
+        future.cancellable = restClientTransport.restClient().performRequestAsync(request, new ResponseListener() {
+            @Override
+            public void onSuccess(Response response) {
+                try {
+                    future.complete(parse(restClientTransport.jsonpMapper(), response, deserializer));
+                } catch (Exception e) {
+                    future.completeExceptionally(e);
+                }
+            }
+
+            @Override
+            public void onFailure(Exception exception) {
+                future.completeExceptionally(exception);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Writes a request like {@link co.elastic.clients.elasticsearch.core.MsearchRequest} the way the transport does,
+     * one JSON document per line
+     */
+    static void writeNdJson(NdJsonpSerializable value, JsonpMapper mapper, OutputStream out) throws IOException {
+        final Iterator<?> values = value._serializables();
+        while (values.hasNext()) {
+            final Object item = values.next();
+            if (item instanceof NdJsonpSerializable nested && item != value) {
+                writeNdJson(nested, mapper, out);
+            } else {
+                final JsonGenerator generator = mapper.jsonProvider().createGenerator(out);
+                mapper.serialize(item, generator);
+                // flushes, the pooled output stream ignores being closed
+                generator.close();
+                out.write('\n');
+            }
+        }
+    }
+
+    private static <T> T parse(JsonpMapper mapper, Response response, JsonpDeserializer<T> deserializer) throws Exception {
+        try (InputStream content = response.getEntity().getContent();
+             JsonParser parser = mapper.jsonProvider().createParser(content)) {
+            return deserializer.deserialize(parser, mapper);
+        }
+    }
+
+    /**
+     * Cancelling the future aborts the http request, same as the futures of the async java client
+     */
+    private static class RequestFuture<T> extends CompletableFuture<T> {
+        private volatile Cancellable cancellable;
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            final boolean cancelled = super.cancel(mayInterruptIfRunning);
+            if (cancelled && cancellable != null) {
+                cancellable.cancel();
+            }
+            return cancelled;
+        }
+    }
+}
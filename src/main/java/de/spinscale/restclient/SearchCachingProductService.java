@@ -0,0 +1,291 @@
+package de.spinscale.restclient;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Caches result pages of {@link #search(String)} and {@link #next(Page)}, keyed on the normalized input
+ * and the page window, so popular queries are not run again and again.
+ *
+ * <ul>
+ *     <li>a page older than {@code refreshAfter} is still returned, but refreshed in the background</li>
+ *     <li>a page older than {@code ttl} is not returned anymore</li>
+ *     <li>the cache is bounded by the estimated memory used by the cached pages</li>
+ *     <li>saving or updating products through this service drops all cached pages, any of them might be affected</li>
+ * </ul>
+ *
+ * Pages are cached without their point in time, so the page after a cached page is searched in a new point in time
+ * from its {@code from} offset, which gets more expensive the deeper it is, and may shift against the cached pages
+ * if products changed meanwhile. Hence only the first pages, up to from 20 (the third page of ten), are cached; deeper pages
+ * and pages continuing in a point in time with search_after always go to the delegate.
+ */
+public class SearchCachingProductService implements ProductService {
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    // popular queries are rarely paged further than a few pages
+    static final int MAX_CACHED_FROM = 20;
+
+    private final ProductService delegate;
+    private final LruCache<PageKey, Page<Product>> cache;
+    private final long refreshAfterNanos;
+    private final Executor refreshExecutor;
+    private final ConcurrentHashMap<PageKey, CompletableFuture<Page<Product>>> loading = new ConcurrentHashMap<>();
+    // bumped on every write, a load that raced with a write must not put the old page into the cache
+    private final AtomicLong generation = new AtomicLong();
+
+    /**
+     * @param maxBytes estimated memory the cached pages may use
+     * @param ttl how long a page is cached at most
+     * @param refreshAfter age after which a page is refreshed in the background when it is read
+     * @param refreshExecutor runs the background refreshes
+     */
+    public SearchCachingProductService(ProductService delegate, long maxBytes, Duration ttl, Duration refreshAfter, Executor refreshExecutor) {
+        this(delegate, maxBytes, ttl, refreshAfter, refreshExecutor, System::nanoTime);
+    }
+
+    SearchCachingProductService(ProductService delegate, long maxBytes, Duration ttl, Duration refreshAfter, Executor refreshExecutor,
+                                LongSupplier nanoClock) {
+        if (refreshAfter.compareTo(ttl) > 0) {
+            throw new IllegalArgumentException("refreshAfter [" + refreshAfter + "] must not be longer than ttl [" + ttl + "]");
+        }
+        this.delegate = delegate;
+        this.cache = new LruCache<>(maxBytes, ttl, SearchCachingProductService::estimateBytes, nanoClock);
+        this.refreshAfterNanos = refreshAfter.toNanos();
+        this.refreshExecutor = refreshExecutor;
+    }
+
+    @Override
+    public Page<Product> search(String query) throws IOException {
+        return cached(PageKey.of(query, 0, 10), () -> delegate.search(query));
+    }
+
+    @Override
+    public Page<Product> next(Page<Product> page) throws IOException {
+        if (page.isLast() || page.hasSearchAfter() || page.getFrom() + page.getSize() > MAX_CACHED_FROM) {
+            return delegate.next(page);
+        }
+        return cached(PageKey.of(page.getInput(), page.getFrom() + page.getSize(), page.getSize()), () -> delegate.next(page));
+    }
+
+    private Page<Product> cached(PageKey key, PageLoader loader) throws IOException {
+        final LruCache.Lookup<Page<Product>> lookup = cache.lookup(key, refreshAfterNanos);
+        if (lookup != null) {
+            if (lookup.stale()) {
+                refresh(key, loader);
+            }
+            return copyOf(lookup.value());
+        }
+
+        final CompletableFuture<Page<Product>> load = new CompletableFuture<>();
+        final CompletableFuture<Page<Product>> running = loading.putIfAbsent(key, load);
+        if (running != null) {
+            return copyOf(CachingProductService.await(running));
+        }
+        try {
+            final Page<Product> page = load(key, loader);
+            load.complete(copyOf(page));
+            // the caller owns the point in time of the page
+            return page;
+        } catch (IOException | RuntimeException e) {
+            load.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(key, load);
+        }
+    }
+
+    private void refresh(PageKey key, PageLoader loader) {
+        final CompletableFuture<Page<Product>> load = new CompletableFuture<>();
+        if (loading.putIfAbsent(key, load) != null) {
+            // already being loaded
+            return;
+        }
+        try {
+            refreshExecutor.execute(() -> {
+                try {
+                    final Page<Product> page = load(key, loader);
+                    load.complete(copyOf(page));
+                    // nobody pages further from here
+                    delegate.close(page);
+                } catch (IOException | RuntimeException e) {
+                    // the stale page is served until it expires
+                    load.completeExceptionally(e);
+                } finally {
+                    loading.remove(key, load);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            loading.remove(key, load);
+            load.cancel(false);
+        }
+    }
+
+    private Page<Product> load(PageKey key, PageLoader loader) throws IOException {
+        final long before = generation.get();
+        final Page<Product> page = loader.load();
+        if (before == generation.get()) {
+            cache.put(key, copyOf(page));
+        }
+        return page;
+    }
+
+    @Override
+    public void save(Product product) throws IOException {
+        save(List.of(product));
+    }
+
+    @Override
+    public void save(List<Product> products) throws IOException {
+        invalidateAll();
+        try {
+            delegate.save(products);
+        } finally {
+            // pages loaded while saving may or may not contain the saved products
+            invalidateAll();
+        }
+    }
+
+    @Override
+    public void updateStock(String id, int delta) throws IOException {
+        invalidateAll();
+        try {
+            delegate.updateStock(id, delta);
+        } finally {
+            invalidateAll();
+        }
+    }
+
+    @Override
+    public void updatePrice(String id, double price) throws IOException {
+        invalidateAll();
+        try {
+            delegate.updatePrice(id, price);
+        } finally {
+            invalidateAll();
+        }
+    }
+
+    @Override
+    public void update(List<ProductUpdate> updates) throws IOException {
+        invalidateAll();
+        try {
+            delegate.update(updates);
+        } finally {
+            invalidateAll();
+        }
+    }
+
+    private void invalidateAll() {
+        generation.incrementAndGet();
+        cache.invalidateAll();
+    }
+
+    @Override
+    public Product findById(String id) throws IOException {
+        return delegate.findById(id);
+    }
+
+    @Override
+    public List<Product> findAll(Collection<String> ids) throws IOException {
+        return delegate.findAll(ids);
+    }
+
+    /**
+     * Projected pages are not cached
+     */
+    @Override
+    public <T> Page<T> search(String query, Projection<T> projection) throws IOException {
+        return delegate.search(query, projection);
+    }
+
+    @Override
+    public <T> Page<T> next(Page<T> page, Projection<T> projection) throws IOException {
+        return delegate.next(page, projection);
+    }
+
+    /**
+     * Columnar pages are not cached
+     */
+    @Override
+    public ColumnarPage searchColumnar(String query, int size) throws IOException {
+        return delegate.searchColumnar(query, size);
+    }
+
+    @Override
+    public ColumnarPage next(ColumnarPage page) throws IOException {
+        return delegate.next(page);
+    }
+
+    @Override
+    public void close(Page<?> page) throws IOException {
+        delegate.close(page);
+    }
+
+    @Override
+    public Stream<Product> export(int slices, Executor executor) throws IOException {
+        return delegate.export(slices, executor);
+    }
+
+    @Override
+    public Stream<ProductBucket> aggregate(ProductAggregation aggregation) throws IOException {
+        return delegate.aggregate(aggregation);
+    }
+
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    /**
+     * Copies the products as well, callers may modify them. The copy has no point in time.
+     */
+    private static Page<Product> copyOf(Page<Product> page) {
+        final List<Product> products = page.get();
+        if (products.isEmpty()) {
+            return Page.empty();
+        }
+        return new Page<>(products.stream().map(CachingProductService::copyOf).toList(), page.getInput(), page.getFrom(), page.getSize());
+    }
+
+    /**
+     * Rough heap usage of a page, strings are counted as two bytes per char plus object headers
+     */
+    static long estimateBytes(Page<Product> page) {
+        long bytes = 64;
+        for (Product product : page.get()) {
+            bytes += 64 + estimateBytes(product.getId()) + estimateBytes(product.getName()) + estimateBytes(product.getDescription());
+        }
+        return bytes + estimateBytes(page.getInput());
+    }
+
+    private static long estimateBytes(String value) {
+        return value == null ? 0 : 40 + 2L * value.length();
+    }
+
+    /**
+     * Input is normalized the way the standard analyzer of {@code name} and {@code description}
+     * would treat it anyway, so differently cased or spaced queries share one entry
+     */
+    record PageKey(String input, int from, int size) {
+
+        static PageKey of(String input, int from, int size) {
+            final String normalized = input == null ? "" : WHITESPACE.matcher(input.strip()).replaceAll(" ").toLowerCase(Locale.ROOT);
+            return new PageKey(normalized, from, size);
+        }
+    }
+
+    @FunctionalInterface
+    private interface PageLoader {
+        Page<Product> load() throws IOException;
+    }
+}
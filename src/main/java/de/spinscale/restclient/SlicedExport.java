@@ -0,0 +1,190 @@
+package de.spinscale.restclient;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.ElasticsearchException;
+import co.elastic.clients.elasticsearch._types.SortOrder;
+import co.elastic.clients.elasticsearch.core.SearchRequest;
+import co.elastic.clients.elasticsearch.core.SearchResponse;
+import co.elastic.clients.elasticsearch.core.search.Hit;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Reads a whole index in parallel, every slice of a point in time is paged through with search_after
+ * by its own task on the given executor.
+ *
+ * All slices feed a bounded queue the stream is consuming from, so slices block instead of filling up
+ * the heap if the consumer is slower than elasticsearch. Closing the stream stops the slices and
+ * closes the point in time.
+ */
+class SlicedExport implements Spliterator<Product> {
+
+    private static final Object END_OF_SLICE = new Object();
+
+    private final ElasticsearchClient client;
+    private final String pitId;
+    private final int slices;
+    private final int batchSize;
+    private final BlockingQueue<Object> queue;
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private final AtomicReference<Exception> failure = new AtomicReference<>();
+    private int finishedSlices;
+
+    private SlicedExport(ElasticsearchClient client, String pitId, int slices, int batchSize) {
+        this.client = client;
+        this.pitId = pitId;
+        this.slices = slices;
+        this.batchSize = batchSize;
+        this.queue = new ArrayBlockingQueue<>(batchSize);
+    }
+
+    static Stream<Product> stream(ElasticsearchClient client, String index, int slices, int batchSize, Executor executor) throws IOException {
+        if (slices < 1) {
+            throw new IllegalArgumentException("slices must be at least 1, got " + slices);
+        }
+        final String pitId = client.openPointInTime(b -> b.index(index).keepAlive(ProductServiceImpl.PIT_KEEP_ALIVE)).id();
+        final SlicedExport export = new SlicedExport(client, pitId, slices, batchSize);
+        for (int i = 0; i < slices; i++) {
+            final int slice = i;
+            executor.execute(() -> export.readSlice(slice));
+        }
+        return StreamSupport.stream(export, false).onClose(export::close);
+    }
+
+    private void readSlice(int slice) {
+        try {
+            List<String> searchAfter = null;
+            while (!closed.get()) {
+                final SearchResponse<Product> response = client.search(createSliceRequest(slice, searchAfter), Product.class);
+                final List<Hit<Product>> hits = response.hits().hits();
+                for (Hit<Product> hit : hits) {
+                    if (!put(ProductServiceImpl.withId(hit.source(), hit.id()))) {
+                        return;
+                    }
+                }
+                if (hits.size() < batchSize) {
+                    break;
+                }
+                searchAfter = hits.get(hits.size() - 1).sort();
+            }
+        } catch (Exception e) {
+            failure.compareAndSet(null, e);
+        } finally {
+            put(END_OF_SLICE);
+        }
+    }
+
+    private SearchRequest createSliceRequest(int slice, List<String> searchAfter) {
+        String comment = """
+                GET /_search
+                {
+                  "size": 1000,
+                  "slice": { "id": 0, "max": 4 },
+                  "pit": { "id": "<pit id>", "keep_alive": "1m" },
+                  "sort": [ { "_shard_doc": { "order": "asc" } } ],
+                  "search_after": [ 4294967298 ],
+                  "track_total_hits": false
+                }
+                """;
+        final SearchRequest.Builder builder = new SearchRequest.Builder()
+                .size(batchSize)
+                .pit(pb -> pb.id(pitId).keepAlive(ProductServiceImpl.PIT_KEEP_ALIVE))
+                // cheapest possible sort, nothing is scored
+                .sort(sb -> sb.field(fsb -> fsb.field("_shard_doc").order(SortOrder.Asc)))
+                .trackTotalHits(tb -> tb.enabled(false));
+        if (slices > 1) {
+            builder.slice(sb -> sb.id(slice).max(slices));
+        }
+        if (searchAfter != null) {
+            builder.searchAfter(searchAfter);
+        }
+        return builder.build();
+    }
+
+    /**
+     * @return false if the export has been closed while waiting for space in the queue
+     */
+    private boolean put(Object element) {
+        try {
+            while (!closed.get()) {
+                if (queue.offer(element, 100, TimeUnit.MILLISECONDS)) {
+                    return true;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super Product> action) {
+        while (finishedSlices < slices && !closed.get()) {
+            final Object element;
+            try {
+                element = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                close();
+                throw new IllegalStateException("interrupted while waiting for the next product", e);
+            }
+            if (element == END_OF_SLICE) {
+                finishedSlices++;
+                // fail fast, instead of reading all other slices first
+                throwIfFailed();
+                continue;
+            }
+            action.accept((Product) element);
+            return true;
+        }
+        close();
+        throwIfFailed();
+        return false;
+    }
+
+    private void throwIfFailed() {
+        final Exception e = failure.get();
+        if (e != null) {
+            close();
+            throw e instanceof IOException ioException ? new UncheckedIOException(ioException) : new IllegalStateException(e);
+        }
+    }
+
+    private void close() {
+        if (closed.compareAndSet(false, true)) {
+            queue.clear();
+            try {
+                client.closePointInTime(b -> b.id(pitId));
+            } catch (IOException | ElasticsearchException e) {
+                // expires on its own after the keep alive
+            }
+        }
+    }
+
+    @Override
+    public Spliterator<Product> trySplit() {
+        return null;
+    }
+
+    @Override
+    public long estimateSize() {
+        return Long.MAX_VALUE;
+    }
+
+    @Override
+    public int characteristics() {
+        return Spliterator.NONNULL;
+    }
+}
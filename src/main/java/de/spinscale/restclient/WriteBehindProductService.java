@@ -0,0 +1,349 @@
+package de.spinscale.restclient;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Buffers saved products and writes them in the background, for callers saving the same products over and over,
+ * e.g. on every change of the stock.
+ *
+ * <ul>
+ *     <li>{@link #save(Product)} returns once the product is buffered. A product saved again before it has been
+ *     written replaces the buffered one, so only the latest version is indexed</li>
+ *     <li>buffered products are saved with a single bulk call every {@code flushInterval}, or as soon as
+ *     {@code maxPending} products are buffered. Saving blocks while the buffer is full</li>
+ *     <li>{@link #flush()} and {@link #close()} wait until everything saved before has been written</li>
+ *     <li>products failing in a background flush are passed to the failure listener, as nobody waits for them</li>
+ * </ul>
+ *
+ * Products without an id are saved right away, they cannot be coalesced and get their id from elasticsearch.
+ * Updates of a buffered product are applied to the buffered product, all other updates are sent right away.
+ * Reads go to the delegate and do not see buffered products, call {@link #flush()} first if they must.
+ *
+ * <pre>{@code
+ * try (WriteBehindProductService service = WriteBehindProductService.builder(productService)
+ *         .flushInterval(Duration.ofMillis(500))
+ *         .onFailure(e -> logger.warn("products were not saved", e))
+ *         .build()) {
+ *     events.forEach(event -> service.save(event.product()));
+ * }
+ * }</pre>
+ */
+public class WriteBehindProductService implements ProductService, AutoCloseable {
+
+    private final ProductService delegate;
+    private final int maxPending;
+    private final Consumer<BulkIngestException> failureListener;
+    private final ScheduledExecutorService scheduler;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+    // insertion order is kept, a replaced product keeps its position
+    private LinkedHashMap<String, Product> pending = new LinkedHashMap<>();
+    private boolean closed;
+    // only one flush at a time, so a newer version of a product never overtakes an older one
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    private WriteBehindProductService(Builder builder) {
+        this.delegate = builder.delegate;
+        this.maxPending = builder.maxPending;
+        this.failureListener = builder.failureListener;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "write-behind-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        final long millis = builder.flushInterval.toMillis();
+        scheduler.scheduleWithFixedDelay(this::flushInBackground, millis, millis, TimeUnit.MILLISECONDS);
+    }
+
+    public static Builder builder(ProductService delegate) {
+        return new Builder(delegate);
+    }
+
+    @Override
+    public Product findById(String id) throws IOException {
+        return delegate.findById(id);
+    }
+
+    @Override
+    public List<Product> findAll(Collection<String> ids) throws IOException {
+        return delegate.findAll(ids);
+    }
+
+    @Override
+    public Page<Product> search(String query) throws IOException {
+        return delegate.search(query);
+    }
+
+    @Override
+    public <T> Page<T> search(String query, Projection<T> projection) throws IOException {
+        return delegate.search(query, projection);
+    }
+
+    @Override
+    public Page<Product> next(Page<Product> page) throws IOException {
+        return delegate.next(page);
+    }
+
+    @Override
+    public <T> Page<T> next(Page<T> page, Projection<T> projection) throws IOException {
+        return delegate.next(page, projection);
+    }
+
+    @Override
+    public ColumnarPage searchColumnar(String query, int size) throws IOException {
+        return delegate.searchColumnar(query, size);
+    }
+
+    @Override
+    public ColumnarPage next(ColumnarPage page) throws IOException {
+        return delegate.next(page);
+    }
+
+    @Override
+    public void close(Page<?> page) throws IOException {
+        delegate.close(page);
+    }
+
+    @Override
+    public Stream<Product> export(int slices, Executor executor) throws IOException {
+        return delegate.export(slices, executor);
+    }
+
+    @Override
+    public Stream<ProductBucket> aggregate(ProductAggregation aggregation) throws IOException {
+        return delegate.aggregate(aggregation);
+    }
+
+    @Override
+    public void save(Product product) throws IOException {
+        save(List.of(product));
+    }
+
+    /**
+     * Buffers the products, blocks while the buffer is full
+     *
+     * @throws IllegalStateException if the service is closed
+     */
+    @Override
+    public void save(List<Product> products) throws IOException {
+        final List<Product> withoutId = new ArrayList<>();
+        for (Product product : products) {
+            if (product.getId() == null) {
+                withoutId.add(product);
+            } else {
+                buffer(product);
+            }
+        }
+        if (!withoutId.isEmpty()) {
+            delegate.save(withoutId);
+        }
+    }
+
+    private void buffer(Product product) throws IOException {
+        boolean full = false;
+        lock.lock();
+        try {
+            while (!closed && pending.size() >= maxPending && !pending.containsKey(product.getId())) {
+                requestFlush();
+                notFull.await();
+            }
+            if (closed) {
+                throw new IllegalStateException("write behind product service is closed");
+            }
+            // a copy, so changes of the caller after saving do not leak into the buffer
+            if (pending.put(product.getId(), CachingProductService.copyOf(product)) != null) {
+                coalesced.incrementAndGet();
+            }
+            full = pending.size() >= maxPending;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while waiting for the write behind buffer", e);
+        } finally {
+            lock.unlock();
+        }
+        if (full) {
+            requestFlush();
+        }
+    }
+
+    @Override
+    public void updateStock(String id, int delta) throws IOException {
+        update(List.of(ProductUpdate.stock(id, delta)));
+    }
+
+    @Override
+    public void updatePrice(String id, double price) throws IOException {
+        update(List.of(ProductUpdate.price(id, price)));
+    }
+
+    @Override
+    public void update(List<ProductUpdate> updates) throws IOException {
+        // a product being written right now must not overwrite an update sent after it
+        flushLock.lock();
+        try {
+            final List<ProductUpdate> notBuffered = new ArrayList<>();
+            lock.lock();
+            try {
+                for (ProductUpdate update : updates) {
+                    final Product buffered = pending.get(update.id());
+                    if (buffered != null) {
+                        update.applyTo(buffered);
+                        coalesced.incrementAndGet();
+                    } else {
+                        notBuffered.add(update);
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+            if (!notBuffered.isEmpty()) {
+                delegate.update(notBuffered);
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private void requestFlush() {
+        try {
+            scheduler.execute(this::flushInBackground);
+        } catch (RejectedExecutionException e) {
+            // closing, close() flushes
+        }
+    }
+
+    /**
+     * Writes all buffered products, and waits for them. A background flush running concurrently is waited for as well.
+     *
+     * @throws BulkIngestException listing the products that could not be saved by this call
+     */
+    public void flush() throws IOException {
+        flushLock.lock();
+        try {
+            final List<Product> batch = drain();
+            if (batch.isEmpty()) {
+                return;
+            }
+            try {
+                delegate.save(batch);
+            } catch (BulkIngestException e) {
+                failureListener.accept(e);
+                throw e;
+            } catch (IOException | RuntimeException e) {
+                final List<BulkIngestException.Failure> failures = batch.stream()
+                        .map(product -> new BulkIngestException.Failure(product, -1, e.getClass().getSimpleName(), e.getMessage()))
+                        .toList();
+                final BulkIngestException exception = new BulkIngestException(failures);
+                exception.initCause(e);
+                failureListener.accept(exception);
+                throw exception;
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private void flushInBackground() {
+        try {
+            flush();
+        } catch (IOException | RuntimeException e) {
+            // passed to the failure listener already
+        }
+    }
+
+    private List<Product> drain() {
+        lock.lock();
+        try {
+            final List<Product> batch = new ArrayList<>(pending.values());
+            pending = new LinkedHashMap<>();
+            notFull.signalAll();
+            return batch;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return how often a buffered product has been replaced by a newer version before it was written
+     */
+    public long coalescedWrites() {
+        return coalesced.get();
+    }
+
+    /**
+     * Stops the background flushes and writes everything still buffered
+     *
+     * @throws BulkIngestException listing the products that could not be saved by the final flush
+     */
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            closed = true;
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        scheduler.shutdown();
+        flush();
+    }
+
+    public static class Builder {
+        private final ProductService delegate;
+        private Duration flushInterval = Duration.ofSeconds(1);
+        private int maxPending = 1000;
+        private Consumer<BulkIngestException> failureListener = e -> {};
+
+        private Builder(ProductService delegate) {
+            this.delegate = delegate;
+        }
+
+        /**
+         * How long a product is buffered at most before it is written, defaults to 1s
+         */
+        public Builder flushInterval(Duration flushInterval) {
+            this.flushInterval = flushInterval;
+            return this;
+        }
+
+        /**
+         * Number of distinct products buffered at most, defaults to 1000. Reaching it triggers a flush.
+         */
+        public Builder maxPending(int maxPending) {
+            this.maxPending = maxPending;
+            return this;
+        }
+
+        /**
+         * Called with the products of every failed flush, in background flushes and explicit ones alike
+         */
+        public Builder onFailure(Consumer<BulkIngestException> failureListener) {
+            this.failureListener = failureListener;
+            return this;
+        }
+
+        public WriteBehindProductService build() {
+            if (maxPending < 1 || flushInterval.toMillis() < 1) {
+                throw new IllegalArgumentException("maxPending and flushInterval must be positive");
+            }
+            return new WriteBehindProductService(this);
+        }
+    }
+}
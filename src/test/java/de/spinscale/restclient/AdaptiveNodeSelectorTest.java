@@ -0,0 +1,147 @@
+package de.spinscale.restclient;
+
+import org.apache.http.HttpHost;
+import org.elasticsearch.client.Node;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AdaptiveNodeSelectorTest {
+
+    private final AtomicLong nanos = new AtomicLong();
+    private final NodeLatencyTracker tracker = new NodeLatencyTracker(Duration.ofSeconds(1), Duration.ofSeconds(30), nanos::get);
+    private final Node first = node("first", "data", "ingest");
+    private final Node second = node("second", "data", "ingest");
+
+    @Test
+    public void testSlowNodeIsAvoided() {
+        sample(first, 50);
+        sample(second, 5);
+
+        assertThat(select(AdaptiveNodeSelector.dataNodes(tracker), first, second)).containsExactly(second);
+    }
+
+    @Test
+    public void testSimilarNodesShareRequests() {
+        final Node third = node("third", "data", "ingest");
+        sample(first, 10);
+        sample(second, 15);
+        sample(third, 25);
+
+        // the rest client rotates over the nodes left, and fails over to the next one
+        assertThat(select(AdaptiveNodeSelector.dataNodes(tracker), first, second, third)).containsExactly(first, second);
+    }
+
+    @Test
+    public void testNodesAtTheCapAreSkipped() {
+        sample(first, 5);
+        sample(second, 8);
+        tracker.started(first.getHost());
+
+        // 5ms * 2 is still close to 8ms, but first has as many requests outstanding as allowed
+        assertThat(select(AdaptiveNodeSelector.dataNodes(tracker), first, second)).containsExactly(first, second);
+        assertThat(select(AdaptiveNodeSelector.dataNodes(tracker, 1), first, second)).containsExactly(second);
+
+        tracker.started(second.getHost());
+        assertThat(select(AdaptiveNodeSelector.dataNodes(tracker, 1), first, second)).isEmpty();
+    }
+
+    @Test
+    public void testOutstandingRequestsArePenalized() {
+        sample(first, 20);
+        sample(second, 5);
+        tracker.started(second.getHost());
+        tracker.started(second.getHost());
+
+        // 5ms * (1 + 2^3) is worse than 20ms
+        assertThat(select(AdaptiveNodeSelector.dataNodes(tracker), first, second)).containsExactly(first);
+    }
+
+    @Test
+    public void testSlowNodeIsProbedAgainLater() {
+        sample(first, 50);
+        assertThat(select(AdaptiveNodeSelector.dataNodes(tracker), first, second)).containsExactly(second);
+
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(10));
+        sample(second, 5);
+
+        // 50ms halved ten times
+        assertThat(select(AdaptiveNodeSelector.dataNodes(tracker), first, second)).containsExactly(first);
+    }
+
+    @Test
+    public void testRequestsWithoutResponseExpire() {
+        sample(first, 10);
+        sample(second, 5);
+        tracker.started(second.getHost());
+        tracker.started(second.getHost());
+        assertThat(select(AdaptiveNodeSelector.dataNodes(tracker), first, second)).containsExactly(first);
+
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(31));
+        sample(first, 10);
+        tracker.score(second.getHost());
+
+        assertThat(tracker.outstanding(second.getHost())).isZero();
+        // recorded as slow responses
+        assertThat(select(AdaptiveNodeSelector.dataNodes(tracker), first, second)).containsExactly(first);
+    }
+
+    @Test
+    public void testAbortedRequestsAreDropped() {
+        sample(first, 20);
+        sample(second, 5);
+        final AtomicBoolean aborted = new AtomicBoolean();
+        tracker.started(second.getHost(), aborted::get);
+        tracker.started(second.getHost(), aborted::get);
+        assertThat(select(AdaptiveNodeSelector.dataNodes(tracker), first, second)).containsExactly(first);
+
+        // e.g. the slower attempt of a hedged read, cancelled long before the max request age
+        aborted.set(true);
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(31));
+        sample(first, 20);
+        sample(second, 5);
+
+        // not recorded as 31s responses
+        assertThat(select(AdaptiveNodeSelector.dataNodes(tracker), first, second)).containsExactly(second);
+        assertThat(tracker.outstanding(second.getHost())).isZero();
+    }
+
+    @Test
+    public void testNodesAreFilteredByRole() {
+        final Node master = node("master", "master");
+        final Node ingest = node("ingest", "ingest");
+        final Node unknown = new Node(new HttpHost("unknown", 9200));
+        sample(unknown, 50);
+
+        assertThat(select(AdaptiveNodeSelector.dataNodes(tracker), master, ingest, second)).containsExactly(second);
+        assertThat(select(AdaptiveNodeSelector.ingestNodes(tracker), master, ingest)).containsExactly(ingest);
+        // roles are unknown until sniffed
+        assertThat(select(AdaptiveNodeSelector.ingestNodes(tracker), master, unknown)).containsExactly(unknown);
+        assertThat(select(AdaptiveNodeSelector.dataNodes(tracker), master)).isEmpty();
+    }
+
+    private void sample(Node node, long millis) {
+        final NodeLatencyTracker.Attempt attempt = tracker.started(node.getHost());
+        nanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(millis));
+        tracker.completed(attempt);
+    }
+
+    private static List<Node> select(AdaptiveNodeSelector selector, Node... nodes) {
+        final List<Node> selected = new ArrayList<>(List.of(nodes));
+        selector.select(selected);
+        return selected;
+    }
+
+    private static Node node(String name, String... roles) {
+        final HttpHost host = new HttpHost(name, 9200);
+        return new Node(host, Set.of(host), name, "8.3.3", new Node.Roles(Set.of(roles)), null);
+    }
+}
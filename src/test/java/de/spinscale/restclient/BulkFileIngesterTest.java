@@ -0,0 +1,229 @@
+package de.spinscale.restclient;
+
+import co.elastic.clients.elasticsearch._types.mapping.DynamicMapping;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class BulkFileIngesterTest {
+
+    private static final String INDEX = "products";
+
+    @TempDir
+    Path directory;
+
+    private LocalElasticsearch elasticsearch;
+    private ProductService productService;
+
+    @BeforeEach
+    public void startLocalElasticsearch() throws Exception {
+        elasticsearch = LocalElasticsearch.start();
+        productService = new ProductServiceImpl(INDEX, elasticsearch.client());
+    }
+
+    @AfterEach
+    public void stopLocalElasticsearch() throws Exception {
+        elasticsearch.close();
+    }
+
+    // the lines of a bulk request body, as in example_log
+    private static List<String> bulkLines(int from, int to) {
+        final List<String> lines = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            lines.add("{\"index\":{\"_id\":\"" + i + "\"}}");
+            lines.add("{\"id\":\"" + i + "\",\"name\":\"Name of " + i + " product\",\"description\":\"Description of " + i
+                    + " product\",\"price\":" + (i * 1.2) + ",\"stock_available\":" + (i * 10) + "}");
+        }
+        return lines;
+    }
+
+    private Path write(String name, List<String> lines) throws Exception {
+        return Files.write(directory.resolve(name), String.join("\n", lines).concat("\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testIngestBulkFile() throws Exception {
+        final Path file = write("products.ndjson", bulkLines(0, 50));
+        final List<Long> checkpoints = new CopyOnWriteArrayList<>();
+
+        // windows of 500 bytes, so documents span the windows
+        final BulkFileIngester.Result result = BulkFileIngester.builder(elasticsearch.asyncClient(), INDEX)
+                .maxOperations(7)
+                .chunkBytes(500)
+                .maxConcurrentRequests(3)
+                .onCheckpoint(checkpoints::add)
+                .build()
+                .ingest(file);
+
+        assertThat(result.documents()).isEqualTo(50);
+        assertThat(result.bytes()).isEqualTo(Files.size(file));
+        assertThat(result.checkpoint()).isEqualTo(Files.size(file));
+        assertThat(checkpoints).isSorted().last().isEqualTo(Files.size(file));
+        assertThat(elasticsearch.requestCount("bulk")).isEqualTo(8);
+        final Product product = productService.findById("42");
+        assertThat(product.getName()).isEqualTo("Name of 42 product");
+        assertThat(product.getStockAvailable()).isEqualTo(420);
+    }
+
+    @Test
+    public void testResumeFromCheckpoint() throws Exception {
+        final List<String> lines = bulkLines(0, 20);
+        final Path file = write("products.ndjson", lines);
+        // where product 10 starts
+        final long offset = String.join("\n", lines.subList(0, 20)).concat("\n").getBytes(StandardCharsets.UTF_8).length;
+
+        final BulkFileIngester.Result result = BulkFileIngester.builder(elasticsearch.asyncClient(), INDEX)
+                .startOffset(offset)
+                .build()
+                .ingest(file);
+
+        assertThat(result.documents()).isEqualTo(10);
+        assertThat(productService.findById("9")).isNull();
+        assertThat(productService.findById("10").getName()).isEqualTo("Name of 10 product");
+        assertThat(elasticsearch.documentCount(INDEX)).isEqualTo(10);
+    }
+
+    @Test
+    public void testDeletesAndMissingTrailingNewline() throws Exception {
+        productService.save(createProduct("old"));
+        final List<String> lines = new ArrayList<>(bulkLines(0, 2));
+        lines.add("");
+        lines.add("{ \"delete\" : {\"_id\":\"old\"}}");
+        lines.addAll(bulkLines(2, 3));
+        final Path file = Files.write(directory.resolve("products.ndjson"), String.join("\n", lines).getBytes(StandardCharsets.UTF_8));
+
+        final BulkFileIngester.Result result = BulkFileIngester.builder(elasticsearch.asyncClient(), INDEX).build().ingest(file);
+
+        assertThat(result.documents()).isEqualTo(4);
+        assertThat(productService.findById("old")).isNull();
+        assertThat(productService.findById("2").getPrice()).isEqualTo(2.4);
+    }
+
+    @Test
+    public void testBlankLinesBetweenBatches() throws Exception {
+        final List<String> lines = new ArrayList<>(List.of(""));
+        lines.addAll(bulkLines(0, 4));
+        lines.add("");
+        lines.add("");
+        lines.addAll(bulkLines(4, 8));
+        lines.add("");
+        final Path file = write("products.ndjson", lines);
+        final List<Long> checkpoints = new CopyOnWriteArrayList<>();
+
+        final BulkFileIngester.Result result = BulkFileIngester.builder(elasticsearch.asyncClient(), INDEX)
+                .maxOperations(4)
+                .maxConcurrentRequests(1)
+                .onCheckpoint(checkpoints::add)
+                .build()
+                .ingest(file);
+
+        assertThat(result.documents()).isEqualTo(8);
+        // the blank lines do not leave gaps the checkpoint stops at
+        assertThat(result.checkpoint()).isEqualTo(Files.size(file));
+        assertThat(checkpoints).isSorted().last().isEqualTo(Files.size(file));
+    }
+
+    @Test
+    public void testIngestCsvFile() throws Exception {
+        final Path file = write("products.csv", List.of(
+                "id,name,description,price,stock_available",
+                "1,Shirt,\"Cotton, blue\",19.99,5",
+                "2,\"The \"\"best\"\" mug\",\"Two\nlines\",7.5,",
+                "3,Lamp,,12,100"));
+
+        final BulkFileIngester.Result result = BulkFileIngester.builder(elasticsearch.asyncClient(), INDEX)
+                .format(BulkFileIngester.Format.CSV)
+                .maxOperations(2)
+                .parallelism(2)
+                .build()
+                .ingest(file);
+
+        assertThat(result.documents()).isEqualTo(3);
+        assertThat(productService.findById("1").getDescription()).isEqualTo("Cotton, blue");
+        assertThat(productService.findById("1").getPrice()).isEqualTo(19.99);
+        assertThat(productService.findById("2").getName()).isEqualTo("The \"best\" mug");
+        assertThat(productService.findById("2").getDescription()).isEqualTo("Two\nlines");
+        assertThat(productService.findById("3").getStockAvailable()).isEqualTo(100);
+        assertThat(productService.findById("3").getDescription()).isNull();
+
+        // resuming a csv file still reads the header first
+        final long offset = Files.readString(file).indexOf("3,Lamp");
+        elasticsearch.client().indices().delete(b -> b.index(INDEX));
+        final BulkFileIngester.Result resumed = BulkFileIngester.builder(elasticsearch.asyncClient(), INDEX)
+                .format(BulkFileIngester.Format.CSV)
+                .startOffset(offset)
+                .build()
+                .ingest(file);
+        assertThat(resumed.documents()).isEqualTo(1);
+        assertThat(productService.findById("3").getName()).isEqualTo("Lamp");
+    }
+
+    @Test
+    public void testRejectedDocumentsAreRetried() throws Exception {
+        try (LocalElasticsearch rejecting = LocalElasticsearch.builder().bulkItemRejectionRate(0.3).seed(7).start()) {
+            final Path file = write("products.ndjson", bulkLines(0, 100));
+
+            final BulkFileIngester.Result result = BulkFileIngester.builder(rejecting.asyncClient(), INDEX)
+                    .maxOperations(25)
+                    .maxRetries(20)
+                    .initialBackoff(Duration.ofMillis(1))
+                    .build()
+                    .ingest(file);
+
+            assertThat(result.documents()).isEqualTo(100);
+            assertThat(rejecting.documentCount(INDEX)).isEqualTo(100);
+        }
+    }
+
+    @Test
+    public void testFailedDocumentsAreReported() throws Exception {
+        final List<String> lines = bulkLines(0, 3);
+        lines.set(3, "{\"id\":\"1\",\"name\":\"Name of 1 product\",\"unknown\":true}");
+        elasticsearch.client().indices().create(b -> b
+                .index(INDEX)
+                .mappings(m -> m
+                        .dynamic(DynamicMapping.Strict)
+                        .properties("id", p -> p.keyword(k -> k))
+                        .properties("name", p -> p.text(t -> t))
+                        .properties("description", p -> p.text(t -> t))
+                        .properties("price", p -> p.double_(d -> d))
+                        .properties("stock_available", p -> p.integer(i -> i))));
+        final Path file = write("products.ndjson", lines);
+        final List<Long> checkpoints = new CopyOnWriteArrayList<>();
+
+        assertThatThrownBy(() -> BulkFileIngester.builder(elasticsearch.asyncClient(), INDEX).onCheckpoint(checkpoints::add).build().ingest(file))
+                .isInstanceOfSatisfying(BulkIngestException.class, e -> {
+                    assertThat(e.getFailures()).extracting(f -> f.product().getName()).containsExactly("Name of 1 product");
+                    assertThat(e.getFailures()).extracting(BulkIngestException.Failure::status).containsExactly(400);
+                });
+        assertThat(checkpoints).containsExactly(Files.size(file));
+        assertThat(productService.findById("2")).isNotNull();
+    }
+
+    @Test
+    public void testParseCsv() {
+        final byte[] row = "a,\"b,c\",,\"d\"\"e\"".getBytes(StandardCharsets.UTF_8);
+        assertThat(BulkFileIngester.parseCsv(row, 0, row.length))
+                .extracting(field -> new String(field, StandardCharsets.UTF_8))
+                .containsExactly("a", "b,c", "", "d\"e");
+    }
+
+    private static Product createProduct(String id) {
+        final Product product = new Product();
+        product.setId(id);
+        product.setName("Name of " + id + " product");
+        return product;
+    }
+}
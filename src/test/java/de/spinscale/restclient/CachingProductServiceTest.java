@@ -0,0 +1,114 @@
+package de.spinscale.restclient;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.IntStream;
+
+import static de.spinscale.restclient.StubProductService.product;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CachingProductServiceTest {
+
+    private final StubProductService delegate = new StubProductService();
+    private final CachingProductService service = new CachingProductService(delegate, 100, Duration.ofMinutes(1));
+
+    @Test
+    public void testHotProductIsServedFromCache() throws Exception {
+        delegate.products.put("1", product("1", "first"));
+
+        assertThat(service.findById("1").getName()).isEqualTo("first");
+        final Product cached = service.findById("1");
+        assertThat(cached.getName()).isEqualTo("first");
+        assertThat(delegate.gets).hasValue(1);
+
+        // callers cannot modify the cached product
+        cached.setName("changed");
+        assertThat(service.findById("1").getName()).isEqualTo("first");
+        assertThat(service.stats().hits()).isEqualTo(2);
+        assertThat(service.stats().misses()).isEqualTo(1);
+    }
+
+    @Test
+    public void testSaveInvalidates() throws Exception {
+        delegate.products.put("1", product("1", "first"));
+        service.findById("1");
+
+        service.save(product("1", "second"));
+
+        assertThat(service.findById("1").getName()).isEqualTo("second");
+        assertThat(delegate.gets).hasValue(2);
+    }
+
+    @Test
+    public void testUpdateInvalidates() throws Exception {
+        delegate.products.put("1", product("1", "first"));
+        service.findById("1");
+
+        service.updateStock("1", 5);
+
+        assertThat(service.findById("1").getStockAvailable()).isEqualTo(5);
+        assertThat(delegate.gets).hasValue(2);
+    }
+
+    @Test
+    public void testConcurrentMissesAreLoadedOnce() throws Exception {
+        delegate.products.put("1", product("1", "first"));
+        delegate.blockGets = new CountDownLatch(1);
+
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<Product>> futures = IntStream.range(0, 8)
+                    .mapToObj(i -> executor.submit(() -> service.findById("1")))
+                    .toList();
+            Thread.sleep(100);
+            delegate.blockGets.countDown();
+            for (Future<Product> future : futures) {
+                assertThat(future.get().getName()).isEqualTo("first");
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertThat(delegate.gets).hasValue(1);
+    }
+
+    @Test
+    public void testFindAllOnlyFetchesMissingProducts() throws Exception {
+        delegate.products.put("1", product("1", "first"));
+        delegate.products.put("2", product("2", "second"));
+        service.findById("1");
+
+        assertThat(service.findAll(List.of("2", "1", "3"))).extracting(Product::getName).containsExactly("second", "first");
+        assertThat(delegate.requestedIds).containsExactly("1", "2", "3");
+    }
+
+    @Test
+    public void testFindAllJoinsRunningLoads() throws Exception {
+        delegate.products.put("1", product("1", "first"));
+        delegate.products.put("2", product("2", "second"));
+        delegate.blockGets = new CountDownLatch(1);
+
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final Future<Product> single = executor.submit(() -> service.findById("1"));
+            while (delegate.gets.get() == 0) {
+                Thread.sleep(1);
+            }
+            final Future<List<Product>> all = executor.submit(() -> service.findAll(List.of("1", "2", "1")));
+            Thread.sleep(100);
+            delegate.blockGets.countDown();
+
+            assertThat(single.get().getName()).isEqualTo("first");
+            assertThat(all.get()).extracting(Product::getName).containsExactly("first", "second", "first");
+        } finally {
+            executor.shutdown();
+        }
+        // the hot id is not requested twice
+        assertThat(delegate.requestedIds).containsExactly("1", "2");
+    }
+}
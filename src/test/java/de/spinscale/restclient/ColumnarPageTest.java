@@ -0,0 +1,128 @@
+package de.spinscale.restclient;
+
+import co.elastic.clients.elasticsearch.core.SearchResponse;
+import co.elastic.clients.json.JsonpMapper;
+import co.elastic.clients.json.jackson.JacksonJsonpMapper;
+import jakarta.json.spi.JsonProvider;
+import jakarta.json.stream.JsonParser;
+import org.junit.jupiter.api.Test;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class ColumnarPageTest {
+
+    private static final String RESPONSE = """
+            {
+              "took": 3,
+              "timed_out": false,
+              "_shards": { "total": 1, "successful": 1, "skipped": 0, "failed": 0 },
+              "pit_id": "pit-1",
+              "hits": {
+                "max_score": null,
+                "hits": [
+                  {
+                    "_index": "products", "_id": "1", "_score": null,
+                    "_source": { "id": "1", "name": "Goat cheese", "description": "Cr\u00e8me fra\u00eeche \uD83D\uDC10", "price": 12.5, "stock_available": 3 },
+                    "sort": [ "1.0", "7" ]
+                  },
+                  {
+                    "_index": "products", "_id": "generated", "_score": null,
+                    "_source": { "tags": ["bread"], "description": null, "price": 2.25, "name": "Bread", "stock_available": 40 },
+                    "sort": [ "0.5", "8" ]
+                  }
+                ]
+              }
+            }
+            """;
+
+    private final JsonpMapper mapper = new JacksonJsonpMapper();
+
+    @Test
+    public void testReadHitsIntoColumns() {
+        final ColumnarPage page = read(mapper.jsonProvider());
+
+        assertThat(page.rows()).isEqualTo(2);
+        assertThat(page.id(0)).isEqualTo("1");
+        // products indexed without id get the one of the hit
+        assertThat(page.id(1)).isEqualTo("generated");
+        assertThat(page.name(0)).isEqualTo("Goat cheese");
+        assertThat(page.description(0)).isEqualTo("Cr\u00e8me fra\u00eeche \uD83D\uDC10");
+        assertThat(page.name(1)).isEqualTo("Bread");
+        assertThat(page.description(1)).isNull();
+        assertThat(page.price(1)).isEqualTo(2.25);
+        assertThat(page.stockAvailable(1)).isEqualTo(40);
+        assertThat(page.prices().sum()).isEqualTo(14.75);
+        assertThat(page.stockAvailable().sum()).isEqualTo(43);
+
+        assertThat(page.getPitId()).isEqualTo("pit-1");
+        assertThat(page.getSearchAfter()).containsExactly("0.5", "8");
+        // fewer rows than requested
+        assertThat(page.isLast()).isTrue();
+    }
+
+    @Test
+    public void testReadWithOtherJsonProvider() {
+        final ColumnarPage page = read(JsonProvider.provider());
+
+        assertThat(page.description(0)).isEqualTo("Cr\u00e8me fra\u00eeche \uD83D\uDC10");
+        assertThat(page.id(1)).isEqualTo("generated");
+        assertThat(page.stockAvailable().sum()).isEqualTo(43);
+    }
+
+    @Test
+    public void testProductViews() {
+        final ColumnarPage page = read(mapper.jsonProvider());
+
+        final Product product = page.product(0);
+        assertThat(product.getName()).isEqualTo("Goat cheese");
+        assertThat(product.getPrice()).isEqualTo(12.5);
+        assertThatThrownBy(() -> product.setPrice(1)).isInstanceOf(UnsupportedOperationException.class);
+        // copies can be modified
+        assertThat(CachingProductService.copyOf(product).getDescription()).isEqualTo("Cr\u00e8me fra\u00eeche \uD83D\uDC10");
+
+        final List<String> names = new ArrayList<>();
+        page.forEachProduct(p -> names.add(p.getName()));
+        assertThat(names).containsExactly("Goat cheese", "Bread");
+        assertThat(page.get()).extracting(Product::getId).containsExactly("1", "generated");
+        assertThatThrownBy(() -> page.product(2)).isInstanceOf(IndexOutOfBoundsException.class);
+    }
+
+    @Test
+    public void testColumnsGrow() {
+        final ColumnarPage.Columns columns = new ColumnarPage.Columns(1);
+        for (int i = 0; i < 100; i++) {
+            final Product product = StubProductService.product(String.valueOf(i), "Name of " + i + " product");
+            product.setPrice(i);
+            columns.add(product);
+        }
+        final ColumnarPage page = new ColumnarPage(columns, "name", 0, 100, null, null);
+
+        assertThat(page.rows()).isEqualTo(100);
+        assertThat(page.name(99)).isEqualTo("Name of 99 product");
+        assertThat(page.description(99)).isNull();
+        assertThat(page.prices().sum()).isEqualTo(4950);
+    }
+
+    @Test
+    public void testWithoutPointInTimeSharesColumns() {
+        final ColumnarPage page = read(mapper.jsonProvider());
+
+        final ColumnarPage withoutPit = page.withoutPointInTime();
+        assertThat(withoutPit.getPitId()).isNull();
+        assertThat(withoutPit.name(0)).isEqualTo("Goat cheese");
+        assertThat(ColumnarPage.EMPTY.withoutPointInTime()).isSameAs(ColumnarPage.EMPTY);
+    }
+
+    private ColumnarPage read(JsonProvider provider) {
+        final ColumnarPage.Columns columns = new ColumnarPage.Columns(10);
+        try (JsonParser parser = provider.createParser(new StringReader(RESPONSE))) {
+            final SearchResponse<Integer> response = SearchResponse.createSearchResponseDeserializer(columns).deserialize(parser, mapper);
+            return ProductServiceImpl.toColumnarPage(response, columns, "cheese", 0, 10);
+        }
+    }
+}
@@ -2,10 +2,12 @@ package de.spinscale.restclient;
 
 import co.elastic.clients.elasticsearch.ElasticsearchAsyncClient;
 import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.ElasticsearchException;
 import co.elastic.clients.elasticsearch._types.FieldSort;
 import co.elastic.clients.elasticsearch._types.HealthStatus;
 import co.elastic.clients.elasticsearch._types.SortOrder;
 import co.elastic.clients.elasticsearch._types.aggregations.HistogramAggregate;
+import co.elastic.clients.elasticsearch._types.mapping.DynamicMapping;
 import co.elastic.clients.elasticsearch.cluster.HealthResponse;
 import co.elastic.clients.elasticsearch.core.SearchResponse;
 import co.elastic.clients.elasticsearch.core.search.Hit;
@@ -24,6 +26,7 @@ import org.apache.http.client.CredentialsProvider;
 import org.apache.http.impl.client.BasicCredentialsProvider;
 import org.elasticsearch.client.Node;
 import org.elasticsearch.client.NodeSelector;
+import org.elasticsearch.client.RequestOptions;
 import org.elasticsearch.client.RestClient;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.AfterEach;
@@ -31,12 +34,21 @@ import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 import org.testcontainers.elasticsearch.ElasticsearchContainer;
 
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.within;
 
 public class ElasticsearchIntegrationTest {
     private static final String IMAGE_NAME = "docker.elastic.co/elasticsearch/elasticsearch:8.3.3";
@@ -60,6 +72,7 @@ public class ElasticsearchIntegrationTest {
     private static ElasticsearchClient client;
     private static RestClient restClient;
     private static ElasticsearchAsyncClient asyncClient;
+    private static AsyncProductService asyncProductService;
 
     @BeforeAll
     public static void startElasticsearchCreateLocalClient() {
@@ -87,6 +100,7 @@ public class ElasticsearchIntegrationTest {
         client = new ElasticsearchClient(transport);
         asyncClient = new ElasticsearchAsyncClient(transport);
         productService = new ProductServiceImpl(INDEX, client);
+        asyncProductService = new AsyncProductServiceImpl(INDEX, asyncClient);
     }
 
     @AfterAll
@@ -148,6 +162,8 @@ public class ElasticsearchIntegrationTest {
         productService.save(product);
 
         assertThat(product.getId()).isNotNull();
+        // the id is not part of the source, but taken from the document metadata
+        assertThat(productService.findById(product.getId()).getId()).isEqualTo(product.getId());
     }
 
     @Test
@@ -173,6 +189,121 @@ public class ElasticsearchIntegrationTest {
         assertThat(product3.getId()).isEqualTo("2");
     }
 
+    @Test
+    public void testFindAll() throws Exception {
+        productService.save(createProducts(5));
+
+        final List<Product> products = productService.findAll(List.of("3", "does-not-exist", "1"));
+        assertThat(products).extracting(Product::getId).containsExactly("3", "1");
+        assertThat(productService.findAll(List.of())).isEmpty();
+    }
+
+    @Test
+    public void testBatchedFindById() throws Exception {
+        productService.save(createProducts(20));
+        final AsyncProductService batchingService = AsyncProductServiceImpl.builder(INDEX, asyncClient)
+                .batchFindById(Duration.ofMillis(20), 8)
+                .build();
+
+        // 21 concurrent lookups end up in 3 multi get requests
+        final List<CompletableFuture<Product>> futures = IntStream.range(0, 21)
+                .mapToObj(i -> batchingService.findById(String.valueOf(i)))
+                .toList();
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).get();
+
+        for (int i = 0; i < 20; i++) {
+            assertThat(futures.get(i).get().getId()).isEqualTo(String.valueOf(i));
+        }
+        assertThat(futures.get(20).get()).isNull();
+    }
+
+    @Test
+    public void testBatchedSearch() throws Exception {
+        productService.save(createProducts(21));
+        client.indices().refresh(b -> b.index(INDEX));
+        final AsyncProductService batchingService = AsyncProductServiceImpl.builder(INDEX, asyncClient)
+                .batchSearch(Duration.ofMillis(20), 8)
+                .build();
+
+        // sent as a single multi search request
+        final CompletableFuture<Page<Product>> all = batchingService.search("name");
+        final CompletableFuture<Page<Product>> seven = batchingService.search("7");
+        final CompletableFuture<Page<Product>> none = batchingService.search("cheese");
+        assertThat(all.get().get()).hasSize(10);
+        assertThat(seven.get().get()).extracting(Product::getId).containsExactly("7");
+        assertThat(none.get().get()).isEmpty();
+
+        // the pages continue in points in time, searched together as well
+        final CompletableFuture<Page<Product>> secondPage = batchingService.next(all.get());
+        final CompletableFuture<Page<Product>> expired = batchingService.next(
+                new Page<>(all.get().get(), "name", 0, 10, "does-not-exist", List.of("1.0", "1")));
+        assertThat(secondPage.get().get()).hasSize(10);
+        // one search failing does not fail the others
+        assertThatThrownBy(expired::get).hasCauseInstanceOf(ElasticsearchException.class);
+        assertThat(batchingService.next(secondPage.get()).get().get()).extracting(Product::getId).containsExactly("20");
+    }
+
+    @Test
+    public void testAdaptiveRestClients() throws Exception {
+        final CredentialsProvider credentialsProvider = new BasicCredentialsProvider();
+        credentialsProvider.setCredentials(AuthScope.ANY, new UsernamePasswordCredentials("elastic", "s3cret"));
+        // no sniffing, the container publishes an address not reachable from here
+        try (AdaptiveRestClients restClients = AdaptiveRestClients.builder(restClient.getNodes().get(0).getHost())
+                .httpClientConfigCallback(clientBuilder -> clientBuilder
+                        .setSSLContext(container.createSslContextFromCa())
+                        .setDefaultCredentialsProvider(credentialsProvider))
+                .build()) {
+            final ElasticsearchClient reads = new ElasticsearchClient(new RestClientTransport(restClients.reads(), client._jsonpMapper()));
+            final ElasticsearchClient writes = new ElasticsearchClient(new RestClientTransport(restClients.writes(), client._jsonpMapper()));
+            final ProductService adaptiveService = new ProductServiceImpl(INDEX, reads, writes, ProductServiceMetrics.DISABLED);
+
+            adaptiveService.save(createProducts(3));
+            reads.indices().refresh(b -> b.index(INDEX));
+
+            assertThat(adaptiveService.findById("2").getName()).isEqualTo("Name of 2 product");
+            assertThat(adaptiveService.search("name").get()).hasSize(3);
+        }
+    }
+
+    @Test
+    public void testCompressedTransport() throws Exception {
+        final HttpCompression compression = HttpCompression.builder().threshold(1024).build();
+        final RestClientTransport transport = new RestClientTransport(restClient, client._jsonpMapper(),
+                compression.transportOptions(RequestOptions.DEFAULT));
+        final ElasticsearchAsyncClient compressedClient = new ElasticsearchAsyncClient(transport);
+
+        // gzipped bulk bodies
+        ProductBulkIngester.ingest(ProductBulkIngester.builder(compressedClient, INDEX).build(), createProducts(100));
+        client.indices().refresh(b -> b.index(INDEX));
+        assertThat(client.count(b -> b.index(INDEX)).count()).isEqualTo(100);
+
+        // gzipped multi search body
+        final AsyncProductService batchingService = AsyncProductServiceImpl.builder(INDEX, compressedClient)
+                .batchSearch(Duration.ofMillis(20), 64)
+                .build();
+        final List<CompletableFuture<Page<Product>>> pages = IntStream.range(0, 40)
+                .mapToObj(i -> batchingService.search(String.valueOf(i)))
+                .toList();
+        for (int i = 0; i < pages.size(); i++) {
+            assertThat(pages.get(i).get().get()).extracting(Product::getId).contains(String.valueOf(i));
+        }
+    }
+
+    @Test
+    public void testHedgedReads() throws Exception {
+        productService.save(createProducts(3));
+        client.indices().refresh(b -> b.index(INDEX));
+        final ProductServiceMetrics metrics = ProductServiceMetrics.create();
+        // not closed, that would close the rest client shared with the other tests
+        final HedgingTransport transport = HedgingTransport.builder(client._transport()).metrics(metrics).build();
+        final ProductService hedgedService = new ProductServiceImpl(INDEX, new ElasticsearchClient(transport));
+
+        assertThat(hedgedService.findById("2").getName()).isEqualTo("Name of 2 product");
+        assertThat(hedgedService.search("name").get()).hasSize(3);
+        assertThat(hedgedService.searchColumnar("name", 10).rows()).isEqualTo(3);
+        assertThat(metrics.snapshot()).extracting(OperationSnapshot::operation).containsExactlyInAnyOrder("hedge get", "hedge search");
+    }
+
     @Test
     public void testSearch() throws Exception {
         productService.save(createProducts(10));
@@ -184,6 +315,64 @@ public class ElasticsearchIntegrationTest {
         assertThat(page.get()).first().extracting("id").isEqualTo("9");
     }
 
+    @Test
+    public void testSearchWithProjection() throws Exception {
+        productService.save(createProducts(15));
+        client.indices().refresh(b -> b.index(INDEX));
+
+        final Page<ProductSummary> page = productService.search("name", Projection.SUMMARY);
+        assertThat(page.get()).hasSize(10);
+        assertThat(page.get()).first().isEqualTo(new ProductSummary("0", "Name of 0 product", 0.0));
+
+        final Page<ProductSummary> secondPage = productService.next(page, Projection.SUMMARY);
+        assertThat(secondPage.get()).extracting(ProductSummary::id).containsExactly("10", "11", "12", "13", "14");
+
+        // only the description is left out
+        final Page<Product> withoutDescription = productService.search("9", Projection.FULL.excludes("description"));
+        assertThat(withoutDescription.get()).singleElement().satisfies(product -> {
+            assertThat(product.getName()).isEqualTo("Name of 9 product");
+            assertThat(product.getDescription()).isNull();
+        });
+    }
+
+    @Test
+    public void testSearchColumnar() throws Exception {
+        productService.save(createProducts(25));
+        client.indices().refresh(b -> b.index(INDEX));
+
+        final ColumnarPage page = productService.searchColumnar("name", 20);
+        assertThat(page.rows()).isEqualTo(20);
+        assertThat(page.id(3)).isEqualTo("3");
+        assertThat(page.name(3)).isEqualTo("Name of 3 product");
+        assertThat(page.product(3).getDescription()).isEqualTo("Description of 3 product");
+
+        final ColumnarPage secondPage = productService.next(page);
+        assertThat(secondPage.rows()).isEqualTo(5);
+        assertThat(secondPage.getPitId()).isNull();
+        final double total = page.prices().sum() + secondPage.prices().sum();
+        assertThat(total).isCloseTo(createProducts(25).stream().mapToDouble(Product::getPrice).sum(), within(0.0001));
+    }
+
+    @Test
+    public void testFanOutWithDeadline() throws Exception {
+        productService.save(createProducts(5));
+        client.indices().refresh(b -> b.index(INDEX));
+
+        try (FanOutExecutor fanOut = FanOutExecutor.builder(productService).maxConcurrency(4).build();
+             FanOutExecutor.Batch batch = fanOut.batch(Duration.ofSeconds(10))) {
+            final List<CompletableFuture<Product>> products = IntStream.range(0, 5).mapToObj(i -> batch.findById(String.valueOf(i))).toList();
+            final CompletableFuture<Page<Product>> page = batch.search("name");
+            batch.join();
+
+            assertThat(products).extracting(product -> product.get().getId()).containsExactly("0", "1", "2", "3", "4");
+            assertThat(page.get().get()).hasSize(5);
+        }
+
+        // no request is sent once the deadline has passed
+        assertThatThrownBy(() -> Deadline.after(Duration.ZERO).call(() -> productService.findById("1")))
+                .isInstanceOf(DeadlineExceededException.class);
+    }
+
     @Test
     public void testPagination() throws Exception {
         productService.save(createProducts(21));
@@ -204,6 +393,213 @@ public class ElasticsearchIntegrationTest {
         assertThat(thirdPage.get().get(0).getId()).isEqualTo("20");
     }
 
+    @Test
+    public void testDeepPaginationWithPointInTime() throws Exception {
+        productService.save(createProducts(45));
+        client.indices().refresh(b -> b.index(INDEX));
+
+        final Page<Product> firstPage = productService.search("name");
+        assertThat(firstPage.getPitId()).isNull();
+        final Page<Product> secondPage = productService.next(firstPage);
+        assertThat(secondPage.getPitId()).isNotNull();
+        assertThat(secondPage.getSearchAfter()).isNotEmpty();
+
+        // documents indexed after the PIT has been opened are not visible while paging
+        final List<Product> lateProducts = createProducts(50).subList(45, 50);
+        productService.save(lateProducts);
+        client.indices().refresh(b -> b.index(INDEX));
+
+        final Set<String> ids = new HashSet<>();
+        firstPage.get().forEach(p -> ids.add(p.getId()));
+        Page<Product> page = secondPage;
+        while (!page.get().isEmpty()) {
+            page.get().forEach(p -> ids.add(p.getId()));
+            page = productService.next(page);
+        }
+        assertThat(ids).hasSize(45).doesNotContain("45", "49");
+    }
+
+    @Test
+    public void testNextAfterPointInTimeWasClosed() throws Exception {
+        productService.save(createProducts(30));
+        client.indices().refresh(b -> b.index(INDEX));
+
+        final Page<Product> secondPage = productService.next(productService.search("name"));
+        productService.close(secondPage);
+
+        // a new point in time is opened transparently
+        final Page<Product> thirdPage = productService.next(secondPage);
+        assertThat(thirdPage.get()).hasSize(10);
+        assertThat(thirdPage.get()).extracting(Product::getId).doesNotContainAnyElementsOf(
+                secondPage.get().stream().map(Product::getId).toList());
+    }
+
+    @Test
+    public void testSlicedExport() throws Exception {
+        productService.save(createProducts(2500));
+        client.indices().refresh(b -> b.index(INDEX));
+
+        final ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            try (Stream<Product> products = productService.export(3, executor)) {
+                final List<String> ids = products.map(Product::getId).toList();
+                assertThat(ids).hasSize(2500).doesNotHaveDuplicates();
+            }
+
+            // stopping early must not leave slices blocked on the full queue
+            try (Stream<Product> products = productService.export(3, executor)) {
+                assertThat(products.limit(5).count()).isEqualTo(5);
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertThat(executor.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @Test
+    public void testAggregate() throws Exception {
+        productService.save(createProducts(100));
+        client.indices().refresh(b -> b.index(INDEX));
+
+        final ProductAggregation aggregation = ProductAggregation.builder()
+                .priceInterval(10.0)
+                .terms("name.keyword")
+                .pageSize(7)
+                .build();
+        try (Stream<ProductBucket> stream = productService.aggregate(aggregation)) {
+            final List<ProductBucket> buckets = stream.toList();
+            // every product has its own name, the buckets are ordered by price first
+            assertThat(buckets).hasSize(100);
+            assertThat(buckets).extracting(ProductBucket::price).isSorted();
+            assertThat(buckets).extracting(b -> b.terms().get("name.keyword")).doesNotHaveDuplicates();
+            assertThat(buckets.get(0).terms()).containsEntry("name.keyword", "Name of 0 product");
+            assertThat(buckets.get(0).averageStock()).isEqualTo(0.0);
+        }
+
+        try (Stream<ProductBucket> stream = productService.aggregate(ProductAggregation.builder().priceInterval(10.0).build())) {
+            final List<ProductBucket> buckets = stream.toList();
+            // prices 0.0 to 118.8
+            assertThat(buckets).hasSize(12);
+            assertThat(buckets).extracting(ProductBucket::docCount).startsWith(9L);
+            assertThat(buckets.stream().mapToLong(ProductBucket::docCount).sum()).isEqualTo(100);
+        }
+    }
+
+    @Test
+    public void testAsyncProductService() throws Exception {
+        final List<Product> products = createProducts(21);
+        asyncProductService.save(products).get();
+        client.indices().refresh(b -> b.index(INDEX));
+
+        // fire all lookups at once, none of them blocks the test thread
+        final List<CompletableFuture<Product>> futures = products.stream()
+                .map(p -> asyncProductService.findById(p.getId()))
+                .toList();
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).get();
+        assertThat(futures).extracting(f -> f.join().getId())
+                .isEqualTo(products.stream().map(Product::getId).toList());
+
+        final Page<Product> thirdPage = asyncProductService.search("name")
+                .thenCompose(asyncProductService::next)
+                .thenCompose(asyncProductService::next)
+                .get();
+        assertThat(thirdPage.get()).hasSize(1);
+        assertThat(thirdPage.get().get(0).getId()).isEqualTo("20");
+    }
+
+    @Test
+    public void testBulkIngesterSplitsRequests() throws Exception {
+        final List<Product> products = createProducts(95);
+        products.forEach(p -> p.setId(null));
+
+        final List<CompletableFuture<String>> futures = new ArrayList<>();
+        try (ProductBulkIngester ingester = ProductBulkIngester.builder(asyncClient, INDEX)
+                .maxOperations(10)
+                .maxConcurrentRequests(3)
+                .build()) {
+            products.forEach(p -> futures.add(ingester.add(p)));
+        }
+
+        // every product got the id elasticsearch generated for exactly this product
+        assertThat(futures).allMatch(f -> f.isDone() && !f.isCompletedExceptionally());
+        for (Product product : products) {
+            assertThat(productService.findById(product.getId()).getName()).isEqualTo(product.getName());
+        }
+    }
+
+    @Test
+    public void testSaveReportsFailedProducts() throws Exception {
+        // documents with a description are rejected by the strict mapping
+        client.indices().create(b -> b
+                .index(INDEX)
+                .mappings(m -> m
+                        .dynamic(DynamicMapping.Strict)
+                        .properties("id", p -> p.keyword(k -> k))
+                        .properties("name", p -> p.text(t -> t))
+                        .properties("price", p -> p.double_(d -> d))
+                        .properties("stock_available", p -> p.integer(i -> i))
+                )
+        );
+        final List<Product> products = createProducts(4);
+        products.get(0).setDescription(null);
+        products.get(2).setDescription(null);
+
+        assertThatThrownBy(() -> productService.save(products))
+                .isInstanceOfSatisfying(BulkIngestException.class, e -> {
+                    assertThat(e.getFailures()).extracting(f -> f.product().getId()).containsExactly("1", "3");
+                    assertThat(e.getFailures()).extracting(BulkIngestException.Failure::status).containsOnly(400);
+                });
+
+        assertThat(productService.findById("0")).isNotNull();
+        assertThat(productService.findById("2")).isNotNull();
+    }
+
+    @Test
+    public void testPartialUpdates() throws Exception {
+        productService.save(createProducts(3));
+
+        productService.updateStock("1", -5);
+        productService.updatePrice("1", 99.5);
+        assertThat(productService.findById("1").getStockAvailable()).isEqualTo(5);
+        assertThat(productService.findById("1").getPrice()).isEqualTo(99.5);
+        // the rest of the product is kept
+        assertThat(productService.findById("1").getDescription()).isEqualTo("Description of 1 product");
+
+        productService.update(List.of(ProductUpdate.stock("0", 3), new ProductUpdate("2", 1, 1.5)));
+        assertThat(productService.findById("0").getStockAvailable()).isEqualTo(3);
+        assertThat(productService.findById("2").getStockAvailable()).isEqualTo(21);
+        assertThat(productService.findById("2").getPrice()).isEqualTo(1.5);
+
+        assertThatThrownBy(() -> productService.update(List.of(ProductUpdate.stock("0", 1), ProductUpdate.stock("does-not-exist", 1))))
+                .isInstanceOfSatisfying(BulkIngestException.class, e -> {
+                    assertThat(e.getFailures()).extracting(f -> f.product().getId()).containsExactly("does-not-exist");
+                    assertThat(e.getFailures()).extracting(BulkIngestException.Failure::status).containsOnly(404);
+                });
+        assertThat(productService.findById("0").getStockAvailable()).isEqualTo(4);
+    }
+
+    @Test
+    public void testConcurrentStockUpdatesAreRetried() throws Exception {
+        productService.save(createProducts(1));
+
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                futures.add(executor.submit(() -> {
+                    productService.updateStock("0", 1);
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertThat(productService.findById("0").getStockAvailable()).isEqualTo(20);
+    }
+
     @Test
     public void testSearchAfter() throws Exception {
         productService.save(createProducts(21));
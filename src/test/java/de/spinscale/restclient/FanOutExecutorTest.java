@@ -0,0 +1,94 @@
+package de.spinscale.restclient;
+
+import co.elastic.clients.transport.rest_client.RestClientOptions;
+import org.apache.http.client.config.RequestConfig;
+import org.elasticsearch.client.RequestOptions;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class FanOutExecutorTest {
+
+    private final StubProductService stub = new StubProductService();
+    private final FanOutExecutor fanOut = FanOutExecutor.builder(stub).maxConcurrency(2).build();
+
+    @AfterEach
+    public void closeFanOut() {
+        if (stub.blockGets != null) {
+            stub.blockGets.countDown();
+        }
+        fanOut.close();
+    }
+
+    @Test
+    public void testCallsAreCapped() throws Exception {
+        IntStream.range(0, 5).forEach(i -> stub.products.put(String.valueOf(i), StubProductService.product(String.valueOf(i), "product " + i)));
+        stub.blockGets = new CountDownLatch(1);
+
+        try (FanOutExecutor.Batch batch = fanOut.batch(Duration.ofSeconds(10))) {
+            final List<CompletableFuture<Product>> products = IntStream.range(0, 5).mapToObj(i -> batch.findById(String.valueOf(i))).toList();
+            final CompletableFuture<Page<Product>> page = batch.search("product");
+
+            Thread.sleep(100);
+            assertThat(stub.gets).hasValue(2);
+            stub.blockGets.countDown();
+            batch.join();
+
+            assertThat(products).allSatisfy(product -> assertThat(product).isCompleted());
+            assertThat(products.get(4).join().getName()).isEqualTo("product 4");
+            assertThat(page.join().get()).hasSize(5);
+        }
+    }
+
+    @Test
+    public void testDeadlineFailsPendingCalls() throws Exception {
+        stub.blockGets = new CountDownLatch(1);
+
+        try (FanOutExecutor.Batch batch = fanOut.batch(Duration.ofMillis(50))) {
+            // two are running, the third one waits for a slot
+            final List<CompletableFuture<Product>> products = IntStream.range(0, 3).mapToObj(i -> batch.findById(String.valueOf(i))).toList();
+            batch.join();
+
+            assertThat(batch.deadline().isExpired()).isTrue();
+            assertThat(products).allSatisfy(product -> assertThatThrownBy(product::join).hasCauseInstanceOf(DeadlineExceededException.class));
+            assertThat(stub.gets).hasValue(2);
+            assertThat(batch.findById("3")).isCompletedExceptionally();
+        }
+    }
+
+    @Test
+    public void testDeadlineIsSetForCalls() throws Exception {
+        try (FanOutExecutor.Batch batch = fanOut.batch(Duration.ofSeconds(10))) {
+            final CompletableFuture<Deadline> deadline = batch.submit(service -> Deadline.current());
+            assertThat(deadline.get()).isSameAs(batch.deadline());
+        }
+        assertThat(Deadline.current()).isNull();
+    }
+
+    @Test
+    public void testDeadlineLimitsRequestTimeouts() throws Exception {
+        final RequestOptions options = RequestOptions.DEFAULT.toBuilder()
+                .addHeader("X-Opaque-Id", "42")
+                .setRequestConfig(RequestConfig.custom().setSocketTimeout(60_000).setRedirectsEnabled(false).build())
+                .build();
+
+        final RestClientOptions withDeadline = (RestClientOptions) Deadline.after(Duration.ofSeconds(5)).apply(new RestClientOptions(options));
+
+        final RequestConfig config = withDeadline.restClientRequestOptions().getRequestConfig();
+        assertThat(config.getSocketTimeout()).isBetween(1, 5000);
+        assertThat(config.getConnectTimeout()).isBetween(1, 5000);
+        assertThat(config.isRedirectsEnabled()).isFalse();
+        assertThat(withDeadline.restClientRequestOptions().getHeaders()).hasSize(1);
+
+        assertThatThrownBy(() -> Deadline.after(Duration.ZERO).apply(new RestClientOptions(options)))
+                .isInstanceOf(DeadlineExceededException.class);
+    }
+}
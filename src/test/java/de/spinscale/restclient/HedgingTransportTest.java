@@ -0,0 +1,224 @@
+package de.spinscale.restclient;
+
+import co.elastic.clients.json.JsonpDeserializer;
+import co.elastic.clients.json.JsonpMapper;
+import co.elastic.clients.transport.ElasticsearchTransport;
+import co.elastic.clients.transport.Endpoint;
+import co.elastic.clients.transport.TransportOptions;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class HedgingTransportTest {
+
+    private final FakeTransport delegate = new FakeTransport();
+    private final ProductServiceMetrics metrics = ProductServiceMetrics.create();
+    private final HedgingTransport transport = HedgingTransport.builder(delegate)
+            .minDelay(Duration.ofMillis(20))
+            .budget(0.05)
+            .metrics(metrics)
+            .build();
+
+    @AfterEach
+    public void close() throws IOException {
+        transport.close();
+    }
+
+    @Test
+    public void testNothingIsDuplicatedBeforeReadsHaveBeenMeasured() throws Exception {
+        final CompletableFuture<String> slow = new CompletableFuture<>();
+        delegate.respond(slow);
+
+        final CompletableFuture<String> result = transport.performRequestAsync("1", endpoint("get"), null);
+        Thread.sleep(100);
+        assertThat(delegate.requests).hasSize(1);
+
+        slow.complete("first");
+        assertThat(result.get(1, TimeUnit.SECONDS)).isEqualTo("first");
+    }
+
+    @Test
+    public void testSlowReadIsDuplicated() throws Exception {
+        warmUp("get", 100);
+        final CompletableFuture<String> slow = new CompletableFuture<>();
+        delegate.respond(slow, CompletableFuture.completedFuture("second"));
+
+        assertThat(transport.performRequest("1", endpoint("get"), null)).isEqualTo("second");
+        assertThat(delegate.requests).hasSize(102);
+        // the slow request has been aborted
+        assertThat(slow).isCancelled();
+
+        final OperationSnapshot snapshot = snapshot("hedge get");
+        assertThat(snapshot.calls()).isEqualTo(101);
+        assertThat(snapshot.hedges()).isEqualTo(1);
+        assertThat(snapshot.hedgesWon()).isEqualTo(1);
+    }
+
+    @Test
+    public void testFirstAnswerWins() throws Exception {
+        warmUp("search", 100);
+        final CompletableFuture<String> slow = new CompletableFuture<>();
+        final CompletableFuture<String> slower = new CompletableFuture<>();
+        delegate.respond(slow, slower);
+
+        final CompletableFuture<String> result = transport.performRequestAsync("1", endpoint("search"), null);
+        awaitRequests(102);
+        slow.complete("first");
+
+        assertThat(result.get(1, TimeUnit.SECONDS)).isEqualTo("first");
+        assertThat(slower).isCancelled();
+        assertThat(snapshot("hedge search").hedgesWon()).isZero();
+    }
+
+    @Test
+    public void testFailureIsReturnedOnlyIfBothFailed() throws Exception {
+        warmUp("get", 100);
+        final CompletableFuture<String> slow = new CompletableFuture<>();
+        final CompletableFuture<String> slower = new CompletableFuture<>();
+        delegate.respond(slow, slower);
+
+        final CompletableFuture<String> result = transport.performRequestAsync("1", endpoint("get"), null);
+        awaitRequests(102);
+        slow.completeExceptionally(new IOException("node left"));
+        assertThat(result).isNotDone();
+        slower.completeExceptionally(new IOException("node left as well"));
+
+        assertThatThrownBy(() -> result.get(1, TimeUnit.SECONDS)).hasCauseInstanceOf(IOException.class).hasMessageContaining("as well");
+    }
+
+    @Test
+    public void testDuplicatesAreLimitedByTheBudget() throws Exception {
+        warmUp("get", 100);
+        final List<CompletableFuture<String>> slow = new CopyOnWriteArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            final CompletableFuture<String> response = new CompletableFuture<>();
+            slow.add(response);
+            delegate.respond(response);
+        }
+
+        // 120 reads earned 6 tokens
+        for (int i = 0; i < 20; i++) {
+            transport.performRequestAsync(String.valueOf(i), endpoint("get"), null);
+        }
+        Thread.sleep(200);
+        slow.forEach(response -> response.complete("slow"));
+
+        assertThat(snapshot("hedge get").hedges()).isEqualTo(6);
+    }
+
+    @Test
+    public void testOtherEndpointsAreNotHedged() throws Exception {
+        final CompletableFuture<String> slow = new CompletableFuture<>();
+        delegate.respond(slow);
+
+        final CompletableFuture<String> result = transport.performRequestAsync("1", endpoint("bulk"), null);
+        assertThat(result).isSameAs(slow);
+        assertThat(metrics.snapshot()).isEmpty();
+    }
+
+    private void warmUp(String endpoint, int reads) throws IOException {
+        for (int i = 0; i < reads; i++) {
+            delegate.respond(CompletableFuture.completedFuture("fast"));
+            transport.performRequest(String.valueOf(i), endpoint(endpoint), null);
+        }
+    }
+
+    private void awaitRequests(int count) throws InterruptedException {
+        final long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (delegate.requests.size() < count && System.nanoTime() < end) {
+            Thread.sleep(5);
+        }
+        assertThat(delegate.requests).hasSize(count);
+    }
+
+    private OperationSnapshot snapshot(String operation) {
+        return metrics.snapshot().stream().filter(s -> s.operation().equals(operation)).findFirst().orElseThrow();
+    }
+
+    private static Endpoint<String, String, Void> endpoint(String id) {
+        return new Endpoint<>() {
+            @Override
+            public String id() {
+                return id;
+            }
+
+            @Override
+            public String method(String request) {
+                return "GET";
+            }
+
+            @Override
+            public String requestUrl(String request) {
+                return "/products/_doc/" + request;
+            }
+
+            @Override
+            public boolean hasRequestBody() {
+                return false;
+            }
+
+            @Override
+            public boolean isError(int statusCode) {
+                return statusCode >= 400;
+            }
+
+            @Override
+            public JsonpDeserializer<Void> errorDeserializer(int statusCode) {
+                return null;
+            }
+        };
+    }
+
+    /**
+     * Answers requests with the given futures in order
+     */
+    private static class FakeTransport implements ElasticsearchTransport {
+
+        private final List<CompletableFuture<?>> responses = new CopyOnWriteArrayList<>();
+        private final List<Object> requests = new CopyOnWriteArrayList<>();
+
+        @SafeVarargs
+        final void respond(CompletableFuture<String>... responses) {
+            for (CompletableFuture<String> response : responses) {
+                this.responses.add(response);
+            }
+        }
+
+        @Override
+        public <RequestT, ResponseT, ErrorT> ResponseT performRequest(RequestT request, Endpoint<RequestT, ResponseT, ErrorT> endpoint,
+                                                                      TransportOptions options) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public synchronized <RequestT, ResponseT, ErrorT> CompletableFuture<ResponseT> performRequestAsync(
+                RequestT request, Endpoint<RequestT, ResponseT, ErrorT> endpoint, TransportOptions options) {
+            requests.add(request);
+            return (CompletableFuture<ResponseT>) responses.remove(0);
+        }
+
+        @Override
+        public JsonpMapper jsonpMapper() {
+            return null;
+        }
+
+        @Override
+        public TransportOptions options() {
+            return null;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package de.spinscale.restclient;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.entity.BasicHttpEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.nio.ContentDecoder;
+import org.apache.http.nio.protocol.HttpAsyncResponseConsumer;
+import org.apache.http.protocol.BasicHttpContext;
+import org.elasticsearch.client.RequestOptions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class HttpCompressionTest {
+
+    private final HttpCompression compression = HttpCompression.builder().threshold(1024).build();
+
+    @Test
+    public void testLargeBodiesAreGzipped() throws Exception {
+        final byte[] json = bulkBody(100);
+        final HttpCompression.Body body = compression.body();
+        body.write(json, 0, json.length);
+
+        final HttpEntity entity = body.toEntity(NdjsonBulkBody.NDJSON);
+        assertThat(entity.getContentEncoding().getValue()).isEqualTo("gzip");
+        assertThat(entity.getContentLength()).isLessThan(json.length / 5);
+        try (InputStream in = new GZIPInputStream(entity.getContent())) {
+            assertThat(in.readAllBytes()).isEqualTo(json);
+        }
+        body.release();
+    }
+
+    @Test
+    public void testSmallBodiesAreSentAsTheyAre() throws Exception {
+        final byte[] json = bulkBody(2);
+        final HttpCompression.Body body = compression.body();
+        body.write(json, 0, json.length);
+
+        final HttpEntity entity = body.toEntity(NdjsonBulkBody.NDJSON);
+        assertThat(entity.getContentEncoding()).isNull();
+        assertThat(entity.getContent().readAllBytes()).isEqualTo(json);
+        body.release();
+    }
+
+    @Test
+    public void testGzippedResponseIsInflated() throws Exception {
+        final byte[] json = bulkBody(100);
+        final HttpResponse response = consume(gzip(json), "gzip", 7);
+
+        assertThat(response.containsHeader("Content-Encoding")).isFalse();
+        assertThat(response.getEntity().getContentEncoding()).isNull();
+        assertThat(response.getEntity().getContentType().getValue()).startsWith("application/json");
+        assertThat(read(response.getEntity())).isEqualTo(json);
+    }
+
+    @Test
+    public void testGzipMembersAndOptionalHeaderFieldsAreRead() throws Exception {
+        final byte[] first = bulkBody(10);
+        final byte[] second = bulkBody(3);
+        // extra field, file name, comment and header crc set
+        final byte[] member = gzip(second);
+        final ByteArrayOutputStream withFields = new ByteArrayOutputStream();
+        withFields.write(member, 0, 3);
+        withFields.write(4 | 8 | 16 | 2);
+        withFields.write(member, 4, 6);
+        withFields.write(new byte[] { 3, 0, 'a', 'b', 'c' });
+        withFields.write("products.json\0".getBytes(StandardCharsets.US_ASCII));
+        withFields.write("a comment\0".getBytes(StandardCharsets.US_ASCII));
+        withFields.write(new byte[] { 0x12, 0x34 });
+        withFields.write(member, 10, member.length - 10);
+
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        body.write(gzip(first));
+        body.write(withFields.toByteArray());
+        final HttpResponse response = consume(body.toByteArray(), "gzip", 3);
+
+        final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        expected.write(first);
+        expected.write(second);
+        assertThat(read(response.getEntity())).isEqualTo(expected.toByteArray());
+    }
+
+    @Test
+    public void testTruncatedResponseFails() throws Exception {
+        final byte[] gzipped = gzip(bulkBody(10));
+        final HttpAsyncResponseConsumer<HttpResponse> consumer = consumer(Arrays.copyOf(gzipped, gzipped.length - 4), "gzip", 100);
+
+        assertThat(consumer.getResult()).isNull();
+        assertThat(consumer.getException()).isInstanceOf(ZipException.class);
+    }
+
+    @Test
+    public void testUncompressedResponseIsBufferedAsItIs() throws Exception {
+        final byte[] json = bulkBody(10);
+        final HttpResponse response = consume(json, null, 1000);
+
+        assertThat(read(response.getEntity())).isEqualTo(json);
+    }
+
+    @Test
+    public void testResponseBufferIsReleasedOnceRead() throws Exception {
+        final HttpEntity entity = consume(bulkBody(10), null, 1000).getEntity();
+        assertThat(entity.isStreaming()).isTrue();
+        assertThat(entity.isRepeatable()).isFalse();
+
+        read(entity);
+
+        assertThat(entity.isStreaming()).isFalse();
+        assertThat(entity.getContent().read()).isEqualTo(-1);
+    }
+
+    @Test
+    public void testCompressionIsFoundInTransportOptions() throws Exception {
+        assertThat(HttpCompression.of(compression.transportOptions(RequestOptions.DEFAULT))).isSameAs(compression);
+        assertThat(HttpCompression.of(Deadline.after(Duration.ofSeconds(1)).apply(compression.transportOptions(RequestOptions.DEFAULT))))
+                .isSameAs(compression);
+        assertThat(compression.transportOptions(RequestOptions.DEFAULT).headers()).extracting(e -> e.getKey() + ": " + e.getValue())
+                .contains("Accept-Encoding: gzip");
+    }
+
+    private HttpResponse consume(byte[] body, String contentEncoding, int chunkSize) throws Exception {
+        final HttpAsyncResponseConsumer<HttpResponse> consumer = consumer(body, contentEncoding, chunkSize);
+        if (consumer.getException() != null) {
+            throw consumer.getException();
+        }
+        return consumer.getResult();
+    }
+
+    private HttpAsyncResponseConsumer<HttpResponse> consumer(byte[] body, String contentEncoding, int chunkSize) throws Exception {
+        final HttpAsyncResponseConsumer<HttpResponse> consumer = compression.transportOptions(RequestOptions.DEFAULT)
+                .restClientRequestOptions().getHttpAsyncResponseConsumerFactory().createHttpAsyncResponseConsumer();
+        final BasicHttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+        final BasicHttpEntity entity = new BasicHttpEntity();
+        entity.setContentLength(body.length);
+        entity.setContentType(ContentType.APPLICATION_JSON.toString());
+        if (contentEncoding != null) {
+            entity.setContentEncoding(contentEncoding);
+            response.addHeader("Content-Encoding", contentEncoding);
+        }
+        response.setEntity(entity);
+
+        consumer.responseReceived(response);
+        final ChunkedDecoder decoder = new ChunkedDecoder(body, chunkSize);
+        while (!decoder.isCompleted()) {
+            consumer.consumeContent(decoder, null);
+        }
+        consumer.responseCompleted(new BasicHttpContext());
+        return consumer;
+    }
+
+    private static byte[] read(HttpEntity entity) throws IOException {
+        try (InputStream in = entity.getContent()) {
+            return in.readAllBytes();
+        }
+    }
+
+    private static byte[] gzip(byte[] bytes) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(bytes);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] bulkBody(int count) {
+        final StringBuilder body = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            body.append("{\"index\":{\"_id\":\"").append(i).append("\"}}\n");
+            body.append("{\"id\":\"").append(i).append("\",\"name\":\"Name of ").append(i)
+                .append(" product\",\"description\":\"Description of ").append(i).append(" product\",\"price\":")
+                .append(i * 1.2).append(",\"stock_available\":").append(i * 10).append("}\n");
+        }
+        return body.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Hands out the body a few bytes at a time, like data arriving over the network
+     */
+    private static class ChunkedDecoder implements ContentDecoder {
+
+        private final byte[] body;
+        private final int chunkSize;
+        private int position;
+
+        private ChunkedDecoder(byte[] body, int chunkSize) {
+            this.body = body;
+            this.chunkSize = chunkSize;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) {
+            if (position == body.length) {
+                return -1;
+            }
+            final int length = Math.min(Math.min(chunkSize, dst.remaining()), body.length - position);
+            dst.put(body, position, length);
+            position += length;
+            return length;
+        }
+
+        @Override
+        public boolean isCompleted() {
+            return position == body.length;
+        }
+    }
+}
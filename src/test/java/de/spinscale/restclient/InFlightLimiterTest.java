@@ -0,0 +1,71 @@
+package de.spinscale.restclient;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class InFlightLimiterTest {
+
+    @Test
+    public void testPendingOperationsStartWhenSlotsFreeUp() throws Exception {
+        final InFlightLimiter limiter = new InFlightLimiter(2, 1);
+        final List<CompletableFuture<String>> responses = new ArrayList<>();
+        final List<CompletableFuture<String>> results = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            results.add(limiter.submit(() -> {
+                CompletableFuture<String> response = new CompletableFuture<>();
+                responses.add(response);
+                return response;
+            }));
+        }
+
+        // only two operations have been started, the third one waits
+        assertThat(responses).hasSize(2);
+        assertThat(limiter.inFlight()).isEqualTo(2);
+        assertThat(limiter.pending()).isEqualTo(1);
+
+        // queue is full, so the caller gets pushed back
+        assertThatThrownBy(() -> limiter.submit(CompletableFuture::new).join())
+                .hasCauseInstanceOf(RejectedExecutionException.class);
+
+        responses.get(0).complete("first");
+        assertThat(results.get(0).get()).isEqualTo("first");
+        assertThat(responses).hasSize(3);
+        assertThat(limiter.pending()).isZero();
+
+        responses.get(1).completeExceptionally(new IllegalStateException("boom"));
+        responses.get(2).complete("third");
+        assertThat(results.get(1)).isCompletedExceptionally();
+        assertThat(results.get(2).get()).isEqualTo("third");
+        assertThat(limiter.inFlight()).isZero();
+    }
+
+    @Test
+    public void testOperationsCompletingRightAwayDoNotGrowTheStack() throws Exception {
+        final int operations = 100_000;
+        final InFlightLimiter limiter = new InFlightLimiter(1, operations);
+        final CompletableFuture<Integer> first = new CompletableFuture<>();
+        limiter.submit(() -> first);
+        final List<CompletableFuture<Integer>> results = new ArrayList<>();
+        for (int i = 0; i < operations; i++) {
+            final int value = i;
+            results.add(limiter.submit(() -> CompletableFuture.completedFuture(value)));
+        }
+        assertThat(limiter.pending()).isEqualTo(operations);
+
+        // every pending operation starts and completes on this thread
+        first.complete(-1);
+
+        // a stack overflow would be swallowed by the futures, leaving the last one incomplete
+        assertThat(results.get(operations - 1).get(10, TimeUnit.SECONDS)).isEqualTo(operations - 1);
+        assertThat(limiter.pending()).isZero();
+        assertThat(limiter.inFlight()).isZero();
+    }
+}
@@ -0,0 +1,82 @@
+package de.spinscale.restclient;
+
+import org.HdrHistogram.Histogram;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class LoadGeneratorTest {
+
+    @Test
+    public void testStallIsMeasuredForEveryOperationDuringIt() throws Exception {
+        final SyntheticCatalog catalog = new SyntheticCatalog(100, 42);
+        final StubProductService service = new StubProductService();
+        service.save(catalog.products());
+        // the first lookup hangs for half a second, the ones due meanwhile wait behind it
+        service.blockGets = new CountDownLatch(1);
+        CompletableFuture.runAsync(service.blockGets::countDown, CompletableFuture.delayedExecutor(500, TimeUnit.MILLISECONDS));
+
+        final Workload workload = Workload.builder()
+                .rate(50)
+                .duration(Duration.ofSeconds(2))
+                .warmup(Duration.ZERO)
+                .maxConcurrency(1)
+                .mix(Workload.Operation.FIND_BY_ID, 1)
+                .build();
+        final LoadReport report = LoadGenerator.builder(service, catalog, workload)
+                .reportInterval(Duration.ofMillis(500))
+                .seed(1)
+                .build()
+                .run();
+
+        assertThat(report.calls()).isEqualTo(100);
+        assertThat(report.unfinished()).isZero();
+        assertThat(report.intervals()).isNotEmpty();
+        final LoadReport.OperationResult result = report.operations().get(Workload.Operation.FIND_BY_ID);
+        // a closed loop would only see the one slow call
+        assertThat(slowerThan100ms(result.serviceTimeMicros())).isEqualTo(1);
+        assertThat(slowerThan100ms(result.latencyMicros())).isGreaterThanOrEqualTo(15);
+        assertThat(result.latencyMicros().getMaxValue()).isGreaterThanOrEqualTo(400_000);
+    }
+
+    private static long slowerThan100ms(Histogram histogram) {
+        return histogram.getTotalCount() - histogram.getCountBetweenValues(0, 100_000);
+    }
+
+    @Test
+    public void testCatalogIsRepeatable() {
+        final SyntheticCatalog catalog = new SyntheticCatalog(1000, 7);
+        final Product product = catalog.product(12);
+        assertThat(product.getId()).isEqualTo("12");
+        assertThat(product.getName()).isEqualTo(new SyntheticCatalog(1000, 7).product(12).getName());
+        assertThat(product.getDescription()).contains("model 12");
+        assertThat(catalog.products()).hasSize(1000).allSatisfy(p -> {
+            assertThat(p.getPrice()).isPositive();
+            assertThat(p.getStockAvailable()).isNotNegative();
+        });
+
+        // hot ids are looked up far more often than cold ones
+        final Random random = new Random(1);
+        int hot = 0;
+        for (int i = 0; i < 10_000; i++) {
+            if (catalog.productId(random) < 100) {
+                hot++;
+            }
+        }
+        assertThat(hot).isGreaterThan(3000);
+    }
+
+    @Test
+    public void testWorkloadDefaults() {
+        final Workload workload = Workload.builder().build();
+        assertThat(workload.mix()).containsOnlyKeys(Workload.Operation.values());
+        assertThatThrownBy(() -> Workload.builder().rate(0).build()).isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,311 @@
+package de.spinscale.restclient;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.aggregations.HistogramBucket;
+import co.elastic.clients.elasticsearch._types.mapping.DynamicMapping;
+import co.elastic.clients.elasticsearch.core.SearchResponse;
+import org.elasticsearch.client.ResponseException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Runs the scenarios of {@link ElasticsearchIntegrationTest} against {@link LocalElasticsearch}, so the stand-in
+ * answers the requests of the services the way a node does
+ */
+public class LocalElasticsearchTest {
+
+    private static final String INDEX = "products";
+
+    private LocalElasticsearch elasticsearch;
+    private ElasticsearchClient client;
+    private ProductService productService;
+
+    @BeforeEach
+    public void startLocalElasticsearch() throws Exception {
+        elasticsearch = LocalElasticsearch.start();
+        client = elasticsearch.client();
+        productService = new ProductServiceImpl(INDEX, client);
+    }
+
+    @AfterEach
+    public void stopLocalElasticsearch() throws Exception {
+        elasticsearch.close();
+    }
+
+    private List<Product> createProducts(int count) {
+        List<Product> products = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Product product = new Product();
+            product.setId(String.valueOf(i));
+            product.setName("Name of " + i + " product");
+            product.setDescription("Description of " + i + " product");
+            product.setPrice(i * 1.2);
+            product.setStockAvailable(i * 10);
+            products.add(product);
+        }
+        return products;
+    }
+
+    @Test
+    public void testSaveAndFind() throws Exception {
+        final Product product = createProducts(1).get(0);
+        product.setId(null);
+        productService.save(product);
+        assertThat(product.getId()).isNotNull();
+        assertThat(productService.findById(product.getId()).getName()).isEqualTo("Name of 0 product");
+
+        productService.save(createProducts(5));
+        assertThat(productService.findById("does-not-exist")).isNull();
+        assertThat(productService.findAll(List.of("3", "does-not-exist", "1"))).extracting(Product::getId).containsExactly("3", "1");
+        assertThat(elasticsearch.documentCount(INDEX)).isEqualTo(6);
+    }
+
+    @Test
+    public void testSearchAndPagination() throws Exception {
+        productService.save(createProducts(21));
+
+        final Page<Product> page = productService.search("9");
+        assertThat(page.get()).extracting(Product::getId).containsExactly("9");
+
+        final Page<Product> firstPage = productService.search("name");
+        assertThat(firstPage.get()).extracting(Product::getId)
+                .containsExactly(IntStream.range(0, 10).mapToObj(String::valueOf).toArray(String[]::new));
+        final Page<Product> secondPage = productService.next(firstPage);
+        assertThat(secondPage.getPitId()).isNotNull();
+        final Page<Product> thirdPage = productService.next(secondPage);
+        assertThat(thirdPage.get()).extracting(Product::getId).containsExactly("20");
+    }
+
+    @Test
+    public void testDeepPaginationWithPointInTime() throws Exception {
+        productService.save(createProducts(45));
+
+        final Page<Product> firstPage = productService.search("name");
+        final Page<Product> secondPage = productService.next(firstPage);
+        // not visible in the point in time opened before
+        productService.save(createProducts(50).subList(45, 50));
+
+        final Set<String> ids = new HashSet<>();
+        firstPage.get().forEach(p -> ids.add(p.getId()));
+        Page<Product> page = secondPage;
+        while (!page.get().isEmpty()) {
+            page.get().forEach(p -> ids.add(p.getId()));
+            page = productService.next(page);
+        }
+        assertThat(ids).hasSize(45).doesNotContain("45", "49");
+
+        // a new point in time is opened transparently
+        productService.close(secondPage);
+        assertThat(productService.next(secondPage).get()).hasSize(10);
+    }
+
+    @Test
+    public void testProjectionAndColumnarSearch() throws Exception {
+        productService.save(createProducts(25));
+
+        final Page<ProductSummary> page = productService.search("name", Projection.SUMMARY);
+        assertThat(page.get()).first().isEqualTo(new ProductSummary("0", "Name of 0 product", 0.0));
+        final Page<Product> withoutDescription = productService.search("9", Projection.FULL.excludes("description"));
+        assertThat(withoutDescription.get()).singleElement().satisfies(product -> assertThat(product.getDescription()).isNull());
+
+        final ColumnarPage columns = productService.searchColumnar("name", 20);
+        assertThat(columns.rows()).isEqualTo(20);
+        assertThat(productService.next(columns).rows()).isEqualTo(5);
+    }
+
+    @Test
+    public void testBatchedRequests() throws Exception {
+        productService.save(createProducts(20));
+        final AsyncProductService batchingService = AsyncProductServiceImpl.builder(INDEX, elasticsearch.asyncClient())
+                .batchFindById(Duration.ofMillis(20), 8)
+                .batchSearch(Duration.ofMillis(20), 8)
+                .build();
+
+        final List<CompletableFuture<Product>> products = IntStream.range(0, 21)
+                .mapToObj(i -> batchingService.findById(String.valueOf(i)))
+                .toList();
+        final CompletableFuture<Page<Product>> seven = batchingService.search("7");
+        final CompletableFuture<Page<Product>> none = batchingService.search("cheese");
+        CompletableFuture.allOf(products.toArray(new CompletableFuture<?>[0])).get();
+
+        assertThat(products.get(19).get().getId()).isEqualTo("19");
+        assertThat(products.get(20).get()).isNull();
+        assertThat(seven.get().get()).extracting(Product::getId).containsExactly("7");
+        assertThat(none.get().get()).isEmpty();
+        assertThat(elasticsearch.requestCount("mget")).isEqualTo(3);
+
+        // the unknown point in time is answered with a 404, paging continues in a new one
+        final Page<Product> first = batchingService.search("name").get();
+        final Page<Product> expired = batchingService.next(
+                new Page<>(first.get(), "name", 0, 10, "does-not-exist", List.of("1.0", "1"))).get();
+        assertThat(expired.get()).hasSize(10);
+        assertThat(expired.getPitId()).isNotEqualTo("does-not-exist");
+        assertThat(elasticsearch.requestCount("open_point_in_time")).isEqualTo(1);
+    }
+
+    @Test
+    public void testSlicedExport() throws Exception {
+        productService.save(createProducts(2500));
+
+        final ExecutorService executor = Executors.newFixedThreadPool(3);
+        try (Stream<Product> products = productService.export(3, executor)) {
+            assertThat(products.map(Product::getId).toList()).hasSize(2500).doesNotHaveDuplicates();
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testPartialUpdates() throws Exception {
+        productService.save(createProducts(3));
+
+        productService.updateStock("1", -5);
+        productService.updatePrice("1", 99.5);
+        assertThat(productService.findById("1").getStockAvailable()).isEqualTo(5);
+        assertThat(productService.findById("1").getPrice()).isEqualTo(99.5);
+        assertThat(productService.findById("1").getDescription()).isEqualTo("Description of 1 product");
+
+        assertThatThrownBy(() -> productService.update(List.of(ProductUpdate.stock("0", 1), ProductUpdate.stock("does-not-exist", 1))))
+                .isInstanceOfSatisfying(BulkIngestException.class, e ->
+                        assertThat(e.getFailures()).extracting(BulkIngestException.Failure::status).containsExactly(404));
+        assertThat(productService.findById("0").getStockAvailable()).isEqualTo(1);
+    }
+
+    @Test
+    public void testStrictMappingRejectsProducts() throws Exception {
+        client.indices().create(b -> b
+                .index(INDEX)
+                .mappings(m -> m
+                        .dynamic(DynamicMapping.Strict)
+                        .properties("id", p -> p.keyword(k -> k))
+                        .properties("name", p -> p.text(t -> t))
+                        .properties("price", p -> p.double_(d -> d))
+                        .properties("stock_available", p -> p.integer(i -> i))
+                )
+        );
+        final List<Product> products = createProducts(4);
+        products.get(0).setDescription(null);
+        products.get(2).setDescription(null);
+
+        assertThatThrownBy(() -> productService.save(products))
+                .isInstanceOfSatisfying(BulkIngestException.class, e -> {
+                    assertThat(e.getFailures()).extracting(f -> f.product().getId()).containsExactly("1", "3");
+                    assertThat(e.getFailures()).extracting(BulkIngestException.Failure::status).containsOnly(400);
+                });
+        assertThat(client.indices().exists(b -> b.index(INDEX)).value()).isTrue();
+    }
+
+    @Test
+    public void testHistogramAggregation() throws Exception {
+        productService.save(createProducts(10));
+
+        final SearchResponse<Void> response = client.search(b -> b
+                .index(INDEX)
+                .size(0)
+                .aggregations("prices", a -> a
+                        .histogram(h -> h.field("price").interval(5.0))
+                        .aggregations("stock", sub -> sub.avg(avg -> avg.field("stock_available")))), Void.class);
+
+        final List<HistogramBucket> buckets = response.aggregations().get("prices").histogram().buckets().array();
+        // prices 0.0 to 10.8
+        assertThat(buckets).extracting(HistogramBucket::key).containsExactly(0.0, 5.0, 10.0);
+        assertThat(buckets).extracting(HistogramBucket::docCount).containsExactly(5L, 4L, 1L);
+        assertThat(buckets.get(2).aggregations().get("stock").avg().value()).isEqualTo(90.0);
+    }
+
+    @Test
+    public void testCompositeAggregation() throws Exception {
+        productService.save(createProducts(10));
+        final ProductAggregation aggregation = ProductAggregation.builder()
+                .priceInterval(5.0)
+                .terms("name.keyword")
+                .pageSize(3)
+                .build();
+
+        try (Stream<ProductBucket> stream = productService.aggregate(aggregation)) {
+            // only the first page is fetched before consuming
+            assertThat(elasticsearch.requestCount("search")).isEqualTo(1);
+            final List<ProductBucket> buckets = stream.toList();
+            // ordered by price bucket, then by name
+            assertThat(buckets).extracting(b -> b.terms().get("name.keyword"))
+                    .containsExactlyElementsOf(IntStream.range(0, 10).mapToObj(i -> "Name of " + i + " product").toList());
+            assertThat(buckets).extracting(ProductBucket::price).containsExactly(0.0, 0.0, 0.0, 0.0, 0.0, 5.0, 5.0, 5.0, 5.0, 10.0);
+            assertThat(buckets).extracting(ProductBucket::docCount).containsOnly(1L);
+            assertThat(buckets.get(7).averageStock()).isEqualTo(70.0);
+            assertThat(buckets.get(9).maxPrice()).isEqualTo(9 * 1.2);
+        }
+        // pages of 3, 3, 3 and 1 buckets
+        assertThat(elasticsearch.requestCount("search")).isEqualTo(4);
+
+        try (Stream<ProductBucket> stream = productService.aggregate(ProductAggregation.builder().priceInterval(5.0).build())) {
+            final List<ProductBucket> buckets = stream.toList();
+            assertThat(buckets).extracting(ProductBucket::docCount).containsExactly(5L, 4L, 1L);
+            assertThat(buckets.get(0).terms()).isEmpty();
+            assertThat(buckets.get(0).totalStock()).isEqualTo(100.0);
+            assertThat(buckets.get(1).minPrice()).isEqualTo(5 * 1.2);
+        }
+
+        assertThatThrownBy(() -> ProductAggregation.builder().build()).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> ProductAggregation.builder().terms("price").build()).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> ProductAggregation.builder().priceInterval(0).build()).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void testBulkIngesterRetriesRejectedItems() throws Exception {
+        try (LocalElasticsearch rejecting = LocalElasticsearch.builder().bulkItemRejectionRate(0.3).seed(42).start()) {
+            final ProductBulkIngester ingester = ProductBulkIngester.builder(rejecting.asyncClient(), INDEX)
+                    .maxOperations(20)
+                    .maxRetries(20)
+                    .initialBackoff(Duration.ofMillis(1))
+                    .build();
+            ProductBulkIngester.ingest(ingester, createProducts(200));
+
+            assertThat(rejecting.documentCount(INDEX)).isEqualTo(200);
+            // the first round alone needs 10 requests
+            assertThat(rejecting.requestCount("bulk")).isGreaterThan(10);
+        }
+    }
+
+    @Test
+    public void testInjectedLatencyAndFailures() throws Exception {
+        try (LocalElasticsearch slow = LocalElasticsearch.builder().latency(Duration.ofMillis(50)).start()) {
+            final ProductService slowService = new ProductServiceImpl(INDEX, slow.client());
+            slowService.save(createProducts(2));
+            final long start = System.nanoTime();
+            assertThat(slowService.findById("1")).isNotNull();
+            assertThat(Duration.ofNanos(System.nanoTime() - start)).isGreaterThanOrEqualTo(Duration.ofMillis(50));
+        }
+
+        try (LocalElasticsearch failing = LocalElasticsearch.builder().failureRate(1.0, 503).start()) {
+            final ProductService failingService = new ProductServiceImpl(INDEX, failing.client());
+            // the rest client fails on the status, before the transport parses the error
+            assertThatThrownBy(() -> failingService.findById("1")).satisfies(e -> assertThat(responseException(e)).isNotNull()
+                    .extracting(r -> r.getResponse().getStatusLine().getStatusCode()).isEqualTo(503));
+            assertThat(failing.requestCount("get")).isEqualTo(1);
+        }
+    }
+
+    private static ResponseException responseException(Throwable throwable) {
+        for (Throwable cause = throwable; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ResponseException responseException) {
+                return responseException;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,53 @@
+package de.spinscale.restclient;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class LruCacheTest {
+
+    private final AtomicLong now = new AtomicLong();
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() {
+        final LruCache<String, String> cache = new LruCache<>(2, Duration.ofMinutes(1), value -> 1, now::get);
+        cache.put("a", "A");
+        cache.put("b", "B");
+        // touch a, so b is the least recently used one
+        assertThat(cache.get("a")).isEqualTo("A");
+        cache.put("c", "C");
+
+        assertThat(cache.get("b")).isNull();
+        assertThat(cache.get("a")).isEqualTo("A");
+        assertThat(cache.get("c")).isEqualTo("C");
+        assertThat(cache.stats()).isEqualTo(new CacheStats(3, 1, 1, 2, 2));
+    }
+
+    @Test
+    public void testWeightBound() {
+        final LruCache<String, String> cache = new LruCache<>(10, Duration.ofMinutes(1), String::length, now::get);
+        cache.put("a", "12345");
+        cache.put("b", "12345");
+        cache.put("c", "123");
+        assertThat(cache.stats().weight()).isEqualTo(8);
+        assertThat(cache.get("a")).isNull();
+
+        // too heavy to ever fit
+        cache.put("d", "12345678901");
+        assertThat(cache.get("d")).isNull();
+    }
+
+    @Test
+    public void testEntriesExpire() {
+        final LruCache<String, String> cache = new LruCache<>(10, Duration.ofSeconds(1), value -> 1, now::get);
+        cache.put("a", "A");
+        now.addAndGet(Duration.ofMillis(999).toNanos());
+        assertThat(cache.get("a")).isEqualTo("A");
+        now.addAndGet(Duration.ofMillis(2).toNanos());
+        assertThat(cache.get("a")).isNull();
+        assertThat(cache.stats().size()).isZero();
+    }
+}
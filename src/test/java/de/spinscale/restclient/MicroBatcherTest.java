@@ -0,0 +1,55 @@
+package de.spinscale.restclient;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MicroBatcherTest {
+
+    private final List<List<String>> batches = new CopyOnWriteArrayList<>();
+
+    private final MicroBatcher<String, String> batcher = new MicroBatcher<>(Duration.ofMillis(500), 3, calls -> {
+        batches.add(calls.stream().map(MicroBatcher.Call::input).toList());
+        for (MicroBatcher.Call<String, String> call : calls) {
+            if (call.input().equals("fail")) {
+                call.future().completeExceptionally(new IllegalArgumentException("fail"));
+            } else {
+                call.future().complete(call.input().toUpperCase());
+            }
+        }
+    });
+
+    @Test
+    public void testFullBatchIsDispatchedImmediately() {
+        final List<CompletableFuture<String>> futures = IntStream.range(0, 3)
+                .mapToObj(i -> batcher.submit("id" + i))
+                .toList();
+
+        // no need to wait for the window
+        assertThat(futures).allMatch(CompletableFuture::isDone);
+        assertThat(batches).containsExactly(List.of("id0", "id1", "id2"));
+    }
+
+    @Test
+    public void testPartialBatchIsDispatchedAfterWindow() throws Exception {
+        final CompletableFuture<String> first = batcher.submit("a");
+        final CompletableFuture<String> failing = batcher.submit("fail");
+        final boolean dispatchedBeforeWindow = first.isDone();
+        assertThat(dispatchedBeforeWindow).isFalse();
+
+        assertThat(first.get()).isEqualTo("A");
+        // every caller fails on its own, completed right after the first one
+        assertThat(failing).failsWithin(Duration.ofSeconds(1));
+        assertThat(batches).containsExactly(List.of("a", "fail"));
+
+        // next call opens a new window
+        assertThat(batcher.submit("b").get()).isEqualTo("B");
+        assertThat(batches).hasSize(2);
+    }
+}
@@ -0,0 +1,39 @@
+package de.spinscale.restclient;
+
+import co.elastic.clients.elasticsearch.core.MsearchRequest;
+import co.elastic.clients.elasticsearch.core.msearch.RequestItem;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MsearchRequestTest {
+
+    @Test
+    public void testSearchesKeepTheirIndexAndPointInTime() {
+        final MsearchRequest request = ProductServiceImpl.createMsearchRequest(List.of(
+                ProductServiceImpl.createSearchRequest("products", "cheese", 0, 10, Projection.SUMMARY),
+                ProductServiceImpl.createPitSearchRequest("pit-1", "bread", 20, 10, List.of("1.5", "42"))));
+
+        assertThat(request.index()).isEmpty();
+        assertThat(request.searches()).hasSize(2);
+
+        final RequestItem search = request.searches().get(0);
+        assertThat(search.header().index()).containsExactly("products");
+        assertThat(search.body().query().multiMatch().query()).isEqualTo("cheese");
+        assertThat(search.body().from()).isEqualTo(0);
+        assertThat(search.body().size()).isEqualTo(10);
+        assertThat(search.body().source().filter().includes()).containsExactly("id", "name", "price");
+        assertThat(search.body().pit()).isNull();
+
+        final RequestItem pitSearch = request.searches().get(1);
+        // a search in a point in time must not name an index
+        assertThat(pitSearch.header().index()).isEmpty();
+        assertThat(pitSearch.body().pit().id()).isEqualTo("pit-1");
+        assertThat(pitSearch.body().searchAfter()).containsExactly("1.5", "42");
+        assertThat(pitSearch.body().from()).isNull();
+        assertThat(pitSearch.body().sort()).hasSize(1);
+        assertThat(pitSearch.body().trackTotalHits().enabled()).isFalse();
+    }
+}
@@ -0,0 +1,65 @@
+package de.spinscale.restclient;
+
+import co.elastic.clients.json.jackson.JacksonJsonpMapper;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.PropertyNamingStrategies;
+import org.apache.http.util.EntityUtils;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class NdjsonBulkBodyTest {
+
+    private final NdjsonBulkBody.Pool pool;
+
+    public NdjsonBulkBodyTest() {
+        final ObjectMapper mapper = new ObjectMapper();
+        mapper.setPropertyNamingStrategy(PropertyNamingStrategies.SNAKE_CASE);
+        mapper.setSerializationInclusion(JsonInclude.Include.NON_NULL);
+        pool = new NdjsonBulkBody.Pool(new JacksonJsonpMapper(mapper));
+    }
+
+    @Test
+    public void testBodyMatchesBulkFormat() throws Exception {
+        final NdjsonBulkBody body = pool.acquire();
+        body.index(product("0", 0));
+        body.index(product("1", 1));
+        body.index(product(null, 2));
+
+        // same lines as in example_log
+        assertThat(EntityUtils.toString(body.toEntity())).isEqualTo("""
+                {"index":{"_id":"0"}}
+                {"id":"0","name":"Name of 0 product","description":"Description of 0 product","price":0.0,"stock_available":0}
+                {"index":{"_id":"1"}}
+                {"id":"1","name":"Name of 1 product","description":"Description of 1 product","price":1.2,"stock_available":10}
+                {"index":{}}
+                {"name":"Name of 2 product","description":"Description of 2 product","price":2.4,"stock_available":20}
+                """);
+        assertThat(body.operations()).isEqualTo(3);
+        assertThat(body.toEntity().getContentType().getValue()).isEqualTo("application/x-ndjson");
+    }
+
+    @Test
+    public void testReleasedBufferIsReusedEmpty() throws Exception {
+        final NdjsonBulkBody first = pool.acquire();
+        final int bytes = first.index(product("0", 0));
+        assertThat(bytes).isEqualTo(first.bytes());
+        first.release();
+
+        final NdjsonBulkBody second = pool.acquire();
+        assertThat(second.bytes()).isZero();
+        second.index(product("1", 1));
+        assertThat(EntityUtils.toString(second.toEntity())).startsWith("{\"index\":{\"_id\":\"1\"}}\n");
+    }
+
+    private Product product(String id, int i) {
+        Product product = new Product();
+        product.setId(id);
+        product.setName("Name of " + i + " product");
+        product.setDescription("Description of " + i + " product");
+        product.setPrice(i * 1.2);
+        product.setStockAvailable(i * 10);
+        return product;
+    }
+}
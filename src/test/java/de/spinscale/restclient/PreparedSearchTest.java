@@ -0,0 +1,106 @@
+package de.spinscale.restclient;
+
+import co.elastic.clients.elasticsearch.core.SearchRequest;
+import co.elastic.clients.elasticsearch.core.SearchResponse;
+import co.elastic.clients.elasticsearch.core.search.Hit;
+import co.elastic.clients.json.JsonpMapper;
+import co.elastic.clients.json.jackson.JacksonJsonpMapper;
+import jakarta.json.stream.JsonGenerator;
+import org.junit.jupiter.api.Test;
+
+import java.io.StringWriter;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class PreparedSearchTest {
+
+    private final JsonpMapper mapper = new JacksonJsonpMapper();
+
+    private String serialize(Object value) {
+        final StringWriter writer = new StringWriter();
+        final JsonGenerator generator = mapper.jsonProvider().createGenerator(writer);
+        mapper.serialize(value, generator);
+        generator.close();
+        return writer.toString();
+    }
+
+    @Test
+    public void testBodyIsTheSameAsTheBuiltRequest() {
+        final PreparedSearch search = PreparedSearch.prepare(mapper, p -> ProductServiceImpl.createSearchRequest("products",
+                p.string("input"), p.integer("from"), p.integer("size"), Projection.SUMMARY));
+        // quotes, backslashes and control characters are escaped
+        final String input = "12\" \\ screen\n\u0001 \u00fcn\u00efcode";
+
+        assertThat(search.bind(Map.of("input", input, "from", 20, "size", 10)).body())
+                .isEqualTo(serialize(ProductServiceImpl.createSearchRequest("products", input, 20, 10, Projection.SUMMARY)));
+    }
+
+    @Test
+    public void testPointInTimeWithSearchAfter() {
+        final PreparedSearch search = PreparedSearch.prepare(mapper, p -> ProductServiceImpl.createPitSearchRequest(
+                p.string("pit_id"), p.string("input"), 0, p.integer("size"), p.strings("search_after"), Projection.FULL));
+
+        assertThat(search.bind(Map.of("pit_id", "pit-1", "input", "bread", "size", 10, "search_after", List.of("1.5", "42"))).body())
+                .isEqualTo(serialize(ProductServiceImpl.createPitSearchRequest("pit-1", "bread", 0, 10, List.of("1.5", "42"))));
+    }
+
+    @Test
+    public void testBoolQueryWithRanges() throws Exception {
+        try (LocalElasticsearch elasticsearch = LocalElasticsearch.start()) {
+            final ProductService productService = new ProductServiceImpl("products", elasticsearch.client());
+            productService.save(List.of(product("1", "Guinness book of records 2020", 100, 1),
+                    product("2", "Guinness book of records 2010", 80, 200),
+                    product("3", "Guinness book of records 1890", 200, 0)));
+
+            // the same input twice, and a number in place of a string
+            final PreparedSearch search = PreparedSearch.prepare(elasticsearch.client()._jsonpMapper(), p -> SearchRequest.of(b -> b
+                    .index("products")
+                    .size(p.integer("size"))
+                    .query(q -> q.bool(bq -> bq
+                            .must(m -> m.multiMatch(mm -> mm.query(p.string("input")).fields("name", "description")))
+                            .should(s -> s.multiMatch(mm -> mm.query(p.string("input")).fields("name")))
+                            .filter(f -> f.range(r -> r.field("stock_available").gt(p.json("min_stock"))))
+                            .filter(f -> f.range(r -> r.field("price").lt(p.json("max_price"))))))));
+
+            final SearchResponse<Product> response = search.search(elasticsearch.client(),
+                    Map.of("input", "book", "size", 10, "min_stock", 0, "max_price", 150.0), Product.class);
+            assertThat(response.hits().hits()).extracting(Hit::id).containsExactlyInAnyOrder("1", "2");
+            assertThat(elasticsearch.requestCount("search")).isEqualTo(1);
+
+            final SearchResponse<Product> cheap = search.search(elasticsearch.asyncClient(),
+                    Map.of("input", "book", "size", 10, "min_stock", 0, "max_price", 90), Product.class).get();
+            assertThat(cheap.hits().hits()).extracting(Hit::id).containsExactly("2");
+        }
+    }
+
+    @Test
+    public void testParametersAreValidated() {
+        assertThatThrownBy(() -> PreparedSearch.prepare(mapper, p -> SearchRequest.of(b -> b
+                .index(p.string("index"))
+                .query(q -> q.matchAll(m -> m)))))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("[index]");
+        assertThatThrownBy(() -> PreparedSearch.prepare(mapper, p -> SearchRequest.of(b -> b
+                .size(p.integer("size"))
+                .query(q -> q.multiMatch(m -> m.query(p.string("size")).fields("name"))))))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("integer and as JSON value");
+
+        final PreparedSearch search = PreparedSearch.prepare(mapper, p -> ProductServiceImpl.createSearchRequest("products",
+                p.string("input"), 0, p.integer("size"), Projection.FULL));
+        assertThatThrownBy(() -> search.bind(Map.of("input", "book"))).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> search.bind(Map.of("input", "book", "size", "10"))).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private static Product product(String id, String name, double price, int stock) {
+        final Product product = new Product();
+        product.setId(id);
+        product.setName(name);
+        product.setPrice(price);
+        product.setStockAvailable(stock);
+        return product;
+    }
+}
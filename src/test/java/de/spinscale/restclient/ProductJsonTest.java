@@ -0,0 +1,89 @@
+package de.spinscale.restclient;
+
+import co.elastic.clients.json.JsonpMapper;
+import co.elastic.clients.json.jackson.JacksonJsonpMapper;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.PropertyNamingStrategies;
+import jakarta.json.spi.JsonProvider;
+import jakarta.json.stream.JsonGenerator;
+import jakarta.json.stream.JsonParser;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ProductJsonTest {
+
+    private static final String JSON = """
+            {
+              "tags": ["cheese", "goat"],
+              "name": "Goat cheese",
+              "vendor": { "name": "Farm", "address": { "city": "Berlin" } },
+              "description": null,
+              "price": 12.5,
+              "rating": 4,
+              "stock_available": 3
+            }
+            """;
+
+    private final ObjectMapper objectMapper = new ObjectMapper()
+            .setPropertyNamingStrategy(PropertyNamingStrategies.SNAKE_CASE)
+            .setSerializationInclusion(JsonInclude.Include.NON_NULL);
+    private final JsonpMapper mapper = new JacksonJsonpMapper(objectMapper);
+
+    @Test
+    public void testReadSkipsUnknownFields() {
+        try (JsonParser parser = mapper.jsonProvider().createParser(new StringReader(JSON))) {
+            assertGoatCheese(mapper.deserialize(parser, Product.class));
+        }
+    }
+
+    @Test
+    public void testReadWithOtherJsonProvider() {
+        try (JsonParser parser = JsonProvider.provider().createParser(new StringReader(JSON))) {
+            assertGoatCheese(Product._DESERIALIZER.deserialize(parser, mapper));
+        }
+    }
+
+    @Test
+    public void testWriteMatchesObjectMapper() throws Exception {
+        final Product product = new Product();
+        product.setId("1");
+        product.setName("Goat cheese");
+        product.setPrice(12.5);
+        product.setStockAvailable(3);
+
+        final String expected = objectMapper.writeValueAsString(product);
+        assertThat(write(product, mapper.jsonProvider())).isEqualTo(expected);
+        assertThat(write(product, JsonProvider.provider())).isEqualTo(expected);
+    }
+
+    @Test
+    public void testReadCamelCase() {
+        try (JsonParser parser = mapper.jsonProvider().createParser(new StringReader("{\"stockAvailable\":7,\"price\":\"1.5\"}"))) {
+            final Product product = mapper.deserialize(parser, Product.class);
+            assertThat(product.getStockAvailable()).isEqualTo(7);
+            assertThat(product.getPrice()).isEqualTo(1.5);
+        }
+    }
+
+    private String write(Product product, JsonProvider provider) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (JsonGenerator generator = provider.createGenerator(out)) {
+            product.serialize(generator, mapper);
+        }
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    private static void assertGoatCheese(Product product) {
+        assertThat(product.getId()).isNull();
+        assertThat(product.getName()).isEqualTo("Goat cheese");
+        assertThat(product.getDescription()).isNull();
+        assertThat(product.getPrice()).isEqualTo(12.5);
+        assertThat(product.getStockAvailable()).isEqualTo(3);
+    }
+}
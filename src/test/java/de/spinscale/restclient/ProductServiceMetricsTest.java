@@ -0,0 +1,83 @@
+package de.spinscale.restclient;
+
+import org.apache.http.HttpVersion;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.message.BasicHttpEntityEnclosingRequest;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.protocol.HttpContext;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static de.spinscale.restclient.StubProductService.product;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class ProductServiceMetricsTest {
+
+    private final ProductServiceMetrics metrics = ProductServiceMetrics.create();
+    private final StubProductService delegate = new StubProductService();
+
+    @Test
+    public void testCallsAreRecordedPerOperation() throws Exception {
+        final ProductService service = new MeteredProductService(delegate, metrics);
+        service.save(product("1", "cheese"));
+        service.findById("1");
+        service.findById("2");
+        assertThatThrownBy(() -> service.search("cheese", Projection.SUMMARY)).isInstanceOf(UnsupportedOperationException.class);
+
+        final Map<String, OperationSnapshot> snapshots = byOperation(metrics.snapshot());
+        assertThat(snapshots).containsOnlyKeys("save", "findById", "search");
+        assertThat(snapshots.get("findById").calls()).isEqualTo(2);
+        assertThat(snapshots.get("findById").failures()).isZero();
+        assertThat(snapshots.get("findById").latencyMicros().getTotalCount()).isEqualTo(2);
+        assertThat(snapshots.get("search").failures()).isEqualTo(1);
+
+        // every export covers the time since the previous one
+        assertThat(metrics.snapshot()).isEmpty();
+        service.findById("1");
+        assertThat(byOperation(metrics.snapshot()).get("findById").calls()).isEqualTo(1);
+    }
+
+    @Test
+    public void testDisabledMetricsRecordNothing() throws Exception {
+        final ProductService service = new MeteredProductService(delegate, ProductServiceMetrics.DISABLED);
+        service.findById("1");
+        assertThat(ProductServiceMetrics.DISABLED.snapshot()).isEmpty();
+        assertThat(ProductServiceMetrics.DISABLED.operation("findById")).isSameAs(OperationMetrics.NOOP);
+    }
+
+    @Test
+    public void testBytesAreRecordedPerEndpoint() {
+        final HttpMetricsInterceptor interceptor = new HttpMetricsInterceptor(metrics);
+        final HttpContext context = new BasicHttpContext();
+        final BasicHttpEntityEnclosingRequest request = new BasicHttpEntityEnclosingRequest("POST", "/products/_search?typed_keys=true");
+        request.setEntity(new ByteArrayEntity(new byte[120]));
+        final BasicHttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+        response.setEntity(new ByteArrayEntity(new byte[2048]));
+
+        interceptor.process(request, context);
+        interceptor.process(response, context);
+
+        final OperationSnapshot snapshot = byOperation(metrics.snapshot()).get("http _search");
+        assertThat(snapshot.requestBytes()).isEqualTo(120);
+        assertThat(snapshot.responseBytes()).isEqualTo(2048);
+    }
+
+    @Test
+    public void testEndpoint() {
+        assertThat(HttpMetricsInterceptor.endpoint("/products/_doc/42")).isEqualTo("_doc");
+        assertThat(HttpMetricsInterceptor.endpoint("/products/_bulk")).isEqualTo("_bulk");
+        assertThat(HttpMetricsInterceptor.endpoint("/_pit?keep_alive=1m")).isEqualTo("_pit");
+        assertThat(HttpMetricsInterceptor.endpoint("/products")).isEqualTo("/");
+        assertThat(HttpMetricsInterceptor.endpoint("/")).isEqualTo("/");
+    }
+
+    private static Map<String, OperationSnapshot> byOperation(List<OperationSnapshot> snapshots) {
+        return snapshots.stream().collect(Collectors.toMap(OperationSnapshot::operation, Function.identity()));
+    }
+}
@@ -0,0 +1,104 @@
+package de.spinscale.restclient;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static de.spinscale.restclient.StubProductService.product;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SearchCachingProductServiceTest {
+
+    private final AtomicLong now = new AtomicLong();
+    private final List<Runnable> refreshes = new ArrayList<>();
+    private final StubProductService delegate = new StubProductService();
+    private final SearchCachingProductService service = new SearchCachingProductService(delegate, 1024 * 1024,
+            Duration.ofSeconds(60), Duration.ofSeconds(10), refreshes::add, now::get);
+
+    @Test
+    public void testSameQueryIsSearchedOnce() throws Exception {
+        delegate.save(List.of(product("1", "Cheese"), product("2", "Goat cheese")));
+
+        assertThat(service.search("cheese").get()).hasSize(2);
+        assertThat(service.search("  Cheese ").get()).hasSize(2);
+        assertThat(delegate.searches).hasValue(1);
+        assertThat(service.stats().hits()).isEqualTo(1);
+    }
+
+    @Test
+    public void testNextPagesAreCached() throws Exception {
+        for (int i = 10; i < 25; i++) {
+            delegate.save(product(String.valueOf(i), "cheese " + i));
+        }
+
+        final Page<Product> first = service.search("cheese");
+        final Page<Product> second = service.next(first);
+        assertThat(second.get()).hasSize(5);
+        assertThat(service.next(service.search("cheese")).get()).extracting(Product::getId).isEqualTo(second.get().stream().map(Product::getId).toList());
+        assertThat(delegate.searches).hasValue(2);
+    }
+
+    @Test
+    public void testDeepPagesAreNotCached() throws Exception {
+        for (int i = 10; i < 55; i++) {
+            delegate.save(product(String.valueOf(i), "cheese " + i));
+        }
+
+        for (int round = 0; round < 2; round++) {
+            Page<Product> page = service.search("cheese");
+            for (int i = 0; i < 4; i++) {
+                page = service.next(page);
+            }
+            assertThat(page.get()).hasSize(5);
+        }
+        // the second round gets the pages at from 0, 10 and 20 from the cache
+        assertThat(delegate.searches).hasValue(5 + 2);
+    }
+
+    @Test
+    public void testStalePageIsServedAndRefreshed() throws Exception {
+        delegate.save(product("1", "cheese"));
+        service.search("cheese");
+        // not written through this service, so the cache does not know about it
+        delegate.products.put("2", product("2", "more cheese"));
+
+        now.addAndGet(Duration.ofSeconds(11).toNanos());
+        assertThat(service.search("cheese").get()).hasSize(1);
+        assertThat(service.search("cheese").get()).hasSize(1);
+        assertThat(refreshes).hasSize(1);
+
+        refreshes.get(0).run();
+        assertThat(service.search("cheese").get()).hasSize(2);
+
+        now.addAndGet(Duration.ofSeconds(61).toNanos());
+        service.search("cheese");
+        assertThat(delegate.searches).hasValue(3);
+    }
+
+    @Test
+    public void testSaveInvalidatesPages() throws Exception {
+        delegate.save(product("1", "cheese"));
+        assertThat(service.search("cheese").get()).hasSize(1);
+
+        service.save(product("2", "more cheese"));
+
+        assertThat(service.search("cheese").get()).hasSize(2);
+        assertThat(delegate.searches).hasValue(2);
+    }
+
+    @Test
+    public void testCachedPagesAreBoundedByMemory() throws Exception {
+        final SearchCachingProductService small = new SearchCachingProductService(delegate, 1024,
+                Duration.ofSeconds(60), Duration.ofSeconds(10), refreshes::add, now::get);
+        for (int i = 10; i < 20; i++) {
+            delegate.save(product(String.valueOf(i), "cheese " + "x".repeat(20)));
+        }
+
+        small.search("cheese");
+        assertThat(SearchCachingProductService.estimateBytes(delegate.search("cheese"))).isGreaterThan(1024);
+        assertThat(small.stats().size()).isZero();
+    }
+}
@@ -0,0 +1,159 @@
+package de.spinscale.restclient;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Keeps products in a map and counts the calls, for testing decorators without elasticsearch
+ */
+class StubProductService implements ProductService {
+
+    final Map<String, Product> products = new ConcurrentHashMap<>();
+    final List<String> requestedIds = new CopyOnWriteArrayList<>();
+    final AtomicInteger gets = new AtomicInteger();
+    final AtomicInteger searches = new AtomicInteger();
+    final AtomicInteger generatedIds = new AtomicInteger();
+    final List<List<Product>> savedBatches = new CopyOnWriteArrayList<>();
+    final List<ProductUpdate> appliedUpdates = new CopyOnWriteArrayList<>();
+    volatile CountDownLatch blockGets;
+    volatile IOException saveFailure;
+
+    static Product product(String id, String name) {
+        final Product product = new Product();
+        product.setId(id);
+        product.setName(name);
+        return product;
+    }
+
+    @Override
+    public Product findById(String id) throws IOException {
+        gets.incrementAndGet();
+        requestedIds.add(id);
+        if (blockGets != null) {
+            try {
+                blockGets.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+        }
+        return CachingProductService.copyOf(products.get(id));
+    }
+
+    @Override
+    public List<Product> findAll(Collection<String> ids) {
+        requestedIds.addAll(ids);
+        return ids.stream().map(products::get).filter(Objects::nonNull).map(CachingProductService::copyOf).toList();
+    }
+
+    /**
+     * Matches products containing the query in their name, ordered by id
+     */
+    @Override
+    public Page<Product> search(String query) {
+        return page(query, 0, 10);
+    }
+
+    @Override
+    public Page<Product> next(Page<Product> page) {
+        return page(page.getInput(), page.getFrom() + page.getSize(), page.getSize());
+    }
+
+    private Page<Product> page(String query, int from, int size) {
+        searches.incrementAndGet();
+        final String needle = query.toLowerCase(Locale.ROOT);
+        final List<Product> matches = products.values().stream()
+                .filter(p -> p.getName() != null && p.getName().toLowerCase(Locale.ROOT).contains(needle))
+                .sorted(Comparator.comparing(Product::getId))
+                .skip(from)
+                .limit(size)
+                .map(CachingProductService::copyOf)
+                .toList();
+        return matches.isEmpty() ? Page.empty() : new Page<>(matches, query, from, size);
+    }
+
+    @Override
+    public <T> Page<T> search(String query, Projection<T> projection) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <T> Page<T> next(Page<T> page, Projection<T> projection) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ColumnarPage searchColumnar(String query, int size) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ColumnarPage next(ColumnarPage page) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void close(Page<?> page) {
+    }
+
+    @Override
+    public Stream<Product> export(int slices, Executor executor) {
+        return products.values().stream().map(CachingProductService::copyOf);
+    }
+
+    @Override
+    public Stream<ProductBucket> aggregate(ProductAggregation aggregation) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void save(Product product) throws IOException {
+        save(List.of(product));
+    }
+
+    @Override
+    public void save(List<Product> products) throws IOException {
+        if (saveFailure != null) {
+            throw saveFailure;
+        }
+        savedBatches.add(List.copyOf(products));
+        products.stream().filter(p -> p.getId() == null).forEach(p -> p.setId("generated-" + generatedIds.incrementAndGet()));
+        products.forEach(p -> this.products.put(p.getId(), CachingProductService.copyOf(p)));
+    }
+
+    @Override
+    public void updateStock(String id, int delta) throws IOException {
+        update(List.of(ProductUpdate.stock(id, delta)));
+    }
+
+    @Override
+    public void updatePrice(String id, double price) throws IOException {
+        update(List.of(ProductUpdate.price(id, price)));
+    }
+
+    /**
+     * Products that do not exist are skipped
+     */
+    @Override
+    public void update(List<ProductUpdate> updates) throws IOException {
+        if (saveFailure != null) {
+            throw saveFailure;
+        }
+        appliedUpdates.addAll(updates);
+        updates.forEach(update -> products.computeIfPresent(update.id(), (id, product) -> {
+            final Product copy = CachingProductService.copyOf(product);
+            update.applyTo(copy);
+            return copy;
+        }));
+    }
+}
@@ -0,0 +1,57 @@
+package de.spinscale.restclient;
+
+import co.elastic.clients.elasticsearch.core.BulkRequest;
+import co.elastic.clients.elasticsearch.core.UpdateRequest;
+import co.elastic.clients.elasticsearch.core.bulk.UpdateOperation;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class UpdateRequestTest {
+
+    @Test
+    public void testStockIsUpdatedByScript() {
+        final UpdateRequest<Product, Map<String, Object>> request = ProductServiceImpl.createUpdateRequest("products",
+                ProductUpdate.stock("1", -2));
+
+        assertThat(request.id()).isEqualTo("1");
+        assertThat(request.retryOnConflict()).isEqualTo(ProductServiceImpl.RETRY_ON_CONFLICT);
+        assertThat(request.doc()).isNull();
+        assertThat(request.script().inline().source()).isEqualTo("ctx._source.stock_available += params.stock_delta");
+        assertThat(request.script().inline().params().get("stock_delta").to(Integer.class)).isEqualTo(-2);
+    }
+
+    @Test
+    public void testPriceIsUpdatedByPartialDocument() {
+        final UpdateRequest<Product, Map<String, Object>> request = ProductServiceImpl.createUpdateRequest("products",
+                ProductUpdate.price("1", 2.5));
+
+        assertThat(request.script()).isNull();
+        assertThat(request.doc()).containsExactly(Map.entry("price", 2.5));
+    }
+
+    @Test
+    public void testBulkSendsUpdateOperations() {
+        final BulkRequest request = ProductServiceImpl.createUpdateBulkRequest("products", List.of(
+                ProductUpdate.stock("1", 3),
+                ProductUpdate.price("2", 1.5),
+                new ProductUpdate("3", -1, 9.99)));
+
+        assertThat(request.index()).isEqualTo("products");
+        assertThat(request.operations()).hasSize(3).allSatisfy(operation -> {
+            assertThat(operation.isUpdate()).isTrue();
+            assertThat(operation.update().retryOnConflict()).isEqualTo(ProductServiceImpl.RETRY_ON_CONFLICT);
+        });
+        final UpdateOperation<?, ?> stock = request.operations().get(0).update();
+        assertThat(stock.id()).isEqualTo("1");
+        assertThat(stock.action().script().inline().params()).containsOnlyKeys("stock_delta");
+        final UpdateOperation<?, ?> price = request.operations().get(1).update();
+        assertThat(price.action().script()).isNull();
+        assertThat(price.action().doc()).isEqualTo(Map.of("price", 1.5));
+        final UpdateOperation<?, ?> both = request.operations().get(2).update();
+        assertThat(both.action().script().inline().params()).containsOnlyKeys("stock_delta", "price");
+    }
+}
@@ -0,0 +1,123 @@
+package de.spinscale.restclient;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static de.spinscale.restclient.StubProductService.product;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class WriteBehindProductServiceTest {
+
+    private final StubProductService delegate = new StubProductService();
+    private final List<BulkIngestException> failures = new CopyOnWriteArrayList<>();
+    private final WriteBehindProductService service = WriteBehindProductService.builder(delegate)
+            .flushInterval(Duration.ofMinutes(1))
+            .maxPending(10)
+            .onFailure(failures::add)
+            .build();
+
+    @AfterEach
+    public void closeService() throws IOException {
+        delegate.saveFailure = null;
+        service.close();
+    }
+
+    @Test
+    public void testRepeatedSavesAreCoalesced() throws Exception {
+        for (int stock = 0; stock < 5; stock++) {
+            final Product product = product("1", "cheese");
+            product.setStockAvailable(stock);
+            service.save(product);
+        }
+        service.save(product("2", "wine"));
+        assertThat(delegate.savedBatches).isEmpty();
+
+        service.flush();
+
+        assertThat(delegate.savedBatches).hasSize(1);
+        assertThat(delegate.savedBatches.get(0)).extracting(Product::getId).containsExactly("1", "2");
+        assertThat(delegate.products.get("1").getStockAvailable()).isEqualTo(4);
+        assertThat(service.coalescedWrites()).isEqualTo(4);
+    }
+
+    @Test
+    public void testChangesAfterSavingAreNotBuffered() throws Exception {
+        final Product product = product("1", "cheese");
+        service.save(product);
+        product.setName("changed");
+
+        service.flush();
+
+        assertThat(delegate.products.get("1").getName()).isEqualTo("cheese");
+    }
+
+    @Test
+    public void testFullBufferIsFlushed() throws Exception {
+        for (int i = 0; i < 25; i++) {
+            service.save(product(String.valueOf(i), "cheese"));
+        }
+        // the first batches are written in the background, long before the flush interval
+        final long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+        while (delegate.products.size() < 20 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(delegate.products).hasSizeGreaterThanOrEqualTo(20);
+
+        service.flush();
+        assertThat(delegate.products).hasSize(25);
+        assertThat(delegate.savedBatches).allSatisfy(batch -> assertThat(batch).hasSizeLessThanOrEqualTo(10));
+    }
+
+    @Test
+    public void testUpdatesOfBufferedProductsAreApplied() throws Exception {
+        final Product product = product("1", "cheese");
+        product.setStockAvailable(10);
+        service.save(product);
+        delegate.products.put("2", product("2", "wine"));
+
+        service.updateStock("1", -3);
+        service.update(List.of(ProductUpdate.price("1", 4.5), ProductUpdate.stock("2", 7)));
+
+        // only the product which is not buffered is updated right away
+        assertThat(delegate.appliedUpdates).extracting(ProductUpdate::id).containsExactly("2");
+        service.flush();
+        assertThat(delegate.products.get("1").getStockAvailable()).isEqualTo(7);
+        assertThat(delegate.products.get("1").getPrice()).isEqualTo(4.5);
+        assertThat(delegate.products.get("2").getStockAvailable()).isEqualTo(7);
+    }
+
+    @Test
+    public void testProductsWithoutIdAreSavedRightAway() throws Exception {
+        final Product product = product(null, "cheese");
+        service.save(product);
+
+        assertThat(delegate.savedBatches).hasSize(1);
+        assertThat(product.getId()).isNotNull();
+    }
+
+    @Test
+    public void testFailedFlushIsReported() throws Exception {
+        service.save(product("1", "cheese"));
+        delegate.saveFailure = new IOException("cluster unavailable");
+
+        assertThatThrownBy(service::flush).isInstanceOf(BulkIngestException.class).hasCauseInstanceOf(IOException.class);
+        assertThat(failures).hasSize(1);
+        assertThat(failures.get(0).getFailures()).extracting(failure -> failure.product().getId()).containsExactly("1");
+    }
+
+    @Test
+    public void testCloseWritesBufferedProducts() throws Exception {
+        service.save(product("1", "cheese"));
+
+        service.close();
+
+        assertThat(delegate.products).containsKey("1");
+        assertThatThrownBy(() -> service.save(product("2", "wine"))).isInstanceOf(IllegalStateException.class);
+    }
+}
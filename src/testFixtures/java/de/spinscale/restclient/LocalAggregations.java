@@ -0,0 +1,305 @@
+package de.spinscale.restclient;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * The aggregations {@link LocalElasticsearch} understands: histogram, terms and composite buckets, with avg, min,
+ * max, sum and value_count metrics, nested as deep as needed
+ */
+final class LocalAggregations {
+
+    private static final JsonNodeFactory JSON = JsonNodeFactory.instance;
+
+    private LocalAggregations() {
+    }
+
+    /**
+     * @param typedKeys prefix the names with the type, as the java client asks for
+     */
+    static ObjectNode aggregate(JsonNode aggregations, List<LocalIndex.Doc> docs, boolean typedKeys) {
+        final ObjectNode result = JSON.objectNode();
+        final Iterator<Map.Entry<String, JsonNode>> entries = aggregations.fields();
+        while (entries.hasNext()) {
+            final Map.Entry<String, JsonNode> entry = entries.next();
+            final JsonNode definition = entry.getValue();
+            final JsonNode subAggregations = definition.has("aggregations") ? definition.get("aggregations") : definition.get("aggs");
+            String type = null;
+            ObjectNode value = null;
+            final Iterator<String> fields = definition.fieldNames();
+            while (fields.hasNext() && value == null) {
+                final String candidate = fields.next();
+                final JsonNode body = definition.get(candidate);
+                switch (candidate) {
+                    case "aggregations", "aggs", "meta" -> {
+                    }
+                    case "histogram" -> {
+                        type = "histogram";
+                        value = histogram(body, docs, subAggregations, typedKeys);
+                    }
+                    case "terms" -> {
+                        final Terms terms = terms(body, docs, subAggregations, typedKeys);
+                        type = terms.type;
+                        value = terms.result;
+                    }
+                    case "composite" -> {
+                        type = "composite";
+                        value = composite(body, docs, subAggregations, typedKeys);
+                    }
+                    case "avg", "min", "max", "sum" -> {
+                        type = candidate;
+                        value = metric(candidate, values(docs, body.path("field").asText()));
+                    }
+                    case "value_count" -> {
+                        type = candidate;
+                        final String field = body.path("field").asText();
+                        value = JSON.objectNode().put("value", docs.stream().mapToLong(doc -> doc.values(field).size()).sum());
+                    }
+                    default -> throw new LocalElasticsearch.RequestFailure(400, "parsing_exception",
+                            "unknown aggregation type [" + candidate + "], not supported by the local stand-in");
+                }
+            }
+            if (value == null) {
+                throw new LocalElasticsearch.RequestFailure(400, "parsing_exception", "missing definition of aggregation [" + entry.getKey() + "]");
+            }
+            result.set(typedKeys ? type + "#" + entry.getKey() : entry.getKey(), value);
+        }
+        return result;
+    }
+
+    private static ObjectNode histogram(JsonNode body, List<LocalIndex.Doc> docs, JsonNode subAggregations, boolean typedKeys) {
+        final String field = body.path("field").asText();
+        final double interval = body.path("interval").asDouble();
+        final double offset = body.path("offset").asDouble(0);
+        final long minDocCount = body.path("min_doc_count").asLong(0);
+        if (interval <= 0) {
+            throw new LocalElasticsearch.RequestFailure(400, "illegal_argument_exception", "[interval] must be >0 for histogram aggregation [" + field + "]");
+        }
+        // keyed by the number of the bucket, so that keys computed for values and for empty buckets are the same
+        final TreeMap<Long, List<LocalIndex.Doc>> buckets = new TreeMap<>();
+        for (LocalIndex.Doc doc : docs) {
+            for (JsonNode value : doc.values(field)) {
+                final Double number = LocalQuery.toDouble(value);
+                if (number != null) {
+                    buckets.computeIfAbsent((long) Math.floor((number - offset) / interval), k -> new ArrayList<>()).add(doc);
+                }
+            }
+        }
+        if (minDocCount == 0 && !buckets.isEmpty()) {
+            // empty buckets between the first and the last one are returned as well
+            for (long i = buckets.firstKey(); i < buckets.lastKey(); i++) {
+                buckets.putIfAbsent(i, new ArrayList<>());
+            }
+        }
+        final ObjectNode result = JSON.objectNode();
+        final ArrayNode bucketArray = result.putArray("buckets");
+        for (Map.Entry<Long, List<LocalIndex.Doc>> bucket : buckets.entrySet()) {
+            if (bucket.getValue().size() < minDocCount) {
+                continue;
+            }
+            final ObjectNode bucketNode = bucketArray.addObject();
+            bucketNode.put("key", bucket.getKey() * interval + offset);
+            bucketNode.put("doc_count", bucket.getValue().size());
+            if (subAggregations != null) {
+                bucketNode.setAll(aggregate(subAggregations, bucket.getValue(), typedKeys));
+            }
+        }
+        return result;
+    }
+
+    private record Terms(String type, ObjectNode result) {
+    }
+
+    private static Terms terms(JsonNode body, List<LocalIndex.Doc> docs, JsonNode subAggregations, boolean typedKeys) {
+        final String field = body.path("field").asText().replaceFirst("\\.keyword$", "");
+        final int size = body.path("size").asInt(10);
+        final Map<String, List<LocalIndex.Doc>> buckets = new LinkedHashMap<>();
+        final Map<String, JsonNode> keys = new LinkedHashMap<>();
+        for (LocalIndex.Doc doc : docs) {
+            for (JsonNode value : doc.values(field)) {
+                keys.putIfAbsent(value.asText(), value);
+                buckets.computeIfAbsent(value.asText(), k -> new ArrayList<>()).add(doc);
+            }
+        }
+        final List<Map.Entry<String, List<LocalIndex.Doc>>> sorted = new ArrayList<>(buckets.entrySet());
+        // most documents first, then by key
+        sorted.sort((a, b) -> a.getValue().size() != b.getValue().size()
+                ? Integer.compare(b.getValue().size(), a.getValue().size())
+                : a.getKey().compareTo(b.getKey()));
+
+        String type = "sterms";
+        final ObjectNode result = JSON.objectNode();
+        result.put("doc_count_error_upper_bound", 0);
+        long other = 0;
+        final ArrayNode bucketArray = result.putArray("buckets");
+        for (int i = 0; i < sorted.size(); i++) {
+            final Map.Entry<String, List<LocalIndex.Doc>> bucket = sorted.get(i);
+            if (i >= size) {
+                other += bucket.getValue().size();
+                continue;
+            }
+            final JsonNode key = keys.get(bucket.getKey());
+            final ObjectNode bucketNode = bucketArray.addObject();
+            if (key.isIntegralNumber()) {
+                type = "lterms";
+                bucketNode.put("key", key.asLong());
+            } else if (key.isNumber()) {
+                type = "dterms";
+                bucketNode.put("key", key.asDouble());
+            } else {
+                bucketNode.put("key", key.asText());
+            }
+            bucketNode.put("doc_count", bucket.getValue().size());
+            if (subAggregations != null) {
+                bucketNode.setAll(aggregate(subAggregations, bucket.getValue(), typedKeys));
+            }
+        }
+        result.put("sum_other_doc_count", other);
+        return new Terms(type, result);
+    }
+
+    /**
+     * Histogram and terms sources only, buckets are ordered ascending by their key, as elasticsearch does by default
+     */
+    private static ObjectNode composite(JsonNode body, List<LocalIndex.Doc> docs, JsonNode subAggregations, boolean typedKeys) {
+        final int size = body.path("size").asInt(10);
+        final List<String> names = new ArrayList<>();
+        final List<JsonNode> sources = new ArrayList<>();
+        for (JsonNode source : body.path("sources")) {
+            final Map.Entry<String, JsonNode> entry = source.fields().next();
+            names.add(entry.getKey());
+            sources.add(entry.getValue());
+        }
+        final TreeMap<List<JsonNode>, List<LocalIndex.Doc>> buckets = new TreeMap<>(LocalAggregations::compareKeys);
+        for (LocalIndex.Doc doc : docs) {
+            // every combination of the values of the sources, documents missing a source are not in any bucket
+            List<List<JsonNode>> keys = List.of(List.of());
+            for (JsonNode source : sources) {
+                final List<List<JsonNode>> combined = new ArrayList<>();
+                for (List<JsonNode> key : keys) {
+                    for (JsonNode value : sourceValues(source, doc)) {
+                        final List<JsonNode> extended = new ArrayList<>(key);
+                        extended.add(value);
+                        combined.add(extended);
+                    }
+                }
+                keys = combined;
+            }
+            for (List<JsonNode> key : keys) {
+                buckets.computeIfAbsent(key, k -> new ArrayList<>()).add(doc);
+            }
+        }
+
+        SortedMap<List<JsonNode>, List<LocalIndex.Doc>> page = buckets;
+        final JsonNode after = body.get("after");
+        if (after != null) {
+            final List<JsonNode> afterKey = new ArrayList<>();
+            for (int i = 0; i < names.size(); i++) {
+                final JsonNode value = after.path(names.get(i));
+                afterKey.add(sources.get(i).has("histogram") ? JSON.numberNode(LocalQuery.toDouble(value)) : value);
+            }
+            page = buckets.tailMap(afterKey, false);
+        }
+
+        final ObjectNode result = JSON.objectNode();
+        final ArrayNode bucketArray = result.putArray("buckets");
+        ObjectNode lastKey = null;
+        for (Map.Entry<List<JsonNode>, List<LocalIndex.Doc>> bucket : page.entrySet()) {
+            if (bucketArray.size() == size) {
+                break;
+            }
+            final ObjectNode key = JSON.objectNode();
+            for (int i = 0; i < names.size(); i++) {
+                key.set(names.get(i), bucket.getKey().get(i));
+            }
+            final ObjectNode bucketNode = bucketArray.addObject();
+            bucketNode.set("key", key);
+            bucketNode.put("doc_count", bucket.getValue().size());
+            if (subAggregations != null) {
+                bucketNode.setAll(aggregate(subAggregations, bucket.getValue(), typedKeys));
+            }
+            lastKey = key;
+        }
+        if (lastKey != null) {
+            result.set("after_key", lastKey);
+        }
+        return result;
+    }
+
+    private static List<JsonNode> sourceValues(JsonNode source, LocalIndex.Doc doc) {
+        final Map<String, JsonNode> values = new LinkedHashMap<>();
+        if (source.has("histogram")) {
+            final JsonNode histogram = source.get("histogram");
+            final double interval = histogram.path("interval").asDouble();
+            for (JsonNode value : doc.values(histogram.path("field").asText())) {
+                final Double number = LocalQuery.toDouble(value);
+                if (number != null) {
+                    final double key = Math.floor(number / interval) * interval;
+                    values.putIfAbsent(Double.toString(key), JSON.numberNode(key));
+                }
+            }
+        } else if (source.has("terms")) {
+            for (JsonNode value : doc.values(source.get("terms").path("field").asText().replaceFirst("\\.keyword$", ""))) {
+                values.putIfAbsent(value.asText(), value);
+            }
+        } else {
+            throw new LocalElasticsearch.RequestFailure(400, "parsing_exception",
+                    "unknown composite source " + source + ", not supported by the local stand-in");
+        }
+        return new ArrayList<>(values.values());
+    }
+
+    private static int compareKeys(List<JsonNode> a, List<JsonNode> b) {
+        for (int i = 0; i < a.size(); i++) {
+            final JsonNode x = a.get(i);
+            final JsonNode y = b.get(i);
+            final int comparison = x.isNumber() && y.isNumber() ? Double.compare(x.asDouble(), y.asDouble()) : x.asText().compareTo(y.asText());
+            if (comparison != 0) {
+                return comparison;
+            }
+        }
+        return 0;
+    }
+
+    private static ObjectNode metric(String type, List<Double> values) {
+        final ObjectNode result = JSON.objectNode();
+        if (values.isEmpty()) {
+            if (type.equals("sum")) {
+                result.put("value", 0.0);
+            } else {
+                result.putNull("value");
+            }
+            return result;
+        }
+        final double value = switch (type) {
+            case "avg" -> values.stream().mapToDouble(Double::doubleValue).average().orElseThrow();
+            case "min" -> values.stream().mapToDouble(Double::doubleValue).min().orElseThrow();
+            case "max" -> values.stream().mapToDouble(Double::doubleValue).max().orElseThrow();
+            default -> values.stream().mapToDouble(Double::doubleValue).sum();
+        };
+        return result.put("value", value);
+    }
+
+    private static List<Double> values(List<LocalIndex.Doc> docs, String field) {
+        final List<Double> values = new ArrayList<>();
+        for (LocalIndex.Doc doc : docs) {
+            for (JsonNode value : doc.values(field)) {
+                final Double number = LocalQuery.toDouble(value);
+                if (number != null) {
+                    values.add(number);
+                }
+            }
+        }
+        return values;
+    }
+}
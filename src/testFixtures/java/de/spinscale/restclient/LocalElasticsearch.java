@@ -0,0 +1,786 @@
+package de.spinscale.restclient;
+
+import co.elastic.clients.elasticsearch.ElasticsearchAsyncClient;
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.json.jackson.JacksonJsonpMapper;
+import co.elastic.clients.transport.rest_client.RestClientTransport;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.PropertyNamingStrategies;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.http.HttpHost;
+import org.elasticsearch.client.RestClient;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * An in-process stand-in for a single elasticsearch node, speaking enough of the REST API for everything
+ * {@link ProductServiceImpl}, {@link AsyncProductServiceImpl} and the tests send:
+ *
+ * <ul>
+ *     <li>{@code _doc}, {@code _create}, {@code _update}, {@code _bulk} and {@code _mget}</li>
+ *     <li>{@code _search}, {@code _msearch} and {@code _count} with match_all, match, multi_match, term, terms, ids, range,
+ *     exists and bool queries, sorting, search_after, slices and source filtering</li>
+ *     <li>histogram, terms, avg, min, max, sum and value_count aggregations</li>
+ *     <li>points in time, creating (with a strict mapping) and deleting indices, refresh and cluster health</li>
+ * </ul>
+ *
+ * Searches see every write right away, refreshing is a no-op. Scores are computed with BM25 on the analyzed text,
+ * close enough to elasticsearch for hits to come back in the same order in the tests.
+ *
+ * Latency and failures can be injected, to test backpressure and retries, or to measure client side throughput
+ * without a cluster:
+ *
+ * <pre>{@code
+ * try (LocalElasticsearch elasticsearch = LocalElasticsearch.builder()
+ *         .latency(Duration.ofMillis(5), Duration.ofMillis(20))
+ *         .bulkItemRejectionRate(0.1)
+ *         .start()) {
+ *     ProductService service = new ProductServiceImpl("products", elasticsearch.client());
+ * }
+ * }</pre>
+ */
+public final class LocalElasticsearch implements Closeable {
+
+    private static final JsonNodeFactory JSON = JsonNodeFactory.instance;
+    private static final ObjectMapper READER = new ObjectMapper().enable(JsonParser.Feature.ALLOW_COMMENTS);
+    private static final Pattern TIME_VALUE = Pattern.compile("(\\d+)(nanos|micros|ms|s|m|h|d)");
+
+    private final Map<String, LocalIndex> indices = new ConcurrentHashMap<>();
+    private final Map<String, PointInTime> pointsInTime = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> requestCounts = new ConcurrentHashMap<>();
+    private final Duration latency;
+    private final Duration latencyJitter;
+    private final double failureRate;
+    private final int failureStatus;
+    private final double bulkItemRejectionRate;
+    private final Random random;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final ScheduledExecutorService delayer;
+    private final RestClient restClient;
+    private final ElasticsearchClient client;
+
+    private LocalElasticsearch(Builder builder) throws IOException {
+        this.latency = builder.latency;
+        this.latencyJitter = builder.latencyJitter;
+        this.failureRate = builder.failureRate;
+        this.failureStatus = builder.failureStatus;
+        this.bulkItemRejectionRate = builder.bulkItemRejectionRate;
+        this.random = builder.seed == null ? new Random() : new Random(builder.seed);
+
+        // otherwise small responses wait for delayed acks, adding 40ms to every request
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        this.executor = Executors.newFixedThreadPool(builder.threads, r -> {
+            Thread thread = new Thread(r, "local-elasticsearch");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.delayer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "local-elasticsearch-latency");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+        server.start();
+
+        final ObjectMapper mapper = new ObjectMapper();
+        mapper.setPropertyNamingStrategy(PropertyNamingStrategies.SNAKE_CASE);
+        mapper.setSerializationInclusion(JsonInclude.Include.NON_NULL);
+        this.restClient = RestClient.builder(host()).build();
+        this.client = new ElasticsearchClient(new RestClientTransport(restClient, new JacksonJsonpMapper(mapper)));
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @return a stand-in without latency and failures
+     */
+    public static LocalElasticsearch start() throws IOException {
+        return builder().start();
+    }
+
+    public HttpHost host() {
+        return new HttpHost(server.getAddress().getHostString(), server.getAddress().getPort(), "http");
+    }
+
+    /**
+     * @return a client of this stand-in, with a mapper configured like the one of the tests. Closed with the stand-in.
+     */
+    public ElasticsearchClient client() {
+        return client;
+    }
+
+    public ElasticsearchAsyncClient asyncClient() {
+        return new ElasticsearchAsyncClient(client._transport());
+    }
+
+    public RestClient restClient() {
+        return restClient;
+    }
+
+    /**
+     * @param endpoint e.g. {@code bulk}, {@code search}, {@code msearch}, {@code mget}, {@code get} or {@code update}
+     * @return number of requests received by the endpoint, including failed ones
+     */
+    public long requestCount(String endpoint) {
+        final LongAdder count = requestCounts.get(endpoint);
+        return count == null ? 0 : count.sum();
+    }
+
+    /**
+     * @return number of documents in the index, 0 if it does not exist
+     */
+    public int documentCount(String index) {
+        final LocalIndex localIndex = indices.get(index);
+        return localIndex == null ? 0 : localIndex.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            restClient.close();
+        } finally {
+            server.stop(0);
+            delayer.shutdownNow();
+            executor.shutdownNow();
+        }
+    }
+
+    private void handle(HttpExchange exchange) {
+        Response response;
+        try {
+            final Request request = Request.read(exchange);
+            if (failureRate > 0 && random.nextDouble() < failureRate) {
+                count(request.endpoint());
+                response = error(new RequestFailure(failureStatus, failureStatus == 429 ? "es_rejected_execution_exception" : "unavailable",
+                        "failure injected by the local stand-in"));
+            } else {
+                response = route(request);
+            }
+        } catch (RequestFailure e) {
+            response = error(e);
+        } catch (IOException | RuntimeException e) {
+            response = error(new RequestFailure(400, "parse_exception", String.valueOf(e.getMessage())));
+        }
+        final long delayNanos = delayNanos();
+        final Response finalResponse = response;
+        if (delayNanos > 0) {
+            delayer.schedule(() -> executor.execute(() -> send(exchange, finalResponse)), delayNanos, TimeUnit.NANOSECONDS);
+        } else {
+            send(exchange, finalResponse);
+        }
+    }
+
+    private long delayNanos() {
+        final long jitter = latencyJitter.toNanos();
+        return latency.toNanos() + (jitter > 0 ? (long) (random.nextDouble() * jitter) : 0);
+    }
+
+    private static void send(HttpExchange exchange, Response response) {
+        try (exchange) {
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            // checked by the client, it refuses to talk to anything else
+            exchange.getResponseHeaders().add("X-Elastic-Product", "Elasticsearch");
+            if (exchange.getRequestMethod().equals("HEAD") || response.body == null) {
+                exchange.sendResponseHeaders(response.status, -1);
+                return;
+            }
+            final byte[] body = READER.writeValueAsBytes(response.body);
+            exchange.sendResponseHeaders(response.status, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } catch (IOException e) {
+            // the client went away
+        }
+    }
+
+    private Response route(Request request) throws IOException {
+        final List<String> path = request.path;
+        final String method = request.method;
+        count(request.endpoint());
+        if (path.isEmpty()) {
+            return ok(info());
+        }
+        final String first = path.get(0);
+        if (path.size() == 1) {
+            return switch (first) {
+                case "_bulk" -> ok(bulk(null, request));
+                case "_search" -> ok(search(null, request.json(), request.typedKeys()));
+                case "_msearch" -> ok(msearch(null, request));
+                case "_mget" -> ok(mget(null, request.json()));
+                case "_count" -> ok(count(null, request.json()));
+                case "_refresh" -> ok(JSON.objectNode().set("_shards", shards(indices.size())));
+                case "_pit" -> ok(closePointInTime(request.json()));
+                default -> switch (method) {
+                    case "PUT" -> ok(createIndex(first, request.json()));
+                    case "DELETE" -> ok(deleteIndex(first));
+                    case "HEAD" -> new Response(indices.containsKey(first) ? 200 : 404, null);
+                    default -> throw unknownEndpoint(request);
+                };
+            };
+        }
+        if (first.equals("_cluster") && path.get(1).equals("health")) {
+            return ok(health());
+        }
+        final String index = first;
+        final String action = path.get(1);
+        final String id = path.size() > 2 ? path.get(2) : null;
+        return switch (action) {
+            case "_bulk" -> ok(bulk(index, request));
+            case "_search" -> ok(search(index, request.json(), request.typedKeys()));
+            case "_msearch" -> ok(msearch(index, request));
+            case "_mget" -> ok(mget(index, request.json()));
+            case "_count" -> ok(count(index, request.json()));
+            case "_refresh" -> ok(JSON.objectNode().set("_shards", shards(1)));
+            case "_pit" -> ok(openPointInTime(index, request.params.get("keep_alive")));
+            case "_doc", "_create" -> document(index, id, action.equals("_create") || "create".equals(request.params.get("op_type")), request);
+            case "_update" -> {
+                final LocalIndex.WriteResult result = indexOrCreate(index).update(id, request.json());
+                yield new Response(result.status(), writeResponse(index, result));
+            }
+            default -> throw unknownEndpoint(request);
+        };
+    }
+
+    private Response document(String index, String id, boolean create, Request request) throws IOException {
+        switch (request.method) {
+            case "GET", "HEAD" -> {
+                final LocalIndex localIndex = existingIndex(index);
+                final LocalIndex.Doc doc = localIndex.get(id);
+                return new Response(doc == null ? 404 : 200, getResult(index, id, doc));
+            }
+            case "DELETE" -> {
+                final LocalIndex.WriteResult result = existingIndex(index).delete(id);
+                return new Response(result.status(), writeResponse(index, result));
+            }
+            default -> {
+                final LocalIndex.WriteResult result = indexOrCreate(index).index(id, (ObjectNode) request.json(), create);
+                return new Response(result.status(), writeResponse(index, result));
+            }
+        }
+    }
+
+    private ObjectNode bulk(String defaultIndex, Request request) throws IOException {
+        final long start = System.nanoTime();
+        final List<JsonNode> lines = request.ndjson();
+        final ArrayNode items = JSON.arrayNode();
+        boolean errors = false;
+        for (int i = 0; i < lines.size(); i++) {
+            final JsonNode line = lines.get(i);
+            final String operation = line.fieldNames().next();
+            final JsonNode metadata = line.get(operation);
+            final String index = metadata.path("_index").asText(defaultIndex);
+            final String id = metadata.hasNonNull("_id") ? metadata.get("_id").asText() : null;
+            final JsonNode body = operation.equals("delete") ? null : lines.get(++i);
+            ObjectNode item;
+            try {
+                if (bulkItemRejectionRate > 0 && random.nextDouble() < bulkItemRejectionRate) {
+                    throw new RequestFailure(429, "es_rejected_execution_exception", "rejection injected by the local stand-in");
+                }
+                final LocalIndex.WriteResult result = switch (operation) {
+                    case "index" -> indexOrCreate(index).index(id, (ObjectNode) body, false);
+                    case "create" -> indexOrCreate(index).index(id, (ObjectNode) body, true);
+                    case "update" -> indexOrCreate(index).update(id, body);
+                    case "delete" -> indexOrCreate(index).delete(id);
+                    default -> throw new RequestFailure(400, "illegal_argument_exception", "Malformed action/metadata line [" + (i + 1) + "]");
+                };
+                item = writeResponse(index, result);
+                item.put("status", result.status());
+            } catch (RequestFailure e) {
+                errors = true;
+                item = JSON.objectNode().put("_index", index).put("_id", id).put("status", e.status);
+                item.putObject("error").put("type", e.type).put("reason", e.getMessage());
+            }
+            items.addObject().set(operation, item);
+        }
+        final ObjectNode response = JSON.objectNode();
+        response.put("took", (System.nanoTime() - start) / 1_000_000);
+        response.put("errors", errors);
+        response.set("items", items);
+        return response;
+    }
+
+    private ObjectNode search(String index, JsonNode body, boolean typedKeys) {
+        final JsonNode pit = body.get("pit");
+        if (pit != null) {
+            final PointInTime pointInTime = pointInTime(pit.path("id").asText(), pit.path("keep_alive").asText(null));
+            final ObjectNode response = LocalIndex.search(pointInTime.index, pointInTime.docs, body, true, typedKeys);
+            response.put("pit_id", pit.path("id").asText());
+            return response;
+        }
+        if (index == null) {
+            throw new RequestFailure(400, "action_request_validation_exception", "Validation Failed: 1: index or point in time is missing;");
+        }
+        return LocalIndex.search(index, existingIndex(index).snapshot(), body, false, typedKeys);
+    }
+
+    private ObjectNode msearch(String defaultIndex, Request request) throws IOException {
+        final long start = System.nanoTime();
+        final List<JsonNode> lines = request.ndjson();
+        final ArrayNode responses = JSON.arrayNode();
+        for (int i = 0; i + 1 < lines.size(); i += 2) {
+            final JsonNode header = lines.get(i);
+            final JsonNode indexNode = header.get("index");
+            final String index = indexNode == null ? defaultIndex : indexNode.isArray() ? indexNode.get(0).asText() : indexNode.asText();
+            try {
+                final ObjectNode response = search(index, lines.get(i + 1), request.typedKeys());
+                response.put("status", 200);
+                responses.add(response);
+            } catch (RequestFailure e) {
+                final ObjectNode response = error(e).body;
+                responses.add(response);
+            }
+        }
+        final ObjectNode response = JSON.objectNode();
+        response.put("took", (System.nanoTime() - start) / 1_000_000);
+        response.set("responses", responses);
+        return response;
+    }
+
+    private ObjectNode mget(String defaultIndex, JsonNode body) {
+        final ArrayNode docs = JSON.arrayNode();
+        final List<String[]> requested = new ArrayList<>();
+        body.path("ids").forEach(id -> requested.add(new String[] { defaultIndex, id.asText() }));
+        body.path("docs").forEach(doc -> requested.add(new String[] { doc.path("_index").asText(defaultIndex), doc.path("_id").asText() }));
+        for (String[] doc : requested) {
+            final LocalIndex localIndex = indices.get(doc[0]);
+            if (localIndex == null) {
+                final ObjectNode failure = JSON.objectNode().put("_index", doc[0]).put("_id", doc[1]);
+                failure.putObject("error").put("type", "index_not_found_exception").put("reason", "no such index [" + doc[0] + "]");
+                docs.add(failure);
+            } else {
+                docs.add(getResult(doc[0], doc[1], localIndex.get(doc[1])));
+            }
+        }
+        return JSON.objectNode().set("docs", docs);
+    }
+
+    private ObjectNode count(String index, JsonNode body) {
+        final List<LocalIndex.Doc> docs = index == null
+                ? indices.values().stream().flatMap(localIndex -> localIndex.snapshot().stream()).toList()
+                : existingIndex(index).snapshot();
+        final ObjectNode response = JSON.objectNode();
+        response.put("count", LocalIndex.count(docs, body.get("query")));
+        response.set("_shards", shards(1));
+        return response;
+    }
+
+    private ObjectNode openPointInTime(String index, String keepAlive) {
+        if (keepAlive == null) {
+            throw new RequestFailure(400, "action_request_validation_exception", "Validation Failed: 1: [keep_alive] is not specified;");
+        }
+        final LocalIndex localIndex = existingIndex(index);
+        final String id = Base64.getUrlEncoder().withoutPadding().encodeToString(UUID.randomUUID().toString().getBytes(StandardCharsets.US_ASCII));
+        final PointInTime pointInTime = new PointInTime(index, localIndex.snapshot(), parseTime(keepAlive));
+        pointsInTime.put(id, pointInTime);
+        return JSON.objectNode().put("id", id);
+    }
+
+    private PointInTime pointInTime(String id, String keepAlive) {
+        final PointInTime pointInTime = pointsInTime.get(id);
+        if (pointInTime == null || pointInTime.expired()) {
+            pointsInTime.remove(id);
+            throw new RequestFailure(404, "search_context_missing_exception", "No search context found for id [" + id + "]");
+        }
+        pointInTime.extend(keepAlive == null ? pointInTime.keepAliveNanos : parseTime(keepAlive));
+        return pointInTime;
+    }
+
+    private ObjectNode closePointInTime(JsonNode body) {
+        final PointInTime removed = pointsInTime.remove(body.path("id").asText());
+        final boolean freed = removed != null && !removed.expired();
+        return JSON.objectNode().put("succeeded", true).put("num_freed", freed ? 1 : 0);
+    }
+
+    private ObjectNode createIndex(String index, JsonNode body) {
+        final JsonNode mappings = body.path("mappings");
+        Set<String> strictProperties = null;
+        if ("strict".equals(mappings.path("dynamic").asText())) {
+            strictProperties = new HashSet<>();
+            mappings.path("properties").fieldNames().forEachRemaining(strictProperties::add);
+        }
+        if (indices.putIfAbsent(index, new LocalIndex(index, strictProperties)) != null) {
+            throw new RequestFailure(400, "resource_already_exists_exception", "index [" + index + "] already exists");
+        }
+        return JSON.objectNode().put("acknowledged", true).put("shards_acknowledged", true).put("index", index);
+    }
+
+    private ObjectNode deleteIndex(String index) {
+        if (indices.remove(index) == null) {
+            throw indexNotFound(index);
+        }
+        return JSON.objectNode().put("acknowledged", true);
+    }
+
+    private LocalIndex existingIndex(String index) {
+        final LocalIndex localIndex = indices.get(index);
+        if (localIndex == null) {
+            throw indexNotFound(index);
+        }
+        return localIndex;
+    }
+
+    // writes create the index, like with the default settings of elasticsearch
+    private LocalIndex indexOrCreate(String index) {
+        if (index == null) {
+            throw new RequestFailure(400, "action_request_validation_exception", "Validation Failed: 1: index is missing;");
+        }
+        return indices.computeIfAbsent(index, name -> new LocalIndex(name, null));
+    }
+
+    private static RequestFailure indexNotFound(String index) {
+        return new RequestFailure(404, "index_not_found_exception", "no such index [" + index + "]");
+    }
+
+    private static RequestFailure unknownEndpoint(Request request) {
+        return new RequestFailure(400, "illegal_argument_exception", "no handler found for uri [/" + String.join("/", request.path)
+                + "] and method [" + request.method + "], not supported by the local stand-in");
+    }
+
+    private void count(String endpoint) {
+        requestCounts.computeIfAbsent(endpoint, e -> new LongAdder()).increment();
+    }
+
+    private static ObjectNode getResult(String index, String id, LocalIndex.Doc doc) {
+        final ObjectNode result = JSON.objectNode().put("_index", index).put("_id", id);
+        if (doc == null) {
+            return result.put("found", false);
+        }
+        result.put("_version", doc.version()).put("_seq_no", doc.seqNo()).put("_primary_term", 1).put("found", true);
+        result.set("_source", doc.source());
+        return result;
+    }
+
+    private static ObjectNode writeResponse(String index, LocalIndex.WriteResult result) {
+        final ObjectNode response = JSON.objectNode();
+        response.put("_index", index);
+        response.put("_id", result.doc().id());
+        response.put("_version", result.doc().version());
+        response.put("result", result.result());
+        response.set("_shards", shards(1));
+        response.put("_seq_no", result.doc().seqNo());
+        response.put("_primary_term", 1);
+        return response;
+    }
+
+    static ObjectNode shards(int total) {
+        return JSON.objectNode().put("total", total).put("successful", total).put("skipped", 0).put("failed", 0);
+    }
+
+    private static ObjectNode info() {
+        final ObjectNode info = JSON.objectNode();
+        info.put("name", "local");
+        info.put("cluster_name", "local");
+        info.put("cluster_uuid", "local");
+        info.putObject("version")
+                .put("number", "8.3.3")
+                .put("build_flavor", "default")
+                .put("build_type", "local")
+                .put("build_hash", "local")
+                .put("build_date", "2022-07-26T00:00:00.000Z")
+                .put("build_snapshot", false)
+                .put("lucene_version", "9.2.0")
+                .put("minimum_wire_compatibility_version", "7.17.0")
+                .put("minimum_index_compatibility_version", "7.0.0");
+        info.put("tagline", "You Know, for Search");
+        return info;
+    }
+
+    private ObjectNode health() {
+        final int shards = indices.size();
+        return JSON.objectNode()
+                .put("cluster_name", "local")
+                .put("status", "green")
+                .put("timed_out", false)
+                .put("number_of_nodes", 1)
+                .put("number_of_data_nodes", 1)
+                .put("active_primary_shards", shards)
+                .put("active_shards", shards)
+                .put("relocating_shards", 0)
+                .put("initializing_shards", 0)
+                .put("unassigned_shards", 0)
+                .put("delayed_unassigned_shards", 0)
+                .put("number_of_pending_tasks", 0)
+                .put("number_of_in_flight_fetch", 0)
+                .put("task_max_waiting_in_queue_millis", 0)
+                .put("active_shards_percent_as_number", 100.0);
+    }
+
+    private static Response ok(ObjectNode body) {
+        return new Response(200, body);
+    }
+
+    private static Response error(RequestFailure failure) {
+        final ObjectNode body = JSON.objectNode();
+        final ObjectNode error = body.putObject("error");
+        error.putArray("root_cause").addObject().put("type", failure.type).put("reason", failure.getMessage());
+        error.put("type", failure.type);
+        error.put("reason", failure.getMessage());
+        body.put("status", failure.status);
+        return new Response(failure.status, body);
+    }
+
+    static long parseTime(String value) {
+        final Matcher matcher = TIME_VALUE.matcher(value);
+        if (!matcher.matches()) {
+            throw new RequestFailure(400, "illegal_argument_exception", "failed to parse time value [" + value + "]");
+        }
+        final long amount = Long.parseLong(matcher.group(1));
+        final TimeUnit unit = switch (matcher.group(2)) {
+            case "nanos" -> TimeUnit.NANOSECONDS;
+            case "micros" -> TimeUnit.MICROSECONDS;
+            case "ms" -> TimeUnit.MILLISECONDS;
+            case "s" -> TimeUnit.SECONDS;
+            case "m" -> TimeUnit.MINUTES;
+            case "h" -> TimeUnit.HOURS;
+            default -> TimeUnit.DAYS;
+        };
+        return unit.toNanos(amount);
+    }
+
+    /**
+     * Answered with an elasticsearch error response, or as the failure of a bulk or multi search item
+     */
+    static final class RequestFailure extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private final int status;
+        private final String type;
+
+        RequestFailure(int status, String type, String reason) {
+            super(reason);
+            this.status = status;
+            this.type = type;
+        }
+    }
+
+    private record Response(int status, ObjectNode body) {
+    }
+
+    private static final class PointInTime {
+        private final String index;
+        private final List<LocalIndex.Doc> docs;
+        private final long keepAliveNanos;
+        private volatile long expiresAt;
+
+        private PointInTime(String index, List<LocalIndex.Doc> docs, long keepAliveNanos) {
+            this.index = index;
+            this.docs = docs;
+            this.keepAliveNanos = keepAliveNanos;
+            extend(keepAliveNanos);
+        }
+
+        private void extend(long keepAliveNanos) {
+            this.expiresAt = System.nanoTime() + keepAliveNanos;
+        }
+
+        private boolean expired() {
+            return System.nanoTime() - expiresAt > 0;
+        }
+    }
+
+    private static final class Request {
+        private final String method;
+        private final List<String> path;
+        private final Map<String, String> params;
+        private final byte[] body;
+
+        private Request(String method, List<String> path, Map<String, String> params, byte[] body) {
+            this.method = method;
+            this.path = path;
+            this.params = params;
+            this.body = body;
+        }
+
+        static Request read(HttpExchange exchange) throws IOException {
+            final String encoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+            final byte[] body;
+            try (InputStream in = "gzip".equalsIgnoreCase(encoding) ? new GZIPInputStream(exchange.getRequestBody()) : exchange.getRequestBody()) {
+                body = in.readAllBytes();
+            }
+            final List<String> path = new ArrayList<>();
+            for (String part : exchange.getRequestURI().getRawPath().split("/")) {
+                if (!part.isEmpty()) {
+                    path.add(URLDecoder.decode(part, StandardCharsets.UTF_8));
+                }
+            }
+            final Map<String, String> params = new HashMap<>();
+            final String query = exchange.getRequestURI().getRawQuery();
+            if (query != null) {
+                for (String param : query.split("&")) {
+                    final String[] pair = param.split("=", 2);
+                    params.put(URLDecoder.decode(pair[0], StandardCharsets.UTF_8),
+                            pair.length == 2 ? URLDecoder.decode(pair[1], StandardCharsets.UTF_8) : "");
+                }
+            }
+            return new Request(exchange.getRequestMethod(), path, params, body);
+        }
+
+        /**
+         * Names requests like the endpoints of the java client
+         */
+        String endpoint() {
+            if (path.isEmpty()) {
+                return "info";
+            }
+            final String last = path.size() > 1 && !path.get(1).startsWith("_") ? path.get(0) : path.get(Math.min(path.size(), 2) - 1);
+            return switch (last) {
+                case "_bulk" -> "bulk";
+                case "_search" -> "search";
+                case "_msearch" -> "msearch";
+                case "_mget" -> "mget";
+                case "_count" -> "count";
+                case "_refresh" -> "refresh";
+                case "_update" -> "update";
+                case "_create" -> "create";
+                case "_pit" -> method.equals("DELETE") ? "close_point_in_time" : "open_point_in_time";
+                case "_cluster" -> "health";
+                case "_doc" -> switch (method) {
+                    case "GET", "HEAD" -> "get";
+                    case "DELETE" -> "delete";
+                    default -> "index";
+                };
+                default -> switch (method) {
+                    case "PUT" -> "create_index";
+                    case "DELETE" -> "delete_index";
+                    default -> "exists_index";
+                };
+            };
+        }
+
+        boolean typedKeys() {
+            return Boolean.parseBoolean(params.getOrDefault("typed_keys", "false"));
+        }
+
+        /**
+         * @return the body, an empty object if there is none
+         */
+        JsonNode json() throws IOException {
+            if (body.length == 0) {
+                return JSON.objectNode();
+            }
+            return READER.readTree(body);
+        }
+
+        List<JsonNode> ndjson() throws IOException {
+            final List<JsonNode> lines = new ArrayList<>();
+            try (MappingIterator<JsonNode> values = READER.readerFor(JsonNode.class).readValues(body)) {
+                while (values.hasNextValue()) {
+                    lines.add(values.nextValue());
+                }
+            }
+            return lines;
+        }
+    }
+
+    public static final class Builder {
+        private Duration latency = Duration.ZERO;
+        private Duration latencyJitter = Duration.ZERO;
+        private double failureRate;
+        private int failureStatus = 503;
+        private double bulkItemRejectionRate;
+        private int threads = Math.max(4, Runtime.getRuntime().availableProcessors());
+        private Long seed;
+
+        private Builder() {
+        }
+
+        /**
+         * Every response is delayed by this, without occupying a request thread
+         */
+        public Builder latency(Duration latency) {
+            return latency(latency, Duration.ZERO);
+        }
+
+        /**
+         * @param jitter a random delay of up to this much is added to the latency of every response
+         */
+        public Builder latency(Duration latency, Duration jitter) {
+            this.latency = latency;
+            this.latencyJitter = jitter;
+            return this;
+        }
+
+        /**
+         * Fraction of requests failing with the given status, before they are handled, e.g. 503 or 429
+         */
+        public Builder failureRate(double rate, int status) {
+            if (rate < 0 || rate > 1 || status < 400) {
+                throw new IllegalArgumentException("rate must be between 0 and 1 and status an error status");
+            }
+            this.failureRate = rate;
+            this.failureStatus = status;
+            return this;
+        }
+
+        /**
+         * Fraction of bulk items rejected with 429, as a node with a full write queue does
+         */
+        public Builder bulkItemRejectionRate(double rate) {
+            if (rate < 0 || rate > 1) {
+                throw new IllegalArgumentException("rate must be between 0 and 1");
+            }
+            this.bulkItemRejectionRate = rate;
+            return this;
+        }
+
+        /**
+         * Number of threads handling requests, defaults to the number of processors, at least 4
+         */
+        public Builder threads(int threads) {
+            this.threads = threads;
+            return this;
+        }
+
+        /**
+         * Makes injected latencies and failures repeatable
+         */
+        public Builder seed(long seed) {
+            this.seed = seed;
+            return this;
+        }
+
+        public LocalElasticsearch start() throws IOException {
+            return new LocalElasticsearch(this);
+        }
+    }
+}
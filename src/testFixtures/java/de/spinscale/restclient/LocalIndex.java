@@ -0,0 +1,532 @@
+package de.spinscale.restclient;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * An index of {@link LocalElasticsearch}, a map from id to document. Every write replaces the document,
+ * so a search or a point in time works on the documents it saw when it started.
+ */
+final class LocalIndex {
+
+    private static final JsonNodeFactory JSON = JsonNodeFactory.instance;
+    private static final Pattern SCRIPT_STATEMENT = Pattern.compile(
+            "ctx\\._source\\.(\\w+)\\s*(\\+=|-=|=)\\s*(?:params\\.(\\w+)|(-?\\d+(?:\\.\\d+)?)|'([^']*)')");
+
+    private final String name;
+    private final ConcurrentHashMap<String, Doc> docs = new ConcurrentHashMap<>();
+    private final AtomicLong seqNo = new AtomicLong();
+    // null unless created with dynamic mapping set to strict
+    private final Set<String> strictProperties;
+
+    LocalIndex(String name, Set<String> strictProperties) {
+        this.name = name;
+        this.strictProperties = strictProperties;
+    }
+
+    String name() {
+        return name;
+    }
+
+    Doc get(String id) {
+        return docs.get(id);
+    }
+
+    int size() {
+        return docs.size();
+    }
+
+    /**
+     * @return the current documents, in the order they have been written
+     */
+    List<Doc> snapshot() {
+        final List<Doc> snapshot = new ArrayList<>(docs.values());
+        snapshot.sort(Comparator.comparingLong(Doc::seqNo));
+        return snapshot;
+    }
+
+    /**
+     * @param id null to generate one
+     * @param create fail if the document exists already
+     */
+    WriteResult index(String id, ObjectNode source, boolean create) {
+        checkMapping(source);
+        final String docId = id != null ? id : generateId();
+        final WriteResult[] result = new WriteResult[1];
+        docs.compute(docId, (key, previous) -> {
+            if (previous != null && create) {
+                throw new LocalElasticsearch.RequestFailure(409, "version_conflict_engine_exception",
+                        "[" + key + "]: version conflict, document already exists (current version [" + previous.version() + "])");
+            }
+            final Doc doc = new Doc(key, source, previous == null ? 1 : previous.version() + 1, seqNo.getAndIncrement());
+            result[0] = new WriteResult(doc, previous == null ? "created" : "updated", previous == null ? 201 : 200);
+            return doc;
+        });
+        return result[0];
+    }
+
+    /**
+     * Applies a partial document, a script or an upsert. Scripts may only set, add to or subtract from
+     * top level fields, e.g. {@code ctx._source.stock_available += params.stock_delta}.
+     */
+    WriteResult update(String id, JsonNode body) {
+        final WriteResult[] result = new WriteResult[1];
+        docs.compute(id, (key, previous) -> {
+            final ObjectNode source;
+            if (previous == null) {
+                if (body.has("upsert")) {
+                    source = (ObjectNode) body.get("upsert").deepCopy();
+                } else if (body.path("doc_as_upsert").asBoolean() && body.has("doc")) {
+                    source = (ObjectNode) body.get("doc").deepCopy();
+                } else {
+                    throw new LocalElasticsearch.RequestFailure(404, "document_missing_exception", "[" + key + "]: document missing");
+                }
+            } else {
+                source = previous.source().deepCopy();
+                if (body.has("script")) {
+                    runScript(body.get("script"), source);
+                } else {
+                    merge(source, body.path("doc"));
+                }
+                if (source.equals(previous.source())) {
+                    result[0] = new WriteResult(previous, "noop", 200);
+                    return previous;
+                }
+            }
+            checkMapping(source);
+            final Doc doc = new Doc(key, source, previous == null ? 1 : previous.version() + 1, seqNo.getAndIncrement());
+            result[0] = new WriteResult(doc, previous == null ? "created" : "updated", previous == null ? 201 : 200);
+            return doc;
+        });
+        return result[0];
+    }
+
+    WriteResult delete(String id) {
+        final Doc previous = docs.remove(id);
+        if (previous == null) {
+            return new WriteResult(new Doc(id, JSON.objectNode(), 1, seqNo.getAndIncrement()), "not_found", 404);
+        }
+        return new WriteResult(new Doc(id, previous.source(), previous.version() + 1, seqNo.getAndIncrement()), "deleted", 200);
+    }
+
+    private void checkMapping(ObjectNode source) {
+        if (strictProperties == null) {
+            return;
+        }
+        final Iterator<String> fields = source.fieldNames();
+        while (fields.hasNext()) {
+            final String field = fields.next();
+            if (!strictProperties.contains(field)) {
+                throw new LocalElasticsearch.RequestFailure(400, "strict_dynamic_mapping_exception",
+                        "[1:1] mapping set to strict, dynamic introduction of [" + field + "] within [_doc] is not allowed");
+            }
+        }
+    }
+
+    private static void merge(ObjectNode target, JsonNode changes) {
+        final Iterator<Map.Entry<String, JsonNode>> fields = changes.fields();
+        while (fields.hasNext()) {
+            final Map.Entry<String, JsonNode> field = fields.next();
+            final JsonNode existing = target.get(field.getKey());
+            if (existing instanceof ObjectNode object && field.getValue().isObject()) {
+                merge(object, field.getValue());
+            } else {
+                target.set(field.getKey(), field.getValue().deepCopy());
+            }
+        }
+    }
+
+    private static void runScript(JsonNode script, ObjectNode source) {
+        if (script.has("id")) {
+            throw new LocalElasticsearch.RequestFailure(400, "illegal_argument_exception", "stored scripts are not supported by the local stand-in");
+        }
+        final String code = script.isTextual() ? script.asText() : script.path("source").asText();
+        final JsonNode params = script.path("params");
+        for (String statement : code.split(";")) {
+            if (statement.isBlank()) {
+                continue;
+            }
+            final Matcher matcher = SCRIPT_STATEMENT.matcher(statement.strip());
+            if (!matcher.matches()) {
+                throw new LocalElasticsearch.RequestFailure(400, "illegal_argument_exception",
+                        "script statement [" + statement.strip() + "] is not supported by the local stand-in");
+            }
+            final String field = matcher.group(1);
+            final JsonNode value;
+            if (matcher.group(3) != null) {
+                value = params.path(matcher.group(3));
+                if (value.isMissingNode()) {
+                    throw new LocalElasticsearch.RequestFailure(400, "illegal_argument_exception", "missing script parameter [" + matcher.group(3) + "]");
+                }
+            } else if (matcher.group(4) != null) {
+                value = JSON.numberNode(Double.parseDouble(matcher.group(4)));
+            } else {
+                value = JSON.textNode(matcher.group(5));
+            }
+            switch (matcher.group(2)) {
+                case "=" -> source.set(field, value);
+                case "+=" -> source.set(field, add(source.path(field), value, 1));
+                default -> source.set(field, add(source.path(field), value, -1));
+            }
+        }
+    }
+
+    private static JsonNode add(JsonNode current, JsonNode value, int sign) {
+        if (current.isIntegralNumber() && value.isIntegralNumber()) {
+            return JSON.numberNode(current.asLong() + sign * value.asLong());
+        }
+        if (current.isTextual() && sign > 0) {
+            return JSON.textNode(current.asText() + value.asText());
+        }
+        return JSON.numberNode(current.asDouble() + sign * value.asDouble());
+    }
+
+    /**
+     * Same length as the ids elasticsearch generates
+     */
+    private static String generateId() {
+        final UUID uuid = UUID.randomUUID();
+        final byte[] bytes = new byte[15];
+        final long most = uuid.getMostSignificantBits();
+        final long least = uuid.getLeastSignificantBits();
+        for (int i = 0; i < 8; i++) {
+            bytes[i] = (byte) (most >>> (8 * i));
+        }
+        for (int i = 0; i < 7; i++) {
+            bytes[8 + i] = (byte) (least >>> (8 * i));
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+    /**
+     * Runs a search on the given documents, e.g. those of a point in time
+     *
+     * @param implicitTiebreaker sort by document order after the given sort, like elasticsearch does in a point in time
+     */
+    static ObjectNode search(String index, List<Doc> docs, JsonNode body, boolean implicitTiebreaker, boolean typedKeys) {
+        final long start = System.nanoTime();
+        final LocalQuery query = LocalQuery.parse(body.get("query"));
+        final List<Doc> candidates = slice(docs, body.get("slice"));
+        final Stats stats = new Stats(candidates);
+        final List<Hit> matches = new ArrayList<>();
+        for (Doc doc : candidates) {
+            final double score = query.score(doc, stats);
+            if (!Double.isNaN(score)) {
+                matches.add(new Hit(doc, score));
+            }
+        }
+
+        final List<SortKey> sort = SortKey.parse(body.get("sort"), implicitTiebreaker);
+        final boolean returnSortValues = body.has("sort") || implicitTiebreaker;
+        final boolean scored = sort.isEmpty() || sort.stream().anyMatch(key -> key.field.equals("_score"));
+        final List<SortKey> order = sort.isEmpty() ? List.of(new SortKey("_score", false), new SortKey("_doc", true)) : sort;
+        matches.sort((a, b) -> compare(order, a.sortValues(order), b.sortValues(order)));
+
+        List<Hit> hits = matches;
+        final JsonNode searchAfter = body.get("search_after");
+        if (searchAfter != null && searchAfter.isArray() && !searchAfter.isEmpty()) {
+            final List<JsonNode> after = new ArrayList<>();
+            searchAfter.forEach(after::add);
+            hits = hits.stream().filter(hit -> compare(order, hit.sortValues(order), after) > 0).toList();
+        }
+        final int from = searchAfter != null ? 0 : body.path("from").asInt(0);
+        final int size = body.path("size").asInt(10);
+        hits = hits.subList(Math.min(from, hits.size()), Math.min(from + size, hits.size()));
+
+        final ObjectNode response = JSON.objectNode();
+        response.put("took", (System.nanoTime() - start) / 1_000_000);
+        response.put("timed_out", false);
+        response.set("_shards", LocalElasticsearch.shards(1));
+        final ObjectNode hitsNode = response.putObject("hits");
+        if (body.path("track_total_hits").asBoolean(true)) {
+            hitsNode.putObject("total").put("value", matches.size()).put("relation", "eq");
+        }
+        if (scored && !matches.isEmpty()) {
+            hitsNode.put("max_score", matches.stream().mapToDouble(Hit::score).max().orElse(0));
+        } else {
+            hitsNode.putNull("max_score");
+        }
+        final ArrayNode hitArray = hitsNode.putArray("hits");
+        final JsonNode sourceFilter = body.get("_source");
+        for (Hit hit : hits) {
+            final ObjectNode hitNode = hitArray.addObject();
+            hitNode.put("_index", index);
+            hitNode.put("_id", hit.doc.id());
+            if (scored) {
+                hitNode.put("_score", hit.score);
+            } else {
+                hitNode.putNull("_score");
+            }
+            final ObjectNode source = filterSource(hit.doc.source(), sourceFilter);
+            if (source != null) {
+                hitNode.set("_source", source);
+            }
+            if (returnSortValues) {
+                final ArrayNode sortValues = hitNode.putArray("sort");
+                hit.sortValues(order).forEach(sortValues::add);
+            }
+        }
+
+        final JsonNode aggregations = body.has("aggregations") ? body.get("aggregations") : body.get("aggs");
+        if (aggregations != null) {
+            response.set("aggregations", LocalAggregations.aggregate(aggregations, matches.stream().map(Hit::doc).toList(), typedKeys));
+        }
+        return response;
+    }
+
+    static long count(List<Doc> docs, JsonNode query) {
+        final LocalQuery parsed = LocalQuery.parse(query);
+        final Stats stats = new Stats(docs);
+        return docs.stream().filter(doc -> !Double.isNaN(parsed.score(doc, stats))).count();
+    }
+
+    private static List<Doc> slice(List<Doc> docs, JsonNode slice) {
+        if (slice == null || slice.path("max").asInt(1) <= 1) {
+            return docs;
+        }
+        final int id = slice.path("id").asInt();
+        final int max = slice.path("max").asInt();
+        return docs.stream().filter(doc -> Math.floorMod(doc.id().hashCode(), max) == id).toList();
+    }
+
+    private static int compare(List<SortKey> order, List<JsonNode> a, List<JsonNode> b) {
+        for (int i = 0; i < order.size() && i < a.size() && i < b.size(); i++) {
+            final int comparison = order.get(i).compare(a.get(i), b.get(i));
+            if (comparison != 0) {
+                return comparison;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return the filtered source, null if no source is returned at all
+     */
+    static ObjectNode filterSource(ObjectNode source, JsonNode filter) {
+        if (filter == null || filter.isNull()) {
+            return source;
+        }
+        if (filter.isBoolean()) {
+            return filter.asBoolean() ? source : null;
+        }
+        final List<String> includes = new ArrayList<>();
+        final List<String> excludes = new ArrayList<>();
+        if (filter.isArray() || filter.isTextual()) {
+            addPatterns(filter, includes);
+        } else {
+            addPatterns(filter.path("includes"), includes);
+            addPatterns(filter.path("excludes"), excludes);
+        }
+        final ObjectNode filtered = JSON.objectNode();
+        final Iterator<Map.Entry<String, JsonNode>> fields = source.fields();
+        while (fields.hasNext()) {
+            final Map.Entry<String, JsonNode> field = fields.next();
+            final boolean included = includes.isEmpty() || includes.stream().anyMatch(pattern -> matches(pattern, field.getKey()));
+            final boolean excluded = excludes.stream().anyMatch(pattern -> matches(pattern, field.getKey()));
+            if (included && !excluded) {
+                filtered.set(field.getKey(), field.getValue());
+            }
+        }
+        return filtered;
+    }
+
+    private static void addPatterns(JsonNode patterns, List<String> target) {
+        if (patterns.isTextual()) {
+            target.add(patterns.asText());
+        } else {
+            patterns.forEach(pattern -> target.add(pattern.asText()));
+        }
+    }
+
+    private static boolean matches(String pattern, String field) {
+        if (!pattern.contains("*")) {
+            return pattern.equals(field);
+        }
+        return field.matches(Pattern.quote(pattern).replace("*", "\\E.*\\Q"));
+    }
+
+    /**
+     * A stored document. The source is never modified, writes replace the whole document.
+     *
+     * @param seqNo order of the writes, used as {@code _doc} and {@code _shard_doc} for sorting
+     */
+    record Doc(String id, ObjectNode source, long version, long seqNo, Map<String, List<String>> tokens) {
+
+        Doc(String id, ObjectNode source, long version, long seqNo) {
+            this(id, source, version, seqNo, analyze(source));
+        }
+
+        /**
+         * @param field dotted path, values of arrays are returned one by one
+         */
+        List<JsonNode> values(String field) {
+            JsonNode node = source;
+            for (String part : field.split("\\.")) {
+                node = node.path(part);
+            }
+            if (node.isMissingNode() || node.isNull()) {
+                return List.of();
+            }
+            if (node.isArray()) {
+                final List<JsonNode> values = new ArrayList<>();
+                node.forEach(values::add);
+                return values;
+            }
+            return List.of(node);
+        }
+
+        private static Map<String, List<String>> analyze(ObjectNode source) {
+            final Map<String, List<String>> tokens = new HashMap<>();
+            analyze("", source, tokens);
+            return tokens;
+        }
+
+        private static void analyze(String prefix, JsonNode node, Map<String, List<String>> tokens) {
+            final Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
+            while (fields.hasNext()) {
+                final Map.Entry<String, JsonNode> field = fields.next();
+                final String path = prefix + field.getKey();
+                if (field.getValue().isObject()) {
+                    analyze(path + ".", field.getValue(), tokens);
+                } else if (field.getValue().isTextual()) {
+                    tokens.computeIfAbsent(path, k -> new ArrayList<>()).addAll(LocalQuery.analyze(field.getValue().asText()));
+                } else if (field.getValue().isArray()) {
+                    for (JsonNode value : field.getValue()) {
+                        if (value.isTextual()) {
+                            tokens.computeIfAbsent(path, k -> new ArrayList<>()).addAll(LocalQuery.analyze(value.asText()));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @param status http status of the write, also for bulk items
+     * @param result created, updated, deleted, noop or not_found
+     */
+    record WriteResult(Doc doc, String result, int status) {
+    }
+
+    /**
+     * Term statistics of the searched documents, computed as the query asks for them
+     */
+    static final class Stats {
+        private final List<Doc> docs;
+        private final Map<String, Long> docCounts = new HashMap<>();
+        private final Map<String, Double> averageLengths = new HashMap<>();
+        private final Map<String, Long> docFrequencies = new HashMap<>();
+
+        Stats(List<Doc> docs) {
+            this.docs = docs;
+        }
+
+        long docCount(String field) {
+            return docCounts.computeIfAbsent(field, f -> docs.stream().filter(doc -> doc.tokens().containsKey(f)).count());
+        }
+
+        double averageLength(String field) {
+            return averageLengths.computeIfAbsent(field, f -> docs.stream()
+                    .filter(doc -> doc.tokens().containsKey(f))
+                    .mapToInt(doc -> doc.tokens().get(f).size())
+                    .average()
+                    .orElse(1));
+        }
+
+        long docFrequency(String field, String term) {
+            return docFrequencies.computeIfAbsent(field + '\u0000' + term, key -> docs.stream()
+                    .filter(doc -> doc.tokens().getOrDefault(field, List.of()).contains(term))
+                    .count());
+        }
+    }
+
+    private record Hit(Doc doc, double score) {
+
+        List<JsonNode> sortValues(List<SortKey> order) {
+            final List<JsonNode> values = new ArrayList<>(order.size());
+            for (SortKey key : order) {
+                values.add(switch (key.field) {
+                    case "_score" -> JSON.numberNode(score);
+                    case "_doc", "_shard_doc" -> JSON.numberNode(doc.seqNo());
+                    default -> {
+                        final List<JsonNode> fieldValues = doc.values(key.field);
+                        yield fieldValues.isEmpty() ? JSON.nullNode() : key.ascending
+                                ? Collections.min(fieldValues, SortKey::compareValues)
+                                : Collections.max(fieldValues, SortKey::compareValues);
+                    }
+                });
+            }
+            return values;
+        }
+    }
+
+    private record SortKey(String field, boolean ascending) {
+
+        static List<SortKey> parse(JsonNode sort, boolean implicitTiebreaker) {
+            final List<SortKey> keys = new ArrayList<>();
+            if (sort != null) {
+                final List<JsonNode> entries = new ArrayList<>();
+                if (sort.isArray()) {
+                    sort.forEach(entries::add);
+                } else {
+                    entries.add(sort);
+                }
+                for (JsonNode entry : entries) {
+                    if (entry.isTextual()) {
+                        final String field = entry.asText();
+                        keys.add(new SortKey(field, !field.equals("_score")));
+                    } else {
+                        final Map.Entry<String, JsonNode> field = entry.fields().next();
+                        final String order = field.getValue().isTextual() ? field.getValue().asText() : field.getValue().path("order").asText("");
+                        final boolean ascending = order.isEmpty() ? !field.getKey().equals("_score") : order.equals("asc");
+                        keys.add(new SortKey(field.getKey(), ascending));
+                    }
+                }
+            }
+            if (implicitTiebreaker && keys.stream().noneMatch(key -> key.field.equals("_shard_doc") || key.field.equals("_doc"))) {
+                if (keys.isEmpty()) {
+                    keys.add(new SortKey("_score", false));
+                }
+                keys.add(new SortKey("_shard_doc", true));
+            }
+            return keys;
+        }
+
+        /**
+         * Missing values sort last in both directions
+         */
+        int compare(JsonNode a, JsonNode b) {
+            if (a.isNull() || b.isNull()) {
+                return Boolean.compare(a.isNull(), b.isNull());
+            }
+            final int comparison = compareValues(a, b);
+            return ascending ? comparison : -comparison;
+        }
+
+        static int compareValues(JsonNode a, JsonNode b) {
+            final Double x = LocalQuery.toDouble(a);
+            final Double y = LocalQuery.toDouble(b);
+            if (x != null && y != null) {
+                return Double.compare(x, y);
+            }
+            return a.asText().compareTo(b.asText());
+        }
+    }
+}
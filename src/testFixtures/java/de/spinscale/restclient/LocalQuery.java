@@ -0,0 +1,414 @@
+package de.spinscale.restclient;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * The queries {@link LocalElasticsearch} understands. Text is analyzed about like the standard analyzer does,
+ * and scored with BM25, so hits come back in the same order as from elasticsearch for the data used in the tests.
+ */
+abstract class LocalQuery {
+
+    static final double NO_MATCH = Double.NaN;
+
+    private static final Pattern TOKEN_SEPARATOR = Pattern.compile("[^\\p{L}\\p{N}]+");
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+
+    /**
+     * @return the score of the document, {@link #NO_MATCH} if it does not match
+     */
+    abstract double score(LocalIndex.Doc doc, LocalIndex.Stats stats);
+
+    static List<String> analyze(String text) {
+        final List<String> tokens = new ArrayList<>();
+        for (String token : TOKEN_SEPARATOR.split(text.toLowerCase(Locale.ROOT))) {
+            if (!token.isEmpty()) {
+                tokens.add(token);
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * @param query the query of a search request, null matches all documents
+     * @throws LocalElasticsearch.RequestFailure for queries the stand-in does not know
+     */
+    static LocalQuery parse(JsonNode query) {
+        if (query == null || query.isNull() || query.isEmpty()) {
+            return MatchAll.INSTANCE;
+        }
+        final Map.Entry<String, JsonNode> entry = query.fields().next();
+        final JsonNode body = entry.getValue();
+        return switch (entry.getKey()) {
+            case "match_all" -> MatchAll.INSTANCE;
+            case "match_none" -> new MatchNone();
+            case "match" -> parseMatch(body);
+            case "multi_match" -> parseMultiMatch(body);
+            case "term" -> parseTerm(body);
+            case "terms" -> parseTerms(body);
+            case "ids" -> new Ids(textValues(body.path("values")));
+            case "range" -> parseRange(body);
+            case "exists" -> new Exists(body.path("field").asText());
+            case "bool" -> parseBool(body);
+            default -> throw new LocalElasticsearch.RequestFailure(400, "parsing_exception",
+                    "unknown query [" + entry.getKey() + "], not supported by the local stand-in");
+        };
+    }
+
+    private static LocalQuery parseMatch(JsonNode body) {
+        final Map.Entry<String, JsonNode> field = body.fields().next();
+        final JsonNode value = field.getValue();
+        if (value.isObject()) {
+            return new Match(List.of(field.getKey()), List.of(1.0), value.path("query").asText(), isAnd(value));
+        }
+        return new Match(List.of(field.getKey()), List.of(1.0), value.asText(), false);
+    }
+
+    private static LocalQuery parseMultiMatch(JsonNode body) {
+        final List<String> fields = new ArrayList<>();
+        final List<Double> boosts = new ArrayList<>();
+        for (JsonNode field : body.path("fields")) {
+            final String[] parts = field.asText().split("\\^", 2);
+            fields.add(parts[0]);
+            boosts.add(parts.length == 2 ? Double.parseDouble(parts[1]) : 1.0);
+        }
+        return new Match(fields, boosts, body.path("query").asText(), isAnd(body));
+    }
+
+    private static boolean isAnd(JsonNode body) {
+        return "and".equalsIgnoreCase(body.path("operator").asText("or"));
+    }
+
+    private static LocalQuery parseTerm(JsonNode body) {
+        final Map.Entry<String, JsonNode> field = body.fields().next();
+        final JsonNode value = field.getValue().isObject() ? field.getValue().path("value") : field.getValue();
+        return new Terms(keywordField(field.getKey()), List.of(value));
+    }
+
+    private static LocalQuery parseTerms(JsonNode body) {
+        final Map.Entry<String, JsonNode> field = body.fields().next();
+        final List<JsonNode> values = new ArrayList<>();
+        field.getValue().forEach(values::add);
+        return new Terms(keywordField(field.getKey()), values);
+    }
+
+    private static LocalQuery parseRange(JsonNode body) {
+        final Map.Entry<String, JsonNode> field = body.fields().next();
+        final JsonNode bounds = field.getValue();
+        return new Range(field.getKey(), bounds.get("gt"), bounds.get("gte"), bounds.get("lt"), bounds.get("lte"));
+    }
+
+    private static LocalQuery parseBool(JsonNode body) {
+        final List<LocalQuery> must = parseClauses(body.path("must"));
+        final List<LocalQuery> filter = parseClauses(body.path("filter"));
+        final List<LocalQuery> should = parseClauses(body.path("should"));
+        final List<LocalQuery> mustNot = parseClauses(body.path("must_not"));
+        final int defaultMinimumShouldMatch = must.isEmpty() && filter.isEmpty() && !should.isEmpty() ? 1 : 0;
+        return new Bool(must, filter, should, mustNot, body.path("minimum_should_match").asInt(defaultMinimumShouldMatch));
+    }
+
+    // a single clause may be given without an array
+    private static List<LocalQuery> parseClauses(JsonNode clauses) {
+        final List<LocalQuery> queries = new ArrayList<>();
+        if (clauses.isArray()) {
+            clauses.forEach(clause -> queries.add(parse(clause)));
+        } else if (clauses.isObject()) {
+            queries.add(parse(clauses));
+        }
+        return queries;
+    }
+
+    // text fields are mapped with a keyword sub field by dynamic mapping, the stand-in keeps just one value
+    private static String keywordField(String field) {
+        return field.endsWith(".keyword") ? field.substring(0, field.length() - ".keyword".length()) : field;
+    }
+
+    private static List<String> textValues(JsonNode values) {
+        final List<String> texts = new ArrayList<>();
+        values.forEach(value -> texts.add(value.asText()));
+        return texts;
+    }
+
+    /**
+     * Equality of a source value and a value of the query, numbers are compared by value
+     */
+    static boolean sameValue(JsonNode a, JsonNode b) {
+        if (a.isNumber() || b.isNumber()) {
+            final Double x = toDouble(a);
+            final Double y = toDouble(b);
+            return x != null && x.equals(y);
+        }
+        return a.asText().equals(b.asText());
+    }
+
+    /**
+     * @return the number, or null if the value is not numeric
+     */
+    static Double toDouble(JsonNode value) {
+        if (value.isNumber()) {
+            return value.asDouble();
+        }
+        try {
+            return Double.parseDouble(value.asText());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static final class MatchAll extends LocalQuery {
+        private static final MatchAll INSTANCE = new MatchAll();
+
+        @Override
+        double score(LocalIndex.Doc doc, LocalIndex.Stats stats) {
+            return 1.0;
+        }
+    }
+
+    private static final class MatchNone extends LocalQuery {
+        @Override
+        double score(LocalIndex.Doc doc, LocalIndex.Stats stats) {
+            return NO_MATCH;
+        }
+    }
+
+    /**
+     * match and multi_match of type best_fields, the best scoring field counts. Without fields all text fields are searched.
+     */
+    private static final class Match extends LocalQuery {
+        private final List<String> fields;
+        private final List<Double> boosts;
+        private final Set<String> terms;
+        private final boolean and;
+
+        private Match(List<String> fields, List<Double> boosts, String query, boolean and) {
+            this.fields = fields;
+            this.boosts = boosts;
+            this.terms = new LinkedHashSet<>(analyze(query));
+            this.and = and;
+        }
+
+        @Override
+        double score(LocalIndex.Doc doc, LocalIndex.Stats stats) {
+            double best = NO_MATCH;
+            if (fields.isEmpty()) {
+                for (String field : doc.tokens().keySet()) {
+                    best = max(best, score(doc, stats, field, 1.0));
+                }
+            } else {
+                for (int i = 0; i < fields.size(); i++) {
+                    best = max(best, score(doc, stats, fields.get(i), boosts.get(i)));
+                }
+            }
+            return best;
+        }
+
+        private double score(LocalIndex.Doc doc, LocalIndex.Stats stats, String field, double boost) {
+            final List<String> tokens = doc.tokens().get(field);
+            if (tokens == null || terms.isEmpty()) {
+                return NO_MATCH;
+            }
+            double score = 0;
+            int matched = 0;
+            for (String term : terms) {
+                final int tf = frequency(tokens, term);
+                if (tf == 0) {
+                    continue;
+                }
+                matched++;
+                final long docCount = stats.docCount(field);
+                final long df = stats.docFrequency(field, term);
+                final double idf = Math.log(1 + (docCount - df + 0.5) / (df + 0.5));
+                final double norm = K1 * (1 - B + B * tokens.size() / stats.averageLength(field));
+                score += idf * tf * (K1 + 1) / (tf + norm);
+            }
+            if (matched == 0 || (and && matched < terms.size())) {
+                return NO_MATCH;
+            }
+            return score * boost;
+        }
+
+        private static int frequency(List<String> tokens, String term) {
+            int count = 0;
+            for (String token : tokens) {
+                if (token.equals(term)) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        private static double max(double a, double b) {
+            if (Double.isNaN(a)) {
+                return b;
+            }
+            return Double.isNaN(b) ? a : Math.max(a, b);
+        }
+    }
+
+    private static final class Terms extends LocalQuery {
+        private final String field;
+        private final List<JsonNode> values;
+
+        private Terms(String field, List<JsonNode> values) {
+            this.field = field;
+            this.values = values;
+        }
+
+        @Override
+        double score(LocalIndex.Doc doc, LocalIndex.Stats stats) {
+            for (JsonNode value : doc.values(field)) {
+                for (JsonNode expected : values) {
+                    if (sameValue(value, expected)) {
+                        return 1.0;
+                    }
+                }
+            }
+            return NO_MATCH;
+        }
+    }
+
+    private static final class Ids extends LocalQuery {
+        private final List<String> ids;
+
+        private Ids(List<String> ids) {
+            this.ids = ids;
+        }
+
+        @Override
+        double score(LocalIndex.Doc doc, LocalIndex.Stats stats) {
+            return ids.contains(doc.id()) ? 1.0 : NO_MATCH;
+        }
+    }
+
+    private static final class Range extends LocalQuery {
+        private final String field;
+        private final JsonNode gt;
+        private final JsonNode gte;
+        private final JsonNode lt;
+        private final JsonNode lte;
+
+        private Range(String field, JsonNode gt, JsonNode gte, JsonNode lt, JsonNode lte) {
+            this.field = field;
+            this.gt = gt;
+            this.gte = gte;
+            this.lt = lt;
+            this.lte = lte;
+        }
+
+        @Override
+        double score(LocalIndex.Doc doc, LocalIndex.Stats stats) {
+            for (JsonNode value : doc.values(field)) {
+                if (above(value, gt, false) && above(value, gte, true) && below(value, lt, false) && below(value, lte, true)) {
+                    return 1.0;
+                }
+            }
+            return NO_MATCH;
+        }
+
+        private static boolean above(JsonNode value, JsonNode bound, boolean inclusive) {
+            if (bound == null || bound.isNull()) {
+                return true;
+            }
+            final int comparison = compare(value, bound);
+            return inclusive ? comparison >= 0 : comparison > 0;
+        }
+
+        private static boolean below(JsonNode value, JsonNode bound, boolean inclusive) {
+            if (bound == null || bound.isNull()) {
+                return true;
+            }
+            final int comparison = compare(value, bound);
+            return inclusive ? comparison <= 0 : comparison < 0;
+        }
+
+        private static int compare(JsonNode value, JsonNode bound) {
+            final Double x = toDouble(value);
+            final Double y = toDouble(bound);
+            if (x != null && y != null) {
+                return Double.compare(x, y);
+            }
+            return value.asText().compareTo(bound.asText());
+        }
+    }
+
+    private static final class Exists extends LocalQuery {
+        private final String field;
+
+        private Exists(String field) {
+            this.field = field;
+        }
+
+        @Override
+        double score(LocalIndex.Doc doc, LocalIndex.Stats stats) {
+            final Iterator<JsonNode> values = doc.values(field).iterator();
+            return values.hasNext() ? 1.0 : NO_MATCH;
+        }
+    }
+
+    /**
+     * Scores of must and should clauses add up, filter and must_not clauses do not score
+     */
+    private static final class Bool extends LocalQuery {
+        private final List<LocalQuery> must;
+        private final List<LocalQuery> filter;
+        private final List<LocalQuery> should;
+        private final List<LocalQuery> mustNot;
+        private final int minimumShouldMatch;
+
+        private Bool(List<LocalQuery> must, List<LocalQuery> filter, List<LocalQuery> should, List<LocalQuery> mustNot,
+                     int minimumShouldMatch) {
+            this.must = must;
+            this.filter = filter;
+            this.should = should;
+            this.mustNot = mustNot;
+            this.minimumShouldMatch = minimumShouldMatch;
+        }
+
+        @Override
+        double score(LocalIndex.Doc doc, LocalIndex.Stats stats) {
+            double score = 0;
+            for (LocalQuery query : must) {
+                final double clause = query.score(doc, stats);
+                if (Double.isNaN(clause)) {
+                    return NO_MATCH;
+                }
+                score += clause;
+            }
+            for (LocalQuery query : filter) {
+                if (Double.isNaN(query.score(doc, stats))) {
+                    return NO_MATCH;
+                }
+            }
+            for (LocalQuery query : mustNot) {
+                if (!Double.isNaN(query.score(doc, stats))) {
+                    return NO_MATCH;
+                }
+            }
+            int matchedShould = 0;
+            for (LocalQuery query : should) {
+                final double clause = query.score(doc, stats);
+                if (!Double.isNaN(clause)) {
+                    matchedShould++;
+                    score += clause;
+                }
+            }
+            if (matchedShould < minimumShouldMatch) {
+                return NO_MATCH;
+            }
+            if (must.isEmpty() && matchedShould == 0) {
+                // a bool query with filters only scores 0, without any clauses it matches all documents
+                return filter.isEmpty() ? 1.0 : 0.0;
+            }
+            return score;
+        }
+    }
+}